@@ -117,14 +117,17 @@ class AlertSchedulerHandler():
     """
     Updates the persisted alert definitions JSON.
     :param heartbeat:
-    :return:
+    :return: False if changes could not be applied to the stored definitions
+      and the full set of definitions must be requested, True otherwise
     """
     if 'alertDefinitionCommands' not in heartbeat:
       logger.warning("There are no alert definition commands in the heartbeat; unable to update definitions")
-      return
+      return True
 
     # prune out things we don't want to store
     alert_definitions = []
+    stored_commands = None
+    definitions_complete = True
     for command in heartbeat['alertDefinitionCommands']:
       command_copy = command.copy()
 
@@ -132,6 +135,22 @@ class AlertSchedulerHandler():
       if 'configurations' in command_copy:
         del command_copy['configurations']
 
+      # a delta only carries the changes to the definitions already stored
+      if command_copy.get('baseHash') is not None:
+        if stored_commands is None:
+          stored_commands = self.__read_commands()
+
+        cluster_name = command_copy.get('clusterName')
+        command_copy = self.__merge_delta(stored_commands, command_copy)
+        if command_copy is None:
+          # the stored definitions are stale, drop them until the full set arrives
+          stored_commands.pop(cluster_name, None)
+          self._cluster_hashes.pop(cluster_name, None)
+          definitions_complete = False
+          continue
+
+        stored_commands[cluster_name] = command_copy
+
       alert_definitions.append(command_copy)
 
     # write out the new definitions
@@ -139,8 +158,8 @@ class AlertSchedulerHandler():
       json.dump(alert_definitions, f, indent=2)
 
     # determine how to reschedule the jobs
-    reschedule_all = False
-    if "clusterName" in command_copy and command_copy["clusterName"] not in self._cluster_hashes:
+    reschedule_all = not definitions_complete
+    if command_copy is not None and "clusterName" in command_copy and command_copy["clusterName"] not in self._cluster_hashes:
       reschedule_all = True
 
     if reschedule_all is True:
@@ -150,6 +169,71 @@ class AlertSchedulerHandler():
       # reschedule only the jobs that have changed
       self.reschedule()
 
+    return definitions_complete
+
+
+  def __read_commands(self):
+    """
+    Reads the stored alert definition commands, keyed by cluster name.
+    :return: the stored commands or an empty dictionary
+    """
+    alerts_definitions_path = os.path.join(self.cachedir, self.FILENAME)
+    try:
+      with open(alerts_definitions_path) as fp:
+        all_commands = json.load(fp)
+    except:
+      logger.warning('[AlertScheduler] {0} not found or invalid.'.format(alerts_definitions_path))
+      return {}
+
+    commands = {}
+    for command_json in all_commands:
+      commands[command_json.get('clusterName')] = command_json
+
+    return commands
+
+
+  def __merge_delta(self, stored_commands, delta):
+    """
+    Applies the added, changed and removed definitions of a delta command to the
+    stored command of its cluster.
+    :param stored_commands: the stored commands keyed by cluster name
+    :param delta: the delta command
+    :return: the command containing all of the definitions of the cluster or
+      None if the delta is not relative to the stored definitions
+    """
+    cluster_name = delta.get('clusterName')
+    stored_command = stored_commands.get(cluster_name)
+
+    if stored_command is None:
+      logger.warning("[AlertScheduler] Received alert definition changes for cluster {0} without stored definitions".format(
+        cluster_name))
+      return None
+
+    if stored_command.get('hash') != delta['baseHash']:
+      logger.warning("[AlertScheduler] Alert definition changes for cluster {0} are relative to hash {1}, found {2}".format(
+        cluster_name, delta['baseHash'], stored_command.get('hash')))
+      return None
+
+    definitions = stored_command.get('alertDefinitions', [])
+
+    changed_definitions = delta.get('alertDefinitions') or []
+    replaced_names = set(delta.get('removedDefinitions') or [])
+    for definition in changed_definitions:
+      replaced_names.add(definition.get('name'))
+
+    merged = delta.copy()
+    del merged['baseHash']
+    if 'removedDefinitions' in merged:
+      del merged['removedDefinitions']
+
+    merged['alertDefinitions'] = [definition for definition in definitions
+      if definition.get('name') not in replaced_names] + changed_definitions
+
+    logger.info("[AlertScheduler] Applied {0} changed and {1} removed alert definitions for cluster {2}".format(
+      str(len(changed_definitions)), str(len(delta.get('removedDefinitions') or [])), cluster_name))
+
+    return merged
+
 
   def __make_function(self, alert_def):
     return lambda: alert_def.collect()
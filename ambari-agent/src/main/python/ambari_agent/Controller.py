@@ -411,9 +411,10 @@ class Controller(threading.Thread):
                           recovery_command['roleCommand'], recovery_command['role'])
               self.addToQueue([recovery_command])
 
+        alert_definitions_complete = True
         if 'alertDefinitionCommands' in response_keys:
           logger.log(logging_level, "Updating alert definitions")
-          self.alert_scheduler_handler.update_definitions(response)
+          alert_definitions_complete = self.alert_scheduler_handler.update_definitions(response)
 
         if 'alertExecutionCommands' in response_keys:
           logger.log(logging_level, "Executing alert commands")
@@ -433,6 +434,13 @@ class Controller(threading.Thread):
           logger.log(logging_level, "Updating recovery config")
           self.recovery_manager.update_configuration_from_registration(response)
 
+        if not alert_definitions_complete:
+          # the server only sends the full set of alert definitions on registration
+          logger.warn("Alert definitions are out of sync with the server - repeat agent registration")
+          self.isRegistered = False
+          self.repeatRegistration = True
+          return
+
         retry = False
         certVerifFailed = False
         self.DEBUG_SUCCESSFULL_HEARTBEATS += 1
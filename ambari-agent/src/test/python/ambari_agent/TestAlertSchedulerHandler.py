@@ -19,7 +19,10 @@ limitations under the License.
 '''
 
 import copy
+import json
 import os
+import shutil
+import tempfile
 
 from ambari_agent.AlertSchedulerHandler import AlertSchedulerHandler
 from ambari_agent.alerts.metric_alert import MetricAlert
@@ -272,3 +275,89 @@ class TestAlertSchedulerHandler(TestCase):
 
     self.assertTrue(scheduler._AlertSchedulerHandler__scheduler.start.called)
     scheduler.schedule_definition.assert_called_with(alert_mock)
+
+  def test_update_definitions_delta(self):
+    cachedir = tempfile.mkdtemp()
+    try:
+      scheduler = AlertSchedulerHandler(cachedir, TEST_PATH, TEST_PATH, TEST_PATH, TEST_PATH, None, self.config, None)
+      scheduler.reschedule = Mock()
+      scheduler.reschedule_all = Mock()
+
+      scheduler.update_definitions({
+        'alertDefinitionCommands': [{
+          'clusterName': 'c1',
+          'hash': 'hash1',
+          'configurations': {},
+          'alertDefinitions': [
+            {'name': 'alert1', 'uuid': 'uuid1'},
+            {'name': 'alert2', 'uuid': 'uuid2'},
+            {'name': 'alert3', 'uuid': 'uuid3'}
+          ]
+        }]
+      })
+
+      scheduler.update_definitions({
+        'alertDefinitionCommands': [{
+          'clusterName': 'c1',
+          'hash': 'hash2',
+          'baseHash': 'hash1',
+          'configurations': {},
+          'alertDefinitions': [
+            {'name': 'alert2', 'uuid': 'uuid2-changed'},
+            {'name': 'alert4', 'uuid': 'uuid4'}
+          ],
+          'removedDefinitions': ['alert3']
+        }]
+      })
+
+      with open(os.path.join(cachedir, AlertSchedulerHandler.FILENAME)) as fp:
+        commands = json.load(fp)
+
+      self.assertEquals(len(commands), 1)
+      self.assertEquals(commands[0]['hash'], 'hash2')
+      self.assertFalse('baseHash' in commands[0])
+      self.assertFalse('removedDefinitions' in commands[0])
+      self.assertFalse('configurations' in commands[0])
+
+      uuids = dict((definition['name'], definition['uuid']) for definition in commands[0]['alertDefinitions'])
+      self.assertEquals(uuids, {'alert1': 'uuid1', 'alert2': 'uuid2-changed', 'alert4': 'uuid4'})
+    finally:
+      shutil.rmtree(cachedir)
+
+  def test_update_definitions_delta_hash_mismatch(self):
+    cachedir = tempfile.mkdtemp()
+    try:
+      scheduler = AlertSchedulerHandler(cachedir, TEST_PATH, TEST_PATH, TEST_PATH, TEST_PATH, None, self.config, None)
+      scheduler.reschedule = Mock()
+      scheduler.reschedule_all = Mock()
+
+      self.assertTrue(scheduler.update_definitions({
+        'alertDefinitionCommands': [{
+          'clusterName': 'c1',
+          'hash': 'hash1',
+          'alertDefinitions': [
+            {'name': 'alert1', 'uuid': 'uuid1'}
+          ]
+        }]
+      }))
+
+      # the changes are relative to definitions this agent never received
+      self.assertFalse(scheduler.update_definitions({
+        'alertDefinitionCommands': [{
+          'clusterName': 'c1',
+          'hash': 'hash3',
+          'baseHash': 'hash2',
+          'alertDefinitions': [
+            {'name': 'alert2', 'uuid': 'uuid2'}
+          ]
+        }]
+      }))
+
+      with open(os.path.join(cachedir, AlertSchedulerHandler.FILENAME)) as fp:
+        commands = json.load(fp)
+
+      # the stale definitions are discarded rather than merged under the new hash
+      self.assertEquals(commands, [])
+      self.assertTrue(scheduler.reschedule_all.called)
+    finally:
+      shutil.rmtree(cachedir)
@@ -30,6 +30,7 @@ import org.apache.hadoop.metrics2.sink.timeline.availability.MetricCollectorHAHe
 import org.apache.hadoop.metrics2.sink.timeline.availability.MetricCollectorUnavailableException;
 import org.apache.hadoop.metrics2.sink.timeline.availability.MetricSinkWriteShardHostnameHashingStrategy;
 import org.apache.hadoop.metrics2.sink.timeline.availability.MetricSinkWriteShardStrategy;
+import org.apache.hadoop.metrics2.sink.timeline.spool.MetricsSpool;
 import org.apache.http.HttpStatus;
 import org.codehaus.jackson.map.AnnotationIntrospector;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -58,9 +59,12 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 public abstract class AbstractTimelineMetricsSink {
   public static final String TAGS_FOR_PREFIX_PROPERTY_PREFIX = "tagsForPrefix.";
@@ -85,6 +89,19 @@ public abstract class AbstractTimelineMetricsSink {
   public static final String INSTANCE_ID_PROPERTY = "instanceId";
   public static final String SET_INSTANCE_ID_PROPERTY = "set.instanceId";
   public static final String COOKIE = "Cookie";
+  public static final String POST_COMPRESSION_ENABLED_PROPERTY = "compression.enabled";
+  public static final String SPOOL_DIR_PROPERTY = "spool.dir";
+  public static final String SPOOL_MAX_SIZE_MB_PROPERTY = "spool.max.size.mb";
+  public static final String SPOOL_MAX_AGE_SECONDS_PROPERTY = "spool.max.age.seconds";
+  public static final String SPOOL_REPLAY_BATCHES_PROPERTY = "spool.replay.batches";
+  public static final int DEFAULT_SPOOL_MAX_SIZE_MB = 256;
+  public static final int DEFAULT_SPOOL_MAX_AGE_SECONDS = 86400;
+  public static final int DEFAULT_SPOOL_REPLAY_BATCHES = 10;
+  public static final String SPOOL_DEPTH_METRIC = "timeline.sink.spool.depth";
+  public static final String SPOOL_REPLAYED_METRIC = "timeline.sink.spool.replayed";
+  public static final String SPOOL_DROPPED_METRIC = "timeline.sink.spool.dropped";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  private static final String GZIP = "gzip";
   private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
   private static final String NEGOTIATE = "Negotiate";
 
@@ -103,6 +120,14 @@ public abstract class AbstractTimelineMetricsSink {
   private SSLSocketFactory sslSocketFactory;
   private AppCookieManager appCookieManager = null;
 
+  // Cleared when the collector does not accept compressed requests
+  private volatile boolean postCompressionEnabled = true;
+
+  // Holds the batches which could not be sent, null if not configured
+  private MetricsSpool spool;
+  private int spoolReplayBatches;
+  private final AtomicBoolean spoolReplaying = new AtomicBoolean(false);
+
   protected final Log LOG;
 
   protected static ObjectMapper mapper;
@@ -152,7 +177,41 @@ public abstract class AbstractTimelineMetricsSink {
     isInitializedForHA = true;
   }
 
-  protected boolean emitMetricsJson(String connectUrl, String jsonData) {
+  protected boolean emitMetricsJson(String connectUrl, final String jsonData) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("emitMetricsJson to " + connectUrl + ", " + jsonData);
+    }
+    return emitMetricsJson(connectUrl, new PostBody() {
+      @Override
+      public void writeTo(OutputStream os) throws IOException {
+        if (jsonData != null) {
+          os.write(jsonData.getBytes("UTF-8"));
+        }
+      }
+    });
+  }
+
+  /**
+   * POST the metrics to the collector, serializing them straight into the
+   * request instead of building the whole JSON document first.
+   */
+  protected boolean postMetrics(String connectUrl, final TimelineMetrics metrics) {
+    if (LOG.isDebugEnabled()) {
+      try {
+        LOG.debug("emitMetricsJson to " + connectUrl + ", " + mapper.writeValueAsString(metrics));
+      } catch (IOException e) {
+        LOG.debug("Unable to parse metrics", e);
+      }
+    }
+    return emitMetricsJson(connectUrl, new PostBody() {
+      @Override
+      public void writeTo(OutputStream os) throws IOException {
+        mapper.writeValue(os, metrics);
+      }
+    });
+  }
+
+  private boolean emitMetricsJson(String connectUrl, PostBody body) {
     int timeout = getTimeoutSeconds() * 1000;
     HttpURLConnection connection = null;
     try {
@@ -162,9 +221,6 @@ public abstract class AbstractTimelineMetricsSink {
       connection = connectUrl.startsWith("https") ?
           getSSLConnection(connectUrl) : getConnection(connectUrl);
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("emitMetricsJson to " + connectUrl + ", " + jsonData);
-      }
       AppCookieManager appCookieManager = getAppCookieManager();
       String appCookie = appCookieManager.getCachedAppCookie(connectUrl);
       if (appCookie != null) {
@@ -174,7 +230,9 @@ public abstract class AbstractTimelineMetricsSink {
         connection.setRequestProperty(COOKIE, appCookie);
       }
 
-      int statusCode = emitMetricsJson(connection, timeout, jsonData);
+      // the host in-memory aggregator does not decode compressed requests
+      boolean compress = postCompressionEnabled && !isHostInMemoryAggregatorUrl(connectUrl);
+      int statusCode = emitMetricsJson(connection, timeout, body, compress);
 
       if (statusCode == HttpStatus.SC_UNAUTHORIZED ) {
         String wwwAuthHeader = connection.getHeaderField(WWW_AUTHENTICATE);
@@ -188,7 +246,7 @@ public abstract class AbstractTimelineMetricsSink {
             connection = connectUrl.startsWith("https") ?
                 getSSLConnection(connectUrl) : getConnection(connectUrl);
             connection.setRequestProperty(COOKIE, appCookie);
-            statusCode = emitMetricsJson(connection, timeout, jsonData);
+            statusCode = emitMetricsJson(connection, timeout, body, compress);
           }
         } else {
           // no supported authentication type found
@@ -197,6 +255,24 @@ public abstract class AbstractTimelineMetricsSink {
         }
       }
 
+      if (compress && (statusCode == HttpStatus.SC_BAD_REQUEST ||
+          statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE)) {
+        // collectors before gzip support reject the compressed body, other
+        // errors are not retried as the batch may have been written already
+        cleanupInputStream(connection.getErrorStream());
+        connection = connectUrl.startsWith("https") ?
+            getSSLConnection(connectUrl) : getConnection(connectUrl);
+        if (appCookie != null) {
+          connection.setRequestProperty(COOKIE, appCookie);
+        }
+        statusCode = emitMetricsJson(connection, timeout, body, false);
+        if (statusCode == 200) {
+          LOG.info("Collector " + connectUrl + " does not accept compressed metrics, " +
+              "sending them uncompressed from now on");
+          postCompressionEnabled = false;
+        }
+      }
+
       if (statusCode != 200) {
         LOG.info("Unable to POST metrics to collector, " + connectUrl + ", " +
             "statusCode = " + statusCode);
@@ -238,18 +314,24 @@ public abstract class AbstractTimelineMetricsSink {
     }
   }
 
-  private int emitMetricsJson(HttpURLConnection connection, int timeout, String jsonData) throws IOException {
+  private int emitMetricsJson(HttpURLConnection connection, int timeout, PostBody body,
+                              boolean compress) throws IOException {
     connection.setRequestMethod("POST");
     connection.setRequestProperty("Content-Type", "application/json");
     connection.setRequestProperty("Connection", "Keep-Alive");
+    if (compress) {
+      connection.setRequestProperty(CONTENT_ENCODING, GZIP);
+    }
     connection.setConnectTimeout(timeout);
     connection.setReadTimeout(timeout);
     connection.setDoOutput(true);
+    // Stream the body, otherwise the connection buffers all of it to
+    // compute the Content-Length
+    connection.setChunkedStreamingMode(0);
 
-    if (jsonData != null) {
-      try (OutputStream os = connection.getOutputStream()) {
-        os.write(jsonData.getBytes("UTF-8"));
-      }
+    try (OutputStream os = compress ?
+        new GZIPOutputStream(connection.getOutputStream(), 8192) : connection.getOutputStream()) {
+      body.writeTo(os);
     }
 
     int statusCode = connection.getResponseCode();
@@ -302,21 +384,157 @@ public abstract class AbstractTimelineMetricsSink {
       connectUrl = getCollectorUri(collectorHost);
     }
 
+    if (spool != null) {
+      addSpoolMetrics(metrics);
+    }
+
     if (validCollectorHost) {
-      String jsonData = null;
       LOG.debug("EmitMetrics connectUrl = "  + connectUrl);
+      boolean emitted = false;
       try {
-        jsonData = mapper.writeValueAsString(metrics);
-      } catch (IOException e) {
-        LOG.error("Unable to parse metrics", e);
-      }
-      if (jsonData != null) {
-        return emitMetricsJson(connectUrl, jsonData);
+        emitted = postMetrics(connectUrl, metrics);
+      } finally {
+        if (spool != null) {
+          if (emitted) {
+            replaySpool(connectUrl);
+          } else {
+            spoolMetrics(metrics);
+          }
+        }
       }
+      return emitted;
+    }
+
+    if (spool != null) {
+      spoolMetrics(metrics);
     }
     return false;
   }
 
+  /**
+   * Keep the batches which could not be sent in an on-disk spool and replay
+   * them once the collector is reachable again. Does nothing if no directory
+   * is given.
+   *
+   * @param spoolDir the parent directory of the spool
+   * @param name the directory of this sink's spool within spoolDir
+   * @param maxSizeMb the maximum size of the spool on disk
+   * @param maxAgeSeconds batches older than this are dropped
+   * @param replayBatches the number of spooled batches sent after each batch
+   */
+  protected void initSpool(String spoolDir, String name, int maxSizeMb, int maxAgeSeconds,
+                           int replayBatches) {
+    if (StringUtils.isBlank(spoolDir)) {
+      return;
+    }
+
+    File directory = new File(spoolDir.trim(), name);
+    try {
+      spool = new MetricsSpool(directory, maxSizeMb * 1024L * 1024L, maxAgeSeconds * 1000L);
+      spoolReplayBatches = Math.max(1, replayBatches);
+      LOG.info("Spooling metrics which can not be sent to " + directory);
+    } catch (IOException e) {
+      LOG.warn("Unable to open metrics spool in " + directory + ", metrics which can not be " +
+          "sent will be discarded", e);
+    }
+  }
+
+  /**
+   * @return the spool of this sink, null if not configured
+   */
+  public MetricsSpool getSpool() {
+    return spool;
+  }
+
+  private void spoolMetrics(TimelineMetrics metrics) {
+    try {
+      if (!spool.append(mapper.writeValueAsBytes(metrics))) {
+        LOG.warn("Metrics batch is too large for the spool and was discarded");
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to spool metrics", e);
+    }
+  }
+
+  /**
+   * Sends up to spoolReplayBatches spooled batches, oldest first. Stops at the
+   * first batch which can not be sent, it is retried after the next batch.
+   */
+  private void replaySpool(String connectUrl) {
+    if (spool.getDepth() == 0 || !spoolReplaying.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      for (int i = 0; i < spoolReplayBatches; i++) {
+        final byte[] payload = spool.peek();
+        if (payload == null) {
+          break;
+        }
+
+        boolean replayed;
+        try {
+          replayed = emitMetricsJson(connectUrl, new PostBody() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+              os.write(payload);
+            }
+          });
+        } catch (UnableToConnectException e) {
+          replayed = false;
+        }
+        if (!replayed) {
+          break;
+        }
+        spool.remove();
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Replayed spooled metrics, " + spool.getDepth() + " batches remaining");
+      }
+    } finally {
+      spoolReplaying.set(false);
+    }
+  }
+
+  /**
+   * Adds the depth of the spool and its replayed and dropped batches to the
+   * metrics of the batch.
+   */
+  private void addSpoolMetrics(TimelineMetrics metrics) {
+    if (metrics.getMetrics().isEmpty()) {
+      return;
+    }
+
+    TimelineMetric source = metrics.getMetrics().get(0);
+    long now = System.currentTimeMillis();
+    List<TimelineMetric> allMetrics = new ArrayList<>(metrics.getMetrics());
+    allMetrics.add(createSpoolMetric(source, SPOOL_DEPTH_METRIC, now, spool.getDepth()));
+    allMetrics.add(createSpoolMetric(source, SPOOL_REPLAYED_METRIC, now, spool.getReplayedCount()));
+    allMetrics.add(createSpoolMetric(source, SPOOL_DROPPED_METRIC, now, spool.getDroppedCount()));
+    metrics.setMetrics(allMetrics);
+  }
+
+  private TimelineMetric createSpoolMetric(TimelineMetric source, String name, long time, double value) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(name);
+    metric.setAppId(source.getAppId());
+    metric.setHostName(source.getHostName());
+    metric.setInstanceId(source.getInstanceId());
+    metric.setStartTime(time);
+    TreeMap<Long, Double> values = new TreeMap<>();
+    values.put(time, value);
+    metric.setMetricValues(values);
+    return metric;
+  }
+
+  /**
+   * Enable or disable gzip compression of the metrics POSTed to the collector.
+   */
+  protected void setPostCompressionEnabled(boolean postCompressionEnabled) {
+    this.postCompressionEnabled = postCompressionEnabled;
+  }
+
   /**
    * Get the associated app cookie manager.
    *
@@ -567,6 +785,11 @@ public abstract class AbstractTimelineMetricsSink {
 
   // Constructing without UriBuilder to avoid unfavorable httpclient
   // dependencies
+  private boolean isHostInMemoryAggregatorUrl(String connectUrl) {
+    return isHostInMemoryAggregationEnabled() && connectUrl.equals(constructTimelineMetricUri("http",
+        "localhost", String.valueOf(getHostInMemoryAggregationPort())));
+  }
+
   protected String constructTimelineMetricUri(String protocol, String host, String port) {
     StringBuilder sb = new StringBuilder(protocol);
     sb.append("://");
@@ -647,4 +870,11 @@ public abstract class AbstractTimelineMetricsSink {
    * @return
    */
   abstract protected int getHostInMemoryAggregationPort();
+
+  /**
+   * Writes the body of a POST to the collector.
+   */
+  private interface PostBody {
+    void writeTo(OutputStream os) throws IOException;
+  }
 }
@@ -20,6 +20,7 @@ package org.apache.hadoop.metrics2.sink.timeline;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.annotate.JsonSubTypes;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -40,6 +41,8 @@ public class MetricAggregate {
   protected Double deviation;
   protected Double max = Double.MIN_VALUE;
   protected Double min = Double.MAX_VALUE;
+  // distribution of the values, only kept when percentiles are enabled
+  protected QuantileSketch sketch;
 
   public MetricAggregate() {
   }
@@ -68,6 +71,29 @@ public class MetricAggregate {
     }
   }
 
+  /**
+   * Adds a value to the distribution of the aggregate.
+   */
+  public void updateSketch(double value) {
+    if (sketch == null) {
+      sketch = new QuantileSketch();
+    }
+    sketch.add(value);
+  }
+
+  /**
+   * Merges the distribution of another aggregate into this one.
+   */
+  public void updateSketch(QuantileSketch other) {
+    if (other == null) {
+      return;
+    }
+    if (sketch == null) {
+      sketch = new QuantileSketch(other.getRelativeAccuracy());
+    }
+    sketch.merge(other);
+  }
+
   @JsonProperty("sum")
   public Double getSum() {
     return sum;
@@ -88,6 +114,11 @@ public class MetricAggregate {
     return min;
   }
 
+  @JsonIgnore
+  public QuantileSketch getSketch() {
+    return sketch;
+  }
+
   public void setSum(Double sum) {
     this.sum = sum;
   }
@@ -104,6 +135,11 @@ public class MetricAggregate {
     this.min = min;
   }
 
+  @JsonIgnore
+  public void setSketch(QuantileSketch sketch) {
+    this.sketch = sketch;
+  }
+
   public String toJSON() throws IOException {
     return mapper.writeValueAsString(this);
   }
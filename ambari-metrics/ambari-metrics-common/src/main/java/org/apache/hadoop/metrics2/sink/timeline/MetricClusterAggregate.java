@@ -58,6 +58,7 @@ public class MetricClusterAggregate extends MetricAggregate {
     updateMin(hostAggregate.getMin());
     updateSum(hostAggregate.getSum());
     updateNumberOfHosts(hostAggregate.getNumberOfHosts());
+    updateSketch(hostAggregate.getSketch());
   }
 
   @Override
@@ -66,6 +66,7 @@ public class MetricHostAggregate extends MetricAggregate {
     updateMin(hostAggregate.getMin());
     updateSum(hostAggregate.getSum());
     updateNumberOfSamples(hostAggregate.getNumberOfSamples());
+    updateSketch(hostAggregate.getSketch());
   }
 
   @Override
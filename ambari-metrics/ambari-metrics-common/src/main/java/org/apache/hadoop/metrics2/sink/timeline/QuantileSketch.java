@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Mergeable sketch of a value distribution answering quantile queries with a
+ * bounded relative error. Values are counted in logarithmically sized
+ * buckets, bucket i holding the values in (gamma^(i-1), gamma^i] with
+ * gamma = (1 + a) / (1 - a) for a relative accuracy a, so any quantile is
+ * estimated within a * value of the exact one.
+ *
+ * Merging two sketches adds their bucket counts, which makes the result the
+ * same as a sketch of all values of both. The number of buckets is bounded
+ * by collapsing the buckets of the smallest magnitudes, keeping the accuracy
+ * of the upper quantiles.
+ *
+ * Not thread safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class QuantileSketch {
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  private static final int MAX_BUCKETS = 2048;
+  // magnitudes below are counted as zero
+  private static final double MIN_INDEXABLE_VALUE = 1e-9;
+  private static final byte VERSION = 1;
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double logGamma;
+
+  private final TreeMap<Integer, Long> positiveBuckets = new TreeMap<>();
+  private final TreeMap<Integer, Long> negativeBuckets = new TreeMap<>();
+  private long zeroCount;
+  private long count;
+
+  public QuantileSketch() {
+    this(DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  public QuantileSketch(double relativeAccuracy) {
+    if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+      throw new IllegalArgumentException("Relative accuracy should be in (0, 1). Got "
+        + relativeAccuracy);
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Adds a value, NaN and infinite values are ignored.
+   */
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  public void add(double value, long valueCount) {
+    if (Double.isNaN(value) || Double.isInfinite(value) || valueCount <= 0) {
+      return;
+    }
+    if (Math.abs(value) < MIN_INDEXABLE_VALUE) {
+      zeroCount += valueCount;
+    } else if (value > 0) {
+      increment(positiveBuckets, index(value), valueCount);
+    } else {
+      increment(negativeBuckets, index(-value), valueCount);
+    }
+    count += valueCount;
+    collapseIfNeeded();
+  }
+
+  /**
+   * Adds the values counted by another sketch of the same accuracy.
+   */
+  public void merge(QuantileSketch other) {
+    if (other == null || other.isEmpty()) {
+      return;
+    }
+    if (Double.compare(other.relativeAccuracy, relativeAccuracy) != 0) {
+      throw new IllegalArgumentException("Cannot merge sketches of accuracy " +
+        relativeAccuracy + " and " + other.relativeAccuracy);
+    }
+    for (Map.Entry<Integer, Long> bucket : other.positiveBuckets.entrySet()) {
+      increment(positiveBuckets, bucket.getKey(), bucket.getValue());
+    }
+    for (Map.Entry<Integer, Long> bucket : other.negativeBuckets.entrySet()) {
+      increment(negativeBuckets, bucket.getKey(), bucket.getValue());
+    }
+    zeroCount += other.zeroCount;
+    count += other.count;
+    collapseIfNeeded();
+  }
+
+  /**
+   * Estimates the value below which the given fraction of the values fall.
+   *
+   * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+   * @return the estimate, or NaN if the sketch is empty
+   */
+  public double getQuantile(double quantile) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("Quantile should be in [0, 1]. Got " + quantile);
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    double rank = quantile * (count - 1);
+    long seen = 0;
+    // smallest values first: largest negative magnitudes, zero, positives
+    for (Map.Entry<Integer, Long> bucket : negativeBuckets.descendingMap().entrySet()) {
+      seen += bucket.getValue();
+      if (seen > rank) {
+        return -value(bucket.getKey());
+      }
+    }
+    seen += zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (Map.Entry<Integer, Long> bucket : positiveBuckets.entrySet()) {
+      seen += bucket.getValue();
+      if (seen > rank) {
+        return value(bucket.getKey());
+      }
+    }
+    // not reached, the counts add up to count
+    return positiveBuckets.isEmpty() ? 0 : value(positiveBuckets.lastKey());
+  }
+
+  /**
+   * Serialized form stored with the aggregates: the version, accuracy and
+   * zero count followed by the positive and negative buckets as varint
+   * encoded index deltas and counts.
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(
+      16 + 4 * (positiveBuckets.size() + negativeBuckets.size()));
+    out.write(VERSION);
+    writeLong(out, Double.doubleToLongBits(relativeAccuracy));
+    writeVarLong(out, zeroCount);
+    writeBuckets(out, positiveBuckets);
+    writeBuckets(out, negativeBuckets);
+    return out.toByteArray();
+  }
+
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      byte version = buffer.get();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unknown sketch version " + version);
+      }
+      QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+      sketch.zeroCount = readVarLong(buffer);
+      sketch.count = sketch.zeroCount;
+      sketch.count += readBuckets(buffer, sketch.positiveBuckets);
+      sketch.count += readBuckets(buffer, sketch.negativeBuckets);
+      return sketch;
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated sketch of " + bytes.length + " bytes", e);
+    }
+  }
+
+  private int index(double magnitude) {
+    return (int) Math.ceil(Math.log(magnitude) / logGamma);
+  }
+
+  // middle of the bucket relative to its bounds
+  private double value(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  private static void increment(TreeMap<Integer, Long> buckets, int index, long valueCount) {
+    Long current = buckets.get(index);
+    buckets.put(index, current == null ? valueCount : current + valueCount);
+  }
+
+  private void collapseIfNeeded() {
+    while (positiveBuckets.size() + negativeBuckets.size() > MAX_BUCKETS) {
+      // fold the smallest magnitude into its neighbour
+      TreeMap<Integer, Long> buckets = positiveBuckets.size() > 1 ? positiveBuckets : negativeBuckets;
+      Map.Entry<Integer, Long> smallest = buckets.pollFirstEntry();
+      increment(buckets, buckets.firstKey(), smallest.getValue());
+    }
+  }
+
+  private static void writeBuckets(ByteArrayOutputStream out, NavigableMap<Integer, Long> buckets) {
+    writeVarLong(out, buckets.size());
+    int previous = 0;
+    for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+      int delta = bucket.getKey() - previous;
+      // zigzag, the first index may be negative
+      writeVarLong(out, (delta << 1) ^ (delta >> 31));
+      writeVarLong(out, bucket.getValue());
+      previous = bucket.getKey();
+    }
+  }
+
+  private static long readBuckets(ByteBuffer buffer, TreeMap<Integer, Long> buckets) {
+    long size = readVarLong(buffer);
+    long total = 0;
+    int index = 0;
+    for (long i = 0; i < size; i++) {
+      int zigzag = (int) readVarLong(buffer);
+      index += (zigzag >>> 1) ^ -(zigzag & 1);
+      long bucketCount = readVarLong(buffer);
+      buckets.put(index, bucketCount);
+      total += bucketCount;
+    }
+    return total;
+  }
+
+  private static void writeLong(ByteArrayOutputStream out, long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint in sketch");
+  }
+
+  @Override
+  public String toString() {
+    return "QuantileSketch{" +
+      "relativeAccuracy=" + relativeAccuracy +
+      ", count=" + count +
+      ", buckets=" + (positiveBuckets.size() + negativeBuckets.size()) +
+      '}';
+  }
+}
@@ -44,7 +44,10 @@ public class TimelineMetric implements Comparable<TimelineMetric> {
   private long startTime;
   private String type;
   private String units;
-  private TreeMap<Long, Double> metricValues = new TreeMap<Long, Double>();
+  // Values are held as a series, or as a map once JSON or a legacy caller
+  // asked for one, never both
+  private TimelineMetricSeries metricSeries = new TimelineMetricSeries();
+  private TreeMap<Long, Double> metricValues;
   private HashMap<String, String> metadata = new HashMap<>();
 
   // default
@@ -62,7 +65,13 @@ public class TimelineMetric implements Comparable<TimelineMetric> {
     setInstanceId(metric.getInstanceId());
     setHostName(metric.getHostName());
     setStartTime(metric.getStartTime());
-    setMetricValues(new TreeMap<Long, Double>(metric.getMetricValues()));
+    if (metric.metricSeries != null) {
+      setMetricSeries(new TimelineMetricSeries(metric.metricSeries));
+    } else if (metric.metricValues != null) {
+      setMetricValues(new TreeMap<Long, Double>(metric.metricValues));
+    } else {
+      setMetricValues(null);
+    }
   }
 
   @XmlElement(name = "metricname")
@@ -137,17 +146,70 @@ public class TimelineMetric implements Comparable<TimelineMetric> {
     this.units = units;
   }
 
+  /**
+   * Map view of the values, for JSON and for callers that put values into
+   * the returned map. The map is built once and is the stored
+   * representation from then on.
+   */
   @XmlElement(name = "metrics")
   public TreeMap<Long, Double> getMetricValues() {
+    if (metricSeries != null) {
+      metricValues = metricSeries.toTreeMap();
+      metricSeries = null;
+    }
     return metricValues;
   }
 
   public void setMetricValues(TreeMap<Long, Double> metricValues) {
     this.metricValues = metricValues;
+    this.metricSeries = null;
+  }
+
+  /**
+   * The values as a compact primitive series. The series is the stored
+   * representation, changes to it change this metric. A map handed out by
+   * {@link #getMetricValues()} before is no longer backing this metric.
+   */
+  public TimelineMetricSeries getMetricSeries() {
+    if (metricSeries == null) {
+      metricSeries = metricValues == null ?
+        new TimelineMetricSeries() : TimelineMetricSeries.fromMap(metricValues);
+      metricValues = null;
+    }
+    return metricSeries;
+  }
+
+  /**
+   * Replace the values with the series, it is stored without a copy.
+   */
+  public void setMetricSeries(TimelineMetricSeries metricSeries) {
+    this.metricSeries = metricSeries;
+    this.metricValues = null;
   }
 
   public void addMetricValues(Map<Long, Double> metricValues) {
-    this.metricValues.putAll(metricValues);
+    if (this.metricSeries != null) {
+      this.metricSeries.addAll(metricValues);
+    } else {
+      this.metricValues.putAll(metricValues);
+    }
+  }
+
+  public void addMetricValues(TimelineMetricSeries metricSeries) {
+    if (this.metricSeries != null) {
+      this.metricSeries.addAll(metricSeries);
+    } else {
+      for (int i = 0; i < metricSeries.size(); i++) {
+        this.metricValues.put(metricSeries.getTimestamp(i), metricSeries.getValue(i));
+      }
+    }
+  }
+
+  public int getMetricValuesCount() {
+    if (metricSeries != null) {
+      return metricSeries.size();
+    }
+    return metricValues == null ? 0 : metricValues.size();
   }
 
   @XmlElement(name = "metadata")
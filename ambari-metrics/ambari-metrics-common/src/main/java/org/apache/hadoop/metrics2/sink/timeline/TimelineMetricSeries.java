@@ -0,0 +1,296 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Compact time series backed by parallel primitive arrays, kept sorted by
+ * timestamp with unique timestamps. A TreeMap&lt;Long, Double&gt; costs ~80
+ * bytes per point (boxed key, boxed value and tree node), this costs 16.
+ *
+ * Appends in timestamp order are amortized O(1), out of order points are
+ * inserted in place. Adding an existing timestamp overwrites its value,
+ * same as {@link TreeMap#put(Object, Object)}.
+ *
+ * Not thread safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class TimelineMetricSeries {
+
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long[] EMPTY_TIMESTAMPS = new long[0];
+  private static final double[] EMPTY_VALUES = new double[0];
+
+  private long[] timestamps;
+  private double[] values;
+  private int size;
+
+  public TimelineMetricSeries() {
+    this.timestamps = EMPTY_TIMESTAMPS;
+    this.values = EMPTY_VALUES;
+  }
+
+  public TimelineMetricSeries(int initialCapacity) {
+    this.timestamps = new long[initialCapacity];
+    this.values = new double[initialCapacity];
+  }
+
+  // copy constructor
+  public TimelineMetricSeries(TimelineMetricSeries other) {
+    this.timestamps = Arrays.copyOf(other.timestamps, other.size);
+    this.values = Arrays.copyOf(other.values, other.size);
+    this.size = other.size;
+  }
+
+  /**
+   * Build from a map, null values are skipped.
+   */
+  public static TimelineMetricSeries fromMap(Map<Long, Double> metricValues) {
+    TimelineMetricSeries series = new TimelineMetricSeries(
+      metricValues == null ? 0 : metricValues.size());
+    if (metricValues != null) {
+      series.addAll(metricValues);
+    }
+    return series;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+
+  public double getValue(int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  public long getFirstTimestamp() {
+    return getTimestamp(0);
+  }
+
+  public long getLastTimestamp() {
+    return getTimestamp(size - 1);
+  }
+
+  /**
+   * Add a single point keeping the series sorted.
+   */
+  public void put(long timestamp, double value) {
+    if (size == 0 || timestamp > timestamps[size - 1]) {
+      ensureCapacity(size + 1);
+      timestamps[size] = timestamp;
+      values[size] = value;
+      size++;
+      return;
+    }
+    int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+    if (index >= 0) {
+      values[index] = value;
+      return;
+    }
+    int insertAt = -(index + 1);
+    ensureCapacity(size + 1);
+    System.arraycopy(timestamps, insertAt, timestamps, insertAt + 1, size - insertAt);
+    System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+    timestamps[insertAt] = timestamp;
+    values[insertAt] = value;
+    size++;
+  }
+
+  /**
+   * Add all points from a map, null values are skipped.
+   */
+  public void addAll(Map<Long, Double> metricValues) {
+    if (metricValues instanceof TreeMap && isEmpty()) {
+      // Sorted source, plain appends
+      ensureCapacity(metricValues.size());
+    }
+    for (Map.Entry<Long, Double> entry : metricValues.entrySet()) {
+      if (entry.getKey() != null && entry.getValue() != null) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Merge another sorted series into this one in a single pass. Points of
+   * the other series win on equal timestamps.
+   */
+  public void addAll(TimelineMetricSeries other) {
+    if (other == null || other.size == 0) {
+      return;
+    }
+    if (size == 0 || other.timestamps[0] > timestamps[size - 1]) {
+      // Common case, other series strictly follows this one
+      ensureCapacity(size + other.size);
+      System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+      System.arraycopy(other.values, 0, values, size, other.size);
+      size += other.size;
+      return;
+    }
+
+    long[] mergedTimestamps = new long[size + other.size];
+    double[] mergedValues = new double[size + other.size];
+    int i = 0, j = 0, k = 0;
+    while (i < size && j < other.size) {
+      long left = timestamps[i];
+      long right = other.timestamps[j];
+      if (left < right) {
+        mergedTimestamps[k] = left;
+        mergedValues[k++] = values[i++];
+      } else if (left > right) {
+        mergedTimestamps[k] = right;
+        mergedValues[k++] = other.values[j++];
+      } else {
+        mergedTimestamps[k] = right;
+        mergedValues[k++] = other.values[j++];
+        i++;
+      }
+    }
+    while (i < size) {
+      mergedTimestamps[k] = timestamps[i];
+      mergedValues[k++] = values[i++];
+    }
+    while (j < other.size) {
+      mergedTimestamps[k] = other.timestamps[j];
+      mergedValues[k++] = other.values[j++];
+    }
+    timestamps = mergedTimestamps;
+    values = mergedValues;
+    size = k;
+  }
+
+  /**
+   * Drop all points with timestamp strictly less than the given one.
+   */
+  public void removeBefore(long timestamp) {
+    int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+    int from = index >= 0 ? index : -(index + 1);
+    if (from == 0) {
+      return;
+    }
+    System.arraycopy(timestamps, from, timestamps, 0, size - from);
+    System.arraycopy(values, from, values, 0, size - from);
+    size -= from;
+  }
+
+  /**
+   * Drop all points with timestamp strictly greater than the given one.
+   */
+  public void removeAfter(long timestamp) {
+    int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+    size = index >= 0 ? index + 1 : -(index + 1);
+  }
+
+  /**
+   * Replace the value at index, used for in place transformations.
+   */
+  public void setValue(int index, double value) {
+    checkIndex(index);
+    values[index] = value;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Release unused capacity, useful for long lived series.
+   */
+  public void trimToSize() {
+    if (timestamps.length != size) {
+      timestamps = Arrays.copyOf(timestamps, size);
+      values = Arrays.copyOf(values, size);
+    }
+  }
+
+  public TreeMap<Long, Double> toTreeMap() {
+    TreeMap<Long, Double> metricValues = new TreeMap<Long, Double>();
+    for (int i = 0; i < size; i++) {
+      metricValues.put(timestamps[i], values[i]);
+    }
+    return metricValues;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > timestamps.length) {
+      int newCapacity = Math.max(Math.max(capacity, DEFAULT_CAPACITY),
+        timestamps.length + (timestamps.length >> 1));
+      timestamps = Arrays.copyOf(timestamps, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    TimelineMetricSeries that = (TimelineMetricSeries) o;
+    if (size != that.size) return false;
+    for (int i = 0; i < size; i++) {
+      if (timestamps[i] != that.timestamps[i]) return false;
+      if (Double.doubleToLongBits(values[i]) != Double.doubleToLongBits(that.values[i])) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = size;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + (int) (timestamps[i] ^ (timestamps[i] >>> 32));
+      long bits = Double.doubleToLongBits(values[i]);
+      result = 31 * result + (int) (bits ^ (bits >>> 32));
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(timestamps[i]).append('=').append(values[i]);
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -22,6 +22,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
 
 import java.util.ArrayList;
@@ -29,7 +30,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 @InterfaceAudience.Public
@@ -60,10 +60,15 @@ public class TimelineMetricsCache {
     private long timeDiff = -1;
     private long oldestTimestamp = -1;
     private TimelineMetric timelineMetric;
+    // Values are buffered as primitive arrays until eviction
+    private TimelineMetricSeries metricSeries;
 
     TimelineMetricWrapper(TimelineMetric timelineMetric) {
-      this.timelineMetric = timelineMetric;
+      // Buffer into an own metric, the caller's metric stays untouched
+      this.timelineMetric = new TimelineMetric(timelineMetric);
+      this.timelineMetric.setMetadata(timelineMetric.getMetadata());
       this.oldestTimestamp = timelineMetric.getStartTime();
+      this.metricSeries = this.timelineMetric.getMetricSeries();
     }
 
     private void updateTimeDiff(long timestamp) {
@@ -75,26 +80,23 @@ public class TimelineMetricsCache {
     }
 
     public synchronized void putMetric(TimelineMetric metric) {
-      TreeMap<Long, Double> metricValues = this.timelineMetric.getMetricValues();
-      if (metricValues.size() > maxRecsPerName) {
+      if (metricSeries.size() > maxRecsPerName) {
         // remove values for eldest maxEvictionTimeInMillis
         long newEldestTimestamp = oldestTimestamp + maxEvictionTimeInMillis;
-        TreeMap<Long, Double> metricsSubSet =
-          new TreeMap<>(metricValues.tailMap(newEldestTimestamp));
-        if (metricsSubSet.isEmpty()) {
+        metricSeries.removeBefore(newEldestTimestamp);
+        if (metricSeries.isEmpty()) {
           oldestTimestamp = metric.getStartTime();
           this.timelineMetric.setStartTime(metric.getStartTime());
         } else {
-          Long newStartTime = metricsSubSet.firstKey();
+          long newStartTime = metricSeries.getFirstTimestamp();
           oldestTimestamp = newStartTime;
           this.timelineMetric.setStartTime(newStartTime);
         }
-        this.timelineMetric.setMetricValues(metricsSubSet);
         LOG.warn("Metrics cache overflow. Values for metric " +
           metric.getMetricName() + " older than " + newEldestTimestamp +
           " were removed to clean up the cache.");
       }
-      this.timelineMetric.addMetricValues(metric.getMetricValues());
+      metricSeries.addAll(metric.getMetricValues());
       updateTimeDiff(metric.getStartTime());
     }
 
@@ -102,6 +104,10 @@ public class TimelineMetricsCache {
       return timeDiff;
     }
 
+    /**
+     * The buffered metric, backed by the series. Its map view is only built
+     * once it is sent.
+     */
     public synchronized TimelineMetric getTimelineMetric() {
       return timelineMetric;
     }
@@ -196,17 +202,16 @@ public class TimelineMetricsCache {
 
   private void transformMetricValuesToDerivative(TimelineMetric timelineMetric) {
     String metricName = timelineMetric.getMetricName();
-    double firstValue = timelineMetric.getMetricValues().size() > 0
-        ? timelineMetric.getMetricValues().entrySet().iterator().next().getValue() : 0;
+    Map<Long, Double> metricValues = timelineMetric.getMetricValues();
+    double firstValue = metricValues.size() > 0
+        ? metricValues.entrySet().iterator().next().getValue() : 0;
     Double value = counterMetricLastValue.get(metricName);
     double previousValue = value != null ? value : firstValue;
-    Map<Long, Double> metricValues = timelineMetric.getMetricValues();
-    TreeMap<Long, Double>   newMetricValues = new TreeMap<Long, Double>();
     for (Map.Entry<Long, Double> entry : metricValues.entrySet()) {
-      newMetricValues.put(entry.getKey(), entry.getValue() - previousValue);
-      previousValue = entry.getValue();
+      double currentValue = entry.getValue();
+      entry.setValue(currentValue - previousValue);
+      previousValue = currentValue;
     }
-    timelineMetric.setMetricValues(newMetricValues);
     counterMetricLastValue.put(metricName, previousValue);
   }
 
@@ -0,0 +1,371 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline.spool;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Bounded on-disk queue of metric batches which could not be sent to the
+ * collector. The batches are appended to memory-mapped segment files and
+ * replayed in the order they were written.
+ *
+ * Each record is a header of the payload length and the time it was spooled,
+ * followed by the payload. The length is written last, so a record which was
+ * not completely written before the process died reads as the end of the
+ * segment. Replayed records are marked by negating their length, which keeps
+ * the position of the replay across restarts without a separate index.
+ *
+ * When the spool exceeds its size the oldest segment is dropped, and records
+ * older than the maximum age are skipped on replay.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class MetricsSpool implements Closeable {
+  private static final Log LOG = LogFactory.getLog(MetricsSpool.class);
+
+  static final String SEGMENT_SUFFIX = ".spool";
+  private static final String LOCK_FILE = "spool.lock";
+  private static final int HEADER_SIZE = 12;
+  private static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+  private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final long maxAgeMillis;
+  private final RandomAccessFile lockFile;
+  private final FileLock lock;
+
+  private final LinkedList<Segment> segments = new LinkedList<>();
+  private long nextSegmentId;
+  private int depth;
+
+  // head of the spool returned by the last peek
+  private long peekedSegmentId = -1;
+  private int peekedPosition = -1;
+
+  private long appendedCount;
+  private long replayedCount;
+  private long droppedCount;
+
+  /**
+   * Opens the spool in the given directory, replaying any records left by a
+   * previous process.
+   *
+   * @param directory the directory holding the segments, created if missing
+   * @param maxBytes the maximum size of the segments on disk
+   * @param maxAgeMillis records older than this are not replayed
+   * @throws IOException if the directory can not be used or is locked by
+   * another sink
+   */
+  public MetricsSpool(File directory, long maxBytes, long maxAgeMillis) throws IOException {
+    this(directory, maxBytes, maxAgeMillis,
+      (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxBytes / 4)));
+  }
+
+  MetricsSpool(File directory, long maxBytes, long maxAgeMillis, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+    this.maxAgeMillis = maxAgeMillis;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spool directory " + directory);
+    }
+
+    lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    FileLock directoryLock;
+    try {
+      directoryLock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      // locked by another sink of this process
+      directoryLock = null;
+    }
+    if (directoryLock == null) {
+      lockFile.close();
+      throw new IOException("Spool directory " + directory + " is used by another sink");
+    }
+    lock = directoryLock;
+
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    Arrays.sort(files);
+    for (File file : files) {
+      Segment segment = Segment.open(file);
+      nextSegmentId = Math.max(nextSegmentId, segment.id + 1);
+      if (segment.pending == 0 && segment.writePosition > 0) {
+        segment.delete();
+      } else {
+        segments.add(segment);
+        depth += segment.pending;
+      }
+    }
+
+    if (depth > 0) {
+      LOG.info("Found " + depth + " spooled metric batches in " + directory);
+    }
+  }
+
+  /**
+   * Appends a batch to the spool, dropping the oldest segment if the spool
+   * is full.
+   *
+   * @return false if the batch does not fit into a segment and was dropped
+   */
+  public boolean append(byte[] payload) throws IOException {
+    return append(payload, System.currentTimeMillis());
+  }
+
+  synchronized boolean append(byte[] payload, long timestamp) throws IOException {
+    if (HEADER_SIZE + payload.length > segmentSize) {
+      droppedCount++;
+      return false;
+    }
+
+    Segment tail = segments.peekLast();
+    if (tail == null || tail.remaining() < HEADER_SIZE + payload.length) {
+      tail = Segment.create(new File(directory, String.format("%020d%s", nextSegmentId, SEGMENT_SUFFIX)),
+        nextSegmentId, segmentSize);
+      nextSegmentId++;
+      segments.add(tail);
+
+      while (segments.size() > maxSegments) {
+        Segment oldest = segments.removeFirst();
+        depth -= oldest.pending;
+        droppedCount += oldest.pending;
+        LOG.warn("Metrics spool is full, dropped " + oldest.pending + " batches");
+        oldest.delete();
+      }
+    }
+
+    tail.append(payload, timestamp);
+    depth++;
+    appendedCount++;
+    return true;
+  }
+
+  /**
+   * Gets the oldest batch which was not replayed yet, skipping expired ones.
+   *
+   * @return the payload, or null if the spool is empty
+   */
+  public byte[] peek() {
+    return peek(System.currentTimeMillis());
+  }
+
+  synchronized byte[] peek(long now) {
+    while (!segments.isEmpty()) {
+      Segment head = segments.getFirst();
+      if (head.pending == 0) {
+        if (head == segments.getLast()) {
+          break;
+        }
+        segments.removeFirst().delete();
+        continue;
+      }
+
+      if (head.timestampAt(head.readPosition) < now - maxAgeMillis) {
+        head.markReplayed();
+        depth--;
+        droppedCount++;
+        continue;
+      }
+
+      peekedSegmentId = head.id;
+      peekedPosition = head.readPosition;
+      return head.payloadAt(head.readPosition);
+    }
+
+    peekedSegmentId = -1;
+    peekedPosition = -1;
+    return null;
+  }
+
+  /**
+   * Removes the batch returned by the last {@link #peek()} after it was sent.
+   * Does nothing if that batch was dropped in the meantime.
+   */
+  public synchronized void remove() {
+    Segment head = segments.peekFirst();
+    if (head == null || head.id != peekedSegmentId || head.readPosition != peekedPosition
+        || head.pending == 0) {
+      return;
+    }
+
+    head.markReplayed();
+    depth--;
+    replayedCount++;
+    peekedSegmentId = -1;
+    peekedPosition = -1;
+  }
+
+  /**
+   * @return the number of batches waiting to be replayed
+   */
+  public synchronized int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return the size of the segments on disk
+   */
+  public synchronized long getSize() {
+    return (long) segments.size() * segmentSize;
+  }
+
+  public synchronized long getAppendedCount() {
+    return appendedCount;
+  }
+
+  public synchronized long getReplayedCount() {
+    return replayedCount;
+  }
+
+  /**
+   * @return the number of batches dropped because the spool was full, the
+   * batch was too large or expired
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+    segments.clear();
+    lock.release();
+    lockFile.close();
+  }
+
+  private static class Segment {
+    final long id;
+    final File file;
+    final MappedByteBuffer buffer;
+    int readPosition;
+    int writePosition;
+    int pending;
+
+    private Segment(long id, File file, MappedByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    static Segment create(File file, long id, int size) throws IOException {
+      return new Segment(id, file, map(file, size));
+    }
+
+    static Segment open(File file) throws IOException {
+      String name = file.getName();
+      long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      Segment segment = new Segment(id, file, map(file, (int) file.length()));
+
+      ByteBuffer buffer = segment.buffer;
+      int position = 0;
+      boolean replayed = true;
+      while (position + HEADER_SIZE <= buffer.capacity()) {
+        int length = buffer.getInt(position);
+        if (length == 0 || Math.abs(length) > buffer.capacity() - position - HEADER_SIZE) {
+          break;
+        }
+        if (length > 0) {
+          segment.pending++;
+          replayed = false;
+        }
+        position += HEADER_SIZE + Math.abs(length);
+        if (replayed) {
+          segment.readPosition = position;
+        }
+      }
+      segment.writePosition = position;
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (raf.length() < size) {
+          raf.setLength(size);
+        }
+        // the mapping stays valid after the channel is closed
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    int remaining() {
+      return buffer.capacity() - writePosition;
+    }
+
+    void append(byte[] payload, long timestamp) {
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(writePosition + 4);
+      slice.putLong(timestamp);
+      slice.put(payload);
+      // the length commits the record
+      buffer.putInt(writePosition, payload.length);
+      writePosition += HEADER_SIZE + payload.length;
+      pending++;
+    }
+
+    long timestampAt(int position) {
+      return buffer.getLong(position + 4);
+    }
+
+    byte[] payloadAt(int position) {
+      byte[] payload = new byte[buffer.getInt(position)];
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(position + HEADER_SIZE);
+      slice.get(payload);
+      return payload;
+    }
+
+    void markReplayed() {
+      int length = buffer.getInt(readPosition);
+      buffer.putInt(readPosition, -length);
+      readPosition += HEADER_SIZE + length;
+      pending--;
+    }
+
+    void delete() {
+      if (!file.delete()) {
+        LOG.warn("Unable to delete spool segment " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+
+  @Test
+  public void testRelativeAccuracy() {
+    Random random = new Random(42);
+    double[] values = new double[10000];
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      // latency like, long tail
+      values[i] = Math.exp(random.nextGaussian() * 2 + 3);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+
+    assertEquals(values.length, sketch.getCount());
+    for (double quantile : new double[] {0, 0.5, 0.75, 0.9, 0.95, 0.99, 1}) {
+      double exact = values[(int) (quantile * (values.length - 1))];
+      assertEquals("p" + quantile, exact, sketch.getQuantile(quantile), exact * 0.01);
+    }
+  }
+
+  @Test
+  public void testMergeEqualsSketchOfAllValues() {
+    QuantileSketch all = new QuantileSketch();
+    QuantileSketch merged = new QuantileSketch();
+    for (int part = 0; part < 10; part++) {
+      QuantileSketch sketch = new QuantileSketch();
+      for (int i = 0; i < 100; i++) {
+        double value = part * 100 + i - 300;
+        sketch.add(value);
+        all.add(value);
+      }
+      merged.merge(sketch);
+    }
+
+    assertEquals(all.getCount(), merged.getCount());
+    for (double quantile = 0; quantile <= 1; quantile += 0.05) {
+      assertEquals(all.getQuantile(quantile), merged.getQuantile(quantile), 0);
+    }
+    // negative values and zero
+    assertEquals(-300, merged.getQuantile(0), 3);
+    assertEquals(0, merged.getQuantile(300.5 / 999), 0);
+  }
+
+  @Test
+  public void testSerialization() {
+    QuantileSketch sketch = new QuantileSketch(0.02);
+    for (int i = -50; i < 1000; i++) {
+      sketch.add(i * 1.5);
+    }
+    QuantileSketch copy = QuantileSketch.fromBytes(sketch.toBytes());
+
+    assertEquals(0.02, copy.getRelativeAccuracy(), 0);
+    assertEquals(sketch.getCount(), copy.getCount());
+    assertEquals(sketch.getQuantile(0.01), copy.getQuantile(0.01), 0);
+    assertEquals(sketch.getQuantile(0.99), copy.getQuantile(0.99), 0);
+
+    QuantileSketch empty = QuantileSketch.fromBytes(new QuantileSketch().toBytes());
+    assertTrue(empty.isEmpty());
+    assertTrue(Double.isNaN(empty.getQuantile(0.5)));
+  }
+
+  @Test
+  public void testBucketsAreBounded() {
+    QuantileSketch sketch = new QuantileSketch();
+    // spans far more buckets than are kept
+    for (int i = 0; i <= 5000; i++) {
+      sketch.add(Math.pow(1.03, i));
+    }
+
+    assertEquals(5001, sketch.getCount());
+    // the upper quantiles keep their accuracy
+    double max = Math.pow(1.03, 5000);
+    assertEquals(max, sketch.getQuantile(1), max * 0.01);
+    assertTrue(sketch.toBytes().length < 2048 * 4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentAccuracy() {
+    QuantileSketch sketch = new QuantileSketch(0.02);
+    sketch.add(1);
+    new QuantileSketch().merge(sketch);
+  }
+}
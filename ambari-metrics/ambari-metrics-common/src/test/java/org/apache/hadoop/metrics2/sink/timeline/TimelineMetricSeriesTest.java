@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimelineMetricSeriesTest {
+
+  @Test
+  public void testPutMatchesTreeMapSemantics() {
+    Random random = new Random(7);
+    TimelineMetricSeries series = new TimelineMetricSeries();
+    TreeMap<Long, Double> expected = new TreeMap<Long, Double>();
+    for (int i = 0; i < 1000; i++) {
+      long timestamp = random.nextInt(200);
+      double value = random.nextDouble();
+      series.put(timestamp, value);
+      expected.put(timestamp, value);
+    }
+    assertEquals(expected, series.toTreeMap());
+    assertEquals(expected.firstKey().longValue(), series.getFirstTimestamp());
+    assertEquals(expected.lastKey().longValue(), series.getLastTimestamp());
+  }
+
+  @Test
+  public void testFromMapSkipsNullValues() {
+    TreeMap<Long, Double> values = new TreeMap<Long, Double>();
+    values.put(1L, 1.0);
+    values.put(2L, null);
+    values.put(3L, 3.0);
+
+    TimelineMetricSeries series = TimelineMetricSeries.fromMap(values);
+    assertEquals(2, series.size());
+    assertEquals(3L, series.getTimestamp(1));
+    assertTrue(TimelineMetricSeries.fromMap(null).isEmpty());
+  }
+
+  @Test
+  public void testAddAllSeries() {
+    TimelineMetricSeries series = new TimelineMetricSeries();
+    series.put(10L, 1.0);
+    series.put(20L, 2.0);
+    series.put(30L, 3.0);
+
+    // Appended after the last point
+    TimelineMetricSeries tail = new TimelineMetricSeries();
+    tail.put(40L, 4.0);
+    series.addAll(tail);
+    assertEquals(4, series.size());
+
+    // Interleaved, the added series wins on equal timestamps
+    TimelineMetricSeries other = new TimelineMetricSeries();
+    other.put(5L, 0.5);
+    other.put(20L, 20.0);
+    other.put(35L, 3.5);
+    series.addAll(other);
+
+    TreeMap<Long, Double> expected = new TreeMap<Long, Double>();
+    expected.put(5L, 0.5);
+    expected.put(10L, 1.0);
+    expected.put(20L, 20.0);
+    expected.put(30L, 3.0);
+    expected.put(35L, 3.5);
+    expected.put(40L, 4.0);
+    assertEquals(expected, series.toTreeMap());
+  }
+
+  @Test
+  public void testRemoveBefore() {
+    TimelineMetricSeries series = new TimelineMetricSeries();
+    for (long i = 1; i <= 5; i++) {
+      series.put(i * 10, i);
+    }
+    series.removeBefore(30L);
+    assertEquals(3, series.size());
+    assertEquals(30L, series.getFirstTimestamp());
+
+    series.removeBefore(35L);
+    assertEquals(2, series.size());
+    assertEquals(40L, series.getFirstTimestamp());
+
+    series.removeBefore(100L);
+    assertTrue(series.isEmpty());
+  }
+
+  @Test
+  public void testRemoveAfter() {
+    TimelineMetricSeries series = new TimelineMetricSeries();
+    for (long i = 1; i <= 5; i++) {
+      series.put(i * 10, i);
+    }
+    series.removeAfter(30L);
+    assertEquals(3, series.size());
+    assertEquals(30L, series.getLastTimestamp());
+
+    series.removeAfter(25L);
+    assertEquals(2, series.size());
+    assertEquals(20L, series.getLastTimestamp());
+
+    series.removeAfter(5L);
+    assertTrue(series.isEmpty());
+  }
+
+  @Test
+  public void testTimelineMetricRepresentations() {
+    TimelineMetric metric = new TimelineMetric();
+    TimelineMetricSeries series = metric.getMetricSeries();
+    series.put(2L, 2.0);
+    series.put(1L, 1.0);
+
+    // The stored series backs the metric
+    assertSame(series, metric.getMetricSeries());
+    assertEquals(2, metric.getMetricValuesCount());
+
+    // Legacy callers get a map that backs the metric from then on
+    TreeMap<Long, Double> metricValues = metric.getMetricValues();
+    assertEquals(2, metricValues.size());
+    assertEquals(Long.valueOf(1L), metricValues.firstKey());
+    metricValues.put(3L, 3.0);
+    assertSame(metricValues, metric.getMetricValues());
+    assertEquals(3, metric.getMetricValuesCount());
+
+    TimelineMetricSeries more = new TimelineMetricSeries();
+    more.put(4L, 4.0);
+    metric.addMetricValues(more);
+    assertEquals(4, metricValues.size());
+
+    // Back to the series, with every value put into the map
+    series = metric.getMetricSeries();
+    assertEquals(4, series.size());
+    assertEquals(4L, series.getLastTimestamp());
+
+    // Copies do not share the values
+    TimelineMetric copy = new TimelineMetric(metric);
+    copy.getMetricSeries().put(5L, 5.0);
+    copy.getMetricValues().put(6L, 6.0);
+    assertEquals(4, metric.getMetricValuesCount());
+    assertNull(metric.getMetricValues().get(5L));
+  }
+}
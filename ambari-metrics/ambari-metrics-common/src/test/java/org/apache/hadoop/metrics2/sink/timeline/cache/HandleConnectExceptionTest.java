@@ -224,7 +224,7 @@ public class HandleConnectExceptionTest {
     }
 
     @Override
-    protected boolean emitMetricsJson(String connectUrl, String jsonData) {
+    protected boolean postMetrics(String connectUrl, TimelineMetrics metrics) {
       return true;
     }
 
@@ -26,6 +26,8 @@ import java.util.TreeMap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class TimelineMetricsCacheTest {
 
@@ -124,6 +126,22 @@ public class TimelineMetricsCacheTest {
     assertEquals(DEFAULT_START_TIME + maxEvictionTime * 2, cachedMetric.getStartTime());
   }
 
+  @Test
+  public void testPutDoesNotChangeCallerMetric() throws Exception {
+    TimelineMetric first = createTimelineMetricSingleValue(DEFAULT_START_TIME);
+    TreeMap<Long, Double> firstValues = first.getMetricValues();
+    timelineMetricsCache.putTimelineMetric(first);
+    timelineMetricsCache.putTimelineMetric(createTimelineMetricSingleValue(
+      DEFAULT_START_TIME + 2 * TimelineMetricsCache.MAX_EVICTION_TIME_MILLIS));
+
+    TimelineMetric cachedMetric = timelineMetricsCache.getTimelineMetric(METRIC_NAME);
+    assertNotNull(cachedMetric);
+    assertEquals(2, cachedMetric.getMetricValuesCount());
+    assertNotSame(first, cachedMetric);
+    assertSame(firstValues, first.getMetricValues());
+    assertEquals(1, firstValues.size());
+  }
+
   private TimelineMetric createTimelineMetricSingleValue(final long startTime) {
     TreeMap<Long, Double> values = new TreeMap<Long, Double>();
     values.put(startTime, 0.0);
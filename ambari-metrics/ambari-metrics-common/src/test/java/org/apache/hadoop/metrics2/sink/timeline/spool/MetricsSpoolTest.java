@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.metrics2.sink.timeline.spool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsSpoolTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplayInOrder() throws Exception {
+    MetricsSpool spool = new MetricsSpool(folder.getRoot(), 4096, 60000, 1024);
+    for (int i = 0; i < 20; i++) {
+      assertTrue(spool.append(payload(i, 100), 1000));
+    }
+    assertEquals(20, spool.getDepth());
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, spool.peek(1000)[0]);
+      // not removed, the same batch is returned again
+      assertEquals(i, spool.peek(1000)[0]);
+      spool.remove();
+    }
+    assertNull(spool.peek(1000));
+    assertEquals(0, spool.getDepth());
+    assertEquals(20, spool.getReplayedCount());
+    spool.close();
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    File directory = folder.getRoot();
+    MetricsSpool spool = new MetricsSpool(directory, 4096, 60000, 1024);
+    for (int i = 0; i < 5; i++) {
+      spool.append(payload(i, 100), 1000);
+    }
+    spool.peek(1000);
+    spool.remove();
+    spool.peek(1000);
+    spool.remove();
+    spool.close();
+
+    spool = new MetricsSpool(directory, 4096, 60000, 1024);
+    assertEquals(3, spool.getDepth());
+    assertEquals(2, spool.peek(1000)[0]);
+    spool.remove();
+
+    // appends continue behind the records of the previous process
+    spool.append(payload(5, 100), 1000);
+    assertEquals(3, spool.peek(1000)[0]);
+    spool.remove();
+    assertEquals(4, spool.peek(1000)[0]);
+    spool.remove();
+    assertEquals(5, spool.peek(1000)[0]);
+    spool.close();
+  }
+
+  @Test
+  public void testLocked() throws Exception {
+    MetricsSpool spool = new MetricsSpool(folder.getRoot(), 4096, 60000, 1024);
+    try {
+      new MetricsSpool(folder.getRoot(), 4096, 60000, 1024);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    spool.close();
+  }
+
+  @Test
+  public void testSizeLimit() throws Exception {
+    // four segments of nine records each
+    MetricsSpool spool = new MetricsSpool(folder.getRoot(), 4096, 60000, 1024);
+    for (int i = 0; i < 40; i++) {
+      spool.append(payload(i, 100), 1000);
+    }
+    assertEquals(4096, spool.getSize());
+    assertEquals(9, spool.getDroppedCount());
+    assertEquals(31, spool.getDepth());
+    assertEquals(9, spool.peek(1000)[0]);
+
+    // larger than a segment
+    assertFalse(spool.append(new byte[1024], 1000));
+    assertEquals(10, spool.getDroppedCount());
+    spool.close();
+  }
+
+  @Test
+  public void testAgeLimit() throws Exception {
+    MetricsSpool spool = new MetricsSpool(folder.getRoot(), 4096, 60000, 1024);
+    spool.append(payload(0, 100), 1000);
+    spool.append(payload(1, 100), 50000);
+
+    assertEquals(1, spool.peek(70000)[0]);
+    assertEquals(1, spool.getDroppedCount());
+    assertEquals(1, spool.getDepth());
+    spool.close();
+  }
+
+  private static byte[] payload(int id, int size) {
+    byte[] payload = new byte[size];
+    payload[0] = (byte) id;
+    return payload;
+  }
+}
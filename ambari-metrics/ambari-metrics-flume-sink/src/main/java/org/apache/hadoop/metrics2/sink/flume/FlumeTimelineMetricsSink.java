@@ -107,6 +107,13 @@ public class FlumeTimelineMetricsSink extends AbstractTimelineMetricsSink implem
     metricsSendInterval = Integer.parseInt(configuration.getProperty(METRICS_SEND_INTERVAL,
         String.valueOf(TimelineMetricsCache.MAX_EVICTION_TIME_MILLIS)));
     metricsCaches = new HashMap<String, TimelineMetricsCache>();
+    initSpool(configuration.getProperty(SPOOL_DIR_PROPERTY), "flume",
+        Integer.parseInt(configuration.getProperty(SPOOL_MAX_SIZE_MB_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_MAX_SIZE_MB))),
+        Integer.parseInt(configuration.getProperty(SPOOL_MAX_AGE_SECONDS_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_MAX_AGE_SECONDS))),
+        Integer.parseInt(configuration.getProperty(SPOOL_REPLAY_BATCHES_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_REPLAY_BATCHES))));
     collectorHosts = parseHostsStringIntoCollection(configuration.getProperty(COLLECTOR_HOSTS_PROPERTY));
     zookeeperQuorum = configuration.getProperty("zookeeper.quorum");
     protocol = configuration.getProperty(COLLECTOR_PROTOCOL, "http");
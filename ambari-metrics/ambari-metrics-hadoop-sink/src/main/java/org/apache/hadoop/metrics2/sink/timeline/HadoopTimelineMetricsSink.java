@@ -134,6 +134,12 @@ public class HadoopTimelineMetricsSink extends AbstractTimelineMetricsSink imple
 
 
     timeoutSeconds = conf.getInt(METRICS_POST_TIMEOUT_SECONDS, DEFAULT_POST_TIMEOUT_SECONDS);
+    setPostCompressionEnabled(conf.getBoolean(POST_COMPRESSION_ENABLED_PROPERTY, true));
+    initSpool(conf.getString(SPOOL_DIR_PROPERTY, null),
+      serviceName.isEmpty() ? "hadoop" : serviceName,
+      conf.getInt(SPOOL_MAX_SIZE_MB_PROPERTY, DEFAULT_SPOOL_MAX_SIZE_MB),
+      conf.getInt(SPOOL_MAX_AGE_SECONDS_PROPERTY, DEFAULT_SPOOL_MAX_AGE_SECONDS),
+      conf.getInt(SPOOL_REPLAY_BATCHES_PROPERTY, DEFAULT_SPOOL_REPLAY_BATCHES));
 
     int maxRowCacheSize = conf.getInt(MAX_METRIC_ROW_CACHE_SIZE,
       TimelineMetricsCache.MAX_RECS_PER_NAME_DEFAULT);
@@ -171,6 +171,11 @@ public class KafkaTimelineMetricsReporter extends AbstractTimelineMetricsSink
 
         KafkaMetricsConfig metricsConfig = new KafkaMetricsConfig(props);
         timeoutSeconds = props.getInt(METRICS_POST_TIMEOUT_SECONDS, DEFAULT_POST_TIMEOUT_SECONDS);
+        initSpool(props.getString(TIMELINE_METRICS_KAFKA_PREFIX + SPOOL_DIR_PROPERTY, null),
+          "kafka_broker",
+          props.getInt(TIMELINE_METRICS_KAFKA_PREFIX + SPOOL_MAX_SIZE_MB_PROPERTY, DEFAULT_SPOOL_MAX_SIZE_MB),
+          props.getInt(TIMELINE_METRICS_KAFKA_PREFIX + SPOOL_MAX_AGE_SECONDS_PROPERTY, DEFAULT_SPOOL_MAX_AGE_SECONDS),
+          props.getInt(TIMELINE_METRICS_KAFKA_PREFIX + SPOOL_REPLAY_BATCHES_PROPERTY, DEFAULT_SPOOL_REPLAY_BATCHES));
         int metricsSendInterval = props.getInt(TIMELINE_METRICS_SEND_INTERVAL_PROPERTY, MAX_EVICTION_TIME_MILLIS);
         int maxRowCacheSize = props.getInt(TIMELINE_METRICS_MAX_ROW_CACHE_SIZE_PROPERTY, MAX_RECS_PER_NAME_DEFAULT);
 
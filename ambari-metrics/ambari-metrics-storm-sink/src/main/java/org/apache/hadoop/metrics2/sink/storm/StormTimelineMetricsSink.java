@@ -164,6 +164,16 @@ public class StormTimelineMetricsSink extends AbstractTimelineMetricsSink implem
     }
     this.topologyName = removeNonce(topologyContext.getStormId());
     warnIfTopologyNameContainsWarnString(topologyName);
+
+    // every worker of the topology on this host gets its own spool
+    initSpool(configuration.getProperty(SPOOL_DIR_PROPERTY),
+        topologyName + "-" + topologyContext.getThisWorkerPort(),
+        Integer.parseInt(configuration.getProperty(SPOOL_MAX_SIZE_MB_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_MAX_SIZE_MB))),
+        Integer.parseInt(configuration.getProperty(SPOOL_MAX_AGE_SECONDS_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_MAX_AGE_SECONDS))),
+        Integer.parseInt(configuration.getProperty(SPOOL_REPLAY_BATCHES_PROPERTY,
+            String.valueOf(DEFAULT_SPOOL_REPLAY_BATCHES))));
   }
 
   @Override
@@ -35,6 +35,7 @@ import org.apache.hadoop.yarn.YarnUncaughtExceptionHandler;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.HBaseTimelineMetricStore;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.LocalTimelineMetricStore;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricStore;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.timeline.MemoryTimelineStore;
@@ -46,7 +47,11 @@ import org.apache.hadoop.yarn.webapp.WebApps;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.DISABLE_APPLICATION_TIMELINE_STORE;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_LOCAL_STORE_ENABLED;
 
 /**
  * History server that keeps track of all types of history in the cluster.
@@ -162,7 +167,12 @@ public class ApplicationHistoryServer extends CompositeService {
         TimelineStore.class), conf);
   }
 
-  protected TimelineMetricStore createTimelineMetricStore(Configuration conf) {
+  protected TimelineMetricStore createTimelineMetricStore(Configuration conf)
+      throws URISyntaxException, MalformedURLException {
+    if (metricConfiguration.getMetricsConf().getBoolean(TIMELINE_METRICS_LOCAL_STORE_ENABLED, false)) {
+      LOG.info("Creating local metrics store.");
+      return new LocalTimelineMetricStore(metricConfiguration);
+    }
     LOG.info("Creating metrics store.");
     return new HBaseTimelineMetricStore(metricConfiguration);
   }
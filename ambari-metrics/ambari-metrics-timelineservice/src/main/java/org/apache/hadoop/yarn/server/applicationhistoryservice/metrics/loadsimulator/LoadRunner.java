@@ -58,6 +58,7 @@ public class LoadRunner {
   private final long startTime = new Date().getTime();
   private final int collectIntervalMillis;
   private final int sendIntervalMillis;
+  private final MetricsSender sender;
 
   public LoadRunner(String hostName,
                     int threadCount,
@@ -66,11 +67,29 @@ public class LoadRunner {
                     int collectIntervalMillis,
                     int sendIntervalMillis,
                     boolean createMaster) {
+    this(hostName, threadCount, metricsHostName, minHostIndex, collectIntervalMillis,
+      sendIntervalMillis, createMaster, null);
+  }
+
+  /**
+   * @param sender sender shared by all workers, must be thread safe. If null
+   *               each worker posts to metricsHostName over REST.
+   */
+  public LoadRunner(String hostName,
+                    int threadCount,
+                    String metricsHostName,
+                    int minHostIndex,
+                    int collectIntervalMillis,
+                    int sendIntervalMillis,
+                    boolean createMaster,
+                    MetricsSender sender) {
     this.collectIntervalMillis = collectIntervalMillis;
     this.workersPool = Executors.newFixedThreadPool(threadCount);
     this.timer = Executors.newScheduledThreadPool(1);
     this.sendIntervalMillis = sendIntervalMillis;
 
+    this.sender = sender;
+
     workers = prepareWorkers(hostName, threadCount, metricsHostName, createMaster, minHostIndex);
   }
 
@@ -103,8 +122,8 @@ public class LoadRunner {
     for (AppID app : apps) {
       HostMetricsGenerator metricsGenerator =
         createApplicationMetrics(specificHostName, app);
-      MetricsSender sender = new RestMetricsSender(metricsHostName);
-      senderWorkers.add(new MetricsSenderWorker(sender, metricsGenerator));
+      MetricsSender metricsSender = sender != null ? sender : new RestMetricsSender(metricsHostName);
+      senderWorkers.add(new MetricsSenderWorker(metricsSender, metricsGenerator));
     }
   }
 
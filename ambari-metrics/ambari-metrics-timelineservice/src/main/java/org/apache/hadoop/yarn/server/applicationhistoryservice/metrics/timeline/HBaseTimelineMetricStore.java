@@ -38,6 +38,7 @@ import org.apache.hadoop.yarn.api.records.timeline.TimelinePutResponse;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricAggregator;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricAggregatorFactory;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricsIngestBuffer;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.MetricCollectorHAController;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
@@ -61,12 +62,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_CLUSTER_INMEMORY_AGGREGATION;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_HOST_INMEMORY_AGGREGATION;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_QUERY_CACHE_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.USE_GROUPBY_AGGREGATOR_QUERIES;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.DEFAULT_TOPN_HOSTS_LIMIT;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.ACTUAL_AGGREGATOR_NAMES;
@@ -83,6 +88,8 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
   private Integer defaultTopNHostsLimit;
   private MetricCollectorHAController haController;
   private boolean containerMetricsDisabled = false;
+  private TimelineMetricsIngestBuffer clusterIngestBuffer;
+  private TimelineMetricsQueryCache queryCache;
 
   /**
    * Construct the service.
@@ -129,14 +136,33 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
       TimelineMetricsFilter.initializeMetricFilter(configuration);
 
       defaultTopNHostsLimit = Integer.parseInt(metricsConf.get(DEFAULT_TOPN_HOSTS_LIMIT, "20"));
+      if (metricsConf.getBoolean(TIMELINE_METRICS_QUERY_CACHE_ENABLED, false)) {
+        LOG.info("Caching metric query results.");
+        queryCache = new TimelineMetricsQueryCache(metricsConf);
+        queryCache.start();
+        hBaseAccessor.setQueryCache(queryCache);
+      }
       if (Boolean.parseBoolean(metricsConf.get(USE_GROUPBY_AGGREGATOR_QUERIES, "true"))) {
         LOG.info("Using group by aggregators for aggregating host and cluster metrics.");
       }
 
+      if (Boolean.parseBoolean(metricsConf.get(TIMELINE_METRICS_CLUSTER_INMEMORY_AGGREGATION, "false"))) {
+        // Every collector only sees the hosts that post to it
+        if (configuration.isDistributedCollectorModeDisabled()) {
+          LOG.info("timeline.metrics.cluster.inmemory.aggregation is set to True, " +
+            "second cluster aggregation will use received metrics");
+          clusterIngestBuffer = TimelineMetricAggregatorFactory.createClusterIngestBuffer(metricsConf);
+          hBaseAccessor.setIngestBuffer(clusterIngestBuffer);
+        } else {
+          LOG.warn("Ignoring timeline.metrics.cluster.inmemory.aggregation " +
+            "since distributed collector mode is enabled");
+        }
+      }
+
       // Start the cluster aggregator second
       TimelineMetricAggregator secondClusterAggregator =
         TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(
-          hBaseAccessor, metricsConf, metricMetadataManager, haController);
+          hBaseAccessor, metricsConf, metricMetadataManager, haController, clusterIngestBuffer);
       scheduleAggregatorThread(secondClusterAggregator);
 
       // Start the minute cluster aggregator
@@ -160,6 +186,10 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
       // Start the minute host aggregator
       if (Boolean.parseBoolean(metricsConf.get(TIMELINE_METRICS_HOST_INMEMORY_AGGREGATION, "true"))) {
         LOG.info("timeline.metrics.host.inmemory.aggregation is set to True, disabling host minute aggregation on collector");
+        if (metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false)) {
+          LOG.warn("Host minute aggregates posted by the monitors carry no percentile sketches, " +
+            "host percentiles are only available for precision data.");
+        }
       } else {
         TimelineMetricAggregator minuteHostAggregator =
           TimelineMetricAggregatorFactory.createTimelineMetricAggregatorMinute(
@@ -197,14 +227,18 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
 
   @Override
   protected void serviceStop() throws Exception {
+    if (hBaseAccessor != null) {
+      hBaseAccessor.stop();
+    }
     super.serviceStop();
   }
 
   @Override
-  public TimelineMetrics getTimelineMetrics(List<String> metricNames,
-      List<String> hostnames, String applicationId, String instanceId,
-      Long startTime, Long endTime, Precision precision, Integer limit,
-      boolean groupedByHosts, TopNConfig topNConfig, String seriesAggregateFunction) throws SQLException, IOException {
+  public TimelineMetrics getTimelineMetrics(final List<String> metricNames,
+      final List<String> hostnames, final String applicationId, final String instanceId,
+      Long startTime, Long endTime, Precision precision, final Integer limit,
+      final boolean groupedByHosts, final TopNConfig topNConfig,
+      final String seriesAggregateFunction) throws SQLException, IOException {
 
     if (metricNames == null || metricNames.isEmpty()) {
       throw new IllegalArgumentException("No metric name filter specified.");
@@ -217,6 +251,32 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
       throw new IllegalArgumentException("Limit too big");
     }
 
+    // Latest value queries are always live, limits apply to the rows of the
+    // requested range and not to the widened one of the cache
+    if (queryCache == null || startTime == null || limit != null) {
+      return queryTimelineMetrics(metricNames, hostnames, applicationId, instanceId,
+        startTime, endTime, precision, limit, groupedByHosts, topNConfig, seriesAggregateFunction);
+    }
+
+    final TimelineMetricsQueryCache.QueryKey key = queryCache.createKey(metricNames, hostnames,
+      applicationId, instanceId, startTime, endTime, precision, limit, groupedByHosts,
+      topNConfig, seriesAggregateFunction);
+    return queryCache.get(key, startTime, endTime, new Callable<TimelineMetrics>() {
+      @Override
+      public TimelineMetrics call() throws Exception {
+        return queryTimelineMetrics(metricNames, hostnames, applicationId, instanceId,
+          key.getStartTime(), key.getEndTime(), key.getPrecision(), limit, groupedByHosts,
+          topNConfig, seriesAggregateFunction);
+      }
+    });
+  }
+
+  private TimelineMetrics queryTimelineMetrics(List<String> metricNames,
+      List<String> hostnames, String applicationId, String instanceId,
+      Long startTime, Long endTime, Precision precision, Integer limit,
+      boolean groupedByHosts, TopNConfig topNConfig, String seriesAggregateFunction)
+      throws SQLException, IOException {
+
     TimelineMetricsSeriesAggregateFunction seriesAggrFunctionInstance = null;
     if (!StringUtils.isEmpty(seriesAggregateFunction)) {
       SeriesAggregateFunction func = SeriesAggregateFunction.getFunction(seriesAggregateFunction);
@@ -257,6 +317,18 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
 
     Condition condition = conditionBuilder.build();
 
+    if (seriesAggrFunctionInstance != null && condition.isGrouped() && !condition.isPointInTime()) {
+      // Aggregate the rows as they are read, without holding every series
+      TimelineMetricsSeriesReducer reducer =
+        new TimelineMetricsSeriesReducer(seriesAggrFunctionInstance.newAggregator());
+      if (hostnames == null || hostnames.isEmpty()) {
+        hBaseAccessor.getAggregateMetricRecords(condition, metricFunctions, reducer);
+      } else {
+        hBaseAccessor.getMetricRecords(condition, metricFunctions, reducer);
+      }
+      return reducer.getAggregatedMetrics();
+    }
+
     TimelineMetrics metrics;
 
     if (hostnames == null || hostnames.isEmpty()) {
@@ -274,7 +346,7 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
     return seriesAggregateMetrics(seriesAggrFunctionInstance, metrics);
   }
 
-  private TimelineMetrics postProcessMetrics(TimelineMetrics metrics) {
+  static TimelineMetrics postProcessMetrics(TimelineMetrics metrics) {
     List<TimelineMetric> metricsList = metrics.getMetrics();
 
     for (TimelineMetric metric : metricsList){
@@ -289,7 +361,7 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
     return metrics;
   }
 
-  private TimelineMetrics seriesAggregateMetrics(TimelineMetricsSeriesAggregateFunction seriesAggrFuncInstance,
+  static TimelineMetrics seriesAggregateMetrics(TimelineMetricsSeriesAggregateFunction seriesAggrFuncInstance,
       TimelineMetrics metrics) {
     if (seriesAggrFuncInstance != null) {
       TimelineMetric appliedMetric = seriesAggrFuncInstance.apply(metrics);
@@ -380,6 +452,11 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
 
   @Override
   public Map<String, List<TimelineMetricMetadata>> getTimelineMetricMetadata(String query) throws SQLException, IOException {
+    return getTimelineMetricMetadata(metricMetadataManager, query);
+  }
+
+  static Map<String, List<TimelineMetricMetadata>> getTimelineMetricMetadata(
+      TimelineMetricMetadataManager metricMetadataManager, String query) {
     Map<TimelineMetricMetadataKey, TimelineMetricMetadata> metadata =
       metricMetadataManager.getMetadataCache();
 
@@ -424,10 +501,17 @@ public class HBaseTimelineMetricStore extends AbstractService implements Timelin
   @Override
   public Map<String, Map<String,Set<String>>> getInstanceHostsMetadata(String instanceId, String appId)
           throws SQLException, IOException {
+    return getInstanceHostsMetadata(metricMetadataManager,
+      configuration.getTimelineMetricsMultipleClusterSupport(), instanceId, appId);
+  }
+
+  static Map<String, Map<String,Set<String>>> getInstanceHostsMetadata(
+      TimelineMetricMetadataManager metricMetadataManager, boolean multipleClusterSupport,
+      String instanceId, String appId) {
 
     Map<String, Set<String>> hostedApps = metricMetadataManager.getHostedAppsCache();
     Map<String, Set<String>> instanceHosts = new HashMap<>();
-    if (configuration.getTimelineMetricsMultipleClusterSupport()) {
+    if (multipleClusterSupport) {
       instanceHosts = metricMetadataManager.getHostedInstanceCache();
     }
 
@@ -0,0 +1,529 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import com.google.common.collect.Multimap;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.sink.timeline.AggregationResult;
+import org.apache.hadoop.metrics2.sink.timeline.ContainerMetric;
+import org.apache.hadoop.metrics2.sink.timeline.Precision;
+import org.apache.hadoop.metrics2.sink.timeline.QuantileSketch;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricMetadata;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.metrics2.sink.timeline.TopNConfig;
+import org.apache.hadoop.service.AbstractService;
+import org.apache.hadoop.yarn.api.records.timeline.TimelinePutResponse;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataManager;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.SeriesAggregateFunction;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.TimelineMetricsSeriesAggregateFunction;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.TimelineMetricsSeriesAggregateFunctionFactory;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local.LocalTimelineMetricMetadataStore;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local.TimelineMetricSegmentStore;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local.TimelineMetricSeriesDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.CLUSTER_AGGREGATOR_TIMESLICE_INTERVAL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.DEFAULT_CHECKPOINT_LOCATION;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.GLOBAL_RESULT_LIMIT;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_LOCAL_STORE_DIR;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_LOCAL_STORE_PARTITION_INTERVAL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_LOCAL_STORE_TTL;
+
+/**
+ * Metric store for small clusters which keeps the metrics in a
+ * {@link TimelineMetricSegmentStore} on local disk instead of HBase.
+ *
+ * Only the points posted by the sinks are stored. Minute, hour and day
+ * precisions as well as cluster metrics are computed from them when they are
+ * read, so none of the aggregator threads of the HBase store run. Cluster
+ * values follow the second cluster aggregator: the average of every host in
+ * a time slice is aggregated across the hosts. Points are kept until their
+ * partition is older than the TTL.
+ *
+ * Top N queries are not supported and return every matching series.
+ */
+public class LocalTimelineMetricStore extends AbstractService implements TimelineMetricStore {
+
+  static final Log LOG = LogFactory.getLog(LocalTimelineMetricStore.class);
+  static final String SERIES_DICTIONARY_FILE = "series.dict";
+  static final String SEGMENTS_DIR = "segments";
+  static final String METADATA_DIR = "metadata";
+
+  private final TimelineMetricConfiguration configuration;
+  private final ScheduledExecutorService retentionExecutor = Executors.newSingleThreadScheduledExecutor();
+  private TimelineMetricSeriesDictionary seriesDictionary;
+  private TimelineMetricSegmentStore segmentStore;
+  private TimelineMetricMetadataManager metricMetadataManager;
+  private long timeSliceMillis;
+  private int resultLimit;
+
+  public LocalTimelineMetricStore(TimelineMetricConfiguration configuration) {
+    super(LocalTimelineMetricStore.class.getName());
+    this.configuration = configuration;
+  }
+
+  @Override
+  protected void serviceInit(Configuration conf) throws Exception {
+    super.serviceInit(conf);
+    Configuration metricsConf = configuration.getMetricsConf();
+
+    File directory = new File(metricsConf.get(TIMELINE_METRICS_LOCAL_STORE_DIR,
+      metricsConf.get(TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR, DEFAULT_CHECKPOINT_LOCATION)
+        + File.separator + "ams-local-store"));
+    long ttlMillis = TimeUnit.SECONDS.toMillis(
+      metricsConf.getLong(TIMELINE_METRICS_LOCAL_STORE_TTL, TimeUnit.DAYS.toSeconds(7)));
+    final long partitionMillis = TimeUnit.SECONDS.toMillis(
+      metricsConf.getLong(TIMELINE_METRICS_LOCAL_STORE_PARTITION_INTERVAL, 3600));
+    timeSliceMillis = TimeUnit.SECONDS.toMillis(
+      metricsConf.getInt(CLUSTER_AGGREGATOR_TIMESLICE_INTERVAL, 30));
+    resultLimit = metricsConf.getInt(GLOBAL_RESULT_LIMIT, PhoenixHBaseAccessor.RESULTSET_LIMIT);
+
+    LOG.info("Storing metrics in " + directory + " for " +
+      TimeUnit.MILLISECONDS.toHours(ttlMillis) + " hours.");
+    seriesDictionary = new TimelineMetricSeriesDictionary(new File(directory, SERIES_DICTIONARY_FILE));
+    segmentStore = new TimelineMetricSegmentStore(new File(directory, SEGMENTS_DIR),
+      partitionMillis, ttlMillis);
+
+    metricMetadataManager = new TimelineMetricMetadataManager(
+      new LocalTimelineMetricMetadataStore(new File(directory, METADATA_DIR)), metricsConf);
+    metricMetadataManager.initializeMetadata();
+
+    //Initialize whitelisting & blacklisting if needed
+    TimelineMetricsFilter.initializeMetricFilter(configuration);
+
+    retentionExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          int dropped = segmentStore.dropExpired(System.currentTimeMillis());
+          if (dropped > 0) {
+            LOG.info("Dropped " + dropped + " expired metric segments.");
+          }
+        } catch (Exception e) {
+          LOG.warn("Unable to drop expired metric segments.", e);
+        }
+      }
+    }, 0, partitionMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  protected void serviceStop() throws Exception {
+    retentionExecutor.shutdownNow();
+    if (segmentStore != null) {
+      segmentStore.close();
+    }
+    if (seriesDictionary != null) {
+      seriesDictionary.close();
+    }
+    super.serviceStop();
+  }
+
+  @Override
+  public TimelineMetrics getTimelineMetrics(List<String> metricNames, List<String> hostnames,
+      String applicationId, String instanceId, Long startTime, Long endTime,
+      Precision precision, Integer limit, boolean groupedByHosts, TopNConfig topNConfig,
+      String seriesAggregateFunction) throws SQLException, IOException {
+
+    if (metricNames == null || metricNames.isEmpty()) {
+      throw new IllegalArgumentException("No metric name filter specified.");
+    }
+    if ((startTime == null && endTime != null)
+        || (startTime != null && endTime == null)) {
+      throw new IllegalArgumentException("Open ended query not supported ");
+    }
+    if (limit != null && limit > resultLimit){
+      throw new IllegalArgumentException("Limit too big");
+    }
+    if (topNConfig != null) {
+      LOG.debug("Top N queries are not supported by the local store, returning all series.");
+    }
+
+    TimelineMetricsSeriesAggregateFunction seriesAggrFunctionInstance = null;
+    if (!StringUtils.isEmpty(seriesAggregateFunction)) {
+      SeriesAggregateFunction func = SeriesAggregateFunction.getFunction(seriesAggregateFunction);
+      seriesAggrFunctionInstance = TimelineMetricsSeriesAggregateFunctionFactory.newInstance(func);
+    }
+
+    Multimap<String, List<Function>> metricFunctions =
+      HBaseTimelineMetricStore.parseMetricNamesToAggregationFunctions(metricNames);
+
+    // Series of every requested name, and all of them for a single scan
+    Map<String, BitSet> seriesByName = new HashMap<>();
+    BitSet allSeries = new BitSet();
+    for (String metricName : metricFunctions.keySet()) {
+      BitSet seriesIds = seriesDictionary.find(Collections.singletonList(metricName),
+        hostnames, applicationId, instanceId);
+      seriesByName.put(metricName, seriesIds);
+      allSeries.or(seriesIds);
+    }
+
+    final Map<Integer, TimelineMetricSeries> points = new HashMap<>();
+    TimelineMetricSegmentStore.PointVisitor collector = new TimelineMetricSegmentStore.PointVisitor() {
+      @Override
+      public void visit(int seriesId, long timestamp, double value) {
+        TimelineMetricSeries series = points.get(seriesId);
+        if (series == null) {
+          series = new TimelineMetricSeries();
+          points.put(seriesId, series);
+        }
+        series.put(timestamp, value);
+      }
+    };
+    if (startTime == null) {
+      segmentStore.scanLatest(allSeries, collector);
+    } else {
+      segmentStore.scan(allSeries, startTime, endTime, collector);
+      if (precision == null) {
+        precision = Precision.getPrecision(startTime, endTime);
+      }
+    }
+
+    boolean isClusterQuery = hostnames == null || hostnames.isEmpty();
+    long bucketMillis = getBucketMillis(precision);
+    TimelineMetrics metrics = new TimelineMetrics();
+    for (Map.Entry<String, List<Function>> entry : metricFunctions.entries()) {
+      BitSet seriesIds = seriesByName.get(entry.getKey());
+      for (Function function : entry.getValue()) {
+        if (isClusterQuery) {
+          addClusterMetrics(metrics, seriesIds, points, function,
+            Math.max(bucketMillis, timeSliceMillis), startTime == null);
+        } else {
+          addHostMetrics(metrics, seriesIds, points, function, bucketMillis);
+        }
+      }
+    }
+
+    if (limit != null) {
+      for (TimelineMetric metric : metrics.getMetrics()) {
+        TimelineMetricSeries series = metric.getMetricSeries();
+        if (series.size() > limit) {
+          series.removeBefore(series.getTimestamp(series.size() - limit));
+          metric.setMetricSeries(series);
+        }
+      }
+    }
+
+    metrics = HBaseTimelineMetricStore.postProcessMetrics(metrics);
+
+    if (metrics.getMetrics().size() == 0) {
+      return metrics;
+    }
+
+    return HBaseTimelineMetricStore.seriesAggregateMetrics(seriesAggrFunctionInstance, metrics);
+  }
+
+  /**
+   * @return the length of the buckets points are aggregated in, 0 to return
+   * the points as stored
+   */
+  static long getBucketMillis(Precision precision) {
+    if (precision == null) {
+      return 0;
+    }
+    switch (precision) {
+      case MINUTES:
+        return TimeUnit.MINUTES.toMillis(1);
+      case HOURS:
+        return TimeUnit.HOURS.toMillis(1);
+      case DAYS:
+        return TimeUnit.DAYS.toMillis(1);
+      default:
+        return 0;
+    }
+  }
+
+  private void addHostMetrics(TimelineMetrics metrics, BitSet seriesIds,
+                              Map<Integer, TimelineMetricSeries> points,
+                              Function function, long bucketMillis) {
+    Function.ReadFunction readFunction = function.getReadFunction();
+    if (bucketMillis == 0 && readFunction.isPercentile()) {
+      // Percentiles of single points are the points themselves
+      bucketMillis = TimeUnit.MINUTES.toMillis(1);
+    }
+
+    for (int id = seriesIds.nextSetBit(0); id >= 0; id = seriesIds.nextSetBit(id + 1)) {
+      TimelineMetricSeries values = points.get(id);
+      if (values == null) {
+        continue;
+      }
+      TimelineMetricSeriesDictionary.Series series = seriesDictionary.getSeries(id);
+      TimelineMetric metric = createMetric(series, series.getHostName(), function);
+
+      if (bucketMillis == 0) {
+        // Series are stored without a copy, functions of the same metric
+        // must not share one
+        metric.setMetricSeries(new TimelineMetricSeries(values));
+      } else {
+        TreeMap<Long, Accumulator> buckets = new TreeMap<>();
+        for (int i = 0; i < values.size(); i++) {
+          long timestamp = values.getTimestamp(i);
+          getAccumulator(buckets, timestamp - timestamp % bucketMillis, readFunction)
+            .add(values.getValue(i));
+        }
+        metric.setMetricSeries(toSeries(buckets, readFunction));
+      }
+      metric.setStartTime(metric.getMetricValues().firstKey());
+      metrics.getMetrics().add(metric);
+    }
+  }
+
+  private void addClusterMetrics(TimelineMetrics metrics, BitSet seriesIds,
+                                 Map<Integer, TimelineMetricSeries> points,
+                                 Function function, long bucketMillis, boolean latestOnly) {
+    Function.ReadFunction readFunction = function.getReadFunction();
+
+    // metric name, app id, instance id -> time slice -> host averages
+    Map<List<String>, TreeMap<Long, Accumulator>> clusterSlices = new LinkedHashMap<>();
+    Map<List<String>, TimelineMetricSeriesDictionary.Series> firstSeries = new HashMap<>();
+    for (int id = seriesIds.nextSetBit(0); id >= 0; id = seriesIds.nextSetBit(id + 1)) {
+      TimelineMetricSeries values = points.get(id);
+      if (values == null) {
+        continue;
+      }
+      TimelineMetricSeriesDictionary.Series series = seriesDictionary.getSeries(id);
+      List<String> key = Arrays.asList(series.getMetricName(), series.getAppId(), series.getInstanceId());
+      TreeMap<Long, Accumulator> slices = clusterSlices.get(key);
+      if (slices == null) {
+        slices = new TreeMap<>();
+        clusterSlices.put(key, slices);
+        firstSeries.put(key, series);
+      }
+
+      TreeMap<Long, Accumulator> hostSlices = new TreeMap<>();
+      for (int i = 0; i < values.size(); i++) {
+        long timestamp = values.getTimestamp(i);
+        getAccumulator(hostSlices, timestamp - timestamp % timeSliceMillis, null)
+          .add(values.getValue(i));
+      }
+      for (Map.Entry<Long, Accumulator> hostSlice : hostSlices.entrySet()) {
+        getAccumulator(slices, hostSlice.getKey(), readFunction)
+          .add(hostSlice.getValue().get(Function.ReadFunction.AVG));
+      }
+    }
+
+    for (Map.Entry<List<String>, TreeMap<Long, Accumulator>> entry : clusterSlices.entrySet()) {
+      TreeMap<Long, Accumulator> slices = entry.getValue();
+      if (latestOnly) {
+        // Hosts which did not report in the last slice are left out
+        slices = new TreeMap<>(slices.tailMap(slices.lastKey()));
+      }
+      TreeMap<Long, Accumulator> buckets = new TreeMap<>();
+      for (Map.Entry<Long, Accumulator> slice : slices.entrySet()) {
+        getAccumulator(buckets, slice.getKey() - slice.getKey() % bucketMillis, readFunction)
+          .addSlice(slice.getValue());
+      }
+
+      TimelineMetric metric = createMetric(firstSeries.get(entry.getKey()), null, function);
+      TimelineMetricSeries values = toSeries(buckets, readFunction);
+      metric.setMetricSeries(values);
+      metric.setStartTime(values.getFirstTimestamp());
+      metrics.getMetrics().add(metric);
+    }
+  }
+
+  private static TimelineMetric createMetric(TimelineMetricSeriesDictionary.Series series,
+                                             String hostName, Function function) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(series.getMetricName() + function.getSuffix());
+    metric.setAppId(series.getAppId());
+    metric.setInstanceId(series.getInstanceId());
+    metric.setHostName(hostName);
+    metric.setUnits(series.getUnits());
+    metric.setType(series.getType());
+    return metric;
+  }
+
+  private static Accumulator getAccumulator(TreeMap<Long, Accumulator> buckets, long bucket,
+                                            Function.ReadFunction readFunction) {
+    Accumulator accumulator = buckets.get(bucket);
+    if (accumulator == null) {
+      accumulator = new Accumulator(readFunction != null && readFunction.isPercentile());
+      buckets.put(bucket, accumulator);
+    }
+    return accumulator;
+  }
+
+  private static TimelineMetricSeries toSeries(TreeMap<Long, Accumulator> buckets,
+                                               Function.ReadFunction readFunction) {
+    TimelineMetricSeries series = new TimelineMetricSeries(buckets.size());
+    for (Map.Entry<Long, Accumulator> bucket : buckets.entrySet()) {
+      series.put(bucket.getKey(), bucket.getValue().get(readFunction));
+    }
+    return series;
+  }
+
+  /**
+   * Values of a time bucket. A cluster bucket is built from time slices of
+   * host averages, its sum is the average sum of the slices.
+   */
+  private static class Accumulator {
+    private final QuantileSketch sketch;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long count;
+    private int slices;
+
+    Accumulator(boolean withSketch) {
+      sketch = withSketch ? new QuantileSketch() : null;
+    }
+
+    void add(double value) {
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      count++;
+      if (sketch != null) {
+        sketch.add(value);
+      }
+    }
+
+    void addSlice(Accumulator slice) {
+      sum += slice.sum;
+      min = Math.min(min, slice.min);
+      max = Math.max(max, slice.max);
+      count += slice.count;
+      if (sketch != null) {
+        sketch.merge(slice.sketch);
+      }
+      slices++;
+    }
+
+    double get(Function.ReadFunction readFunction) {
+      if (readFunction.isPercentile()) {
+        return sketch.getQuantile(readFunction.getQuantile());
+      }
+      switch (readFunction) {
+        case MIN:
+          return min;
+        case MAX:
+          return max;
+        case SUM:
+          return slices == 0 ? sum : sum / slices;
+        default:
+          return sum / count;
+      }
+    }
+  }
+
+  @Override
+  public TimelinePutResponse putMetrics(TimelineMetrics metrics) throws SQLException, IOException {
+    TimelinePutResponse response = new TimelinePutResponse();
+    List<TimelineMetric> timelineMetrics = metrics.getMetrics();
+    if (timelineMetrics == null || timelineMetrics.isEmpty()) {
+      LOG.debug("Empty metrics insert request.");
+      return response;
+    }
+
+    long now = System.currentTimeMillis();
+    long expiredPoints = 0;
+    for (TimelineMetric metric : timelineMetrics) {
+      boolean acceptMetric = TimelineMetricsFilter.acceptMetric(metric);
+
+      metricMetadataManager.putIfModifiedTimelineMetricMetadata(
+        metricMetadataManager.getTimelineMetricMetadata(metric, acceptMetric));
+      metricMetadataManager.putIfModifiedHostedAppsMetadata(
+        metric.getHostName(), metric.getAppId());
+      if (!metric.getAppId().equals("FLUME_HANDLER")) {
+        metricMetadataManager.putIfModifiedHostedInstanceMetadata(metric.getInstanceId(), metric.getHostName());
+      }
+      if (!acceptMetric) {
+        continue;
+      }
+
+      int seriesId = seriesDictionary.getOrCreateId(metric);
+      TimelineMetricSeries values = metric.getMetricSeries();
+      for (int i = 0; i < values.size(); i++) {
+        if (!segmentStore.append(seriesId, values.getTimestamp(i), values.getValue(i), now)) {
+          expiredPoints++;
+        }
+      }
+    }
+
+    if (expiredPoints > 0 && LOG.isDebugEnabled()) {
+      LOG.debug("Ignored " + expiredPoints + " points older than the TTL.");
+    }
+    return response;
+  }
+
+  @Override
+  public TimelinePutResponse putContainerMetrics(List<ContainerMetric> metrics)
+      throws SQLException, IOException {
+    LOG.debug("Ignoring submitted container metrics, they are not kept by the local store.");
+    return new TimelinePutResponse();
+  }
+
+  @Override
+  public TimelinePutResponse putHostAggregatedMetrics(AggregationResult aggregationResult)
+      throws SQLException, IOException {
+    // Host aggregates are computed from the stored points when they are read
+    return new TimelinePutResponse();
+  }
+
+  @Override
+  public Map<String, List<TimelineMetricMetadata>> getTimelineMetricMetadata(String query)
+      throws SQLException, IOException {
+    return HBaseTimelineMetricStore.getTimelineMetricMetadata(metricMetadataManager, query);
+  }
+
+  @Override
+  public Map<String, Set<String>> getHostAppsMetadata() throws SQLException, IOException {
+    return metricMetadataManager.getHostedAppsCache();
+  }
+
+  @Override
+  public Map<String, Map<String, Set<String>>> getInstanceHostsMetadata(String instanceId, String appId)
+      throws SQLException, IOException {
+    return HBaseTimelineMetricStore.getInstanceHostsMetadata(metricMetadataManager,
+      configuration.getTimelineMetricsMultipleClusterSupport(), instanceId, appId);
+  }
+
+  @Override
+  public List<String> getLiveInstances() {
+    // Always a single collector
+    try {
+      return Collections.singletonList(configuration.getInstanceHostnameFromEnv());
+    } catch (UnknownHostException e) {
+      LOG.debug("Exception on getting hostname from env.", e);
+      return Collections.emptyList();
+    }
+  }
+}
@@ -31,12 +31,15 @@ import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.util.RetryCounter;
 import org.apache.hadoop.hbase.util.RetryCounterFactory;
 import org.apache.hadoop.metrics2.sink.timeline.ContainerMetric;
+import org.apache.hadoop.metrics2.sink.timeline.MetricAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.MetricClusterAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.MetricHostAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.Precision;
+import org.apache.hadoop.metrics2.sink.timeline.QuantileSketch;
 import org.apache.hadoop.metrics2.sink.timeline.SingleValuedTimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricMetadata;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.yarn.api.records.ContainerId;
@@ -44,8 +47,13 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineClusterMetric;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricReadHelper;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricReadHelper.PercentileSource;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricsIngestBuffer;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec.GorillaTimelineMetricValuesCodec;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec.TimelineMetricValuesCodec;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataManager;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataStore;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.Condition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.DefaultPhoenixDataSource;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixConnectionProvider;
@@ -53,6 +61,8 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.SplitByMetricNamesCondition;
 import org.apache.hadoop.yarn.util.timeline.TimelineUtils;
 import org.apache.phoenix.exception.PhoenixIOException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 
@@ -63,6 +73,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -112,6 +123,11 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_CACHE_COMMIT_INTERVAL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_CACHE_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRIC_AGGREGATOR_SINK_CLASS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PRECISION_VALUES_CODEC_CLASS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PRECISION_VALUES_ENCODING_ENABLED;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PRECISION_VALUES_JSON_ENABLED;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_QUEUE_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CONTAINER_METRICS_TABLE_NAME;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CREATE_CONTAINER_METRICS_TABLE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CREATE_HOSTED_APPS_METADATA_TABLE_SQL;
@@ -121,6 +137,8 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CREATE_METRICS_CLUSTER_AGGREGATE_TABLE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CREATE_METRICS_METADATA_TABLE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.ALTER_METRICS_METADATA_TABLE;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.ALTER_METRICS_AGGREGATE_TABLE_ADD_SKETCH;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.ALTER_METRICS_RECORD_TABLE;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.CREATE_METRICS_TABLE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.DEFAULT_ENCODING;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.DEFAULT_TABLE_COMPRESSION;
@@ -137,8 +155,11 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_RECORD_TABLE_NAME;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.PHOENIX_TABLES;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_AGGREGATE_RECORD_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_AGGREGATE_RECORD_WITH_SKETCH_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_CLUSTER_AGGREGATE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_CLUSTER_AGGREGATE_TIME_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_CLUSTER_AGGREGATE_WITH_SKETCH_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_HOSTED_APPS_METADATA_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_INSTANCE_HOST_METADATA_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.UPSERT_METADATA_SQL;
@@ -149,7 +170,7 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 /**
  * Provides a facade over the Phoenix API to access HBase schema
  */
-public class PhoenixHBaseAccessor {
+public class PhoenixHBaseAccessor implements TimelineMetricMetadataStore {
   private static final Log LOG = LogFactory.getLog(PhoenixHBaseAccessor.class);
 
   static final int PHOENIX_MAX_MUTATION_STATE_SIZE = 50000;
@@ -165,11 +186,16 @@ public class PhoenixHBaseAccessor {
   private static final int POINTS_PER_MINUTE = 6;
   public static int RESULTSET_LIMIT = (int)TimeUnit.HOURS.toMinutes(2) * METRICS_PER_MINUTE * POINTS_PER_MINUTE ;
 
-  static final TimelineMetricReadHelper TIMELINE_METRIC_READ_HELPER = new TimelineMetricReadHelper();
   static ObjectMapper mapper = new ObjectMapper();
   static TypeReference<TreeMap<Long, Double>> metricValuesTypeRef = new TypeReference<TreeMap<Long, Double>>() {};
-
   private final Configuration hbaseConf;
+  /**
+   * Codec for the METRICS_ENCODED column. Readers always decode the binary
+   * column when present and fall back to the JSON METRICS column for rows
+   * written before encoding was enabled.
+   */
+  private final TimelineMetricValuesCodec valuesCodec;
+  private final TimelineMetricReadHelper timelineMetricReadHelper;
   private final Configuration metricsConf;
   private final RetryCounterFactory retryCounterFactory;
   private final PhoenixConnectionProvider dataSource;
@@ -179,11 +205,17 @@ public class PhoenixHBaseAccessor {
   private final BlockingQueue<TimelineMetrics> insertCache;
   private ScheduledExecutorService scheduledExecutorService;
   private MetricsCacheCommitterThread metricsCommiterThread;
+  private TimelineMetricsWriteQueue writeQueue;
+  private volatile TimelineMetricsQueryCache queryCache;
+  private volatile TimelineMetricsIngestBuffer ingestBuffer;
   private TimelineMetricsAggregatorSink aggregatorSink;
   private final int cacheCommitInterval;
   private final boolean skipBlockCacheForAggregatorsEnabled;
   private final String timelineMetricsTablesDurability;
   private final String timelineMetricsPrecisionTableDurability;
+  private final boolean encodeMetricValues;
+  private final boolean writeJsonMetricValues;
+  private final boolean percentileSketchEnabled;
 
   static final String HSTORE_COMPACTION_CLASS_KEY =
     "hbase.hstore.defaultengine.compactionpolicy.class";
@@ -227,6 +259,19 @@ public class PhoenixHBaseAccessor {
     this.skipBlockCacheForAggregatorsEnabled = metricsConf.getBoolean(AGGREGATORS_SKIP_BLOCK_CACHE, false);
     this.timelineMetricsTablesDurability = metricsConf.get(TIMELINE_METRICS_AGGREGATE_TABLES_DURABILITY, "");
     this.timelineMetricsPrecisionTableDurability = metricsConf.get(TIMELINE_METRICS_PRECISION_TABLE_DURABILITY, "");
+    this.encodeMetricValues = metricsConf.getBoolean(TIMELINE_METRICS_PRECISION_VALUES_ENCODING_ENABLED, false);
+    // JSON is kept by default until encoding is switched on, enabling both
+    // allows a rolling migration where older readers still see the JSON column.
+    this.writeJsonMetricValues = !encodeMetricValues ||
+      metricsConf.getBoolean(TIMELINE_METRICS_PRECISION_VALUES_JSON_ENABLED, false);
+    this.percentileSketchEnabled = metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false);
+
+    Class<? extends TimelineMetricValuesCodec> codecClass =
+      metricsConf.getClass(TIMELINE_METRICS_PRECISION_VALUES_CODEC_CLASS,
+        GorillaTimelineMetricValuesCodec.class, TimelineMetricValuesCodec.class);
+    this.valuesCodec = ReflectionUtils.newInstance(codecClass, metricsConf);
+    LOG.info("Initialized metric values codec class " + codecClass);
+    this.timelineMetricReadHelper = new TimelineMetricReadHelper(valuesCodec, false);
 
     tableTTL.put(METRICS_RECORD_TABLE_NAME, metricsConf.get(PRECISION_TABLE_TTL, String.valueOf(1 * 86400)));  // 1 day
     tableTTL.put(CONTAINER_METRICS_TABLE_NAME, metricsConf.get(CONTAINER_METRICS_TTL, String.valueOf(30 * 86400)));  // 30 days
@@ -238,7 +283,23 @@ public class PhoenixHBaseAccessor {
     tableTTL.put(METRICS_CLUSTER_AGGREGATE_HOURLY_TABLE_NAME, metricsConf.get(CLUSTER_HOUR_TABLE_TTL, String.valueOf(365 * 86400))); //1 year
     tableTTL.put(METRICS_CLUSTER_AGGREGATE_DAILY_TABLE_NAME, metricsConf.get(CLUSTER_DAILY_TABLE_TTL, String.valueOf(730 * 86400))); //2 years
 
-    if (cacheEnabled) {
+    if (metricsConf.getBoolean(TIMELINE_METRICS_WRITE_QUEUE_ENABLED, false)) {
+      try {
+        writeQueue = new TimelineMetricsWriteQueue(metricsConf,
+          new TimelineMetricsWriteQueue.BatchCommitter() {
+            @Override
+            public void commitBatch(List<TimelineMetric> metrics) throws SQLException, IOException {
+              commitMetricBatch(metrics);
+            }
+          });
+        writeQueue.start();
+      } catch (IOException e) {
+        LOG.error("Unable to initialize metrics write queue, falling back to the metrics cache.", e);
+        writeQueue = null;
+      }
+    }
+
+    if (cacheEnabled && writeQueue == null) {
       LOG.debug("Initialising and starting metrics cache committer thread...");
       metricsCommiterThread = new MetricsCacheCommitterThread(this);
       scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
@@ -255,6 +316,42 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  /**
+   * Flush the write queue, queued metrics that cannot be committed are
+   * spilled and replayed on the next start.
+   */
+  public void stop() {
+    if (writeQueue != null) {
+      writeQueue.stop();
+    }
+  }
+
+  /**
+   * Cache of query results to notify about committed metrics.
+   */
+  public void setQueryCache(TimelineMetricsQueryCache queryCache) {
+    this.queryCache = queryCache;
+  }
+
+  /**
+   * Buffer of the second cluster aggregator to feed with accepted metrics.
+   */
+  public void setIngestBuffer(TimelineMetricsIngestBuffer ingestBuffer) {
+    this.ingestBuffer = ingestBuffer;
+  }
+
+  /**
+   * Codec of the METRICS_ENCODED column, shared with the aggregators reading
+   * METRIC_RECORD.
+   */
+  public TimelineMetricValuesCodec getValuesCodec() {
+    return valuesCodec;
+  }
+
+  TimelineMetricsWriteQueue getWriteQueue() {
+    return writeQueue;
+  }
+
   public boolean isInsertCacheEmpty() {
     return insertCache.isEmpty();
   }
@@ -286,37 +383,11 @@ public class PhoenixHBaseAccessor {
               UPSERT_METRICS_SQL, METRICS_RECORD_TABLE_NAME));
       for (TimelineMetrics timelineMetrics : timelineMetricsCollection) {
         for (TimelineMetric metric : timelineMetrics.getMetrics()) {
-          if (Math.abs(currentTime - metric.getStartTime()) > outOfBandTimeAllowance) {
-            // If timeseries start time is way in the past : discard
-            LOG.debug("Discarding out of band timeseries, currentTime = "
-                    + currentTime + ", startTime = " + metric.getStartTime()
-                    + ", hostname = " + metric.getHostName());
+          if (isOutOfBand(metric, currentTime)) {
             continue;
           }
 
-          metricRecordStmt.clearParameters();
-
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("host: " + metric.getHostName() + ", " +
-                    "metricName = " + metric.getMetricName() + ", " +
-                    "values: " + metric.getMetricValues());
-          }
-          double[] aggregates = AggregatorUtils.calculateAggregates(
-                  metric.getMetricValues());
-
-          metricRecordStmt.setString(1, metric.getMetricName());
-          metricRecordStmt.setString(2, metric.getHostName());
-          metricRecordStmt.setString(3, metric.getAppId());
-          metricRecordStmt.setString(4, metric.getInstanceId());
-          metricRecordStmt.setLong(5, currentTime);
-          metricRecordStmt.setLong(6, metric.getStartTime());
-          metricRecordStmt.setString(7, metric.getUnits());
-          metricRecordStmt.setDouble(8, aggregates[0]);
-          metricRecordStmt.setDouble(9, aggregates[1]);
-          metricRecordStmt.setDouble(10, aggregates[2]);
-          metricRecordStmt.setLong(11, (long) aggregates[3]);
-          String json = TimelineUtils.dumpTimelineRecordtoJSON(metric.getMetricValues());
-          metricRecordStmt.setString(12, json);
+          bindMetricRecord(metricRecordStmt, metric, currentTime);
 
           try {
             metricRecordStmt.executeUpdate();
@@ -328,6 +399,11 @@ public class PhoenixHBaseAccessor {
 
       // commit() blocked if HBase unavailable
       conn.commit();
+      if (queryCache != null) {
+        for (TimelineMetrics timelineMetrics : timelineMetricsCollection) {
+          queryCache.metricsCommitted(timelineMetrics.getMetrics());
+        }
+      }
     } catch (Exception exception){
       exception.printStackTrace();
     }
@@ -349,21 +425,26 @@ public class PhoenixHBaseAccessor {
     }
   }
 
-  private static TimelineMetric getLastTimelineMetricFromResultSet(ResultSet rs)
+  private TimelineMetric getLastTimelineMetricFromResultSet(ResultSet rs)
       throws SQLException, IOException {
-    TimelineMetric metric = TIMELINE_METRIC_READ_HELPER.getTimelineMetricCommonsFromResultSet(rs);
-    metric.setMetricValues(readLastMetricValueFromJSON(rs.getString("METRICS")));
+    TimelineMetric metric = timelineMetricReadHelper.getTimelineMetricCommonsFromResultSet(rs);
+    byte[] encoded = rs.getBytes("METRICS_ENCODED");
+    if (encoded != null) {
+      metric.setMetricSeries(valuesCodec.decodeLast(encoded));
+    } else {
+      metric.setMetricSeries(readLastMetricValueFromJSON(rs.getString("METRICS")));
+    }
     return metric;
   }
 
-  private static TreeMap<Long, Double> readLastMetricValueFromJSON(String json)
+  private static TimelineMetricSeries readLastMetricValueFromJSON(String json)
       throws IOException {
-    TreeMap<Long, Double> values = readMetricFromJSON(json);
-    Long lastTimeStamp = values.lastKey();
-
-    TreeMap<Long, Double> valueMap = new TreeMap<Long, Double>();
-    valueMap.put(lastTimeStamp, values.get(lastTimeStamp));
-    return valueMap;
+    TimelineMetricSeries values = readMetricSeriesFromJSON(json);
+    TimelineMetricSeries lastValue = new TimelineMetricSeries(1);
+    if (!values.isEmpty()) {
+      lastValue.put(values.getLastTimestamp(), values.getValue(values.size() - 1));
+    }
+    return lastValue;
   }
 
   @SuppressWarnings("unchecked")
@@ -371,6 +452,41 @@ public class PhoenixHBaseAccessor {
     return mapper.readValue(json, metricValuesTypeRef);
   }
 
+  /**
+   * Stream a {"timestamp":value,...} JSON object straight into a series
+   * without materializing boxed map entries. Null values are skipped.
+   */
+  public static TimelineMetricSeries readMetricSeriesFromJSON(String json)
+      throws IOException {
+    TimelineMetricSeries metricSeries = new TimelineMetricSeries();
+    if (json == null) {
+      return metricSeries;
+    }
+    JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Expected metric values object, found: " + json);
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        long timestamp = Long.parseLong(parser.getCurrentName());
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+          metricSeries.put(timestamp, parser.getDoubleValue());
+        } else if (token == JsonToken.VALUE_STRING) {
+          // NaN and Infinity are written quoted
+          metricSeries.put(timestamp, Double.parseDouble(parser.getText()));
+        } else if (token != JsonToken.VALUE_NULL) {
+          parser.skipChildren();
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid metric values: " + json, e);
+    } finally {
+      parser.close();
+    }
+    return metricSeries;
+  }
+
   private Connection getConnectionRetryingOnException()
     throws SQLException, InterruptedException {
     RetryCounter retryCounter = retryCounterFactory.create();
@@ -450,6 +566,7 @@ public class PhoenixHBaseAccessor {
         precisionSql += getSplitPointsStr(splitPoints);
       }
       stmt.executeUpdate(precisionSql);
+      stmt.executeUpdate(ALTER_METRICS_RECORD_TABLE);
 
       String hostMinuteAggregrateSql = String.format(CREATE_METRICS_AGGREGATE_TABLE_SQL,
         METRICS_AGGREGATE_MINUTE_TABLE_NAME, encoding,
@@ -493,6 +610,13 @@ public class PhoenixHBaseAccessor {
         tableTTL.get(METRICS_CLUSTER_AGGREGATE_DAILY_TABLE_NAME),
         compression));
 
+      if (percentileSketchEnabled) {
+        for (String tableName : PHOENIX_TABLES) {
+          if (!tableName.equals(METRICS_RECORD_TABLE_NAME)) {
+            stmt.executeUpdate(String.format(ALTER_METRICS_AGGREGATE_TABLE_ADD_SKETCH, tableName));
+          }
+        }
+      }
 
       conn.commit();
 
@@ -766,6 +890,98 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  /**
+   * Upsert a batch of METRIC_RECORD rows on one connection with a single
+   * commit. Unlike {@link #commitMetrics(Collection)} failures are not
+   * swallowed so the caller can retry or spill the batch.
+   */
+  public void commitMetricBatch(Collection<TimelineMetric> metrics)
+      throws SQLException, IOException {
+    Connection conn = null;
+    PreparedStatement metricRecordStmt = null;
+    long currentTime = System.currentTimeMillis();
+
+    try {
+      conn = getConnection();
+      metricRecordStmt = conn.prepareStatement(String.format(
+        UPSERT_METRICS_SQL, METRICS_RECORD_TABLE_NAME));
+      for (TimelineMetric metric : metrics) {
+        bindMetricRecord(metricRecordStmt, metric, currentTime);
+        metricRecordStmt.executeUpdate();
+      }
+      conn.commit();
+      if (queryCache != null) {
+        queryCache.metricsCommitted(metrics);
+      }
+    } finally {
+      if (metricRecordStmt != null) {
+        try {
+          metricRecordStmt.close();
+        } catch (SQLException e) {
+          // Ignore
+        }
+      }
+      if (conn != null) {
+        try {
+          conn.close();
+        } catch (SQLException sql) {
+          // Ignore
+        }
+      }
+    }
+  }
+
+  private void bindMetricRecord(PreparedStatement metricRecordStmt, TimelineMetric metric,
+                                long currentTime) throws SQLException, IOException {
+    metricRecordStmt.clearParameters();
+
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("host: " + metric.getHostName() + ", " +
+        "metricName = " + metric.getMetricName() + ", " +
+        "values: " + metric.getMetricValues());
+    }
+    // JSON goes out from the map the metric arrived with, the series is
+    // only built for the encoded column
+    if (writeJsonMetricValues) {
+      String json = TimelineUtils.dumpTimelineRecordtoJSON(metric.getMetricValues());
+      metricRecordStmt.setString(12, json);
+    } else {
+      metricRecordStmt.setNull(12, Types.VARCHAR);
+    }
+    double[] aggregates;
+    if (encodeMetricValues) {
+      TimelineMetricSeries metricSeries = metric.getMetricSeries();
+      aggregates = AggregatorUtils.calculateAggregates(metricSeries);
+      metricRecordStmt.setBytes(13, valuesCodec.encode(metricSeries));
+    } else {
+      aggregates = AggregatorUtils.calculateAggregates(metric.getMetricValues());
+      metricRecordStmt.setNull(13, Types.VARBINARY);
+    }
+
+    metricRecordStmt.setString(1, metric.getMetricName());
+    metricRecordStmt.setString(2, metric.getHostName());
+    metricRecordStmt.setString(3, metric.getAppId());
+    metricRecordStmt.setString(4, metric.getInstanceId());
+    metricRecordStmt.setLong(5, currentTime);
+    metricRecordStmt.setLong(6, metric.getStartTime());
+    metricRecordStmt.setString(7, metric.getUnits());
+    metricRecordStmt.setDouble(8, aggregates[0]);
+    metricRecordStmt.setDouble(9, aggregates[1]);
+    metricRecordStmt.setDouble(10, aggregates[2]);
+    metricRecordStmt.setLong(11, (long) aggregates[3]);
+  }
+
+  private boolean isOutOfBand(TimelineMetric metric, long currentTime) {
+    if (Math.abs(currentTime - metric.getStartTime()) > outOfBandTimeAllowance) {
+      // If timeseries start time is way in the past : discard
+      LOG.debug("Discarding out of band timeseries, currentTime = "
+        + currentTime + ", startTime = " + metric.getStartTime()
+        + ", hostname = " + metric.getHostName());
+      return true;
+    }
+    return false;
+  }
+
   public void insertMetricRecordsWithMetadata(TimelineMetricMetadataManager metadataManager,
                                               TimelineMetrics metrics, boolean skipCache) throws SQLException, IOException {
     List<TimelineMetric> timelineMetrics = metrics.getMetrics();
@@ -773,6 +989,9 @@ public class PhoenixHBaseAccessor {
       LOG.debug("Empty metrics insert request.");
       return;
     }
+    long currentTime = System.currentTimeMillis();
+    // Before the metrics are handed to the write path threads
+    TimelineMetrics bufferedMetrics = !skipCache && ingestBuffer != null ? new TimelineMetrics() : null;
     for (Iterator<TimelineMetric> iterator = timelineMetrics.iterator(); iterator.hasNext();) {
 
       TimelineMetric tm = iterator.next();
@@ -793,10 +1012,25 @@ public class PhoenixHBaseAccessor {
       }
       if (!acceptMetric) {
         iterator.remove();
+      } else if (bufferedMetrics != null && !isOutOfBand(tm, currentTime)) {
+        bufferedMetrics.getMetrics().add(tm);
       }
     }
 
-    if  (!skipCache && cacheEnabled) {
+    if (bufferedMetrics != null) {
+      ingestBuffer.accept(bufferedMetrics);
+    }
+
+    if (!skipCache && writeQueue != null) {
+      LOG.debug("Adding metrics to write queue");
+      for (Iterator<TimelineMetric> iterator = timelineMetrics.iterator(); iterator.hasNext();) {
+        // Checked on arrival, spilled metrics may be replayed much later
+        if (isOutOfBand(iterator.next(), currentTime)) {
+          iterator.remove();
+        }
+      }
+      writeQueue.put(metrics);
+    } else if (!skipCache && cacheEnabled) {
       LOG.debug("Adding metrics to cache");
       if (insertCache.size() >= cacheSize) {
         commitMetricsFromCache();
@@ -820,17 +1054,28 @@ public class PhoenixHBaseAccessor {
     insertMetricRecords(metrics, false);
   }
 
-  @SuppressWarnings("unchecked")
   public TimelineMetrics getMetricRecords(
     final Condition condition, Multimap<String, List<Function>> metricFunctions)
     throws SQLException, IOException {
+    return getMetricRecords(condition, metricFunctions, new TimelineMetrics());
+  }
+
+  /**
+   * Read the metrics of the condition into {@code metrics}, row by row.
+   *
+   * @return {@code metrics}
+   */
+  @SuppressWarnings("unchecked")
+  public TimelineMetrics getMetricRecords(final Condition condition,
+      Multimap<String, List<Function>> metricFunctions, TimelineMetrics metrics)
+      throws SQLException, IOException {
 
     validateConditionIsNotEmpty(condition);
+    condition.setPercentileSketchEnabled(percentileSketchEnabled);
 
     Connection conn = getConnection();
     PreparedStatement stmt = null;
     ResultSet rs = null;
-    TimelineMetrics metrics = new TimelineMetrics();
 
     try {
       //get latest
@@ -840,8 +1085,9 @@ public class PhoenixHBaseAccessor {
         if (condition.getEndTime() >= condition.getStartTime()) {
           stmt = PhoenixTransactSQL.prepareGetMetricsSqlStmt(conn, condition);
           rs = stmt.executeQuery();
+          PercentileSource percentileSource = PercentileSource.of(rs);
           while (rs.next()) {
-            appendMetricFromResultSet(metrics, condition, metricFunctions, rs);
+            appendMetricFromResultSet(metrics, condition, metricFunctions, rs, percentileSource);
           }
         } else {
           LOG.warn("Skipping metrics query because endTime < startTime");
@@ -922,7 +1168,8 @@ public class PhoenixHBaseAccessor {
    */
   private void appendMetricFromResultSet(TimelineMetrics metrics, Condition condition,
                                          Multimap<String, List<Function>> metricFunctions,
-                                         ResultSet rs) throws SQLException, IOException {
+                                         ResultSet rs, PercentileSource percentileSource)
+                                         throws SQLException, IOException {
     String metricName = rs.getString("METRIC_NAME");
     Collection<List<Function>> functionList = findMetricFunctions(metricFunctions, metricName);
 
@@ -934,10 +1181,14 @@ public class PhoenixHBaseAccessor {
         }
         for (Function f : functions) {
           if (f.getReadFunction() == Function.ReadFunction.VALUE) {
-            getTimelineMetricsFromResultSet(metrics, f, condition, rs);
+            getTimelineMetricsFromResultSet(metrics, f, condition, rs, percentileSource);
           } else {
-            SingleValuedTimelineMetric metric =
-              TIMELINE_METRIC_READ_HELPER.getAggregatedTimelineMetricFromResultSet(rs, f);
+            SingleValuedTimelineMetric metric = timelineMetricReadHelper
+              .getAggregatedTimelineMetricFromResultSet(rs, f, percentileSource);
+            if (metric == null) {
+              // no percentile sketch for this row
+              continue;
+            }
 
             if (condition.isGrouped()) {
               metrics.addOrMergeTimelineMetric(metric);
@@ -949,14 +1200,16 @@ public class PhoenixHBaseAccessor {
       } else {
         // No aggregation requested
         // Execution never goes here, function always contain at least 1 element
-        getTimelineMetricsFromResultSet(metrics, null, condition, rs);
+        getTimelineMetricsFromResultSet(metrics, null, condition, rs, percentileSource);
       }
     }
   }
 
-  private void getTimelineMetricsFromResultSet(TimelineMetrics metrics, Function f, Condition condition, ResultSet rs) throws SQLException, IOException {
+  private void getTimelineMetricsFromResultSet(TimelineMetrics metrics, Function f, Condition condition,
+                                               ResultSet rs, PercentileSource percentileSource)
+                                               throws SQLException, IOException {
     if (condition.getPrecision().equals(Precision.SECONDS)) {
-      TimelineMetric metric = TIMELINE_METRIC_READ_HELPER.getTimelineMetricFromResultSet(rs);
+      TimelineMetric metric = timelineMetricReadHelper.getTimelineMetricFromResultSet(rs);
       if (f != null && f.getSuffix() != null) { //Case : Requesting "._rate" for precision data
         metric.setMetricName(metric.getMetricName() + f.getSuffix());
       }
@@ -967,8 +1220,11 @@ public class PhoenixHBaseAccessor {
       }
 
     } else {
-      SingleValuedTimelineMetric metric =
-        TIMELINE_METRIC_READ_HELPER.getAggregatedTimelineMetricFromResultSet(rs, f);
+      SingleValuedTimelineMetric metric = timelineMetricReadHelper
+        .getAggregatedTimelineMetricFromResultSet(rs, f, percentileSource);
+      if (metric == null) {
+        return;
+      }
       if (condition.isGrouped()) {
         metrics.addOrMergeTimelineMetric(metric);
       } else {
@@ -1013,13 +1269,25 @@ public class PhoenixHBaseAccessor {
    */
   public TimelineMetrics getAggregateMetricRecords(final Condition condition,
       Multimap<String, List<Function>> metricFunctions) throws SQLException {
+    return getAggregateMetricRecords(condition, metricFunctions, new TimelineMetrics());
+  }
+
+  /**
+   * Read the metrics aggregated across hosts into {@code metrics}, row by
+   * row.
+   *
+   * @return {@code metrics}
+   */
+  public TimelineMetrics getAggregateMetricRecords(final Condition condition,
+      Multimap<String, List<Function>> metricFunctions, TimelineMetrics metrics)
+      throws SQLException {
 
     validateConditionIsNotEmpty(condition);
+    condition.setPercentileSketchEnabled(percentileSketchEnabled);
 
     Connection conn = getConnection();
     PreparedStatement stmt = null;
     ResultSet rs = null;
-    TimelineMetrics metrics = new TimelineMetrics();
 
     try {
       //get latest
@@ -1029,8 +1297,10 @@ public class PhoenixHBaseAccessor {
         stmt = PhoenixTransactSQL.prepareGetAggregateSqlStmt(conn, condition);
 
         rs = stmt.executeQuery();
+        PercentileSource percentileSource = PercentileSource.of(rs);
         while (rs.next()) {
-          appendAggregateMetricFromResultSet(metrics, condition, metricFunctions, rs);
+          appendAggregateMetricFromResultSet(metrics, condition, metricFunctions, rs,
+            percentileSource);
         }
       }
     } finally {
@@ -1063,7 +1333,7 @@ public class PhoenixHBaseAccessor {
 
   private void appendAggregateMetricFromResultSet(TimelineMetrics metrics,
       Condition condition, Multimap<String, List<Function>> metricFunctions,
-      ResultSet rs) throws SQLException {
+      ResultSet rs, PercentileSource percentileSource) throws SQLException {
 
     String metricName = rs.getString("METRIC_NAME");
     Collection<List<Function>> functionList = findMetricFunctions(metricFunctions, metricName);
@@ -1075,9 +1345,15 @@ public class PhoenixHBaseAccessor {
         if (condition.getPrecision() == Precision.MINUTES
           || condition.getPrecision() == Precision.HOURS
           || condition.getPrecision() == Precision.DAYS) {
-          metric = getAggregateTimelineMetricFromResultSet(rs, aggregateFunction, false);
+          metric = getAggregateTimelineMetricFromResultSet(rs, aggregateFunction, false,
+            percentileSource);
         } else {
-          metric = getAggregateTimelineMetricFromResultSet(rs, aggregateFunction, true);
+          metric = getAggregateTimelineMetricFromResultSet(rs, aggregateFunction, true,
+            percentileSource);
+        }
+        if (metric == null) {
+          // no percentile sketch for this row
+          continue;
         }
 
         if (condition.isGrouped()) {
@@ -1105,13 +1381,17 @@ public class PhoenixHBaseAccessor {
       ResultSet rs = null;
       try {
         rs = stmt.executeQuery();
+        PercentileSource percentileSource = PercentileSource.of(rs);
         while (rs.next()) {
           Collection<List<Function>> functionList = findMetricFunctions(metricFunctions, metricName);
           for (List<Function> functions : functionList) {
             if (functions != null) {
               for (Function f : functions) {
                 SingleValuedTimelineMetric metric =
-                  getAggregateTimelineMetricFromResultSet(rs, f, true);
+                  getAggregateTimelineMetricFromResultSet(rs, f, true, percentileSource);
+                if (metric == null) {
+                  continue;
+                }
 
                 if (condition.isGrouped()) {
                   metrics.addOrMergeTimelineMetric(metric);
@@ -1121,7 +1401,7 @@ public class PhoenixHBaseAccessor {
               }
             } else {
               SingleValuedTimelineMetric metric =
-                getAggregateTimelineMetricFromResultSet(rs, new Function(), true);
+                getAggregateTimelineMetricFromResultSet(rs, new Function(), true, percentileSource);
               metrics.getMetrics().add(metric.getTimelineMetric());
             }
           }
@@ -1141,8 +1421,12 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  /**
+   * @return the value of the function, or null for a percentile of a row
+   * without a sketch
+   */
   private SingleValuedTimelineMetric getAggregateTimelineMetricFromResultSet(ResultSet rs,
-      Function f, boolean useHostCount) throws SQLException {
+      Function f, boolean useHostCount, PercentileSource percentileSource) throws SQLException {
 
     String countColumnName = "METRIC_COUNT";
     if (useHostCount) {
@@ -1159,6 +1443,16 @@ public class PhoenixHBaseAccessor {
       rs.getString("UNITS")
     );
 
+    if (f.getReadFunction().isPercentile()) {
+      Double quantile = TimelineMetricReadHelper.getQuantileFromResultSet(rs,
+        percentileSource, f.getReadFunction().getQuantile());
+      if (quantile == null) {
+        return null;
+      }
+      metric.setSingleTimeseriesValue(rs.getLong("SERVER_TIME"), quantile);
+      return metric;
+    }
+
     double value;
     switch(f.getReadFunction()){
       case AVG:
@@ -1230,8 +1524,8 @@ public class PhoenixHBaseAccessor {
     int rowCount = 0;
 
     try {
-      stmt = conn.prepareStatement(
-        String.format(UPSERT_AGGREGATE_RECORD_SQL, phoenixTableName));
+      stmt = conn.prepareStatement(String.format(percentileSketchEnabled ?
+        UPSERT_AGGREGATE_RECORD_WITH_SKETCH_SQL : UPSERT_AGGREGATE_RECORD_SQL, phoenixTableName));
 
       for (Map.Entry<TimelineMetric, MetricHostAggregate> metricAggregate :
         hostAggregateMap.entrySet()) {
@@ -1251,6 +1545,9 @@ public class PhoenixHBaseAccessor {
         stmt.setDouble(8, hostAggregate.getMax());
         stmt.setDouble(9, hostAggregate.getMin());
         stmt.setDouble(10, hostAggregate.getNumberOfSamples());
+        if (percentileSketchEnabled) {
+          setSketch(stmt, 11, hostAggregate);
+        }
 
         try {
           stmt.executeUpdate();
@@ -1302,6 +1599,16 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  /**
+   * Aggregates without a distribution of their own, e.g. rolled up from rows
+   * written before the sketches were enabled, store an empty sketch.
+   */
+  private static void setSketch(PreparedStatement stmt, int index, MetricAggregate aggregate)
+      throws SQLException {
+    QuantileSketch sketch = aggregate.getSketch();
+    stmt.setBytes(index, (sketch != null ? sketch : new QuantileSketch()).toBytes());
+  }
+
   /**
    * Save Metric aggregate records.
    *
@@ -1316,7 +1623,8 @@ public class PhoenixHBaseAccessor {
     }
 
     long start = System.currentTimeMillis();
-    String sqlStr = String.format(UPSERT_CLUSTER_AGGREGATE_SQL, METRICS_CLUSTER_AGGREGATE_TABLE_NAME);
+    String sqlStr = String.format(percentileSketchEnabled ? UPSERT_CLUSTER_AGGREGATE_WITH_SKETCH_SQL :
+      UPSERT_CLUSTER_AGGREGATE_SQL, METRICS_CLUSTER_AGGREGATE_TABLE_NAME);
     Connection conn = getConnection();
     PreparedStatement stmt = null;
     try {
@@ -1344,6 +1652,9 @@ public class PhoenixHBaseAccessor {
         stmt.setInt(7, aggregate.getNumberOfHosts());
         stmt.setDouble(8, aggregate.getMax());
         stmt.setDouble(9, aggregate.getMin());
+        if (percentileSketchEnabled) {
+          setSketch(stmt, 10, aggregate);
+        }
 
         try {
           stmt.executeUpdate();
@@ -1410,7 +1721,8 @@ public class PhoenixHBaseAccessor {
     Connection conn = getConnection();
     PreparedStatement stmt = null;
     try {
-      stmt = conn.prepareStatement(String.format(UPSERT_CLUSTER_AGGREGATE_TIME_SQL, tableName));
+      stmt = conn.prepareStatement(String.format(percentileSketchEnabled ?
+        UPSERT_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL : UPSERT_CLUSTER_AGGREGATE_TIME_SQL, tableName));
       int rowCount = 0;
 
       for (Map.Entry<TimelineClusterMetric, MetricHostAggregate> aggregateEntry : records.entrySet()) {
@@ -1433,6 +1745,9 @@ public class PhoenixHBaseAccessor {
         stmt.setLong(7, aggregate.getNumberOfSamples());
         stmt.setDouble(8, aggregate.getMax());
         stmt.setDouble(9, aggregate.getMin());
+        if (percentileSketchEnabled) {
+          setSketch(stmt, 10, aggregate);
+        }
 
         try {
           stmt.executeUpdate();
@@ -1520,6 +1835,7 @@ public class PhoenixHBaseAccessor {
    * One time save of metadata when discovering topology during aggregation.
    * @throws SQLException
    */
+  @Override
   public void saveHostAppsMetadata(Map<String, Set<String>> hostedApps) throws SQLException {
     Connection conn = getConnection();
     PreparedStatement stmt = null;
@@ -1564,6 +1880,7 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  @Override
   public void saveInstanceHostsMetadata(Map<String, Set<String>> instanceHostsMap) throws SQLException {
     Connection conn = getConnection();
     PreparedStatement stmt = null;
@@ -1618,6 +1935,7 @@ public class PhoenixHBaseAccessor {
    * @param metricMetadata @Collection<@TimelineMetricMetadata>
    * @throws SQLException
    */
+  @Override
   public void saveMetricMetadata(Collection<TimelineMetricMetadata> metricMetadata) throws SQLException {
     if (metricMetadata.isEmpty()) {
       LOG.info("No metadata records to save.");
@@ -1677,6 +1995,7 @@ public class PhoenixHBaseAccessor {
     }
   }
 
+  @Override
   public Map<String, Set<String>> getHostedAppsMetadata() throws SQLException {
     Map<String, Set<String>> hostedAppMap = new HashMap<>();
     Connection conn = getConnection();
@@ -1719,6 +2038,7 @@ public class PhoenixHBaseAccessor {
     return hostedAppMap;
   }
 
+  @Override
   public Map<String, Set<String>> getInstanceHostsMetdata() throws SQLException {
     Map<String, Set<String>> instanceHostsMap = new HashMap<>();
     Connection conn = getConnection();
@@ -1767,6 +2087,7 @@ public class PhoenixHBaseAccessor {
   }
 
   // No filter criteria support for now.
+  @Override
   public Map<TimelineMetricMetadataKey, TimelineMetricMetadata> getTimelineMetricMetadata() throws SQLException {
     Map<TimelineMetricMetadataKey, TimelineMetricMetadata> metadataMap = new HashMap<>();
     Connection conn = getConnection();
@@ -230,6 +230,12 @@ public class TimelineMetricConfiguration {
   public static final String AGGREGATE_TABLE_SPLIT_POINTS =
     "timeline.metrics.cluster.aggregate.splitpoints";
 
+  public static final String TIMELINE_METRICS_AGGREGATOR_PARTITIONS =
+    "timeline.metrics.aggregator.partitions";
+
+  public static final String TIMELINE_METRICS_AGGREGATOR_PARTITION_THREADS =
+    "timeline.metrics.aggregator.partition.threads";
+
   public static final String AGGREGATORS_SKIP_BLOCK_CACHE =
     "timeline.metrics.aggregators.skip.blockcache.enabled";
 
@@ -263,6 +269,12 @@ public class TimelineMetricConfiguration {
   public static final String TIMELINE_METRICS_WHITELIST_FILE_LOCATION_DEFAULT =
     "/etc/ambari-metrics-collector/conf/metrics_whitelist";
 
+  public static final String TIMELINE_METRICS_WHITELIST_RELOAD_INTERVAL =
+    "timeline.metrics.whitelist.reload.interval.seconds";
+
+  public static final String TIMELINE_METRICS_WHITELIST_CACHE_SIZE =
+    "timeline.metrics.whitelist.cache.size";
+
   public static final String TIMELINE_METRIC_METADATA_FILTERS =
     "timeline.metrics.service.metadata.filters";
 
@@ -310,6 +322,63 @@ public class TimelineMetricConfiguration {
 
   public static final String TIMELINE_METRICS_HOST_INMEMORY_AGGREGATION = "timeline.metrics.host.inmemory.aggregation";
 
+  public static final String TIMELINE_METRICS_CLUSTER_INMEMORY_AGGREGATION =
+    "timeline.metrics.cluster.inmemory.aggregation";
+
+  public static final String TIMELINE_METRICS_PRECISION_VALUES_ENCODING_ENABLED =
+    "timeline.metrics.precision.values.encoding.enabled";
+
+  public static final String TIMELINE_METRICS_PRECISION_VALUES_CODEC_CLASS =
+    "timeline.metrics.precision.values.codec.class";
+
+  public static final String TIMELINE_METRICS_PRECISION_VALUES_JSON_ENABLED =
+    "timeline.metrics.precision.values.json.enabled";
+
+  public static final String TIMELINE_METRICS_WRITE_QUEUE_ENABLED =
+    "timeline.metrics.write.queue.enabled";
+
+  public static final String TIMELINE_METRICS_WRITE_QUEUE_SHARDS =
+    "timeline.metrics.write.queue.shards";
+
+  public static final String TIMELINE_METRICS_WRITE_QUEUE_SHARD_CAPACITY =
+    "timeline.metrics.write.queue.shard.capacity";
+
+  public static final String TIMELINE_METRICS_WRITE_BATCH_SIZE =
+    "timeline.metrics.write.batch.size";
+
+  public static final String TIMELINE_METRICS_WRITE_SPILL_DIR =
+    "timeline.metrics.write.spill.dir";
+
+  public static final String TIMELINE_METRICS_WRITE_SPILL_MAX_BYTES =
+    "timeline.metrics.write.spill.max.bytes";
+
+  public static final String TIMELINE_METRICS_QUERY_CACHE_ENABLED =
+    "timeline.metrics.service.query.cache.enabled";
+
+  public static final String TIMELINE_METRICS_QUERY_CACHE_BUCKET =
+    "timeline.metrics.service.query.cache.bucket.seconds";
+
+  public static final String TIMELINE_METRICS_QUERY_CACHE_LIVE_TTL =
+    "timeline.metrics.service.query.cache.live.ttl.seconds";
+
+  public static final String TIMELINE_METRICS_QUERY_CACHE_MAX_POINTS =
+    "timeline.metrics.service.query.cache.max.points";
+
+  public static final String TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED =
+    "timeline.metrics.service.percentile.sketch.enabled";
+
+  public static final String TIMELINE_METRICS_LOCAL_STORE_ENABLED =
+    "timeline.metrics.service.local.store.enabled";
+
+  public static final String TIMELINE_METRICS_LOCAL_STORE_DIR =
+    "timeline.metrics.service.local.store.dir";
+
+  public static final String TIMELINE_METRICS_LOCAL_STORE_TTL =
+    "timeline.metrics.service.local.store.ttl";
+
+  public static final String TIMELINE_METRICS_LOCAL_STORE_PARTITION_INTERVAL =
+    "timeline.metrics.service.local.store.partition.interval";
+
   private Configuration hbaseConf;
   private Configuration metricsConf;
   private Configuration amsEnvConf;
@@ -20,18 +20,27 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline
 
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_APPS_BLACKLIST;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_APPS_WHITELIST;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WHITELIST_CACHE_SIZE;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WHITELIST_FILE;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WHITELIST_FILE_LOCATION_DEFAULT;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WHITELIST_RELOAD_INTERVAL;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -42,8 +51,12 @@ import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 
 public class TimelineMetricsFilter {
 
-  private static Set<String> whitelistedMetrics;
-  private static Set<Pattern> whitelistedMetricPatterns;
+  private static volatile TimelineMetricsWhitelistMatcher metricWhitelist =
+    new TimelineMetricsWhitelistMatcher(new ArrayList<String>(), new ArrayList<Pattern>(), 0);
+  private static volatile String whitelistFile;
+  private static volatile long whitelistFileModified;
+  private static int whitelistCacheSize;
+  private static ScheduledExecutorService whitelistReloader;
   private static Set<String> whitelistedApps;
   private static Set<String> blacklistedApps;
   private static String patternPrefix = "._p_";
@@ -61,15 +74,24 @@ public class TimelineMetricsFilter {
       return;
     }
 
-    whitelistedMetrics = new HashSet<String>();
-    whitelistedMetricPatterns = new HashSet<Pattern>();
     blacklistedApps = new HashSet<>();
     whitelistedApps = new HashSet<>();
     amshbaseWhitelist = new HashSet<>();
 
+    whitelistCacheSize = metricsConf.getInt(TIMELINE_METRICS_WHITELIST_CACHE_SIZE, 100000);
+    metricWhitelist = new TimelineMetricsWhitelistMatcher(
+      new ArrayList<String>(), new ArrayList<Pattern>(), whitelistCacheSize);
+    stopWhitelistReloader();
+
     if (configuration.isWhitelistingEnabled()) {
-      String whitelistFile = metricsConf.get(TIMELINE_METRICS_WHITELIST_FILE, TIMELINE_METRICS_WHITELIST_FILE_LOCATION_DEFAULT);
-      readMetricWhitelistFromFile(whitelistFile);
+      whitelistFile = metricsConf.get(TIMELINE_METRICS_WHITELIST_FILE, TIMELINE_METRICS_WHITELIST_FILE_LOCATION_DEFAULT);
+      reloadMetricWhitelist();
+      long reloadInterval = metricsConf.getLong(TIMELINE_METRICS_WHITELIST_RELOAD_INTERVAL, 0);
+      if (reloadInterval > 0) {
+        startWhitelistReloader(reloadInterval);
+      }
+    } else {
+      whitelistFile = null;
     }
 
     String appsBlacklist = metricsConf.get(TIMELINE_METRICS_APPS_BLACKLIST, "");
@@ -94,8 +116,29 @@ public class TimelineMetricsFilter {
     }
   }
 
-  private static void readMetricWhitelistFromFile(String whitelistFile) {
+  /**
+   * Re-reads the whitelist file and swaps in the new whitelist, metrics
+   * being filtered concurrently see either the old or the new one. The
+   * current whitelist is kept if the file cannot be read.
+   */
+  public static synchronized boolean reloadMetricWhitelist() {
+    if (whitelistFile == null) {
+      return false;
+    }
+    long modified = new File(whitelistFile).lastModified();
+    TimelineMetricsWhitelistMatcher matcher = readMetricWhitelistFromFile(whitelistFile);
+    if (matcher == null) {
+      return false;
+    }
+    metricWhitelist = matcher;
+    whitelistFileModified = modified;
+    return true;
+  }
+
+  private static TimelineMetricsWhitelistMatcher readMetricWhitelistFromFile(String whitelistFile) {
 
+    List<String> whitelistedMetrics = new ArrayList<>();
+    List<Pattern> whitelistedMetricPatterns = new ArrayList<>();
     BufferedReader br = null;
     String strLine;
 
@@ -108,17 +151,58 @@ public class TimelineMetricsFilter {
           continue;
         }
         if (strLine.startsWith(patternPrefix)) {
-          whitelistedMetricPatterns.add(Pattern.compile(strLine.substring(patternPrefix.length())));
+          try {
+            whitelistedMetricPatterns.add(Pattern.compile(strLine.substring(patternPrefix.length())));
+          } catch (PatternSyntaxException e) {
+            LOG.error("Skipping invalid whitelist pattern " + strLine, e);
+          }
         } else {
           whitelistedMetrics.add(strLine);
         }
       }
     } catch (IOException ioEx) {
       LOG.error("Unable to parse metric whitelist file", ioEx);
+      return null;
     }
 
-    LOG.info("Whitelisting " + whitelistedMetrics.size() + " metrics");
+    TimelineMetricsWhitelistMatcher matcher = new TimelineMetricsWhitelistMatcher(
+      whitelistedMetrics, whitelistedMetricPatterns, whitelistCacheSize);
+    LOG.info("Whitelisting " + matcher.getLiteralCount() + " metrics and " +
+      matcher.getPatternCount() + " patterns");
     LOG.debug("Whitelisted metrics : " + Arrays.toString(whitelistedMetrics.toArray()));
+    return matcher;
+  }
+
+  private static synchronized void startWhitelistReloader(long intervalSeconds) {
+    whitelistReloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "TimelineMetricsWhitelistReloader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    whitelistReloader.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (new File(whitelistFile).lastModified() != whitelistFileModified) {
+            LOG.info("Metric whitelist file " + whitelistFile + " changed, reloading");
+            reloadMetricWhitelist();
+          }
+        } catch (Exception e) {
+          LOG.warn("Unable to reload metric whitelist", e);
+        }
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    LOG.info("Checking metric whitelist file for changes every " + intervalSeconds + " seconds");
+  }
+
+  private static synchronized void stopWhitelistReloader() {
+    if (whitelistReloader != null) {
+      whitelistReloader.shutdownNow();
+      whitelistReloader = null;
+    }
   }
 
   public static boolean acceptMetric(String metricName, String appId) {
@@ -148,29 +232,18 @@ public class TimelineMetricsFilter {
     }
 
     // Metric Whitelisting
-    if (CollectionUtils.isEmpty(whitelistedMetrics) && CollectionUtils.isEmpty(whitelistedMetricPatterns)) {
+    TimelineMetricsWhitelistMatcher whitelist = metricWhitelist;
+    if (whitelist.isEmpty()) {
       return true;
     }
 
-    if (whitelistedMetrics.contains(metricName)) {
-      return true;
-    }
-
-    for (Pattern p : whitelistedMetricPatterns) {
-      Matcher m = p.matcher(metricName);
-      if (m.find()) {
-        whitelistedMetrics.add(metricName);
-        return true;
-      }
-    }
-
-    return false;
+    return whitelist.matches(metricName);
   }
 
   public static void addToWhitelist(String metricName) {
 
     if (StringUtils.isNotEmpty(metricName)) {
-      whitelistedMetrics.add(metricName);
+      metricWhitelist.addLiteral(metricName);
     }
   }
 
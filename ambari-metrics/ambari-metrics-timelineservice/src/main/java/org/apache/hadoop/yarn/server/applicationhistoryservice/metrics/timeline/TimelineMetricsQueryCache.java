@@ -0,0 +1,423 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.sink.timeline.Precision;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.metrics2.sink.timeline.TopNConfig;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_QUERY_CACHE_BUCKET;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_QUERY_CACHE_LIVE_TTL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_QUERY_CACHE_MAX_POINTS;
+
+/**
+ * Collector side cache of metric query results.
+ *
+ * Queries are keyed by their normalized parameters, with the time range
+ * widened to whole buckets so that dashboards refreshing a sliding window
+ * share entries. Identical queries running at the same time are coalesced,
+ * only the first one scans the store and the others wait for its result.
+ *
+ * A result whose time range ended long enough ago for all late points and
+ * aggregates to have been written is immutable and kept until evicted.
+ * Results covering the live bucket are kept for a short time only and are
+ * dropped as soon as new points of one of their metrics are committed, see
+ * {@link #metricsCommitted(Collection)}.
+ */
+public class TimelineMetricsQueryCache implements MetricsSource {
+  private static final Log LOG = LogFactory.getLog(TimelineMetricsQueryCache.class);
+
+  static final String METRICS_SOURCE_NAME = "TimelineMetricsQueryCache";
+
+  private final long bucketMillis;
+  private final Cache<QueryKey, CachedResult> sealedResults;
+  private final Cache<QueryKey, CachedResult> liveResults;
+  // Commit sequence of the last commit per metric name, any name for LIKE queries
+  private final AtomicLong commitSequence = new AtomicLong();
+  private final ConcurrentHashMap<String, Long> lastCommits = new ConcurrentHashMap<String, Long>();
+  private volatile long lastCommit = 0;
+
+  private final MetricsRegistry registry = new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableCounterLong hits =
+    registry.newCounter("QueryCacheHits", "Queries answered without a store scan", 0L);
+  private final MutableCounterLong misses =
+    registry.newCounter("QueryCacheMisses", "Queries that scanned the store", 0L);
+  private final MutableCounterLong invalidations =
+    registry.newCounter("QueryCacheInvalidations", "Live results dropped after a commit", 0L);
+  private final MutableGaugeLong entries =
+    registry.newGauge("QueryCacheEntries", "Cached query results", 0L);
+
+  public TimelineMetricsQueryCache(Configuration metricsConf) {
+    this(TimeUnit.SECONDS.toMillis(metricsConf.getInt(TIMELINE_METRICS_QUERY_CACHE_BUCKET, 10)),
+      TimeUnit.SECONDS.toMillis(metricsConf.getInt(TIMELINE_METRICS_QUERY_CACHE_LIVE_TTL, 30)),
+      metricsConf.getLong(TIMELINE_METRICS_QUERY_CACHE_MAX_POINTS, 5000000L));
+  }
+
+  TimelineMetricsQueryCache(long bucketMillis, long liveTtlMillis, long maxPoints) {
+    this.bucketMillis = Math.max(1, bucketMillis);
+    Weigher<QueryKey, CachedResult> weigher = new Weigher<QueryKey, CachedResult>() {
+      @Override
+      public int weigh(QueryKey key, CachedResult value) {
+        return value.points;
+      }
+    };
+    // Live results are small and short lived, most of the budget goes to history
+    sealedResults = CacheBuilder.newBuilder()
+      .maximumWeight(Math.max(1, maxPoints - maxPoints / 4))
+      .weigher(weigher)
+      .build();
+    liveResults = CacheBuilder.newBuilder()
+      .maximumWeight(Math.max(1, maxPoints / 4))
+      .weigher(weigher)
+      .expireAfterWrite(liveTtlMillis, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  public void start() {
+    try {
+      DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Timeline metrics query cache", this);
+    } catch (MetricsException e) {
+      LOG.warn("Unable to register query cache metrics source: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Time range of the key, widened to whole buckets, and precision, derived
+   * from the requested range if not given. The loader has to query with
+   * these rather than the requested ones.
+   */
+  public QueryKey createKey(List<String> metricNames, List<String> hostnames,
+                            String appId, String instanceId, long startTime, long endTime,
+                            Precision precision, Integer limit, boolean groupedByHosts,
+                            TopNConfig topNConfig, String seriesAggregateFunction) {
+    long bucketStart = startTime - startTime % bucketMillis;
+    long bucketEnd = endTime - endTime % bucketMillis;
+    if (bucketEnd != endTime) {
+      bucketEnd += bucketMillis;
+    }
+    // The widened range must not change the table being read
+    if (precision == null) {
+      precision = Precision.getPrecision(startTime, endTime);
+    }
+    return new QueryKey(metricNames, hostnames, appId, instanceId, bucketStart, bucketEnd,
+      precision, limit, groupedByHosts, topNConfig, seriesAggregateFunction);
+  }
+
+  /**
+   * @return a private copy of the cached result for the key, loaded with
+   * the loader if absent or stale, without the points of the widened range
+   * outside of the requested one
+   */
+  public TimelineMetrics get(final QueryKey key, long startTime, long endTime,
+                             final Callable<TimelineMetrics> loader)
+      throws SQLException, IOException {
+    boolean sealed = isSealed(key, System.currentTimeMillis());
+    Cache<QueryKey, CachedResult> cache = sealed ? sealedResults : liveResults;
+    final boolean[] loaded = new boolean[1];
+    Callable<CachedResult> resultLoader = new Callable<CachedResult>() {
+      @Override
+      public CachedResult call() throws Exception {
+        loaded[0] = true;
+        // Taken before the scan so that commits during the scan mark it stale
+        long sequence = commitSequence.get();
+        return new CachedResult(loader.call(), sequence);
+      }
+    };
+
+    try {
+      CachedResult result = cache.get(key, resultLoader);
+      if (!sealed && !loaded[0] && isStale(key, result)) {
+        invalidations.incr();
+        cache.asMap().remove(key, result);
+        result = cache.get(key, resultLoader);
+      }
+      if (loaded[0]) {
+        misses.incr();
+      } else {
+        hits.incr();
+      }
+      return result.copy(startTime, endTime);
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw unwrap(e.getCause());
+    } catch (ExecutionError e) {
+      throw (Error) e.getCause();
+    }
+  }
+
+  /**
+   * Mark live results of the committed metrics stale.
+   */
+  public void metricsCommitted(Collection<TimelineMetric> metrics) {
+    if (metrics.isEmpty()) {
+      return;
+    }
+    long sequence = commitSequence.incrementAndGet();
+    Set<String> metricNames = new HashSet<String>();
+    for (TimelineMetric metric : metrics) {
+      if (metricNames.add(metric.getMetricName())) {
+        lastCommits.put(metric.getMetricName(), sequence);
+      }
+    }
+    lastCommit = sequence;
+  }
+
+  private boolean isStale(QueryKey key, CachedResult result) {
+    if (key.hasPatterns) {
+      return lastCommit > result.sequence;
+    }
+    for (String metricName : key.storedMetricNames) {
+      Long sequence = lastCommits.get(metricName);
+      if (sequence != null && sequence > result.sequence) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A result is immutable once late points and the aggregates for its
+   * precision can no longer be written for its time range.
+   */
+  static boolean isSealed(QueryKey key, long now) {
+    long settleMillis;
+    switch (key.precision) {
+      case DAYS:
+        settleMillis = TimeUnit.DAYS.toMillis(2);
+        break;
+      case HOURS:
+        settleMillis = TimeUnit.HOURS.toMillis(2);
+        break;
+      case MINUTES:
+        settleMillis = TimeUnit.MINUTES.toMillis(15);
+        break;
+      default:
+        settleMillis = TimeUnit.MINUTES.toMillis(10);
+    }
+    return key.endTime + settleMillis < now;
+  }
+
+  private static IOException unwrap(Throwable cause) throws SQLException {
+    if (cause instanceof SQLException) {
+      throw (SQLException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    return new IOException(cause);
+  }
+
+  long getHits() {
+    return hits.value();
+  }
+
+  long getMisses() {
+    return misses.value();
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    entries.set(sealedResults.size() + liveResults.size());
+    registry.snapshot(collector.addRecord(registry.info()), all);
+  }
+
+  private static class CachedResult {
+    private final TimelineMetrics metrics;
+    private final long sequence;
+    private final int points;
+
+    CachedResult(TimelineMetrics metrics, long sequence) {
+      this.metrics = metrics;
+      this.sequence = sequence;
+      long count = 0;
+      for (TimelineMetric metric : metrics.getMetrics()) {
+        count += metric.getMetricValuesCount() + 1;
+      }
+      this.points = (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    /**
+     * Callers post process results in place, so every caller gets its own
+     * copy, with the points of its requested range only.
+     */
+    TimelineMetrics copy(long startTime, long endTime) {
+      List<TimelineMetric> copies = new ArrayList<TimelineMetric>(metrics.getMetrics().size());
+      for (TimelineMetric metric : metrics.getMetrics()) {
+        TimelineMetricSeries series = new TimelineMetricSeries(metric.getMetricSeries());
+        series.removeBefore(startTime);
+        series.removeAfter(endTime);
+        if (series.isEmpty()) {
+          continue;
+        }
+        TimelineMetric copy = new TimelineMetric(metric);
+        copy.setMetricSeries(series);
+        if (copy.getStartTime() < startTime) {
+          copy.setStartTime(series.getFirstTimestamp());
+        }
+        copies.add(copy);
+      }
+      TimelineMetrics copy = new TimelineMetrics();
+      copy.setMetrics(copies);
+      return copy;
+    }
+  }
+
+  /**
+   * Normalized query parameters, name lists are order insensitive.
+   */
+  public static class QueryKey {
+    private final Set<String> metricNames;
+    // Names as stored, without read function suffixes like ._rate
+    private final Set<String> storedMetricNames;
+    private final Set<String> hostnames;
+    private final String appId;
+    private final String instanceId;
+    private final long startTime;
+    private final long endTime;
+    private final Precision precision;
+    private final Integer limit;
+    private final boolean groupedByHosts;
+    private final Integer topN;
+    private final String topNFunction;
+    private final Boolean isBottomN;
+    private final String seriesAggregateFunction;
+    private final boolean hasPatterns;
+
+    QueryKey(List<String> metricNames, List<String> hostnames, String appId,
+             String instanceId, long startTime, long endTime, Precision precision,
+             Integer limit, boolean groupedByHosts, TopNConfig topNConfig,
+             String seriesAggregateFunction) {
+      this.metricNames = new HashSet<String>(metricNames);
+      this.hostnames = hostnames == null ? Collections.<String>emptySet() :
+        new HashSet<String>(hostnames);
+      this.appId = appId;
+      this.instanceId = instanceId;
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.precision = precision;
+      this.limit = limit;
+      this.groupedByHosts = groupedByHosts;
+      this.topN = topNConfig == null ? null : topNConfig.getTopN();
+      this.topNFunction = topNConfig == null ? null : topNConfig.getTopNFunction();
+      this.isBottomN = topNConfig == null ? null : topNConfig.getIsBottomN();
+      this.seriesAggregateFunction = seriesAggregateFunction;
+      this.storedMetricNames = new HashSet<String>();
+      boolean patterns = false;
+      for (String metricName : metricNames) {
+        patterns |= metricName.contains("%");
+        int functionStartIndex = metricName.indexOf("._");
+        storedMetricNames.add(functionStartIndex > 0 ?
+          metricName.substring(0, functionStartIndex) : metricName);
+      }
+      this.hasPatterns = patterns;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public long getEndTime() {
+      return endTime;
+    }
+
+    public Precision getPrecision() {
+      return precision;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      QueryKey that = (QueryKey) o;
+
+      if (startTime != that.startTime) return false;
+      if (endTime != that.endTime) return false;
+      if (groupedByHosts != that.groupedByHosts) return false;
+      if (!metricNames.equals(that.metricNames)) return false;
+      if (!hostnames.equals(that.hostnames)) return false;
+      if (appId != null ? !appId.equals(that.appId) : that.appId != null) return false;
+      if (instanceId != null ? !instanceId.equals(that.instanceId) : that.instanceId != null)
+        return false;
+      if (precision != that.precision) return false;
+      if (limit != null ? !limit.equals(that.limit) : that.limit != null) return false;
+      if (topN != null ? !topN.equals(that.topN) : that.topN != null) return false;
+      if (topNFunction != null ? !topNFunction.equals(that.topNFunction) : that.topNFunction != null)
+        return false;
+      if (isBottomN != null ? !isBottomN.equals(that.isBottomN) : that.isBottomN != null)
+        return false;
+      return seriesAggregateFunction != null ?
+        seriesAggregateFunction.equals(that.seriesAggregateFunction) :
+        that.seriesAggregateFunction == null;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = metricNames.hashCode();
+      result = 31 * result + hostnames.hashCode();
+      result = 31 * result + (appId != null ? appId.hashCode() : 0);
+      result = 31 * result + (instanceId != null ? instanceId.hashCode() : 0);
+      result = 31 * result + (int) (startTime ^ (startTime >>> 32));
+      result = 31 * result + (int) (endTime ^ (endTime >>> 32));
+      result = 31 * result + (precision != null ? precision.hashCode() : 0);
+      result = 31 * result + (limit != null ? limit.hashCode() : 0);
+      result = 31 * result + (groupedByHosts ? 1 : 0);
+      result = 31 * result + (topN != null ? topN.hashCode() : 0);
+      result = 31 * result + (topNFunction != null ? topNFunction.hashCode() : 0);
+      result = 31 * result + (isBottomN != null ? isBottomN.hashCode() : 0);
+      result = 31 * result + (seriesAggregateFunction != null ? seriesAggregateFunction.hashCode() : 0);
+      return result;
+    }
+  }
+}
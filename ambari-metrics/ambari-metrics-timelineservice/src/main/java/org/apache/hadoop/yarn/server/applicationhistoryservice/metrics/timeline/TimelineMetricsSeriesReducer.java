@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.metrics2.sink.timeline.SingleValuedTimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.TimelineMetricsSeriesAggregator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reduces the grouped metrics read by {@link PhoenixHBaseAccessor} to their
+ * series aggregate while the result set is read, instead of merging every
+ * series in memory and aggregating them afterwards.
+ *
+ * Rate and diff are computed as in
+ * {@link HBaseTimelineMetricStore#updateValuesAsRate(Map, boolean)} from the
+ * previous point of every series, which relies on the rows being read in
+ * time order.
+ */
+class TimelineMetricsSeriesReducer extends TimelineMetrics {
+  private final TimelineMetricsSeriesAggregator aggregator;
+  // metric name, app id, instance id, host name -> last point of a rate series
+  private final Map<List<String>, PreviousPoint> previousPoints = new HashMap<>();
+
+  TimelineMetricsSeriesReducer(TimelineMetricsSeriesAggregator aggregator) {
+    this.aggregator = aggregator;
+  }
+
+  @Override
+  public void addOrMergeTimelineMetric(TimelineMetric metric) {
+    aggregator.addSeries(metric.getMetricName(), metric.getHostName(),
+      metric.getAppId(), metric.getInstanceId());
+    PreviousPoint previous = getPreviousPoint(metric.getMetricName(), metric.getAppId(),
+      metric.getInstanceId(), metric.getHostName());
+    TimelineMetricSeries values = metric.getMetricSeries();
+    for (int i = 0; i < values.size(); i++) {
+      addValue(previous, values.getTimestamp(i), values.getValue(i));
+    }
+  }
+
+  @Override
+  public void addOrMergeTimelineMetric(SingleValuedTimelineMetric metric) {
+    if (metric.getValue() == null) {
+      return;
+    }
+    aggregator.addSeries(metric.getMetricName(), metric.getHostName(),
+      metric.getAppId(), metric.getInstanceId());
+    PreviousPoint previous = getPreviousPoint(metric.getMetricName(), metric.getAppId(),
+      metric.getInstanceId(), metric.getHostName());
+    addValue(previous, metric.getTimestamp(), metric.getValue());
+  }
+
+  /**
+   * @return the aggregated metric, no metric if nothing was read
+   */
+  TimelineMetrics getAggregatedMetrics() {
+    TimelineMetrics metrics = new TimelineMetrics();
+    if (!aggregator.isEmpty()) {
+      metrics.getMetrics().add(aggregator.getAggregatedMetric());
+    }
+    return metrics;
+  }
+
+  private PreviousPoint getPreviousPoint(String metricName, String appId,
+                                         String instanceId, String hostName) {
+    boolean isDiff = metricName.contains("._diff");
+    if (!isDiff && !metricName.contains("._rate")) {
+      return null;
+    }
+    List<String> key = Arrays.asList(metricName, appId, instanceId, hostName);
+    PreviousPoint previous = previousPoints.get(key);
+    if (previous == null) {
+      previous = new PreviousPoint(isDiff);
+      previousPoints.put(key, previous);
+    }
+    return previous;
+  }
+
+  private void addValue(PreviousPoint previous, long timestamp, double value) {
+    if (previous == null) {
+      aggregator.addValue(timestamp, value);
+      return;
+    }
+    if (previous.isSet) {
+      if (timestamp <= previous.timestamp) {
+        return;
+      }
+      double diff = value - previous.value;
+      // Discard calculating rate when the metric counter has been reset.
+      if (diff >= 0) {
+        aggregator.addValue(timestamp, previous.isDiff ? diff :
+          diff / TimeUnit.MILLISECONDS.toSeconds(timestamp - previous.timestamp));
+      }
+    }
+    previous.isSet = true;
+    previous.timestamp = timestamp;
+    previous.value = value;
+  }
+
+  private static class PreviousPoint {
+    private final boolean isDiff;
+    private boolean isSet;
+    private long timestamp;
+    private double value;
+
+    PreviousPoint(boolean isDiff) {
+      this.isDiff = isDiff;
+    }
+  }
+}
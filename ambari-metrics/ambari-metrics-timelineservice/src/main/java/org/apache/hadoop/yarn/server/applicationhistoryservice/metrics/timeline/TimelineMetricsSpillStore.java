@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.codehaus.jackson.map.AnnotationIntrospector;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local directory holding metrics that could not be handed to HBase, either
+ * because the write queue was full or because a commit failed. Each spill is
+ * one JSON file in the same format as the collector POST payload, written
+ * to a temporary name and renamed so a crash never leaves a partial file
+ * behind. Files are replayed oldest first, also across collector restarts.
+ */
+public class TimelineMetricsSpillStore {
+  private static final Log LOG = LogFactory.getLog(TimelineMetricsSpillStore.class);
+
+  static final String SPILL_FILE_PREFIX = "metrics-";
+  static final String SPILL_FILE_SUFFIX = ".json";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final ObjectMapper mapper;
+
+  static {
+    mapper = new ObjectMapper();
+    AnnotationIntrospector introspector = new JaxbAnnotationIntrospector();
+    mapper.setAnnotationIntrospector(introspector);
+  }
+
+  private final File spillDir;
+  private final long maxBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public TimelineMetricsSpillStore(File spillDir, long maxBytes) throws IOException {
+    this.spillDir = spillDir;
+    this.maxBytes = maxBytes;
+    if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+      throw new IOException("Unable to create metrics spill directory " + spillDir);
+    }
+    for (File file : listTempFiles()) {
+      // Interrupted writes from a previous run
+      if (!file.delete()) {
+        LOG.warn("Unable to delete incomplete spill file " + file);
+      }
+    }
+    for (File file : listSpillFiles()) {
+      usedBytes.addAndGet(file.length());
+    }
+    if (usedBytes.get() > 0) {
+      LOG.info("Found " + usedBytes.get() + " bytes of spilled metrics in " + spillDir);
+    }
+  }
+
+  /**
+   * Write metrics to a new spill file.
+   *
+   * @return false if the spill directory is over its size limit, in which
+   * case nothing is written
+   */
+  public boolean spill(List<TimelineMetric> metrics) throws IOException {
+    if (metrics.isEmpty()) {
+      return true;
+    }
+    if (usedBytes.get() >= maxBytes) {
+      return false;
+    }
+    TimelineMetrics timelineMetrics = new TimelineMetrics();
+    timelineMetrics.setMetrics(new ArrayList<TimelineMetric>(metrics));
+
+    // Zero padded so that the lexical order is the spill order
+    String name = String.format("%s%013d-%06d", SPILL_FILE_PREFIX,
+      System.currentTimeMillis(), sequence.incrementAndGet() % 1000000);
+    File tmpFile = new File(spillDir, name + TMP_SUFFIX);
+    File spillFile = new File(spillDir, name + SPILL_FILE_SUFFIX);
+    mapper.writeValue(tmpFile, timelineMetrics);
+    if (!tmpFile.renameTo(spillFile)) {
+      tmpFile.delete();
+      throw new IOException("Unable to rename spill file " + tmpFile);
+    }
+    usedBytes.addAndGet(spillFile.length());
+    return true;
+  }
+
+  /**
+   * @return spilled files, oldest first
+   */
+  public List<File> listSpillFiles() {
+    File[] files = spillDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && file.getName().startsWith(SPILL_FILE_PREFIX)
+          && file.getName().endsWith(SPILL_FILE_SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new ArrayList<File>();
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return f1.getName().compareTo(f2.getName());
+      }
+    });
+    return new ArrayList<File>(Arrays.asList(files));
+  }
+
+  public TimelineMetrics read(File spillFile) throws IOException {
+    return mapper.readValue(spillFile, TimelineMetrics.class);
+  }
+
+  /**
+   * Remove a spill file once its metrics have been committed.
+   */
+  public void remove(File spillFile) {
+    long length = spillFile.length();
+    if (spillFile.delete()) {
+      usedBytes.addAndGet(-length);
+    } else {
+      LOG.warn("Unable to delete replayed spill file " + spillFile);
+    }
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  public boolean isEmpty() {
+    return usedBytes.get() == 0 && listSpillFiles().isEmpty();
+  }
+
+  private List<File> listTempFiles() {
+    File[] files = spillDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().startsWith(SPILL_FILE_PREFIX)
+          && file.getName().endsWith(TMP_SUFFIX);
+      }
+    });
+    return files == null ? new ArrayList<File>() : Arrays.asList(files);
+  }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Immutable, compiled form of the metric whitelist.
+ *
+ * Whitelist patterns match anywhere in the metric name, so every one of
+ * them had to be tried against every name that is not a literal entry.
+ * Most patterns contain a literal run that any match has to contain
+ * ("FSNamesystem" in "dfs.FSNamesystem.*"); those runs are put in a single
+ * Aho-Corasick automaton and a name only has to be scanned once to know
+ * which patterns can possibly match it. Patterns without such a run are
+ * combined into one regex. Decisions are cached per metric name since the
+ * same names arrive every minute.
+ */
+public final class TimelineMetricsWhitelistMatcher {
+
+  private static final String META_CHARS = "\\.[](){}*+?^$|";
+  private static final int[] NO_PATTERNS = new int[0];
+
+  private final Set<String> literals;
+  private final Pattern[] filteredPatterns;
+  // Pattern is the literal itself, finding it in the name is enough
+  private final boolean[] exactPatterns;
+  private final Node root;
+  private final List<Pattern> unfilteredPatterns;
+  private final Pattern combinedUnfilteredPattern;
+  private final Cache<String, Boolean> decisions;
+
+  /**
+   * @param literals metric names accepted as is
+   * @param patterns regular expressions, a name is accepted when any of
+   *                 them is found in it
+   * @param cacheSize maximum number of names to cache pattern decisions
+   *                  for, 0 to evaluate every time
+   */
+  public TimelineMetricsWhitelistMatcher(Collection<String> literals,
+                                         Collection<Pattern> patterns,
+                                         int cacheSize) {
+    this.literals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    this.literals.addAll(literals);
+
+    List<Pattern> filtered = new ArrayList<>();
+    List<String> factors = new ArrayList<>();
+    List<Pattern> unfiltered = new ArrayList<>();
+    for (Pattern pattern : patterns) {
+      String factor = getRequiredLiteral(pattern.pattern());
+      if (factor != null && pattern.flags() == 0) {
+        filtered.add(pattern);
+        factors.add(factor);
+      } else {
+        unfiltered.add(pattern);
+      }
+    }
+
+    filteredPatterns = filtered.toArray(new Pattern[filtered.size()]);
+    exactPatterns = new boolean[filteredPatterns.length];
+    for (int i = 0; i < filteredPatterns.length; i++) {
+      exactPatterns[i] = factors.get(i).equals(filteredPatterns[i].pattern());
+    }
+    root = buildAutomaton(factors);
+    unfilteredPatterns = unfiltered;
+    combinedUnfilteredPattern = combine(unfiltered);
+
+    decisions = cacheSize > 0 ?
+      CacheBuilder.newBuilder().maximumSize(cacheSize).<String, Boolean>build() : null;
+  }
+
+  /**
+   * True if neither literals nor patterns are configured, in which case
+   * no metric is filtered.
+   */
+  public boolean isEmpty() {
+    return literals.isEmpty() && filteredPatterns.length == 0 && unfilteredPatterns.isEmpty();
+  }
+
+  public int getLiteralCount() {
+    return literals.size();
+  }
+
+  public int getPatternCount() {
+    return filteredPatterns.length + unfilteredPatterns.size();
+  }
+
+  public void addLiteral(String metricName) {
+    literals.add(metricName);
+    if (decisions != null) {
+      decisions.invalidate(metricName);
+    }
+  }
+
+  public boolean matches(String metricName) {
+    if (metricName == null) {
+      return false;
+    }
+    if (literals.contains(metricName)) {
+      return true;
+    }
+    if (decisions == null) {
+      return matchesPatterns(metricName);
+    }
+    Boolean decision = decisions.getIfPresent(metricName);
+    if (decision == null) {
+      decision = matchesPatterns(metricName);
+      decisions.put(metricName, decision);
+    }
+    return decision;
+  }
+
+  boolean matchesPatterns(String metricName) {
+    if (filteredPatterns.length > 0) {
+      BitSet tried = null;
+      Node node = root;
+      for (int i = 0; i < metricName.length(); i++) {
+        char c = metricName.charAt(i);
+        Node next = node.getChild(c);
+        while (next == null && node != root) {
+          node = node.fail;
+          next = node.getChild(c);
+        }
+        node = next != null ? next : root;
+
+        for (Node out = node.patterns.length > 0 ? node : node.output; out != null; out = out.output) {
+          for (int index : out.patterns) {
+            if (exactPatterns[index]) {
+              return true;
+            }
+            if (tried == null) {
+              tried = new BitSet(filteredPatterns.length);
+            } else if (tried.get(index)) {
+              continue;
+            }
+            tried.set(index);
+            if (filteredPatterns[index].matcher(metricName).find()) {
+              return true;
+            }
+          }
+        }
+      }
+    }
+
+    if (combinedUnfilteredPattern != null) {
+      return combinedUnfilteredPattern.matcher(metricName).find();
+    }
+    for (Pattern pattern : unfilteredPatterns) {
+      if (pattern.matcher(metricName).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Longest run of literal characters every match of the regex contains,
+   * or null if none could be determined. Only looks at the top level of
+   * simple expressions, anything unusual is left to the regex engine.
+   */
+  static String getRequiredLiteral(String regex) {
+    if (regex.indexOf('|') >= 0 || regex.contains("\\Q") || regex.contains("(?")) {
+      return null;
+    }
+
+    String best = "";
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    int i = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= regex.length()) {
+          return null;
+        }
+        char escaped = regex.charAt(i + 1);
+        i += 2;
+        if (depth > 0) {
+          continue;
+        }
+        if (Character.isLetterOrDigit(escaped)) {
+          // Character class, back reference or control escape
+          best = longer(best, run);
+          continue;
+        }
+        c = escaped;
+      } else if (c == '[') {
+        i = skipCharacterClass(regex, i);
+        if (i < 0) {
+          return null;
+        }
+        best = longer(best, run);
+        continue;
+      } else if (c == '(') {
+        depth++;
+        i++;
+        best = longer(best, run);
+        continue;
+      } else if (c == ')') {
+        depth--;
+        i++;
+        continue;
+      } else if (META_CHARS.indexOf(c) >= 0) {
+        // Skip the bounds of a {n,m} quantifier
+        i = c == '{' ? regex.indexOf('}', i) + 1 : i + 1;
+        if (i == 0) {
+          return null;
+        }
+        if (depth == 0) {
+          best = longer(best, run);
+        }
+        continue;
+      } else {
+        i++;
+        if (depth > 0) {
+          continue;
+        }
+      }
+
+      // Literal character at top level, check what quantifies it
+      char quantifier = i < regex.length() ? regex.charAt(i) : 0;
+      if (quantifier == '*' || quantifier == '?' || quantifier == '{') {
+        best = longer(best, run);
+      } else if (quantifier == '+') {
+        run.append(c);
+        best = longer(best, run);
+      } else {
+        run.append(c);
+      }
+    }
+    best = longer(best, run);
+    return best.isEmpty() ? null : best;
+  }
+
+  private static String longer(String best, StringBuilder run) {
+    String candidate = run.length() > best.length() ? run.toString() : best;
+    run.setLength(0);
+    return candidate;
+  }
+
+  private static int skipCharacterClass(String regex, int start) {
+    int depth = 1;
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      i++;
+    }
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+      } else if (c == ']' && --depth == 0) {
+        return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  private static Pattern combine(List<Pattern> patterns) {
+    if (patterns.size() < 2) {
+      return null;
+    }
+    StringBuilder combined = new StringBuilder();
+    for (Pattern pattern : patterns) {
+      String regex = pattern.pattern();
+      // Wrapping shifts group numbers, keep those patterns separate
+      if (pattern.flags() != 0 || regex.matches(".*\\\\([1-9]|k<).*")) {
+        return null;
+      }
+      if (combined.length() > 0) {
+        combined.append('|');
+      }
+      combined.append("(?:").append(regex).append(')');
+    }
+    return Pattern.compile(combined.toString());
+  }
+
+  private static Node buildAutomaton(List<String> factors) {
+    Node root = new Node();
+    for (int index = 0; index < factors.size(); index++) {
+      Node node = root;
+      for (char c : factors.get(index).toCharArray()) {
+        node = node.getOrAddChild(c);
+      }
+      node.addPattern(index);
+    }
+
+    // Breadth first so that fail links of shorter suffixes are set first
+    Queue<Node> queue = new ArrayDeque<>();
+    for (Node child : root.children) {
+      child.fail = root;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      for (int i = 0; i < node.keys.length; i++) {
+        char c = node.keys[i];
+        Node child = node.children[i];
+        Node fail = node.fail;
+        Node next = fail.getChild(c);
+        while (next == null && fail != root) {
+          fail = fail.fail;
+          next = fail.getChild(c);
+        }
+        child.fail = next != null ? next : root;
+        child.output = child.fail.patterns.length > 0 ? child.fail : child.fail.output;
+        queue.add(child);
+      }
+    }
+    return root;
+  }
+
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private Node fail;
+    // Closest node on the fail chain that completes a literal
+    private Node output;
+    private int[] patterns = NO_PATTERNS;
+
+    Node getChild(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    Node getOrAddChild(char c) {
+      int i = Arrays.binarySearch(keys, c);
+      if (i >= 0) {
+        return children[i];
+      }
+      int insertAt = -i - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Node[] newChildren = new Node[keys.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insertAt);
+      System.arraycopy(children, 0, newChildren, 0, insertAt);
+      System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+      System.arraycopy(children, insertAt, newChildren, insertAt + 1, keys.length - insertAt);
+      Node child = new Node();
+      newKeys[insertAt] = c;
+      newChildren[insertAt] = child;
+      keys = newKeys;
+      children = newChildren;
+      return child;
+    }
+
+    void addPattern(int index) {
+      patterns = Arrays.copyOf(patterns, patterns.length + 1);
+      patterns[patterns.length - 1] = index;
+    }
+  }
+}
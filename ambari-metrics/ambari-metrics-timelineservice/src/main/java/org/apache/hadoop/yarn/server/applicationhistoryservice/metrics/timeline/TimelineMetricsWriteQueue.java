@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.DEFAULT_CHECKPOINT_LOCATION;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_CACHE_COMMIT_INTERVAL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_BATCH_SIZE;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_QUEUE_SHARDS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_QUEUE_SHARD_CAPACITY;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_SPILL_DIR;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_WRITE_SPILL_MAX_BYTES;
+
+/**
+ * Asynchronous, sharded write path for METRIC_RECORD.
+ *
+ * Metrics are routed to a shard by metric name, host and app so that all
+ * points of a series are committed in order by the same thread. Each shard
+ * has a bounded queue and one committer thread that upserts up to
+ * batch size rows per HBase commit, so commits of different shards run in
+ * parallel on separate connections.
+ *
+ * {@link #put(TimelineMetrics)} never blocks the caller: when a shard is
+ * full, or a commit fails because HBase is stalled, the metrics are spilled
+ * to a local directory and replayed once commits succeed again. Metrics are
+ * only dropped when the spill directory is over its size limit.
+ */
+public class TimelineMetricsWriteQueue implements MetricsSource {
+  private static final Log LOG = LogFactory.getLog(TimelineMetricsWriteQueue.class);
+
+  static final String METRICS_SOURCE_NAME = "TimelineMetricsWriteQueue";
+
+  /**
+   * Commits one batch of metrics, throws if nothing was committed.
+   */
+  public interface BatchCommitter {
+    void commitBatch(List<TimelineMetric> metrics) throws SQLException, IOException;
+  }
+
+  private final BatchCommitter committer;
+  private final TimelineMetricsSpillStore spillStore;
+  private final List<BlockingQueue<TimelineMetric>> shards;
+  private final List<Thread> committerThreads;
+  private final Thread replayThread;
+  private final int batchSize;
+  private final long lingerMillis;
+  private volatile boolean running = false;
+  private volatile long lastCommitFailure = 0;
+
+  private final MetricsRegistry registry = new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableCounterLong metricsEnqueued =
+    registry.newCounter("MetricsEnqueued", "Metrics accepted into the write queue", 0L);
+  private final MutableCounterLong metricsCommitted =
+    registry.newCounter("MetricsCommitted", "Metrics committed to the store", 0L);
+  private final MutableCounterLong metricsSpilled =
+    registry.newCounter("MetricsSpilled", "Metrics spilled to local disk", 0L);
+  private final MutableCounterLong metricsReplayed =
+    registry.newCounter("MetricsReplayed", "Spilled metrics committed to the store", 0L);
+  private final MutableCounterLong metricsDropped =
+    registry.newCounter("MetricsDropped", "Metrics dropped with a full spill directory", 0L);
+  private final MutableCounterLong commitFailures =
+    registry.newCounter("CommitFailures", "Failed batch commits", 0L);
+  private final MutableGaugeLong queueDepth =
+    registry.newGauge("QueueDepth", "Metrics waiting in all shards", 0L);
+  private final MutableGaugeLong spillBytes =
+    registry.newGauge("SpillBytes", "Bytes waiting in the spill directory", 0L);
+  private final MutableRate commitLatency =
+    registry.newRate("CommitLatency", "Batch commit latency in millis", false);
+
+  public TimelineMetricsWriteQueue(Configuration metricsConf, BatchCommitter committer)
+      throws IOException {
+    this(committer,
+      metricsConf.getInt(TIMELINE_METRICS_WRITE_QUEUE_SHARDS, 4),
+      metricsConf.getInt(TIMELINE_METRICS_WRITE_QUEUE_SHARD_CAPACITY, 10000),
+      metricsConf.getInt(TIMELINE_METRICS_WRITE_BATCH_SIZE, 1000),
+      TimeUnit.SECONDS.toMillis(metricsConf.getInt(TIMELINE_METRICS_CACHE_COMMIT_INTERVAL, 3)),
+      new TimelineMetricsSpillStore(new File(metricsConf.get(TIMELINE_METRICS_WRITE_SPILL_DIR,
+        metricsConf.get(TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR, DEFAULT_CHECKPOINT_LOCATION)
+          + File.separator + "ams-write-spill")),
+        metricsConf.getLong(TIMELINE_METRICS_WRITE_SPILL_MAX_BYTES, 1024L * 1024 * 1024)));
+  }
+
+  TimelineMetricsWriteQueue(BatchCommitter committer, int shardCount, int shardCapacity,
+                            int batchSize, long lingerMillis,
+                            TimelineMetricsSpillStore spillStore) {
+    this.committer = committer;
+    this.spillStore = spillStore;
+    this.batchSize = Math.max(1, batchSize);
+    this.lingerMillis = Math.max(1, lingerMillis);
+
+    shardCount = Math.max(1, shardCount);
+    this.shards = new ArrayList<BlockingQueue<TimelineMetric>>(shardCount);
+    this.committerThreads = new ArrayList<Thread>(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      final BlockingQueue<TimelineMetric> shard =
+        new ArrayBlockingQueue<TimelineMetric>(Math.max(1, shardCapacity));
+      shards.add(shard);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runCommitter(shard);
+        }
+      }, "timeline-metrics-committer-" + i);
+      thread.setDaemon(true);
+      committerThreads.add(thread);
+    }
+    replayThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runReplay();
+      }
+    }, "timeline-metrics-spill-replay");
+    replayThread.setDaemon(true);
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    for (Thread thread : committerThreads) {
+      thread.start();
+    }
+    replayThread.start();
+    try {
+      DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Timeline metrics write queue", this);
+    } catch (MetricsException e) {
+      LOG.warn("Unable to register write queue metrics source: " + e.getMessage());
+    }
+    LOG.info("Started metrics write queue with " + shards.size() + " shards, batch size "
+      + batchSize);
+  }
+
+  /**
+   * Stop accepting work, commit what is queued and spill anything that
+   * cannot be committed so it is replayed on the next start.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      for (Thread thread : committerThreads) {
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+      }
+      replayThread.interrupt();
+      replayThread.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (BlockingQueue<TimelineMetric> shard : shards) {
+      List<TimelineMetric> remaining = new ArrayList<TimelineMetric>();
+      shard.drainTo(remaining);
+      spill(remaining);
+    }
+    try {
+      DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
+    } catch (MetricsException e) {
+      LOG.debug("Unable to unregister write queue metrics source", e);
+    }
+  }
+
+  /**
+   * Queue metrics for commit without blocking, overflowing metrics are
+   * spilled to disk.
+   */
+  public void put(TimelineMetrics metrics) {
+    if (!running) {
+      // Stopped, keep the metrics for the next start
+      spill(metrics.getMetrics());
+      return;
+    }
+    List<TimelineMetric> overflow = null;
+    for (TimelineMetric metric : metrics.getMetrics()) {
+      if (shards.get(shardFor(metric)).offer(metric)) {
+        metricsEnqueued.incr();
+      } else {
+        if (overflow == null) {
+          overflow = new ArrayList<TimelineMetric>();
+        }
+        overflow.add(metric);
+      }
+    }
+    if (overflow != null) {
+      LOG.debug("Write queue full, spilling " + overflow.size() + " metrics");
+      spill(overflow);
+    }
+  }
+
+  int shardFor(TimelineMetric metric) {
+    int hash = 17;
+    hash = 31 * hash + (metric.getMetricName() == null ? 0 : metric.getMetricName().hashCode());
+    hash = 31 * hash + (metric.getHostName() == null ? 0 : metric.getHostName().hashCode());
+    hash = 31 * hash + (metric.getAppId() == null ? 0 : metric.getAppId().hashCode());
+    return (hash & Integer.MAX_VALUE) % shards.size();
+  }
+
+  private void runCommitter(BlockingQueue<TimelineMetric> shard) {
+    List<TimelineMetric> batch = new ArrayList<TimelineMetric>(batchSize);
+    while (running || !shard.isEmpty()) {
+      try {
+        TimelineMetric first = shard.poll(lingerMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        shard.drainTo(batch, batchSize - 1);
+        if (!commit(batch)) {
+          spill(batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        // Never let the committer die, the shard would fill up for good
+        LOG.error("Unexpected error committing metrics batch", e);
+        spill(batch);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private boolean commit(List<TimelineMetric> batch) {
+    long start = System.currentTimeMillis();
+    try {
+      committer.commitBatch(batch);
+      commitLatency.add(System.currentTimeMillis() - start);
+      metricsCommitted.incr(batch.size());
+      return true;
+    } catch (Exception e) {
+      lastCommitFailure = System.currentTimeMillis();
+      commitFailures.incr();
+      LOG.warn("Failed to commit " + batch.size() + " metrics, spilling to disk. "
+        + e.getMessage());
+      return false;
+    }
+  }
+
+  private void spill(List<TimelineMetric> metrics) {
+    if (metrics.isEmpty()) {
+      return;
+    }
+    try {
+      if (spillStore.spill(metrics)) {
+        metricsSpilled.incr(metrics.size());
+        return;
+      }
+      LOG.error("Metrics spill directory is full, dropping " + metrics.size() + " metrics");
+    } catch (IOException e) {
+      LOG.error("Unable to spill " + metrics.size() + " metrics, dropping them", e);
+    }
+    metricsDropped.incr(metrics.size());
+  }
+
+  /**
+   * Replay spilled files while the store accepts commits and the shards
+   * are not backed up, so replay never competes with live ingestion.
+   */
+  private void runReplay() {
+    while (running) {
+      try {
+        Thread.sleep(lingerMillis);
+        if (System.currentTimeMillis() - lastCommitFailure < lingerMillis || isBackedUp()) {
+          continue;
+        }
+        for (File spillFile : spillStore.listSpillFiles()) {
+          if (!running || !replay(spillFile)) {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private boolean replay(File spillFile) {
+    List<TimelineMetric> metrics;
+    try {
+      metrics = spillStore.read(spillFile).getMetrics();
+    } catch (IOException e) {
+      LOG.error("Unable to read spill file " + spillFile + ", skipping it", e);
+      spillStore.remove(spillFile);
+      return true;
+    }
+    if (metrics == null) {
+      metrics = Collections.emptyList();
+    }
+    for (int from = 0; from < metrics.size(); from += batchSize) {
+      List<TimelineMetric> batch = metrics.subList(from, Math.min(metrics.size(), from + batchSize));
+      if (!commit(batch)) {
+        // Whole file is replayed again later, upserts are idempotent
+        return false;
+      }
+      metricsReplayed.incr(batch.size());
+    }
+    spillStore.remove(spillFile);
+    return true;
+  }
+
+  private boolean isBackedUp() {
+    for (BlockingQueue<TimelineMetric> shard : shards) {
+      if (shard.remainingCapacity() < shard.size()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long getQueueDepth() {
+    long depth = 0;
+    for (BlockingQueue<TimelineMetric> shard : shards) {
+      depth += shard.size();
+    }
+    return depth;
+  }
+
+  public long getMetricsEnqueued() {
+    return metricsEnqueued.value();
+  }
+
+  public long getMetricsCommitted() {
+    return metricsCommitted.value();
+  }
+
+  public long getMetricsSpilled() {
+    return metricsSpilled.value();
+  }
+
+  public long getMetricsReplayed() {
+    return metricsReplayed.value();
+  }
+
+  public long getMetricsDropped() {
+    return metricsDropped.value();
+  }
+
+  public long getCommitFailures() {
+    return commitFailures.value();
+  }
+
+  public long getSpillBytes() {
+    return spillStore.getUsedBytes();
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    queueDepth.set(getQueueDepth());
+    spillBytes.set(getSpillBytes());
+    registry.snapshot(collector.addRecord(registry.info()), all);
+  }
+}
@@ -25,6 +25,7 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.MetricCollectorHAController;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.Condition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.EmptyCondition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL;
@@ -32,18 +33,38 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.AGGREGATE_TABLE_SPLIT_POINTS;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.AGGREGATOR_CHECKPOINT_DELAY;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.PRECISION_TABLE_SPLIT_POINTS;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.RESULTSET_FETCH_SIZE;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_PARTITIONS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_PARTITION_THREADS;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.ACTUAL_AGGREGATOR_NAMES;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_AGGREGATE_MINUTE_TABLE_NAME;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_CLUSTER_AGGREGATE_TABLE_NAME;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_RECORD_TABLE_NAME;
 
 /**
  * Base class for all runnable aggregators. Provides common functions like
@@ -65,6 +86,10 @@ public abstract class AbstractTimelineAggregator implements TimelineMetricAggreg
   protected AggregationTaskRunner taskRunner;
   protected List<String> downsampleMetricPatterns;
   protected List<CustomDownSampler> configuredDownSamplers;
+  // Shared by all aggregators to bound the total number of scans
+  private static ForkJoinPool partitionPool;
+  private final int partitionCount;
+  private final AggregatorPartitionMetrics partitionMetrics;
 
   // Explicitly name aggregators for logging needs
   private final AGGREGATOR_NAME aggregatorName;
@@ -80,6 +105,11 @@ public abstract class AbstractTimelineAggregator implements TimelineMetricAggreg
     this.LOG = LoggerFactory.getLogger(ACTUAL_AGGREGATOR_NAMES.get(aggregatorName));
     this.configuredDownSamplers = DownSamplerUtils.getDownSamplers(metricsConf);
     this.downsampleMetricPatterns = DownSamplerUtils.getDownsampleMetricPatterns(metricsConf);
+    this.partitionCount = metricsConf.getInt(TIMELINE_METRICS_AGGREGATOR_PARTITIONS, 1);
+    this.partitionMetrics = new AggregatorPartitionMetrics(ACTUAL_AGGREGATOR_NAMES.get(aggregatorName));
+    if (partitionCount > 1 && supportsPartitionedAggregation()) {
+      partitionMetrics.register();
+    }
   }
 
   public AbstractTimelineAggregator(AGGREGATOR_NAME aggregatorName,
@@ -254,8 +284,80 @@ public abstract class AbstractTimelineAggregator implements TimelineMetricAggreg
     LOG.info("Start aggregation cycle @ " + new Date() + ", " +
       "startTime = " + new Date(startTime) + ", endTime = " + new Date(endTime));
 
+    List<MetricNameRange> ranges = getPartitionRanges();
+    boolean success;
+    if (ranges.size() > 1) {
+      success = doPartitionedWork(startTime, endTime, ranges);
+    } else {
+      success = aggregateRange(startTime, endTime, null, -1, true);
+    }
+
+    LOG.info("End aggregation cycle @ " + new Date());
+    return success;
+  }
+
+  /**
+   * Aggregate every range as a separate task on the shared partition pool.
+   * Ranges do not overlap, so each one saves its own aggregates and the
+   * window succeeds only if all of them did.
+   */
+  private boolean doPartitionedWork(final long startTime, final long endTime,
+                                    List<MetricNameRange> ranges) {
+    LOG.info("Aggregating " + ranges.size() + " metric name partitions");
+    List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      final MetricNameRange range = ranges.get(i);
+      final int partition = i;
+      tasks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return aggregateRange(startTime, endTime, range, partition, false);
+        }
+      });
+    }
+
     boolean success = true;
-    Condition condition = prepareMetricQueryCondition(startTime, endTime);
+    try {
+      for (Future<Boolean> result : getPartitionPool(metricsConf).invokeAll(tasks)) {
+        success &= result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      LOG.error("Exception during aggregating metrics.", e.getCause());
+      return false;
+    }
+
+    if (success && !CollectionUtils.isEmpty(configuredDownSamplers)
+        && prepareMetricQueryCondition(startTime, endTime).doUpdate()) {
+      Connection conn = null;
+      try {
+        conn = hBaseAccessor.getConnection();
+        downsample(conn, startTime, endTime);
+      } catch (SQLException e) {
+        LOG.error("Exception during downsampling metrics.", e);
+      } finally {
+        if (conn != null) {
+          try {
+            conn.close();
+          } catch (SQLException sql) {
+            // Ignore
+          }
+        }
+      }
+    }
+    return success;
+  }
+
+  private boolean aggregateRange(long startTime, long endTime, MetricNameRange range,
+                                 int partition, boolean downsample) {
+    boolean success = true;
+    long partitionStartTime = System.currentTimeMillis();
+    AtomicLong rows = new AtomicLong();
+    Condition condition = range == null ?
+      prepareMetricQueryCondition(startTime, endTime) :
+      prepareMetricQueryCondition(startTime, endTime, range);
 
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -268,20 +370,28 @@ public abstract class AbstractTimelineAggregator implements TimelineMetricAggreg
 
       LOG.debug("Query issued @: " + new Date());
       if (condition.doUpdate()) {
-        int rows = stmt.executeUpdate();
+        int updated = stmt.executeUpdate();
         conn.commit();
-        LOG.info(rows + " row(s) updated in aggregation.");
+        rows.set(updated);
+        LOG.info(updated + " row(s) updated in aggregation" +
+          (range == null ? "." : " of partition " + range + "."));
 
-        downsample(conn, startTime, endTime);
+        if (downsample) {
+          downsample(conn, startTime, endTime);
+        }
       } else {
         rs = stmt.executeQuery();
+        if (range != null) {
+          rs = countingResultSet(rs, rows);
+        }
       }
       LOG.debug("Query returned @: " + new Date());
 
       aggregate(rs, startTime, endTime);
 
     } catch (SQLException | IOException e) {
-      LOG.error("Exception during aggregating metrics.", e);
+      LOG.error("Exception during aggregating metrics" +
+        (range == null ? "." : " of partition " + range + "."), e);
       success = false;
     } finally {
       if (rs != null) {
@@ -307,10 +417,118 @@ public abstract class AbstractTimelineAggregator implements TimelineMetricAggreg
       }
     }
 
-    LOG.info("End aggregation cycle @ " + new Date());
+    if (range != null) {
+      if (success) {
+        partitionMetrics.partitionCompleted(partition,
+          System.currentTimeMillis() - partitionStartTime, rows.get());
+      } else {
+        partitionMetrics.partitionFailed();
+      }
+    }
     return success;
   }
 
+  /**
+   * Metric name ranges to aggregate in parallel, a single unbounded range
+   * when partitioning is disabled or not supported by the aggregator.
+   * Boundaries come from the split points of the input table when
+   * configured, so partitions line up with regions, otherwise from the
+   * metric names known to the metadata table.
+   */
+  List<MetricNameRange> getPartitionRanges() {
+    List<MetricNameRange> unpartitioned =
+      Collections.singletonList(new MetricNameRange(null, null));
+    if (partitionCount <= 1 || !supportsPartitionedAggregation()) {
+      return unpartitioned;
+    }
+
+    String splitPoints = null;
+    if (METRICS_RECORD_TABLE_NAME.equals(tableName)) {
+      splitPoints = metricsConf.get(PRECISION_TABLE_SPLIT_POINTS);
+    } else if (METRICS_AGGREGATE_MINUTE_TABLE_NAME.equals(tableName)
+        || METRICS_CLUSTER_AGGREGATE_TABLE_NAME.equals(tableName)) {
+      splitPoints = metricsConf.get(AGGREGATE_TABLE_SPLIT_POINTS);
+    }
+    if (!StringUtils.isBlank(splitPoints)) {
+      List<String> points = new ArrayList<String>();
+      for (String point : splitPoints.split(",")) {
+        if (!point.trim().isEmpty()) {
+          points.add(point.trim());
+        }
+      }
+      return MetricNameRange.split(points, partitionCount);
+    }
+
+    try {
+      Set<String> metricNames = new HashSet<String>();
+      for (TimelineMetricMetadataKey key : hBaseAccessor.getTimelineMetricMetadata().keySet()) {
+        metricNames.add(key.getMetricName());
+      }
+      return MetricNameRange.split(metricNames, partitionCount);
+    } catch (SQLException e) {
+      LOG.warn("Unable to read metric names for partitioning, aggregating " +
+        "without partitions.", e);
+      return unpartitioned;
+    }
+  }
+
+  /**
+   * Aggregators that can work on a metric name range override this along
+   * with {@link #prepareMetricQueryCondition(long, long, MetricNameRange)}.
+   * Their {@link #aggregate(ResultSet, long, long)} may then be called
+   * concurrently for different ranges.
+   */
+  protected boolean supportsPartitionedAggregation() {
+    return false;
+  }
+
+  protected Condition prepareMetricQueryCondition(long startTime, long endTime,
+                                                  MetricNameRange range) {
+    return prepareMetricQueryCondition(startTime, endTime);
+  }
+
+  /**
+   * Clause restricting a statement to the range, with a trailing
+   * conjunction like {@link #getDownsampledMetricSkipClause()}.
+   */
+  protected String getMetricNameRangeClause(MetricNameRange range) {
+    if (range == null || range.getSqlClause().isEmpty()) {
+      return StringUtils.EMPTY;
+    }
+    return " " + range.getSqlClause() + " AND ";
+  }
+
+  private static synchronized ForkJoinPool getPartitionPool(Configuration metricsConf) {
+    if (partitionPool == null) {
+      int threads = metricsConf.getInt(TIMELINE_METRICS_AGGREGATOR_PARTITION_THREADS,
+        Runtime.getRuntime().availableProcessors());
+      partitionPool = new ForkJoinPool(Math.max(1, threads));
+    }
+    return partitionPool;
+  }
+
+  /**
+   * Count the rows an aggregator reads from the scan.
+   */
+  private static ResultSet countingResultSet(final ResultSet rs, final AtomicLong rows) {
+    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+      new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          Object result;
+          try {
+            result = method.invoke(rs, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+          if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+            rows.incrementAndGet();
+          }
+          return result;
+        }
+      });
+  }
+
   protected abstract Condition prepareMetricQueryCondition(long startTime, long endTime);
 
   protected abstract void aggregate(ResultSet rs, long startTime, long endTime) throws IOException, SQLException;
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+
+/**
+ * Per partition duration and row counts of a partitioned aggregator,
+ * published as a metrics2 source named after the aggregator. Partition
+ * gauges are created the first time a partition reports, the partition
+ * count may change between runs when derived from metric metadata.
+ */
+public class AggregatorPartitionMetrics implements MetricsSource {
+  private static final Log LOG = LogFactory.getLog(AggregatorPartitionMetrics.class);
+
+  private final String sourceName;
+  private final MetricsRegistry registry;
+  private final MutableRate partitionDuration;
+  private final MutableCounterLong partitionFailures;
+  private boolean registered = false;
+
+  public AggregatorPartitionMetrics(String aggregatorName) {
+    sourceName = "TimelineAggregator-" + aggregatorName;
+    registry = new MetricsRegistry(sourceName);
+    partitionDuration = registry.newRate("PartitionDuration",
+      "Duration of a partition aggregation in millis", false);
+    partitionFailures = registry.newCounter("PartitionFailures",
+      "Partition aggregations that failed", 0L);
+  }
+
+  public synchronized void register() {
+    if (registered) {
+      return;
+    }
+    try {
+      DefaultMetricsSystem.instance().register(sourceName,
+        "Timeline metrics aggregator partitions", this);
+      registered = true;
+    } catch (MetricsException e) {
+      LOG.warn("Unable to register aggregator metrics source: " + e.getMessage());
+    }
+  }
+
+  public synchronized void partitionCompleted(int partition, long durationMillis, long rows) {
+    partitionDuration.add(durationMillis);
+    gauge("Partition" + partition + "DurationMillis",
+      "Duration of the last run of partition " + partition).set(durationMillis);
+    gauge("Partition" + partition + "Rows",
+      "Rows scanned or upserted by the last run of partition " + partition).set(rows);
+  }
+
+  public synchronized void partitionFailed() {
+    partitionFailures.incr();
+  }
+
+  private MutableGaugeLong gauge(String name, String description) {
+    MutableGaugeLong gauge = (MutableGaugeLong) registry.get(name);
+    if (gauge == null) {
+      gauge = registry.newGauge(name, description, 0L);
+    }
+    return gauge;
+  }
+
+  @Override
+  public synchronized void getMetrics(MetricsCollector collector, boolean all) {
+    registry.snapshot(collector.addRecord(registry.info()), all);
+  }
+}
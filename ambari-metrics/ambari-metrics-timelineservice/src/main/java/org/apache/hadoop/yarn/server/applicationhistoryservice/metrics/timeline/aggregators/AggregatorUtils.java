@@ -21,6 +21,7 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline
 import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
 
 /**
  *
@@ -59,4 +60,36 @@ public class AggregatorUtils {
 
     return values;
   }
+
+  /**
+   * Same as {@link #calculateAggregates(Map)} without boxing, a series never
+   * holds null values.
+   */
+  public static double[] calculateAggregates(TimelineMetricSeries metricSeries) {
+    double[] values = new double[4];
+    double max = Double.MIN_VALUE;
+    double min = Double.MAX_VALUE;
+    double sum = 0.0;
+    int metricCount = 0;
+
+    if (metricSeries != null) {
+      metricCount = metricSeries.size();
+      for (int i = 0; i < metricCount; i++) {
+        double value = metricSeries.getValue(i);
+        if (value > max) {
+          max = value;
+        }
+        if (value < min) {
+          min = value;
+        }
+        sum += value;
+      }
+    }
+    values[0] = sum;
+    values[1] = max != Double.MIN_VALUE ? max : 0.0;
+    values[2] = min != Double.MAX_VALUE ? min : 0.0;
+    values[3] = metricCount;
+
+    return values;
+  }
 }
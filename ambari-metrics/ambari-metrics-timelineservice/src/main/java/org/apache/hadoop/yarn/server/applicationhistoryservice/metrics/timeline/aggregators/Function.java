@@ -165,18 +165,40 @@ public class Function {
     AVG("._avg"),
     MIN("._min"),
     MAX("._max"),
-    SUM("._sum");
+    SUM("._sum"),
+    P50("._p50", 0.5),
+    P75("._p75", 0.75),
+    P90("._p90", 0.9),
+    P95("._p95", 0.95),
+    P99("._p99", 0.99);
 
     private final String suffix;
+    private final double quantile;
 
     ReadFunction(String suffix){
+      this(suffix, Double.NaN);
+    }
+
+    ReadFunction(String suffix, double quantile) {
       this.suffix = suffix;
+      this.quantile = quantile;
     }
 
     public String getSuffix() {
       return suffix;
     }
 
+    /**
+     * Percentiles are read from the quantile sketch of the aggregates.
+     */
+    public boolean isPercentile() {
+      return !Double.isNaN(quantile);
+    }
+
+    public double getQuantile() {
+      return quantile;
+    }
+
     public static boolean isPresent(String functionName) {
       try {
         ReadFunction.valueOf(functionName.toUpperCase());
@@ -194,7 +216,8 @@ public class Function {
         return ReadFunction.valueOf(functionName.toUpperCase());
       } catch (IllegalArgumentException e) {
         throw new FunctionFormatException(
-          "Function should be sum, avg, min, max. Got " + functionName, e);
+          "Function should be sum, avg, min, max or p50, p75, p90, p95, p99. Got "
+            + functionName, e);
       }
     }
   }
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators;
+
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Range of metric names [start, end) an aggregator partition works on. A
+ * null bound is open. Metric name is the leading row key column of every
+ * metrics table, so a range maps to a contiguous scan and partitions never
+ * produce aggregates for the same key.
+ */
+public class MetricNameRange {
+  private final String start;
+  private final String end;
+
+  public MetricNameRange(String start, String end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  public String getStart() {
+    return start;
+  }
+
+  public String getEnd() {
+    return end;
+  }
+
+  public boolean contains(String metricName) {
+    return (start == null || metricName.compareTo(start) >= 0)
+      && (end == null || metricName.compareTo(end) < 0);
+  }
+
+  /**
+   * @return SQL condition for the range, empty for the unbounded range
+   */
+  public String getSqlClause() {
+    return PhoenixTransactSQL.getMetricNameRangeClause(start, end);
+  }
+
+  /**
+   * Split the metric name space into at most maxRanges contiguous ranges,
+   * using candidates as boundaries. Candidates are either table split
+   * points or known metric names; boundaries are picked evenly among them
+   * so every range holds roughly the same number of candidates.
+   */
+  public static List<MetricNameRange> split(Collection<String> candidates, int maxRanges) {
+    List<String> sorted = new ArrayList<String>(new TreeSet<String>(candidates));
+    List<MetricNameRange> ranges = new ArrayList<MetricNameRange>();
+    int rangeCount = Math.min(maxRanges, sorted.size() + 1);
+    String start = null;
+    for (int i = 1; i < rangeCount; i++) {
+      String boundary = sorted.get((int) ((long) i * sorted.size() / rangeCount));
+      if (start != null && boundary.equals(start)) {
+        continue;
+      }
+      ranges.add(new MetricNameRange(start, boundary));
+      start = boundary;
+    }
+    ranges.add(new MetricNameRange(start, null));
+    return ranges;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + (start == null ? "" : start) + ", " + (end == null ? "" : end) + ")";
+  }
+}
@@ -47,7 +47,9 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.HOST_AGGREGATOR_MINUTE_CHECKPOINT_CUTOFF_MULTIPLIER;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.HOST_AGGREGATOR_MINUTE_DISABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.HOST_AGGREGATOR_MINUTE_SLEEP_INTERVAL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.SERVER_SIDE_TIMESIFT_ADJUSTMENT;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.USE_GROUPBY_AGGREGATOR_QUERIES;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME.METRIC_AGGREGATE_DAILY;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME.METRIC_AGGREGATE_HOURLY;
@@ -86,6 +88,10 @@ public class TimelineMetricAggregatorFactory {
     "timeline-metrics-cluster-aggregator-daily-checkpoint";
 
   private static boolean useGroupByAggregator(Configuration metricsConf) {
+    // sketches are merged in memory, the GROUP BY queries only aggregate columns
+    if (metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false)) {
+      return false;
+    }
     return Boolean.parseBoolean(metricsConf.get(USE_GROUPBY_AGGREGATOR_QUERIES, "true"));
   }
 
@@ -248,6 +254,38 @@ public class TimelineMetricAggregatorFactory {
     PhoenixHBaseAccessor hBaseAccessor, Configuration metricsConf,
     TimelineMetricMetadataManager metadataManager,
     MetricCollectorHAController haController) {
+    return createTimelineClusterAggregatorSecond(hBaseAccessor, metricsConf,
+      metadataManager, haController, null);
+  }
+
+  /**
+   * Buffer for in-memory second aggregation, retaining received points for
+   * as long as the second aggregator would still aggregate their window
+   * rather than discard its checkpoint.
+   */
+  public static TimelineMetricsIngestBuffer createClusterIngestBuffer(Configuration metricsConf) {
+    long sleepIntervalMillis = SECONDS.toMillis(metricsConf.getLong
+      (CLUSTER_AGGREGATOR_SECOND_SLEEP_INTERVAL, 120l));
+    long timeSliceIntervalMillis = SECONDS.toMillis(metricsConf.getInt
+      (CLUSTER_AGGREGATOR_TIMESLICE_INTERVAL, 30));
+    int checkpointCutOffMultiplier =
+      metricsConf.getInt(CLUSTER_AGGREGATOR_SECOND_CHECKPOINT_CUTOFF_MULTIPLIER, 2);
+    long serverTimeShiftAdjustment = Long.parseLong(
+      metricsConf.get(SERVER_SIDE_TIMESIFT_ADJUSTMENT, "90000"));
+
+    return new TimelineMetricsIngestBuffer(sleepIntervalMillis * checkpointCutOffMultiplier
+      + serverTimeShiftAdjustment + 2 * timeSliceIntervalMillis);
+  }
+
+  /**
+   * Second aggregation for cluster, slicing the metrics held by the
+   * ingestBuffer when it covers the aggregation window.
+   */
+  public static TimelineMetricAggregator createTimelineClusterAggregatorSecond(
+    PhoenixHBaseAccessor hBaseAccessor, Configuration metricsConf,
+    TimelineMetricMetadataManager metadataManager,
+    MetricCollectorHAController haController,
+    TimelineMetricsIngestBuffer ingestBuffer) {
 
     String checkpointDir = metricsConf.get(
       TIMELINE_METRICS_AGGREGATOR_CHECKPOINT_DIR, DEFAULT_CHECKPOINT_LOCATION);
@@ -281,7 +319,8 @@ public class TimelineMetricAggregatorFactory {
       outputTableName,
       120000l,
       timeSliceIntervalMillis,
-      haController
+      haController,
+      ingestBuffer
     );
   }
 
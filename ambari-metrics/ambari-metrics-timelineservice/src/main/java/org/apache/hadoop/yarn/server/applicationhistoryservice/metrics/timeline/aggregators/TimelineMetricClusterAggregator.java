@@ -32,13 +32,17 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_CLUSTER_AGGREGATE_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_CLUSTER_AGGREGATE_TIME_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_CLUSTER_AGGREGATE_WITH_SKETCH_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_CLUSTER_AGGREGATE_TABLE_NAME;
 
 public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator {
-  private final TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(true);
+  private final TimelineMetricReadHelper readHelper;
   private final boolean isClusterPrecisionInputTable;
+  private final boolean percentileSketchEnabled;
 
   public TimelineMetricClusterAggregator(AGGREGATOR_NAME aggregatorName,
                                          PhoenixHBaseAccessor hBaseAccessor,
@@ -55,19 +59,36 @@ public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator
       sleepIntervalMillis, checkpointCutOffMultiplier,
       hostAggregatorDisabledParam, inputTableName, outputTableName,
       nativeTimeRangeDelay, haController);
+    readHelper = new TimelineMetricReadHelper(hBaseAccessor.getValuesCodec(), true);
     isClusterPrecisionInputTable = inputTableName.equals(METRICS_CLUSTER_AGGREGATE_TABLE_NAME);
+    percentileSketchEnabled = metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false);
   }
 
   @Override
   protected Condition prepareMetricQueryCondition(long startTime, long endTime) {
-    Condition condition = new DefaultCondition(null, null, null, null, startTime,
+    return prepareMetricQueryCondition(startTime, endTime, null);
+  }
+
+  @Override
+  protected boolean supportsPartitionedAggregation() {
+    return true;
+  }
+
+  @Override
+  protected Condition prepareMetricQueryCondition(long startTime, long endTime, MetricNameRange range) {
+    DefaultCondition condition = new DefaultCondition(null, null, null, null, startTime,
       endTime, null, null, true);
+    if (range != null) {
+      condition.setMetricNameRange(range.getStart(), range.getEnd());
+    }
     condition.setNoLimit();
     condition.setFetchSize(resultsetFetchSize);
-    String sqlStr = String.format(GET_CLUSTER_AGGREGATE_TIME_SQL, getQueryHint(startTime), tableName);
+    String sqlStr = String.format(percentileSketchEnabled ? GET_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL :
+      GET_CLUSTER_AGGREGATE_TIME_SQL, getQueryHint(startTime), tableName);
     // HOST_COUNT vs METRIC_COUNT
     if (isClusterPrecisionInputTable) {
-      sqlStr = String.format(GET_CLUSTER_AGGREGATE_SQL, getQueryHint(startTime), tableName);
+      sqlStr = String.format(percentileSketchEnabled ? GET_CLUSTER_AGGREGATE_WITH_SKETCH_SQL :
+        GET_CLUSTER_AGGREGATE_SQL, getQueryHint(startTime), tableName);
     }
 
     condition.setStatement(sqlStr);
@@ -102,6 +123,9 @@ public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator
         isClusterPrecisionInputTable ?
           readHelper.getMetricClusterAggregateFromResultSet(rs) :
           readHelper.getMetricClusterTimeAggregateFromResultSet(rs);
+      if (percentileSketchEnabled) {
+        currentHostAggregate.setSketch(TimelineMetricReadHelper.getSketchFromResultSet(rs));
+      }
 
       if (existingMetric == null) {
         // First row
@@ -140,5 +164,6 @@ public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator
     agg.updateMin(currentClusterAggregate.getMin());
     agg.updateSum(currentClusterAggregate.getSum());
     agg.updateNumberOfSamples(currentClusterAggregate.getNumberOfHosts());
+    agg.updateSketch(currentClusterAggregate.getSketch());
   }
 }
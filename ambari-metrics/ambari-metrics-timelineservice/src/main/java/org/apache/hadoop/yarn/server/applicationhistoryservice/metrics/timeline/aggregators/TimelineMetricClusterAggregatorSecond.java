@@ -20,6 +20,7 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline
 
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.SERVER_SIDE_TIMESIFT_ADJUSTMENT;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_CLUSTER_AGGREGATOR_INTERPOLATION_ENABLED;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRIC_AGGREGATION_SQL_FILTERS;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_METRIC_SQL;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_RECORD_TABLE_NAME;
@@ -31,8 +32,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
@@ -42,6 +45,7 @@ import org.apache.hadoop.metrics2.sink.timeline.MetricClusterAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.PostProcessingUtil;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricMetadata;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.MetricCollectorHAController;
@@ -52,18 +56,23 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.
 
 /**
  * Aggregates a metric across all hosts in the cluster. Reads metrics from
- * the precision table and saves into the aggregate.
+ * the precision table, or from the {@link TimelineMetricsIngestBuffer} when
+ * aggregating in memory, and saves into the aggregate.
  */
 public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggregator {
   public Long timeSliceIntervalMillis;
-  private TimelineMetricReadHelper timelineMetricReadHelper = new TimelineMetricReadHelper(true);
+  private final TimelineMetricReadHelper timelineMetricReadHelper;
   // Aggregator to perform app-level aggregates for host metrics
   private final TimelineMetricAppAggregator appAggregator;
   // 1 minute client side buffering adjustment
   private final Long serverTimeShiftAdjustment;
   private final boolean interpolationEnabled;
+  private final boolean percentileSketchEnabled;
   private TimelineMetricMetadataManager metadataManagerInstance;
   private String skipAggrPatternStrings;
+  // Received metrics, when aggregating in memory
+  private final TimelineMetricsIngestBuffer ingestBuffer;
+  private List<Pattern> skipAggrPatterns;
 
   public TimelineMetricClusterAggregatorSecond(AGGREGATOR_NAME aggregatorName,
                                                TimelineMetricMetadataManager metadataManager,
@@ -78,16 +87,41 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
                                                Long nativeTimeRangeDelay,
                                                Long timeSliceInterval,
                                                MetricCollectorHAController haController) {
+    this(aggregatorName, metadataManager, hBaseAccessor, metricsConf, checkpointLocation,
+      sleepIntervalMillis, checkpointCutOffMultiplier, aggregatorDisabledParam, tableName,
+      outputTableName, nativeTimeRangeDelay, timeSliceInterval, haController, null);
+  }
+
+  public TimelineMetricClusterAggregatorSecond(AGGREGATOR_NAME aggregatorName,
+                                               TimelineMetricMetadataManager metadataManager,
+                                               PhoenixHBaseAccessor hBaseAccessor,
+                                               Configuration metricsConf,
+                                               String checkpointLocation,
+                                               Long sleepIntervalMillis,
+                                               Integer checkpointCutOffMultiplier,
+                                               String aggregatorDisabledParam,
+                                               String tableName,
+                                               String outputTableName,
+                                               Long nativeTimeRangeDelay,
+                                               Long timeSliceInterval,
+                                               MetricCollectorHAController haController,
+                                               TimelineMetricsIngestBuffer ingestBuffer) {
     super(aggregatorName, hBaseAccessor, metricsConf, checkpointLocation,
       sleepIntervalMillis, checkpointCutOffMultiplier, aggregatorDisabledParam,
       tableName, outputTableName, nativeTimeRangeDelay, haController);
 
     this.metadataManagerInstance = metadataManager;
+    this.timelineMetricReadHelper = new TimelineMetricReadHelper(hBaseAccessor.getValuesCodec(), true);
     appAggregator = new TimelineMetricAppAggregator(metadataManager, metricsConf);
     this.timeSliceIntervalMillis = timeSliceInterval;
     this.serverTimeShiftAdjustment = Long.parseLong(metricsConf.get(SERVER_SIDE_TIMESIFT_ADJUSTMENT, "90000"));
     this.interpolationEnabled = Boolean.parseBoolean(metricsConf.get(TIMELINE_METRICS_CLUSTER_AGGREGATOR_INTERPOLATION_ENABLED, "true"));
+    this.percentileSketchEnabled = metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false);
     this.skipAggrPatternStrings = metricsConf.get(TIMELINE_METRIC_AGGREGATION_SQL_FILTERS);
+    this.ingestBuffer = ingestBuffer;
+    if (ingestBuffer != null && !StringUtils.isEmpty(skipAggrPatternStrings)) {
+      this.skipAggrPatterns = compileSkipPatterns(skipAggrPatternStrings);
+    }
   }
 
   @Override
@@ -107,6 +141,91 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
     appAggregator.cleanup();
   }
 
+  /**
+   * Aggregate from the ingest buffer when it holds everything received for
+   * the window, including one slice before it used as interpolation
+   * context. Otherwise, e.g. right after a restart or when catching up from
+   * an old checkpoint, read the window back from the precision table.
+   */
+  @Override
+  public boolean doWork(long startTime, long endTime) {
+    List<Long[]> timeSlices = getTimeSlices(startTime - serverTimeShiftAdjustment, endTime - serverTimeShiftAdjustment);
+    if (ingestBuffer == null || timeSlices.isEmpty()) {
+      return super.doWork(startTime, endTime);
+    }
+    long contextStartTime = timeSlices.get(0)[0] - timeSliceIntervalMillis;
+    if (!ingestBuffer.covers(contextStartTime)) {
+      LOG.info("Ingest buffer does not cover " + new Date(contextStartTime) + ", aggregating from " + tableName);
+      return super.doWork(startTime, endTime);
+    }
+
+    LOG.info("Start in-memory aggregation cycle @ " + new Date() + ", " +
+      "startTime = " + new Date(startTime) + ", endTime = " + new Date(endTime));
+    boolean success = true;
+    try {
+      List<TimelineMetric> metrics = ingestBuffer.snapshot(contextStartTime);
+      if (skipAggrPatterns != null) {
+        for (Iterator<TimelineMetric> iterator = metrics.iterator(); iterator.hasNext();) {
+          if (isSkipped(iterator.next().getMetricName())) {
+            iterator.remove();
+          }
+        }
+      }
+      appAggregator.init();
+      Map<TimelineClusterMetric, MetricClusterAggregate> aggregateClusterMetrics =
+        aggregateMetrics(metrics, timeSlices);
+
+      LOG.info("Saving " + aggregateClusterMetrics.size() + " metric aggregates.");
+      hBaseAccessor.saveClusterAggregateRecords(aggregateClusterMetrics);
+      appAggregator.cleanup();
+
+      // Keep the last slice around as context for the next window
+      ingestBuffer.evictBefore(timeSlices.get(timeSlices.size() - 1)[1] - timeSliceIntervalMillis);
+    } catch (SQLException e) {
+      LOG.error("Exception during aggregating metrics.", e);
+      success = false;
+    }
+
+    LOG.info("End in-memory aggregation cycle @ " + new Date());
+    return success;
+  }
+
+  private boolean isSkipped(String metricName) {
+    for (Pattern pattern : skipAggrPatterns) {
+      if (pattern.matcher(metricName).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Translate the SQL LIKE patterns used by the table scan.
+   */
+  private static List<Pattern> compileSkipPatterns(String skipAggrPatternStrings) {
+    List<Pattern> patterns = new ArrayList<Pattern>();
+    for (String likePattern : skipAggrPatternStrings.split(",")) {
+      StringBuilder regex = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      for (char c : likePattern.toCharArray()) {
+        if (c == '%' || c == '_') {
+          if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          regex.append(c == '%' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        regex.append(Pattern.quote(literal.toString()));
+      }
+      patterns.add(Pattern.compile(regex.toString()));
+    }
+    return patterns;
+  }
+
   @Override
   protected Condition prepareMetricQueryCondition(long startTime, long endTime) {
 
@@ -168,40 +287,61 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
           metric.addMetricValues(nextMetric.getMetricValues());
         } else {
           // Process the current metric
-          int numHosts = processAggregateClusterMetrics(aggregateClusterMetrics, metric, timeSlices);
-          if (!hostedAppCounter.containsKey(metric.getAppId())) {
-            hostedAppCounter.put(metric.getAppId(), new MutableInt(numHosts));
-          } else {
-            int currentHostCount = hostedAppCounter.get(metric.getAppId()).intValue();
-            if (currentHostCount < numHosts) {
-              hostedAppCounter.put(metric.getAppId(), new MutableInt(numHosts));
-            }
-          }
+          processHostMetric(aggregateClusterMetrics, hostedAppCounter, metric, timeSlices);
           metric = nextMetric;
         }
       }
     }
     // Process last metric
     if (metric != null) {
-      int numHosts = processAggregateClusterMetrics(aggregateClusterMetrics, metric, timeSlices);
-      if (!hostedAppCounter.containsKey(metric.getAppId())) {
+      processHostMetric(aggregateClusterMetrics, hostedAppCounter, metric, timeSlices);
+    }
+
+    addAppAndLiveHostAggregates(aggregateClusterMetrics, hostedAppCounter, timeSlices);
+    return aggregateClusterMetrics;
+  }
+
+  /**
+   * Same as {@link #aggregateMetricsFromResultSet(ResultSet, List)} for
+   * metrics that hold the complete series of one host each.
+   */
+  Map<TimelineClusterMetric, MetricClusterAggregate> aggregateMetrics(Iterable<TimelineMetric> metrics,
+                                                                      List<Long[]> timeSlices) {
+    Map<TimelineClusterMetric, MetricClusterAggregate> aggregateClusterMetrics =
+      new HashMap<TimelineClusterMetric, MetricClusterAggregate>();
+    Map<String, MutableInt> hostedAppCounter = new HashMap<>();
+
+    for (TimelineMetric metric : metrics) {
+      processHostMetric(aggregateClusterMetrics, hostedAppCounter, metric, timeSlices);
+    }
+
+    addAppAndLiveHostAggregates(aggregateClusterMetrics, hostedAppCounter, timeSlices);
+    return aggregateClusterMetrics;
+  }
+
+  private void processHostMetric(Map<TimelineClusterMetric, MetricClusterAggregate> aggregateClusterMetrics,
+                                 Map<String, MutableInt> hostedAppCounter,
+                                 TimelineMetric metric, List<Long[]> timeSlices) {
+    int numHosts = processAggregateClusterMetrics(aggregateClusterMetrics, metric, timeSlices);
+    if (!hostedAppCounter.containsKey(metric.getAppId())) {
+      hostedAppCounter.put(metric.getAppId(), new MutableInt(numHosts));
+    } else {
+      int currentHostCount = hostedAppCounter.get(metric.getAppId()).intValue();
+      if (currentHostCount < numHosts) {
         hostedAppCounter.put(metric.getAppId(), new MutableInt(numHosts));
-      } else {
-        int currentHostCount = hostedAppCounter.get(metric.getAppId()).intValue();
-        if (currentHostCount < numHosts) {
-          hostedAppCounter.put(metric.getAppId(), new MutableInt(numHosts));
-        }
       }
     }
+  }
 
+  private void addAppAndLiveHostAggregates(Map<TimelineClusterMetric, MetricClusterAggregate> aggregateClusterMetrics,
+                                           Map<String, MutableInt> hostedAppCounter,
+                                           List<Long[]> timeSlices) {
     // Add app level aggregates to save
     aggregateClusterMetrics.putAll(appAggregator.getAggregateClusterMetrics());
 
     // Add liveHosts per AppId metrics.
     long timestamp = timeSlices.get(timeSlices.size() - 1)[1];
     processLiveAppCountMetrics(aggregateClusterMetrics, hostedAppCounter, timestamp);
-
-    return aggregateClusterMetrics;
   }
 
   /**
@@ -240,6 +380,10 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
           aggregate.updateMax(avgValue);
           aggregate.updateMin(avgValue);
         }
+        if (percentileSketchEnabled) {
+          // distribution of the host values in the slice
+          aggregate.updateSketch(avgValue);
+        }
 
         numHosts = aggregate.getNumberOfHosts();
         // Update app level aggregates
@@ -252,7 +396,8 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
   protected Map<TimelineClusterMetric, Double> sliceFromTimelineMetric(
     TimelineMetric timelineMetric, List<Long[]> timeSlices) {
 
-    if (timelineMetric.getMetricValues().isEmpty()) {
+    TimelineMetricSeries metricSeries = timelineMetric.getMetricSeries();
+    if (metricSeries.isEmpty()) {
       return null;
     }
 
@@ -272,13 +417,8 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
     double sum = 0.0;
 
     Map<Long,Double> timeSliceValueMap = new HashMap<>();
-    for (Map.Entry<Long, Double> metric : timelineMetric.getMetricValues().entrySet()) {
-      // TODO: investigate null values - pre filter
-      if (metric.getValue() == null) {
-        continue;
-      }
-
-      Long timestamp = getSliceTimeForMetric(timeSlices, Long.parseLong(metric.getKey().toString()));
+    for (int i = 0; i < metricSeries.size(); i++) {
+      Long timestamp = getSliceTimeForMetric(timeSlices, metricSeries.getTimestamp(i));
       if (timestamp != -1) {
         // Metric is within desired time range
         TimelineClusterMetric clusterMetric = new TimelineClusterMetric(
@@ -289,7 +429,7 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
           timelineMetric.getType());
 
         if (prevTimestamp < 0 || timestamp.equals(prevTimestamp)) {
-          Double newValue = metric.getValue();
+          double newValue = metricSeries.getValue(i);
           if (newValue > 0.0) {
             sum += newValue;
             count++;
@@ -298,7 +438,7 @@ public class TimelineMetricClusterAggregatorSecond extends AbstractTimelineAggre
           double metricValue = (count > 0) ? (sum / count) : 0.0;
             timelineClusterMetricMap.put(prevMetric, metricValue);
           timeSliceValueMap.put(prevMetric.getTimestamp(), metricValue);
-          sum = metric.getValue();
+          sum = metricSeries.getValue(i);
           count = sum > 0.0 ? 1 : 0;
         }
 
@@ -34,11 +34,17 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_METRIC_AGGREGATE_ONLY_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_METRIC_AGGREGATE_WITH_SKETCH_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.GET_METRIC_SQL;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_RECORD_TABLE_NAME;
 
 public class TimelineMetricHostAggregator extends AbstractTimelineAggregator {
   private static final Log LOG = LogFactory.getLog(TimelineMetricHostAggregator.class);
-  TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+  final TimelineMetricReadHelper readHelper;
+  private final boolean percentileSketchEnabled;
+  private final boolean isPrecisionInputTable;
 
   public TimelineMetricHostAggregator(AGGREGATOR_NAME aggregatorName,
                                       PhoenixHBaseAccessor hBaseAccessor,
@@ -54,6 +60,9 @@ public class TimelineMetricHostAggregator extends AbstractTimelineAggregator {
     super(aggregatorName, hBaseAccessor, metricsConf, checkpointLocation,
       sleepIntervalMillis, checkpointCutOffMultiplier, hostAggregatorDisabledParam,
       tableName, outputTableName, nativeTimeRangeDelay, haController);
+    readHelper = new TimelineMetricReadHelper(hBaseAccessor.getValuesCodec(), false);
+    percentileSketchEnabled = metricsConf.getBoolean(TIMELINE_METRICS_PERCENTILE_SKETCH_ENABLED, false);
+    isPrecisionInputTable = tableName.equals(METRICS_RECORD_TABLE_NAME);
   }
 
   @Override
@@ -67,12 +76,29 @@ public class TimelineMetricHostAggregator extends AbstractTimelineAggregator {
 
   @Override
   protected Condition prepareMetricQueryCondition(long startTime, long endTime) {
-    Condition condition = new DefaultCondition(null, null, null, null, startTime,
+    return prepareMetricQueryCondition(startTime, endTime, null);
+  }
+
+  @Override
+  protected boolean supportsPartitionedAggregation() {
+    return true;
+  }
+
+  @Override
+  protected Condition prepareMetricQueryCondition(long startTime, long endTime, MetricNameRange range) {
+    DefaultCondition condition = new DefaultCondition(null, null, null, null, startTime,
       endTime, null, null, true);
+    if (range != null) {
+      condition.setMetricNameRange(range.getStart(), range.getEnd());
+    }
     condition.setNoLimit();
     condition.setFetchSize(resultsetFetchSize);
-    condition.setStatement(String.format(GET_METRIC_AGGREGATE_ONLY_SQL,
-      getQueryHint(startTime), tableName));
+    String sqlStr = GET_METRIC_AGGREGATE_ONLY_SQL;
+    if (percentileSketchEnabled) {
+      // sketches of the first level are built from the values of the precision rows
+      sqlStr = isPrecisionInputTable ? GET_METRIC_SQL : GET_METRIC_AGGREGATE_WITH_SKETCH_SQL;
+    }
+    condition.setStatement(String.format(sqlStr, getQueryHint(startTime), tableName));
     // Retaining order of the row-key avoids client side merge sort.
     condition.addOrderByColumn("METRIC_NAME");
     condition.addOrderByColumn("HOSTNAME");
@@ -94,6 +120,11 @@ public class TimelineMetricHostAggregator extends AbstractTimelineAggregator {
         readHelper.getTimelineMetricKeyFromResultSet(rs);
       MetricHostAggregate currentHostAggregate =
         readHelper.getMetricHostAggregateFromResultSet(rs);
+      if (percentileSketchEnabled) {
+        currentHostAggregate.setSketch(isPrecisionInputTable ?
+          readHelper.getSketchFromMetricValues(rs) :
+          TimelineMetricReadHelper.getSketchFromResultSet(rs));
+      }
 
       if (existingMetric == null) {
         // First row
@@ -20,38 +20,100 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline
 
 import org.apache.hadoop.metrics2.sink.timeline.MetricClusterAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.MetricHostAggregate;
+import org.apache.hadoop.metrics2.sink.timeline.QuantileSketch;
 import org.apache.hadoop.metrics2.sink.timeline.SingleValuedTimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec.TimelineMetricValuesCodec;
 
 import java.io.IOException;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.Map;
-import java.util.TreeMap;
 
 public class TimelineMetricReadHelper {
 
   private boolean ignoreInstance = false;
+  private final TimelineMetricValuesCodec valuesCodec;
 
-  public TimelineMetricReadHelper() {}
-
-  public TimelineMetricReadHelper(boolean ignoreInstance) {
+  /**
+   * @param valuesCodec codec the METRICS_ENCODED column was written with
+   */
+  public TimelineMetricReadHelper(TimelineMetricValuesCodec valuesCodec, boolean ignoreInstance) {
+    this.valuesCodec = valuesCodec;
     this.ignoreInstance = ignoreInstance;
   }
 
   public TimelineMetric getTimelineMetricFromResultSet(ResultSet rs)
       throws SQLException, IOException {
     TimelineMetric metric = getTimelineMetricCommonsFromResultSet(rs);
-    TreeMap<Long, Double> sortedByTimeMetrics = PhoenixHBaseAccessor.readMetricFromJSON(rs.getString("METRICS"));
-    metric.setMetricValues(sortedByTimeMetrics);
+    metric.setMetricSeries(readMetricSeries(rs));
     return metric;
   }
 
+  /**
+   * Read the time series of a METRIC_RECORD row, preferring the binary
+   * encoded column over the legacy JSON column.
+   */
+  public TimelineMetricSeries readMetricSeries(ResultSet rs)
+      throws SQLException, IOException {
+    byte[] encoded = rs.getBytes("METRICS_ENCODED");
+    if (encoded != null) {
+      return valuesCodec.decode(encoded);
+    }
+    return PhoenixHBaseAccessor.readMetricSeriesFromJSON(rs.getString("METRICS"));
+  }
+
+  /**
+   * Where the percentiles of the rows of a result set come from. The
+   * selected columns depend on the table and on the sketch setting of the
+   * query, so they are resolved once per result set.
+   */
+  public enum PercentileSource {
+    SKETCH, METRIC_VALUES, NONE;
+
+    public static PercentileSource of(ResultSet rs) throws SQLException {
+      boolean hasMetricValues = false;
+      ResultSetMetaData metaData = rs.getMetaData();
+      for (int i = 1; i <= metaData.getColumnCount(); i++) {
+        String columnLabel = metaData.getColumnLabel(i);
+        if ("METRIC_SKETCH".equalsIgnoreCase(columnLabel)) {
+          return SKETCH;
+        }
+        if ("METRICS".equalsIgnoreCase(columnLabel)) {
+          hasMetricValues = true;
+        }
+      }
+      return hasMetricValues ? METRIC_VALUES : NONE;
+    }
+  }
+
+  /**
+   * @param percentileSource resolved once for the result set
+   * @return the value of the function, or null for a percentile of a row
+   * without a sketch or values
+   */
   public SingleValuedTimelineMetric getAggregatedTimelineMetricFromResultSet(ResultSet rs,
-      Function f) throws SQLException, IOException {
+      Function f, PercentileSource percentileSource) throws SQLException, IOException {
 
     Function function = (f != null) ? f : Function.DEFAULT_VALUE_FUNCTION;
+    Double quantile = null;
+    if (function.getReadFunction().isPercentile()) {
+      // precision rows carry their values instead of a sketch
+      QuantileSketch sketch = null;
+      if (percentileSource == PercentileSource.SKETCH) {
+        sketch = getSketchFromResultSet(rs);
+      } else if (percentileSource == PercentileSource.METRIC_VALUES) {
+        sketch = getSketchFromMetricValues(rs);
+      }
+      if (sketch == null || sketch.isEmpty()) {
+        return null;
+      }
+      quantile = sketch.getQuantile(function.getReadFunction().getQuantile());
+    }
+
     SingleValuedTimelineMetric metric = new SingleValuedTimelineMetric(
       rs.getString("METRIC_NAME") + function.getSuffix(),
       rs.getString("APP_ID"),
@@ -62,6 +124,11 @@ public class TimelineMetricReadHelper {
       rs.getString("UNITS")
     );
 
+    if (quantile != null) {
+      metric.setSingleTimeseriesValue(rs.getLong("SERVER_TIME"), quantile);
+      return metric;
+    }
+
     double value;
     switch(function.getReadFunction()){
       case AVG:
@@ -86,6 +153,47 @@ public class TimelineMetricReadHelper {
     return metric;
   }
 
+  /**
+   * Estimates a quantile from the sketch of an aggregate row.
+   *
+   * @param percentileSource resolved once for the result set
+   * @return the quantile, or null if the row has no sketch
+   */
+  public static Double getQuantileFromResultSet(ResultSet rs,
+      PercentileSource percentileSource, double quantile) throws SQLException {
+    // only selected when the sketches are enabled
+    if (percentileSource != PercentileSource.SKETCH) {
+      return null;
+    }
+    QuantileSketch sketch = getSketchFromResultSet(rs);
+    if (sketch == null || sketch.isEmpty()) {
+      return null;
+    }
+    return sketch.getQuantile(quantile);
+  }
+
+  /**
+   * @return the sketch of an aggregate row, or null if the row has none
+   */
+  public static QuantileSketch getSketchFromResultSet(ResultSet rs)
+      throws SQLException {
+    byte[] bytes = rs.getBytes("METRIC_SKETCH");
+    return bytes == null ? null : QuantileSketch.fromBytes(bytes);
+  }
+
+  /**
+   * Builds a sketch of the values of a precision row.
+   */
+  public QuantileSketch getSketchFromMetricValues(ResultSet rs)
+      throws SQLException, IOException {
+    TimelineMetricSeries series = readMetricSeries(rs);
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < series.size(); i++) {
+      sketch.add(series.getValue(i));
+    }
+    return sketch;
+  }
+
   /**
    * Returns common part of timeline metrics record without the values.
    */
@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recently received precision data points, kept in memory for the second
+ * cluster aggregator. Fed from the collector POST path so the aggregator can
+ * slice what was just received instead of scanning METRIC_RECORD back out
+ * of HBase and parsing it again.
+ *
+ * Points are kept per host series, ignoring the instance id like the table
+ * scan does, for a bounded retention window. A window the buffer does not
+ * fully cover, e.g. the first cycles after a restart, has to be aggregated
+ * from the table instead, see {@link #covers(long)}.
+ */
+public class TimelineMetricsIngestBuffer {
+
+  private final ConcurrentHashMap<SeriesKey, BufferedSeries> bufferedSeries =
+    new ConcurrentHashMap<SeriesKey, BufferedSeries>();
+  private final long retentionMillis;
+  private final long bufferingSince;
+
+  public TimelineMetricsIngestBuffer(long retentionMillis) {
+    this(retentionMillis, System.currentTimeMillis());
+  }
+
+  TimelineMetricsIngestBuffer(long retentionMillis, long bufferingSince) {
+    this.retentionMillis = retentionMillis;
+    this.bufferingSince = bufferingSince;
+  }
+
+  /**
+   * Buffer the values of metrics the store has accepted for writing. Has to
+   * be called by the thread that received the metrics, before they are
+   * handed over to the write path.
+   */
+  public void accept(TimelineMetrics metrics) {
+    if (metrics.getMetrics() == null) {
+      return;
+    }
+    long evictBefore = System.currentTimeMillis() - retentionMillis;
+    for (TimelineMetric metric : metrics.getMetrics()) {
+      if (metric.getMetricValuesCount() == 0) {
+        continue;
+      }
+      accept(metric, evictBefore);
+    }
+  }
+
+  private void accept(TimelineMetric metric, long evictBefore) {
+    SeriesKey key = new SeriesKey(metric.getMetricName(), metric.getHostName(), metric.getAppId());
+    while (true) {
+      BufferedSeries series = bufferedSeries.get(key);
+      if (series == null) {
+        series = new BufferedSeries(metric);
+        BufferedSeries existing = bufferedSeries.putIfAbsent(key, series);
+        if (existing != null) {
+          series = existing;
+        }
+      }
+      synchronized (series) {
+        // Lost a race with evictBefore, retry with a new entry
+        if (series.removed) {
+          continue;
+        }
+        series.metric.setTimestamp(metric.getTimestamp());
+        series.metric.setType(metric.getType());
+        series.values.addAll(metric.getMetricValues());
+        series.values.removeBefore(evictBefore);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return true if all points received after fromTime are buffered
+   */
+  public boolean covers(long fromTime) {
+    return fromTime >= bufferingSince
+      && fromTime >= System.currentTimeMillis() - retentionMillis;
+  }
+
+  /**
+   * @return a copy of every buffered series holding the points at or after
+   * fromTime, series without such points are left out
+   */
+  public List<TimelineMetric> snapshot(long fromTime) {
+    List<TimelineMetric> metrics = new ArrayList<TimelineMetric>(bufferedSeries.size());
+    for (BufferedSeries series : bufferedSeries.values()) {
+      synchronized (series) {
+        if (series.values.isEmpty() || series.values.getLastTimestamp() < fromTime) {
+          continue;
+        }
+        TimelineMetricSeries values = new TimelineMetricSeries(series.values);
+        values.removeBefore(fromTime);
+        TimelineMetric metric = new TimelineMetric(series.metric);
+        metric.setMetricSeries(values);
+        metrics.add(metric);
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Drop points that were aggregated and are no longer needed as context
+   * for the next window, along with series that went quiet.
+   */
+  public void evictBefore(long timestamp) {
+    long cutoff = Math.max(timestamp, System.currentTimeMillis() - retentionMillis);
+    for (Iterator<Map.Entry<SeriesKey, BufferedSeries>> iterator =
+           bufferedSeries.entrySet().iterator(); iterator.hasNext();) {
+      BufferedSeries series = iterator.next().getValue();
+      synchronized (series) {
+        TimelineMetricSeries values = series.values;
+        values.removeBefore(cutoff);
+        if (values.isEmpty()) {
+          series.removed = true;
+          iterator.remove();
+        } else {
+          values.trimToSize();
+        }
+      }
+    }
+  }
+
+  public int getSeriesCount() {
+    return bufferedSeries.size();
+  }
+
+  private static class BufferedSeries {
+    // Names of the series, its values are kept apart as primitive arrays
+    private final TimelineMetric metric;
+    private final TimelineMetricSeries values = new TimelineMetricSeries();
+    private boolean removed;
+
+    BufferedSeries(TimelineMetric received) {
+      metric = new TimelineMetric();
+      metric.setMetricName(received.getMetricName());
+      metric.setHostName(received.getHostName());
+      metric.setAppId(received.getAppId());
+      metric.setStartTime(received.getStartTime());
+    }
+  }
+
+  private static class SeriesKey {
+    private final String metricName;
+    private final String hostName;
+    private final String appId;
+
+    SeriesKey(String metricName, String hostName, String appId) {
+      this.metricName = metricName;
+      this.hostName = hostName;
+      this.appId = appId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      SeriesKey that = (SeriesKey) o;
+
+      if (metricName != null ? !metricName.equals(that.metricName) : that.metricName != null)
+        return false;
+      if (hostName != null ? !hostName.equals(that.hostName) : that.hostName != null)
+        return false;
+      return appId != null ? appId.equals(that.appId) : that.appId == null;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = metricName != null ? metricName.hashCode() : 0;
+      result = 31 * result + (hostName != null ? hostName.hashCode() : 0);
+      result = 31 * result + (appId != null ? appId.hashCode() : 0);
+      return result;
+    }
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.AbstractTimelineAggregator;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.MetricNameRange;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.MetricCollectorHAController;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.Condition;
@@ -61,6 +62,16 @@ public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator
 
   @Override
   protected Condition prepareMetricQueryCondition(long startTime, long endTime) {
+    return prepareMetricQueryCondition(startTime, endTime, null);
+  }
+
+  @Override
+  protected boolean supportsPartitionedAggregation() {
+    return true;
+  }
+
+  @Override
+  protected Condition prepareMetricQueryCondition(long startTime, long endTime, MetricNameRange range) {
     EmptyCondition condition = new EmptyCondition();
     condition.setDoUpdate(true);
 
@@ -75,7 +86,7 @@ public class TimelineMetricClusterAggregator extends AbstractTimelineAggregator
 
     condition.setStatement(String.format(GET_AGGREGATED_APP_METRIC_GROUPBY_SQL,
       getQueryHint(startTime), outputTableName, endTime, aggregateColumnName, tableName,
-      getDownsampledMetricSkipClause(), startTime, endTime));
+      getDownsampledMetricSkipClause() + getMetricNameRangeClause(range), startTime, endTime));
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("Condition: " + condition.toString());
@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+
+import java.io.IOException;
+
+/**
+ * Gorilla style encoding of a metric time series.
+ *
+ * Layout: 1 byte format version, 4 bytes number of points, the first
+ * timestamp and value as raw 64 bit words, followed by one record per
+ * remaining point. Timestamps are stored as delta-of-delta using the
+ * variable size buckets below, values are XOR'ed against the previous value
+ * and only the meaningful bits are written.
+ *
+ * <pre>
+ *   timestamp:  '0'                    delta of delta == 0
+ *               '10'   + 7 bits        [-64, 63]
+ *               '110'  + 9 bits        [-256, 255]
+ *               '1110' + 12 bits       [-2048, 2047]
+ *               '1111' + 64 bits       anything else
+ *   value:      '0'                    same as previous value
+ *               '10'   + bits          fits in previous leading/trailing window
+ *               '11'   + 6 bits leading zeros + 6 bits (length - 1) + bits
+ * </pre>
+ */
+public class GorillaTimelineMetricValuesCodec implements TimelineMetricValuesCodec {
+
+  static final byte FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 5;
+
+  @Override
+  public byte[] encode(TimelineMetricSeries metricSeries) throws IOException {
+    int size = metricSeries == null ? 0 : metricSeries.size();
+    // Worst case is ~ 2 words per point, typical series need a few bits.
+    BitWriter writer = new BitWriter(HEADER_SIZE + 16 + size * 4);
+    writer.writeBits(FORMAT_VERSION, 8);
+    writer.writeBits(size, 32);
+    if (size == 0) {
+      return writer.toByteArray();
+    }
+
+    long prevTimestamp = 0;
+    long prevDelta = 0;
+    long prevValueBits = 0;
+    int prevLeading = Integer.MAX_VALUE;
+    int prevTrailing = 0;
+
+    for (int i = 0; i < size; i++) {
+      long timestamp = metricSeries.getTimestamp(i);
+      long valueBits = Double.doubleToRawLongBits(metricSeries.getValue(i));
+
+      if (i == 0) {
+        writer.writeBits(timestamp, 64);
+        writer.writeBits(valueBits, 64);
+        prevTimestamp = timestamp;
+        prevValueBits = valueBits;
+        continue;
+      }
+
+      long delta = timestamp - prevTimestamp;
+      long deltaOfDelta = delta - prevDelta;
+      if (deltaOfDelta == 0) {
+        writer.writeBit(false);
+      } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+        writer.writeBits(0x2, 2);
+        writer.writeBits(deltaOfDelta, 7);
+      } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+        writer.writeBits(0x6, 3);
+        writer.writeBits(deltaOfDelta, 9);
+      } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+        writer.writeBits(0xE, 4);
+        writer.writeBits(deltaOfDelta, 12);
+      } else {
+        writer.writeBits(0xF, 4);
+        writer.writeBits(deltaOfDelta, 64);
+      }
+      prevDelta = delta;
+      prevTimestamp = timestamp;
+
+      long xor = valueBits ^ prevValueBits;
+      if (xor == 0) {
+        writer.writeBit(false);
+      } else {
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 63);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        writer.writeBit(true);
+        if (prevLeading != Integer.MAX_VALUE && leading >= prevLeading && trailing >= prevTrailing) {
+          writer.writeBit(false);
+          writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+        } else {
+          int length = 64 - leading - trailing;
+          writer.writeBit(true);
+          writer.writeBits(leading, 6);
+          writer.writeBits(length - 1, 6);
+          writer.writeBits(xor >>> trailing, length);
+          prevLeading = leading;
+          prevTrailing = trailing;
+        }
+      }
+      prevValueBits = valueBits;
+    }
+
+    return writer.toByteArray();
+  }
+
+  @Override
+  public TimelineMetricSeries decode(byte[] encoded) throws IOException {
+    final TimelineMetricSeries metricSeries = new TimelineMetricSeries(readSize(encoded));
+    read(encoded, new PointConsumer() {
+      @Override
+      public void accept(long timestamp, double value) {
+        metricSeries.put(timestamp, value);
+      }
+    });
+    return metricSeries;
+  }
+
+  @Override
+  public TimelineMetricSeries decodeLast(byte[] encoded) throws IOException {
+    final long[] lastTimestamp = new long[1];
+    final double[] lastValue = new double[1];
+    int count = read(encoded, new PointConsumer() {
+      @Override
+      public void accept(long timestamp, double value) {
+        lastTimestamp[0] = timestamp;
+        lastValue[0] = value;
+      }
+    });
+    TimelineMetricSeries metricSeries = new TimelineMetricSeries(1);
+    if (count > 0) {
+      metricSeries.put(lastTimestamp[0], lastValue[0]);
+    }
+    return metricSeries;
+  }
+
+  private int readSize(byte[] encoded) throws IOException {
+    if (encoded == null || encoded.length < HEADER_SIZE) {
+      throw new IOException("Encoded metric values are truncated.");
+    }
+    BitReader reader = new BitReader(encoded);
+    reader.readBits(8);
+    // Do not trust the header for the allocation size on corrupt input
+    return (int) Math.min(reader.readBits(32), encoded.length * 8L);
+  }
+
+  /**
+   * Walk all points in order.
+   * @return number of points read
+   */
+  int read(byte[] encoded, PointConsumer consumer) throws IOException {
+    if (encoded == null || encoded.length < HEADER_SIZE) {
+      throw new IOException("Encoded metric values are truncated.");
+    }
+    BitReader reader = new BitReader(encoded);
+    int version = (int) reader.readBits(8);
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported metric values encoding version: " + version);
+    }
+    int size = (int) reader.readBits(32);
+    if (size == 0) {
+      return 0;
+    }
+
+    long timestamp = reader.readBits(64);
+    long valueBits = reader.readBits(64);
+    consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+
+    long delta = 0;
+    int leading = 0;
+    int trailing = 0;
+    for (int i = 1; i < size; i++) {
+      long deltaOfDelta;
+      if (!reader.readBit()) {
+        deltaOfDelta = 0;
+      } else if (!reader.readBit()) {
+        deltaOfDelta = reader.readSignedBits(7);
+      } else if (!reader.readBit()) {
+        deltaOfDelta = reader.readSignedBits(9);
+      } else if (!reader.readBit()) {
+        deltaOfDelta = reader.readSignedBits(12);
+      } else {
+        deltaOfDelta = reader.readBits(64);
+      }
+      delta += deltaOfDelta;
+      timestamp += delta;
+
+      if (reader.readBit()) {
+        if (reader.readBit()) {
+          leading = (int) reader.readBits(6);
+          int length = (int) reader.readBits(6) + 1;
+          trailing = 64 - leading - length;
+        }
+        long meaningful = reader.readBits(64 - leading - trailing);
+        valueBits ^= meaningful << trailing;
+      }
+      consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+    }
+    return size;
+  }
+
+  interface PointConsumer {
+    void accept(long timestamp, double value);
+  }
+
+  /**
+   * Append only big endian bit buffer.
+   */
+  static class BitWriter {
+    private byte[] buffer;
+    private int bitPosition = 0;
+
+    BitWriter(int initialBytes) {
+      buffer = new byte[Math.max(initialBytes, 16)];
+    }
+
+    void writeBit(boolean bit) {
+      ensureCapacity(1);
+      if (bit) {
+        buffer[bitPosition >>> 3] |= (byte) (0x80 >>> (bitPosition & 7));
+      }
+      bitPosition++;
+    }
+
+    /**
+     * Write the lowest {@code count} bits of value, most significant first.
+     */
+    void writeBits(long value, int count) {
+      ensureCapacity(count);
+      while (count > 0) {
+        int byteIndex = bitPosition >>> 3;
+        int freeInByte = 8 - (bitPosition & 7);
+        int chunk = Math.min(freeInByte, count);
+        int bits = (int) ((value >>> (count - chunk)) & ((1 << chunk) - 1));
+        buffer[byteIndex] |= (byte) (bits << (freeInByte - chunk));
+        bitPosition += chunk;
+        count -= chunk;
+      }
+    }
+
+    private void ensureCapacity(int bits) {
+      int requiredBytes = (bitPosition + bits + 7) >>> 3;
+      if (requiredBytes > buffer.length) {
+        byte[] newBuffer = new byte[Math.max(requiredBytes, buffer.length * 2)];
+        System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+        buffer = newBuffer;
+      }
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[(bitPosition + 7) >>> 3];
+      System.arraycopy(buffer, 0, result, 0, result.length);
+      return result;
+    }
+  }
+
+  static class BitReader {
+    private final byte[] buffer;
+    private int bitPosition = 0;
+
+    BitReader(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    boolean readBit() throws IOException {
+      checkAvailable(1);
+      boolean bit = (buffer[bitPosition >>> 3] & (0x80 >>> (bitPosition & 7))) != 0;
+      bitPosition++;
+      return bit;
+    }
+
+    long readBits(int count) throws IOException {
+      checkAvailable(count);
+      long value = 0;
+      while (count > 0) {
+        int byteIndex = bitPosition >>> 3;
+        int availableInByte = 8 - (bitPosition & 7);
+        int chunk = Math.min(availableInByte, count);
+        int bits = (buffer[byteIndex] >>> (availableInByte - chunk)) & ((1 << chunk) - 1);
+        value = (value << chunk) | bits;
+        bitPosition += chunk;
+        count -= chunk;
+      }
+      return value;
+    }
+
+    long readSignedBits(int count) throws IOException {
+      long value = readBits(count);
+      // Sign extend two's complement value
+      return (value << (64 - count)) >> (64 - count);
+    }
+
+    private void checkAvailable(int bits) throws IOException {
+      if (bitPosition + bits > buffer.length * 8) {
+        throw new IOException("Encoded metric values are truncated.");
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+
+import java.io.IOException;
+
+/**
+ * Binary encoding of the time series stored in the METRICS_ENCODED column
+ * of METRIC_RECORD. Implementations must be stateless and thread safe, a
+ * single instance is shared by the writer and all readers.
+ */
+public interface TimelineMetricValuesCodec {
+
+  /**
+   * Encode a time series sorted by timestamp.
+   *
+   * @param metricSeries series to encode
+   * @return encoded bytes
+   */
+  byte[] encode(TimelineMetricSeries metricSeries) throws IOException;
+
+  /**
+   * Decode bytes produced by {@link #encode(TimelineMetricSeries)}.
+   *
+   * @param encoded encoded bytes
+   * @return decoded series
+   */
+  TimelineMetricSeries decode(byte[] encoded) throws IOException;
+
+  /**
+   * Decode only the last data point of the series, used by point in time
+   * queries.
+   */
+  TimelineMetricSeries decodeLast(byte[] encoded) throws IOException;
+}
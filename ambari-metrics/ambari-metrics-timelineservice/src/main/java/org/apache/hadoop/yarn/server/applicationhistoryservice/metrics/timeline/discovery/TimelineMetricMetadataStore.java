@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricMetadata;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence of the metadata cached by {@link TimelineMetricMetadataManager}.
+ * Saves are upserts, entries not passed keep their stored value.
+ */
+public interface TimelineMetricMetadataStore {
+
+  void saveMetricMetadata(Collection<TimelineMetricMetadata> metricMetadata) throws SQLException;
+
+  void saveHostAppsMetadata(Map<String, Set<String>> hostedApps) throws SQLException;
+
+  void saveInstanceHostsMetadata(Map<String, Set<String>> instanceHostsMap) throws SQLException;
+
+  Map<TimelineMetricMetadataKey, TimelineMetricMetadata> getTimelineMetricMetadata() throws SQLException;
+
+  Map<String, Set<String>> getHostedAppsMetadata() throws SQLException;
+
+  Map<String, Set<String>> getInstanceHostsMetdata() throws SQLException;
+}
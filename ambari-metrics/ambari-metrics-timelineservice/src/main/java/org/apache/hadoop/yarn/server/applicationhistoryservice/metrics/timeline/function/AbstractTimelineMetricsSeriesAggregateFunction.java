@@ -22,59 +22,22 @@ import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
 
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 public abstract class AbstractTimelineMetricsSeriesAggregateFunction
     implements TimelineMetricsSeriesAggregateFunction {
 
   @Override
   public TimelineMetric apply(TimelineMetrics timelineMetrics) {
-    Set<String> metricNameSet = new TreeSet<>();
-    Set<String> hostNameSet = new TreeSet<>();
-    Set<String> appIdSet = new TreeSet<>();
-    Set<String> instanceIdSet = new TreeSet<>();
-    TreeMap<Long, List<Double>> metricValues = new TreeMap<>();
-
+    TimelineMetricsSeriesAggregator aggregator = newAggregator();
     for (TimelineMetric timelineMetric : timelineMetrics.getMetrics()) {
-      metricNameSet.add(timelineMetric.getMetricName());
-      addToSetOnlyNotNull(hostNameSet, timelineMetric.getHostName());
-      addToSetOnlyNotNull(appIdSet, timelineMetric.getAppId());
-      addToSetOnlyNotNull(instanceIdSet, timelineMetric.getInstanceId());
-
-      for (Map.Entry<Long, Double> metricValue : timelineMetric.getMetricValues().entrySet()) {
-        Long timestamp = metricValue.getKey();
-        Double value = metricValue.getValue();
-        if (!metricValues.containsKey(timestamp)) {
-          metricValues.put(timestamp, new LinkedList<Double>());
-        }
-        metricValues.get(timestamp).add(value);
-      }
-    }
-
-    TreeMap<Long, Double> aggregatedMetricValues = new TreeMap<>();
-    for (Map.Entry<Long, List<Double>> metricValue : metricValues.entrySet()) {
-      List<Double> values = metricValue.getValue();
-      if (values.size() == 0) {
-        throw new IllegalArgumentException("count of values should be more than 0");
-      }
-      aggregatedMetricValues.put(metricValue.getKey(), applyFunction(values));
+      aggregator.add(timelineMetric);
     }
+    return aggregator.getAggregatedMetric();
+  }
 
-    TimelineMetric timelineMetric = new TimelineMetric();
-    timelineMetric.setMetricName(getMetricName(metricNameSet.iterator()));
-    timelineMetric.setHostName(joinStringsWithComma(hostNameSet.iterator()));
-    timelineMetric.setAppId(joinStringsWithComma(appIdSet.iterator()));
-    timelineMetric.setInstanceId(joinStringsWithComma(instanceIdSet.iterator()));
-    if (aggregatedMetricValues.size() > 0) {
-      timelineMetric.setStartTime(aggregatedMetricValues.firstKey());
-    }
-    timelineMetric.setMetricValues(aggregatedMetricValues);
-    return timelineMetric;
+  @Override
+  public TimelineMetricsSeriesAggregator newAggregator() {
+    return new TimelineMetricsSeriesAggregator(this);
   }
 
   protected String getMetricName(Iterator<String> metricNames) {
@@ -85,13 +48,20 @@ public abstract class AbstractTimelineMetricsSeriesAggregateFunction
     return Joiner.on(",").join(hostNames);
   }
 
-  protected abstract Double applyFunction(List<Double> values);
-  protected abstract String getFunctionName();
+  /**
+   * @return the aggregate of a timestamp once one more value is added, the
+   * first value is the initial aggregate
+   */
+  protected abstract double applyFunction(double aggregate, double value);
 
-  private void addToSetOnlyNotNull(Set<String> set, String value) {
-    if (value != null) {
-      set.add(value);
-    }
+  /**
+   * @return the aggregated value of a timestamp from the aggregate of its
+   * {@code count} values
+   */
+  protected double getResult(double aggregate, int count) {
+    return aggregate;
   }
 
+  protected abstract String getFunctionName();
+
 }
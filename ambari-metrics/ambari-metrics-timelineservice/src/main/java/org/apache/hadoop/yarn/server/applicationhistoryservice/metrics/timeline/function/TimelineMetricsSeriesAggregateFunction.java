@@ -22,4 +22,10 @@ import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
     
 public interface TimelineMetricsSeriesAggregateFunction {
   TimelineMetric apply(TimelineMetrics timelineMetrics);
+
+  /**
+   * @return an aggregator series can be added to one by one, while they are
+   * being read
+   */
+  TimelineMetricsSeriesAggregator newAggregator();
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Applies a series aggregate function to values added one at a time. Only
+ * the running aggregate of every timestamp is kept, so the series do not
+ * have to be held in memory together.
+ */
+public class TimelineMetricsSeriesAggregator {
+  private final AbstractTimelineMetricsSeriesAggregateFunction function;
+  private final Set<String> metricNameSet = new TreeSet<>();
+  private final Set<String> hostNameSet = new TreeSet<>();
+  private final Set<String> appIdSet = new TreeSet<>();
+  private final Set<String> instanceIdSet = new TreeSet<>();
+  private final TreeMap<Long, Aggregate> aggregates = new TreeMap<>();
+
+  TimelineMetricsSeriesAggregator(AbstractTimelineMetricsSeriesAggregateFunction function) {
+    this.function = function;
+  }
+
+  /**
+   * Add every value of a series.
+   */
+  public void add(TimelineMetric metric) {
+    addSeries(metric.getMetricName(), metric.getHostName(), metric.getAppId(), metric.getInstanceId());
+    TimelineMetricSeries values = metric.getMetricSeries();
+    for (int i = 0; i < values.size(); i++) {
+      addValue(values.getTimestamp(i), values.getValue(i));
+    }
+  }
+
+  /**
+   * Add the names of a series without any value, its values are added
+   * through {@link #addValue(long, double)}.
+   */
+  public void addSeries(String metricName, String hostName, String appId, String instanceId) {
+    metricNameSet.add(metricName);
+    addToSetOnlyNotNull(hostNameSet, hostName);
+    addToSetOnlyNotNull(appIdSet, appId);
+    addToSetOnlyNotNull(instanceIdSet, instanceId);
+  }
+
+  public void addValue(long timestamp, double value) {
+    Aggregate aggregate = aggregates.get(timestamp);
+    if (aggregate == null) {
+      aggregates.put(timestamp, new Aggregate(value));
+    } else {
+      aggregate.value = function.applyFunction(aggregate.value, value);
+      aggregate.count++;
+    }
+  }
+
+  public boolean isEmpty() {
+    return metricNameSet.isEmpty();
+  }
+
+  public TimelineMetric getAggregatedMetric() {
+    TimelineMetricSeries aggregatedMetricValues = new TimelineMetricSeries(aggregates.size());
+    for (Map.Entry<Long, Aggregate> entry : aggregates.entrySet()) {
+      Aggregate aggregate = entry.getValue();
+      aggregatedMetricValues.put(entry.getKey(), function.getResult(aggregate.value, aggregate.count));
+    }
+
+    TimelineMetric timelineMetric = new TimelineMetric();
+    timelineMetric.setMetricName(function.getMetricName(metricNameSet.iterator()));
+    timelineMetric.setHostName(function.joinStringsWithComma(hostNameSet.iterator()));
+    timelineMetric.setAppId(function.joinStringsWithComma(appIdSet.iterator()));
+    timelineMetric.setInstanceId(function.joinStringsWithComma(instanceIdSet.iterator()));
+    if (aggregatedMetricValues.size() > 0) {
+      timelineMetric.setStartTime(aggregatedMetricValues.getFirstTimestamp());
+    }
+    timelineMetric.setMetricSeries(aggregatedMetricValues);
+    return timelineMetric;
+  }
+
+  private void addToSetOnlyNotNull(Set<String> set, String value) {
+    if (value != null) {
+      set.add(value);
+    }
+  }
+
+  private static class Aggregate {
+    private double value;
+    private int count = 1;
+
+    Aggregate(double value) {
+      this.value = value;
+    }
+  }
+}
@@ -17,19 +17,17 @@
  */
 package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function;
 
-import java.util.List;
-
 public class TimelineMetricsSeriesAvgAggregateFunction extends AbstractTimelineMetricsSeriesAggregateFunction {
   private static final String FUNCTION_NAME = "AVG";
 
   @Override
-  protected Double applyFunction(List<Double> values) {
-    double sum = 0.0d;
-    for (Double value : values) {
-      sum += value;
-    }
+  protected double applyFunction(double aggregate, double value) {
+    return aggregate + value;
+  }
 
-    return sum / values.size();
+  @Override
+  protected double getResult(double aggregate, int count) {
+    return aggregate / count;
   }
 
   @Override
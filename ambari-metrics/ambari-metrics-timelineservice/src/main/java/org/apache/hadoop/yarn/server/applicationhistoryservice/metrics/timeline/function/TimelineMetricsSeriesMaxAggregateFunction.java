@@ -17,21 +17,12 @@
  */
 package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function;
 
-import java.util.List;
-
 public class TimelineMetricsSeriesMaxAggregateFunction extends AbstractTimelineMetricsSeriesAggregateFunction {
   private static final String FUNCTION_NAME = "MAX";
 
   @Override
-  protected Double applyFunction(List<Double> values) {
-    double max = Double.MIN_VALUE;
-    for (Double value : values) {
-      if (value > max) {
-        max = value;
-      }
-    }
-
-    return max;
+  protected double applyFunction(double aggregate, double value) {
+    return Math.max(aggregate, value);
   }
 
   @Override
@@ -17,21 +17,12 @@
  */
 package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function;
 
-import java.util.List;
-
 public class TimelineMetricsSeriesMinAggregateFunction extends AbstractTimelineMetricsSeriesAggregateFunction {
   private static final String FUNCTION_NAME = "MIN";
 
   @Override
-  protected Double applyFunction(List<Double> values) {
-    double min = Double.MAX_VALUE;
-    for (Double value : values) {
-      if (value < min) {
-        min = value;
-      }
-    }
-
-    return min;
+  protected double applyFunction(double aggregate, double value) {
+    return Math.min(aggregate, value);
   }
 
   @Override
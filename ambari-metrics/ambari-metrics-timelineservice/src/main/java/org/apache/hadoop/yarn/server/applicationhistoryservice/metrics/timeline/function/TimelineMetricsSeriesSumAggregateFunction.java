@@ -17,19 +17,12 @@
  */
 package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function;
 
-import java.util.List;
-
 public class TimelineMetricsSeriesSumAggregateFunction extends AbstractTimelineMetricsSeriesAggregateFunction {
   private static final String FUNCTION_NAME = "SUM";
 
   @Override
-  protected Double applyFunction(List<Double> values) {
-    double sum = 0.0d;
-    for (Double value : values) {
-      sum += value;
-    }
-
-    return sum;
+  protected double applyFunction(double aggregate, double value) {
+    return aggregate + value;
   }
 
   @Override
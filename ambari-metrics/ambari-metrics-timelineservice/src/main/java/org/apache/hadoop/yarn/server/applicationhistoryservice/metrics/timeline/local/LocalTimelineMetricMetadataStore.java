@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricMetadata;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Metadata of the {@link TimelineMetricSegmentStore} in a local directory.
+ * The metadata is small and saved in the background, so every save rewrites
+ * the whole file through a temporary file and a rename.
+ */
+public class LocalTimelineMetricMetadataStore implements TimelineMetricMetadataStore {
+  static final String METRIC_METADATA_FILE = "metric-metadata.dat";
+  static final String HOSTED_APPS_FILE = "hosted-apps.dat";
+  static final String INSTANCE_HOSTS_FILE = "instance-hosts.dat";
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private final File directory;
+  private final Map<TimelineMetricMetadataKey, TimelineMetricMetadata> metricMetadata;
+  private final Map<String, Set<String>> hostedApps;
+  private final Map<String, Set<String>> instanceHosts;
+
+  public LocalTimelineMetricMetadataStore(File directory) throws IOException {
+    this.directory = directory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create metadata directory " + directory);
+    }
+    metricMetadata = readMetricMetadata();
+    hostedApps = readSetMap(HOSTED_APPS_FILE);
+    instanceHosts = readSetMap(INSTANCE_HOSTS_FILE);
+  }
+
+  @Override
+  public synchronized void saveMetricMetadata(Collection<TimelineMetricMetadata> metadata)
+      throws SQLException {
+    for (TimelineMetricMetadata entry : metadata) {
+      metricMetadata.put(new TimelineMetricMetadataKey(entry.getMetricName(), entry.getAppId()), entry);
+    }
+    try {
+      DataOutputStream out = create(METRIC_METADATA_FILE);
+      try {
+        out.writeInt(metricMetadata.size());
+        for (TimelineMetricMetadata entry : metricMetadata.values()) {
+          out.writeUTF(entry.getMetricName());
+          out.writeUTF(entry.getAppId());
+          writeNullable(out, entry.getUnits());
+          writeNullable(out, entry.getType());
+          out.writeLong(entry.getSeriesStartTime() == null ? 0 : entry.getSeriesStartTime());
+          out.writeBoolean(entry.isSupportsAggregates());
+          out.writeBoolean(entry.isWhitelisted());
+        }
+      } finally {
+        out.close();
+      }
+      commit(METRIC_METADATA_FILE);
+    } catch (IOException e) {
+      throw new SQLException("Unable to save metric metadata", e);
+    }
+  }
+
+  @Override
+  public synchronized void saveHostAppsMetadata(Map<String, Set<String>> apps) throws SQLException {
+    for (Map.Entry<String, Set<String>> entry : apps.entrySet()) {
+      hostedApps.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    }
+    try {
+      DataOutputStream out = create(HOSTED_APPS_FILE);
+      try {
+        out.writeInt(hostedApps.size());
+        for (Map.Entry<String, Set<String>> entry : hostedApps.entrySet()) {
+          out.writeUTF(entry.getKey());
+          writeSet(out, entry.getValue());
+        }
+      } finally {
+        out.close();
+      }
+      commit(HOSTED_APPS_FILE);
+    } catch (IOException e) {
+      throw new SQLException("Unable to save hosted apps metadata", e);
+    }
+  }
+
+  @Override
+  public synchronized void saveInstanceHostsMetadata(Map<String, Set<String>> instanceHostsMap)
+      throws SQLException {
+    for (Map.Entry<String, Set<String>> entry : instanceHostsMap.entrySet()) {
+      instanceHosts.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    }
+    try {
+      DataOutputStream out = create(INSTANCE_HOSTS_FILE);
+      try {
+        out.writeInt(instanceHosts.size());
+        for (Map.Entry<String, Set<String>> entry : instanceHosts.entrySet()) {
+          out.writeUTF(entry.getKey());
+          writeSet(out, entry.getValue());
+        }
+      } finally {
+        out.close();
+      }
+      commit(INSTANCE_HOSTS_FILE);
+    } catch (IOException e) {
+      throw new SQLException("Unable to save instance hosts metadata", e);
+    }
+  }
+
+  @Override
+  public synchronized Map<TimelineMetricMetadataKey, TimelineMetricMetadata> getTimelineMetricMetadata() {
+    Map<TimelineMetricMetadataKey, TimelineMetricMetadata> result = new HashMap<>();
+    for (Map.Entry<TimelineMetricMetadataKey, TimelineMetricMetadata> entry : metricMetadata.entrySet()) {
+      TimelineMetricMetadata metadata = entry.getValue();
+      TimelineMetricMetadata copy = new TimelineMetricMetadata(metadata.getMetricName(),
+        metadata.getAppId(), metadata.getUnits(), metadata.getType(),
+        metadata.getSeriesStartTime(), metadata.isSupportsAggregates(), metadata.isWhitelisted());
+      copy.setIsPersisted(true); // Always true on retrieval
+      result.put(entry.getKey(), copy);
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized Map<String, Set<String>> getHostedAppsMetadata() {
+    return copy(hostedApps);
+  }
+
+  @Override
+  public synchronized Map<String, Set<String>> getInstanceHostsMetdata() {
+    return copy(instanceHosts);
+  }
+
+  private Map<TimelineMetricMetadataKey, TimelineMetricMetadata> readMetricMetadata() throws IOException {
+    Map<TimelineMetricMetadataKey, TimelineMetricMetadata> result = new HashMap<>();
+    DataInputStream in = open(METRIC_METADATA_FILE);
+    if (in == null) {
+      return result;
+    }
+    try {
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String metricName = in.readUTF();
+        String appId = in.readUTF();
+        TimelineMetricMetadata metadata = new TimelineMetricMetadata(metricName, appId,
+          readNullable(in), readNullable(in), in.readLong(), in.readBoolean(), in.readBoolean());
+        result.put(new TimelineMetricMetadataKey(metricName, appId), metadata);
+      }
+    } finally {
+      in.close();
+    }
+    return result;
+  }
+
+  private Map<String, Set<String>> readSetMap(String name) throws IOException {
+    Map<String, Set<String>> result = new HashMap<>();
+    DataInputStream in = open(name);
+    if (in == null) {
+      return result;
+    }
+    try {
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        result.put(in.readUTF(), readSet(in));
+      }
+    } finally {
+      in.close();
+    }
+    return result;
+  }
+
+  private DataInputStream open(String name) throws IOException {
+    File file = new File(directory, name);
+    if (!file.exists()) {
+      return null;
+    }
+    return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+  }
+
+  private DataOutputStream create(String name) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(new File(directory, name + TMP_SUFFIX))));
+  }
+
+  private void commit(String name) throws IOException {
+    File tmpFile = new File(directory, name + TMP_SUFFIX);
+    File file = new File(directory, name);
+    // Not atomic on every platform, the previous file is replaced
+    if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+      throw new IOException("Unable to rename " + tmpFile + " to " + file);
+    }
+  }
+
+  private static Map<String, Set<String>> copy(Map<String, Set<String>> map) {
+    Map<String, Set<String>> result = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+      result.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    }
+    return result;
+  }
+
+  private static void writeSet(DataOutputStream out, Set<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static Set<String> readSet(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    Set<String> values = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      values.add(in.readUTF());
+    }
+    return values;
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -0,0 +1,365 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Time partitioned store of metric points on local disk. Points are appended
+ * to memory-mapped segment files of the partition their timestamp falls in.
+ * A segment is columnar: after the header it holds the series ids, then the
+ * timestamps, then the values of its points, so a scan only reads the
+ * timestamps and values of the series it is looking for.
+ *
+ * The point count in the header is written after the columns, a point not
+ * completely written before the process died is not read back. Partitions
+ * older than the TTL are dropped as a whole by deleting their files.
+ *
+ * Appends are serialized, scans run concurrently with them and see the
+ * points appended before they started.
+ */
+public class TimelineMetricSegmentStore implements Closeable {
+  private static final Log LOG = LogFactory.getLog(TimelineMetricSegmentStore.class);
+
+  static final String SEGMENT_SUFFIX = ".seg";
+  // magic, capacity, count, reserved
+  private static final int HEADER_SIZE = 16;
+  private static final int MAGIC = 0x414d5331;
+  private static final int COUNT_OFFSET = 8;
+  private static final int POINT_SIZE = 4 + 8 + 8;
+  // 20 MB per segment
+  static final int DEFAULT_SEGMENT_CAPACITY = 1024 * 1024;
+
+  private final File directory;
+  private final long partitionMillis;
+  private final long ttlMillis;
+  private final int segmentCapacity;
+
+  // partition start time -> segments of the partition, oldest first
+  private final TreeMap<Long, List<Segment>> partitions = new TreeMap<>();
+
+  public interface PointVisitor {
+    void visit(int seriesId, long timestamp, double value);
+  }
+
+  public TimelineMetricSegmentStore(File directory, long partitionMillis, long ttlMillis)
+      throws IOException {
+    this(directory, partitionMillis, ttlMillis, DEFAULT_SEGMENT_CAPACITY);
+  }
+
+  TimelineMetricSegmentStore(File directory, long partitionMillis, long ttlMillis,
+                             int segmentCapacity) throws IOException {
+    this.directory = directory;
+    this.partitionMillis = partitionMillis;
+    this.ttlMillis = ttlMillis;
+    this.segmentCapacity = segmentCapacity;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create metric segment directory " + directory);
+    }
+
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    // Zero padded names, the lexical order is the partition and append order
+    Arrays.sort(files);
+    long points = 0;
+    for (File file : files) {
+      Segment segment = Segment.open(file);
+      if (segment == null) {
+        LOG.warn("Ignoring invalid metric segment " + file);
+        continue;
+      }
+      getOrCreatePartition(segment.partitionStart).add(segment);
+      points += segment.count;
+    }
+    if (!partitions.isEmpty()) {
+      LOG.info("Opened " + files.length + " metric segments with " + points +
+        " points in " + directory);
+    }
+  }
+
+  /**
+   * Append a point to the partition of its timestamp.
+   *
+   * @return false if the point is older than the TTL and was not stored
+   */
+  public synchronized boolean append(int seriesId, long timestamp, double value, long now)
+      throws IOException {
+    if (timestamp < now - ttlMillis) {
+      return false;
+    }
+    long partitionStart = timestamp - timestamp % partitionMillis;
+    List<Segment> segments = getOrCreatePartition(partitionStart);
+    Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (tail == null || tail.count == tail.capacity) {
+      tail = Segment.create(new File(directory, String.format("%013d-%06d%s",
+        partitionStart, segments.size(), SEGMENT_SUFFIX)), partitionStart, segmentCapacity);
+      segments.add(tail);
+    }
+    tail.append(seriesId, timestamp, value);
+    return true;
+  }
+
+  /**
+   * Visit the points of the given series in [startTime, endTime], in no
+   * particular order.
+   */
+  public void scan(BitSet seriesIds, long startTime, long endTime, PointVisitor visitor) {
+    if (seriesIds.isEmpty()) {
+      return;
+    }
+    for (Segment segment : getSegments(startTime, endTime)) {
+      segment.scan(seriesIds, startTime, endTime, visitor);
+    }
+  }
+
+  /**
+   * Visit the point with the highest timestamp of each of the given series.
+   * Partitions are searched newest first until every series was found.
+   */
+  public void scanLatest(BitSet seriesIds, PointVisitor visitor) {
+    final Map<Integer, long[]> latestTimes = new HashMap<>();
+    final Map<Integer, Double> latestValues = new HashMap<>();
+    PointVisitor latest = new PointVisitor() {
+      @Override
+      public void visit(int seriesId, long timestamp, double value) {
+        long[] latestTime = latestTimes.get(seriesId);
+        if (latestTime == null) {
+          latestTimes.put(seriesId, new long[] {timestamp});
+          latestValues.put(seriesId, value);
+        } else if (timestamp >= latestTime[0]) {
+          latestTime[0] = timestamp;
+          latestValues.put(seriesId, value);
+        }
+      }
+    };
+
+    int wanted = seriesIds.cardinality();
+    for (List<Segment> segments : getPartitionsNewestFirst()) {
+      for (Segment segment : segments) {
+        segment.scan(seriesIds, Long.MIN_VALUE, Long.MAX_VALUE, latest);
+      }
+      if (latestTimes.size() == wanted) {
+        break;
+      }
+    }
+
+    for (Map.Entry<Integer, long[]> entry : latestTimes.entrySet()) {
+      visitor.visit(entry.getKey(), entry.getValue()[0], latestValues.get(entry.getKey()));
+    }
+  }
+
+  /**
+   * Delete the partitions which ended before the TTL.
+   *
+   * @return the number of segments deleted
+   */
+  public synchronized int dropExpired(long now) {
+    int dropped = 0;
+    NavigableMap<Long, List<Segment>> expired =
+      partitions.headMap(now - ttlMillis - partitionMillis, true);
+    for (List<Segment> segments : expired.values()) {
+      for (Segment segment : segments) {
+        // Mappings of running scans stay valid after the delete
+        segment.delete();
+        dropped++;
+      }
+    }
+    expired.clear();
+    return dropped;
+  }
+
+  public synchronized long getPointCount() {
+    long points = 0;
+    for (List<Segment> segments : partitions.values()) {
+      for (Segment segment : segments) {
+        points += segment.count;
+      }
+    }
+    return points;
+  }
+
+  public synchronized int getPartitionCount() {
+    return partitions.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (List<Segment> segments : partitions.values()) {
+      for (Segment segment : segments) {
+        segment.buffer.force();
+      }
+    }
+    partitions.clear();
+  }
+
+  private List<Segment> getOrCreatePartition(long partitionStart) {
+    List<Segment> segments = partitions.get(partitionStart);
+    if (segments == null) {
+      segments = new ArrayList<>();
+      partitions.put(partitionStart, segments);
+    }
+    return segments;
+  }
+
+  private synchronized List<Segment> getSegments(long startTime, long endTime) {
+    List<Segment> result = new ArrayList<>();
+    long fromPartition = startTime - startTime % partitionMillis;
+    if (endTime < fromPartition) {
+      return result;
+    }
+    for (List<Segment> segments : partitions.subMap(fromPartition, true, endTime, true).values()) {
+      result.addAll(segments);
+    }
+    return result;
+  }
+
+  private synchronized List<List<Segment>> getPartitionsNewestFirst() {
+    List<List<Segment>> result = new ArrayList<>();
+    for (List<Segment> segments : partitions.descendingMap().values()) {
+      result.add(new ArrayList<>(segments));
+    }
+    return result;
+  }
+
+  private static class Segment {
+    final File file;
+    final long partitionStart;
+    final int capacity;
+    final MappedByteBuffer buffer;
+    // Written after the columns, readers only look at points below it
+    volatile int count;
+
+    private Segment(File file, long partitionStart, int capacity, MappedByteBuffer buffer) {
+      this.file = file;
+      this.partitionStart = partitionStart;
+      this.capacity = capacity;
+      this.buffer = buffer;
+    }
+
+    static Segment create(File file, long partitionStart, int capacity) throws IOException {
+      Segment segment = new Segment(file, partitionStart, capacity,
+        map(file, HEADER_SIZE + (long) POINT_SIZE * capacity));
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putInt(4, capacity);
+      segment.buffer.putInt(COUNT_OFFSET, 0);
+      return segment;
+    }
+
+    /**
+     * @return the segment, or null if the file is not a segment
+     */
+    static Segment open(File file) throws IOException {
+      String name = file.getName();
+      long partitionStart;
+      try {
+        partitionStart = Long.parseLong(name.substring(0, name.indexOf('-')));
+      } catch (RuntimeException e) {
+        return null;
+      }
+      if (file.length() < HEADER_SIZE) {
+        return null;
+      }
+      MappedByteBuffer buffer = map(file, file.length());
+      int capacity = buffer.getInt(4);
+      int count = buffer.getInt(COUNT_OFFSET);
+      if (buffer.getInt(0) != MAGIC || capacity <= 0 || count < 0 || count > capacity
+          || file.length() < HEADER_SIZE + (long) POINT_SIZE * capacity) {
+        return null;
+      }
+      Segment segment = new Segment(file, partitionStart, capacity, buffer);
+      segment.count = count;
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (raf.length() < size) {
+          raf.setLength(size);
+        }
+        // the mapping stays valid after the channel is closed
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    private int idOffset(int index) {
+      return HEADER_SIZE + 4 * index;
+    }
+
+    private int timestampOffset(int index) {
+      return HEADER_SIZE + 4 * capacity + 8 * index;
+    }
+
+    private int valueOffset(int index) {
+      return HEADER_SIZE + 12 * capacity + 8 * index;
+    }
+
+    void append(int seriesId, long timestamp, double value) {
+      int index = count;
+      buffer.putInt(idOffset(index), seriesId);
+      buffer.putLong(timestampOffset(index), timestamp);
+      buffer.putDouble(valueOffset(index), value);
+      // the count commits the point
+      buffer.putInt(COUNT_OFFSET, index + 1);
+      count = index + 1;
+    }
+
+    void scan(BitSet seriesIds, long startTime, long endTime, PointVisitor visitor) {
+      int points = count;
+      ByteBuffer view = buffer.duplicate();
+      for (int i = 0; i < points; i++) {
+        int seriesId = view.getInt(idOffset(i));
+        if (seriesId < 0 || !seriesIds.get(seriesId)) {
+          continue;
+        }
+        long timestamp = view.getLong(timestampOffset(i));
+        if (timestamp >= startTime && timestamp <= endTime) {
+          visitor.visit(seriesId, timestamp, view.getDouble(valueOffset(i)));
+        }
+      }
+    }
+
+    void delete() {
+      if (!file.delete()) {
+        LOG.warn("Unable to delete expired metric segment " + file);
+      }
+    }
+  }
+}
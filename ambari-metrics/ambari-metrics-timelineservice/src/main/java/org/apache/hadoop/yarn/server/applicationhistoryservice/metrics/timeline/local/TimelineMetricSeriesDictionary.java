@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compact ids of the metric series in a {@link TimelineMetricSegmentStore}.
+ * A series is a metric name, app id, instance id and host name. New series
+ * are appended to the dictionary file before their first point is stored, a
+ * record cut short by a crash is truncated on the next start.
+ */
+public class TimelineMetricSeriesDictionary implements Closeable {
+  private static final Log LOG = LogFactory.getLog(TimelineMetricSeriesDictionary.class);
+
+  private final Map<Series, Integer> ids = new HashMap<>();
+  private final List<Series> series = new ArrayList<>();
+  private final DataOutputStream out;
+
+  public TimelineMetricSeriesDictionary(File file) throws IOException {
+    long validLength = 0;
+    if (file.exists()) {
+      CountingInputStream counter = new CountingInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+      try (DataInputStream in = new DataInputStream(counter)) {
+        while (true) {
+          Series entry = Series.read(in);
+          if (entry.id != series.size()) {
+            // Garbage after a failed write, the rest is dropped
+            break;
+          }
+          series.add(entry);
+          ids.put(entry, entry.id);
+          validLength = counter.getCount();
+        }
+      } catch (EOFException e) {
+        // End of the file, or a record which was not completely written
+      }
+      if (validLength < file.length()) {
+        LOG.warn("Truncating incomplete records of series dictionary " + file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(validLength);
+        }
+      }
+      LOG.info("Loaded " + series.size() + " metric series from " + file);
+    }
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+  }
+
+  /**
+   * @return the id of the series of the metric, assigned and persisted on
+   * first use
+   */
+  public synchronized int getOrCreateId(TimelineMetric metric) throws IOException {
+    Series key = new Series(metric.getMetricName(), metric.getAppId(),
+      metric.getInstanceId(), metric.getHostName());
+    Integer id = ids.get(key);
+    if (id != null) {
+      return id;
+    }
+
+    key.id = series.size();
+    key.units = metric.getUnits();
+    key.type = metric.getType();
+    key.write(out);
+    out.flush();
+    series.add(key);
+    ids.put(key, key.id);
+    return key.id;
+  }
+
+  public synchronized Series getSeries(int id) {
+    return series.get(id);
+  }
+
+  public synchronized int size() {
+    return series.size();
+  }
+
+  /**
+   * Find the series matching a query.
+   *
+   * @param metricNames metric names, with % as a wildcard
+   * @param hostnames host names, any host if null or empty
+   * @param appId app id, any app if null
+   * @param instanceId instance id, any instance if null
+   */
+  public BitSet find(Collection<String> metricNames, Collection<String> hostnames,
+                     String appId, String instanceId) {
+    List<Pattern> patterns = new ArrayList<>();
+    for (String metricName : metricNames) {
+      patterns.add(toPattern(metricName));
+    }
+
+    BitSet result = new BitSet();
+    List<Series> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<>(series);
+    }
+    for (Series entry : snapshot) {
+      if (appId != null && !appId.equalsIgnoreCase(entry.appId)) {
+        continue;
+      }
+      if (instanceId != null && !instanceId.equals(entry.instanceId)) {
+        continue;
+      }
+      if (hostnames != null && !hostnames.isEmpty() && !hostnames.contains(entry.hostName)) {
+        continue;
+      }
+      for (Pattern pattern : patterns) {
+        if (entry.metricName != null && pattern.matcher(entry.metricName).matches()) {
+          result.set(entry.id);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  // SQL LIKE style, as in the queries of the HBase store
+  static Pattern toPattern(String metricName) {
+    StringBuilder regex = new StringBuilder();
+    for (String part : StringUtils.splitPreserveAllTokens(metricName, '%')) {
+      if (regex.length() > 0 || metricName.startsWith("%")) {
+        regex.append(".*");
+      }
+      regex.append(Pattern.quote(part));
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * A metric series, identified by its metric name, app id, instance id and
+   * host name. Units and type are the ones of the first metric stored.
+   */
+  public static class Series {
+    private final String metricName;
+    private final String appId;
+    private final String instanceId;
+    private final String hostName;
+    private String units;
+    private String type;
+    private int id;
+
+    Series(String metricName, String appId, String instanceId, String hostName) {
+      this.metricName = metricName;
+      this.appId = appId;
+      this.instanceId = instanceId;
+      this.hostName = hostName;
+    }
+
+    public String getMetricName() {
+      return metricName;
+    }
+
+    public String getAppId() {
+      return appId;
+    }
+
+    public String getInstanceId() {
+      return instanceId;
+    }
+
+    public String getHostName() {
+      return hostName;
+    }
+
+    public String getUnits() {
+      return units;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(id);
+      writeNullable(out, metricName);
+      writeNullable(out, appId);
+      writeNullable(out, instanceId);
+      writeNullable(out, hostName);
+      writeNullable(out, units);
+      writeNullable(out, type);
+    }
+
+    static Series read(DataInputStream in) throws IOException {
+      int id = in.readInt();
+      String metricName = readNullable(in);
+      String appId = readNullable(in);
+      String instanceId = readNullable(in);
+      String hostName = readNullable(in);
+      Series entry = new Series(metricName, appId, instanceId, hostName);
+      entry.units = readNullable(in);
+      entry.type = readNullable(in);
+      entry.id = id;
+      return entry;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        out.writeUTF(value);
+      }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Series other = (Series) o;
+      return StringUtils.equals(metricName, other.metricName)
+        && StringUtils.equals(appId, other.appId)
+        && StringUtils.equals(instanceId, other.instanceId)
+        && StringUtils.equals(hostName, other.hostName);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = metricName != null ? metricName.hashCode() : 0;
+      result = 31 * result + (appId != null ? appId.hashCode() : 0);
+      result = 31 * result + (instanceId != null ? instanceId.hashCode() : 0);
+      result = 31 * result + (hostName != null ? hostName.hashCode() : 0);
+      return result;
+    }
+  }
+}
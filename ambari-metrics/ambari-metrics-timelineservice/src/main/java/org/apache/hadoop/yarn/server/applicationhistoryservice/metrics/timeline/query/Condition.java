@@ -45,4 +45,6 @@ public interface Condition {
   void setNoLimit();
   boolean doUpdate();
   void setMetricNamesNotCondition(boolean metricNamesNotCondition);
+  boolean isPercentileSketchEnabled();
+  void setPercentileSketchEnabled(boolean percentileSketchEnabled);
 }
@@ -43,6 +43,9 @@ public class DefaultCondition implements Condition {
   String statement;
   Set<String> orderByColumns = new LinkedHashSet<String>();
   boolean metricNamesNotCondition = false;
+  String metricNameRangeStart;
+  String metricNameRangeEnd;
+  boolean percentileSketchEnabled = false;
 
   private static final Log LOG = LogFactory.getLog(DefaultCondition.class);
 
@@ -68,6 +71,16 @@ public class DefaultCondition implements Condition {
     this.statement = statement;
   }
 
+  /**
+   * Only match metric names in [startInclusive, endExclusive), used by
+   * aggregators that split their scan by metric name. Either bound may be
+   * null.
+   */
+  public void setMetricNameRange(String startInclusive, String endExclusive) {
+    this.metricNameRangeStart = startInclusive;
+    this.metricNameRangeEnd = endExclusive;
+  }
+
   public List<String> getMetricNames() {
     return metricNames == null || metricNames.isEmpty() ? null : metricNames;
   }
@@ -77,6 +90,11 @@ public class DefaultCondition implements Condition {
 
     boolean appendConjunction = appendMetricNameClause(sb);
 
+    String metricNameRangeClause = PhoenixTransactSQL.getMetricNameRangeClause(
+      metricNameRangeStart, metricNameRangeEnd);
+    appendConjunction = append(sb, appendConjunction,
+      metricNameRangeClause.isEmpty() ? null : metricNameRangeClause, " " + metricNameRangeClause);
+
     appendConjunction = appendHostnameClause(sb, appendConjunction);
 
     appendConjunction = append(sb, appendConjunction, getAppId(), " APP_ID = ?");
@@ -156,6 +174,20 @@ public class DefaultCondition implements Condition {
     this.noLimit = true;
   }
 
+  /**
+   * Aggregate queries also select the METRIC_SKETCH column, which only
+   * exists once the sketches are enabled.
+   */
+  @Override
+  public boolean isPercentileSketchEnabled() {
+    return percentileSketchEnabled;
+  }
+
+  @Override
+  public void setPercentileSketchEnabled(boolean percentileSketchEnabled) {
+    this.percentileSketchEnabled = percentileSketchEnabled;
+  }
+
   @Override
   public boolean doUpdate() {
     return false;
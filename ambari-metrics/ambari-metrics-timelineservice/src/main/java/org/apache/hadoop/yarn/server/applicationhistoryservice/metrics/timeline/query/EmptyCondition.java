@@ -129,6 +129,15 @@ public class EmptyCondition implements Condition {
 
   }
 
+  @Override
+  public boolean isPercentileSketchEnabled() {
+    return false;
+  }
+
+  @Override
+  public void setPercentileSketchEnabled(boolean percentileSketchEnabled) {
+  }
+
   public void setDoUpdate(boolean doUpdate) {
     this.doUpdate = doUpdate;
   }
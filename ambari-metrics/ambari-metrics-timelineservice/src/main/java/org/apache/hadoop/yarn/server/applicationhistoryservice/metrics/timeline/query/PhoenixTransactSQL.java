@@ -51,7 +51,8 @@ public class PhoenixTransactSQL {
     "METRIC_COUNT UNSIGNED_INT, " +
     "METRIC_MAX DOUBLE, " +
     "METRIC_MIN DOUBLE, " +
-    "METRICS VARCHAR CONSTRAINT pk " +
+    "METRICS VARCHAR, " +
+    "METRICS_ENCODED VARBINARY CONSTRAINT pk " +
     "PRIMARY KEY (METRIC_NAME, HOSTNAME, SERVER_TIME, APP_ID, " +
     "INSTANCE_ID)) DATA_BLOCK_ENCODING='%s', IMMUTABLE_ROWS=true, " +
     "TTL=%s, COMPRESSION='%s'";
@@ -157,6 +158,20 @@ public class PhoenixTransactSQL {
   public static final String ALTER_METRICS_METADATA_TABLE =
     "ALTER TABLE METRICS_METADATA ADD IF NOT EXISTS IS_WHITELISTED BOOLEAN";
 
+  /**
+   * Binary encoded values column, added to existing deployments on upgrade.
+   * Rows written before the upgrade only carry the JSON METRICS column.
+   */
+  public static final String ALTER_METRICS_RECORD_TABLE =
+    "ALTER TABLE METRIC_RECORD ADD IF NOT EXISTS METRICS_ENCODED VARBINARY";
+
+  /**
+   * Quantile sketch of the aggregated values, added to the aggregate tables
+   * when percentile sketches are enabled.
+   */
+  public static final String ALTER_METRICS_AGGREGATE_TABLE_ADD_SKETCH =
+    "ALTER TABLE %s ADD IF NOT EXISTS METRIC_SKETCH VARBINARY";
+
   /**
    * ALTER table to set new options
    */
@@ -172,8 +187,9 @@ public class PhoenixTransactSQL {
     "METRIC_MAX, " +
     "METRIC_MIN, " +
     "METRIC_COUNT, " +
-    "METRICS) VALUES " +
-    "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    "METRICS, " +
+    "METRICS_ENCODED) VALUES " +
+    "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
   public static final String UPSERT_CONTAINER_METRICS_SQL = "UPSERT INTO %s " +
       "(APP_ID,"
@@ -209,6 +225,16 @@ public class PhoenixTransactSQL {
     "METRIC_MIN) " +
     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
+  public static final String UPSERT_CLUSTER_AGGREGATE_WITH_SKETCH_SQL = "UPSERT INTO " +
+    "%s (METRIC_NAME, APP_ID, INSTANCE_ID, SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "HOSTS_COUNT, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN, " +
+    "METRIC_SKETCH) " +
+    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
   public static final String UPSERT_CLUSTER_AGGREGATE_TIME_SQL = "UPSERT INTO" +
     " %s (METRIC_NAME, APP_ID, INSTANCE_ID, SERVER_TIME, " +
     "UNITS, " +
@@ -218,6 +244,16 @@ public class PhoenixTransactSQL {
     "METRIC_MIN) " +
     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
+  public static final String UPSERT_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL = "UPSERT INTO" +
+    " %s (METRIC_NAME, APP_ID, INSTANCE_ID, SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "METRIC_COUNT, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN, " +
+    "METRIC_SKETCH) " +
+    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
   public static final String UPSERT_AGGREGATE_RECORD_SQL = "UPSERT INTO " +
     "%s (METRIC_NAME, HOSTNAME, APP_ID, INSTANCE_ID, " +
     "SERVER_TIME, " +
@@ -228,6 +264,17 @@ public class PhoenixTransactSQL {
     "METRIC_COUNT) " +
     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
+  public static final String UPSERT_AGGREGATE_RECORD_WITH_SKETCH_SQL = "UPSERT INTO " +
+    "%s (METRIC_NAME, HOSTNAME, APP_ID, INSTANCE_ID, " +
+    "SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN," +
+    "METRIC_COUNT, " +
+    "METRIC_SKETCH) " +
+    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
   public static final String UPSERT_METADATA_SQL =
     "UPSERT INTO METRICS_METADATA (METRIC_NAME, APP_ID, UNITS, TYPE, " +
       "START_TIME, SUPPORTS_AGGREGATION, IS_WHITELISTED) " +
@@ -248,7 +295,8 @@ public class PhoenixTransactSQL {
     "METRIC_MAX, " +
     "METRIC_MIN, " +
     "METRIC_COUNT, " +
-    "METRICS " +
+    "METRICS, " +
+    "METRICS_ENCODED " +
     "FROM %s";
 
   /**
@@ -263,7 +311,8 @@ public class PhoenixTransactSQL {
     "E.SERVER_TIME AS SERVER_TIME, E.START_TIME AS START_TIME, " +
     "E.UNITS AS UNITS, E.METRIC_SUM AS METRIC_SUM, " +
     "E.METRIC_MAX AS METRIC_MAX, E.METRIC_MIN AS METRIC_MIN, " +
-    "E.METRIC_COUNT AS METRIC_COUNT, E.METRICS AS METRICS " +
+    "E.METRIC_COUNT AS METRIC_COUNT, E.METRICS AS METRICS, " +
+    "E.METRICS_ENCODED AS METRICS_ENCODED " +
     "FROM %s AS E " +
     "INNER JOIN " +
     "(SELECT METRIC_NAME, HOSTNAME, MAX(SERVER_TIME) AS MAX_SERVER_TIME, " +
@@ -288,6 +337,16 @@ public class PhoenixTransactSQL {
     "METRIC_COUNT " +
     "FROM %s";
 
+  public static final String GET_METRIC_AGGREGATE_WITH_SKETCH_SQL = "SELECT %s " +
+    "METRIC_NAME, HOSTNAME, APP_ID, INSTANCE_ID, SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN, " +
+    "METRIC_COUNT, " +
+    "METRIC_SKETCH " +
+    "FROM %s";
+
   public static final String GET_CLUSTER_AGGREGATE_SQL = "SELECT %s " +
     "METRIC_NAME, APP_ID, " +
     "INSTANCE_ID, SERVER_TIME, " +
@@ -298,6 +357,17 @@ public class PhoenixTransactSQL {
     "METRIC_MIN " +
     "FROM %s";
 
+  public static final String GET_CLUSTER_AGGREGATE_WITH_SKETCH_SQL = "SELECT %s " +
+    "METRIC_NAME, APP_ID, " +
+    "INSTANCE_ID, SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "HOSTS_COUNT, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN, " +
+    "METRIC_SKETCH " +
+    "FROM %s";
+
   public static final String GET_CLUSTER_AGGREGATE_TIME_SQL = "SELECT %s " +
     "METRIC_NAME, APP_ID, " +
     "INSTANCE_ID, SERVER_TIME, " +
@@ -308,6 +378,17 @@ public class PhoenixTransactSQL {
     "METRIC_MIN " +
     "FROM %s";
 
+  public static final String GET_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL = "SELECT %s " +
+    "METRIC_NAME, APP_ID, " +
+    "INSTANCE_ID, SERVER_TIME, " +
+    "UNITS, " +
+    "METRIC_SUM, " +
+    "METRIC_COUNT, " +
+    "METRIC_MAX, " +
+    "METRIC_MIN, " +
+    "METRIC_SKETCH " +
+    "FROM %s";
+
   public static final String TOP_N_INNER_SQL = "SELECT %s %s " +
     "FROM %s WHERE %s GROUP BY %s ORDER BY %s LIMIT %s";
 
@@ -411,6 +492,27 @@ public class PhoenixTransactSQL {
     return String.format("/*+ NATIVE_TIME_RANGE(%s) */", (startTime - delta));
   }
 
+  /**
+   * Restrict a statement to metric names in [startInclusive, endExclusive),
+   * either bound may be null.
+   *
+   * @return condition without leading or trailing conjunction, empty if
+   * both bounds are null
+   */
+  public static String getMetricNameRangeClause(String startInclusive, String endExclusive) {
+    StringBuilder sb = new StringBuilder();
+    if (startInclusive != null) {
+      sb.append("METRIC_NAME >= '").append(startInclusive.replace("'", "''")).append("'");
+    }
+    if (endExclusive != null) {
+      if (sb.length() > 0) {
+        sb.append(" AND ");
+      }
+      sb.append("METRIC_NAME < '").append(endExclusive.replace("'", "''")).append("'");
+    }
+    return sb.toString();
+  }
+
   /**
    * Falling back to sort merge join algorithm if default queries fail.
    *
@@ -427,6 +529,21 @@ public class PhoenixTransactSQL {
     PhoenixTransactSQL.sortMergeJoinEnabled = sortMergeJoinEnabled;
   }
 
+  public static String getHostAggregateSql(Condition condition) {
+    return condition.isPercentileSketchEnabled() ?
+      GET_METRIC_AGGREGATE_WITH_SKETCH_SQL : GET_METRIC_AGGREGATE_ONLY_SQL;
+  }
+
+  public static String getClusterAggregateSql(Condition condition) {
+    return condition.isPercentileSketchEnabled() ?
+      GET_CLUSTER_AGGREGATE_WITH_SKETCH_SQL : GET_CLUSTER_AGGREGATE_SQL;
+  }
+
+  public static String getClusterTimeAggregateSql(Condition condition) {
+    return condition.isPercentileSketchEnabled() ?
+      GET_CLUSTER_AGGREGATE_TIME_WITH_SKETCH_SQL : GET_CLUSTER_AGGREGATE_TIME_SQL;
+  }
+
   public static PreparedStatement prepareGetMetricsSqlStmt(Connection connection,
                                                            Condition condition) throws SQLException {
 
@@ -448,15 +565,15 @@ public class PhoenixTransactSQL {
       switch (condition.getPrecision()) {
         case DAYS:
           metricsTable = METRICS_AGGREGATE_DAILY_TABLE_NAME;
-          query = GET_METRIC_AGGREGATE_ONLY_SQL;
+          query = getHostAggregateSql(condition);
           break;
         case HOURS:
           metricsTable = METRICS_AGGREGATE_HOURLY_TABLE_NAME;
-          query = GET_METRIC_AGGREGATE_ONLY_SQL;
+          query = getHostAggregateSql(condition);
           break;
         case MINUTES:
           metricsTable = METRICS_AGGREGATE_MINUTE_TABLE_NAME;
-          query = GET_METRIC_AGGREGATE_ONLY_SQL;
+          query = getHostAggregateSql(condition);
           break;
         default:
           metricsTable = METRICS_RECORD_TABLE_NAME;
@@ -682,19 +799,19 @@ public class PhoenixTransactSQL {
     switch (condition.getPrecision()) {
       case DAYS:
         metricsAggregateTable = METRICS_CLUSTER_AGGREGATE_DAILY_TABLE_NAME;
-        queryStmt = GET_CLUSTER_AGGREGATE_TIME_SQL;
+        queryStmt = getClusterTimeAggregateSql(condition);
         break;
       case HOURS:
         metricsAggregateTable = METRICS_CLUSTER_AGGREGATE_HOURLY_TABLE_NAME;
-        queryStmt = GET_CLUSTER_AGGREGATE_TIME_SQL;
+        queryStmt = getClusterTimeAggregateSql(condition);
         break;
       case MINUTES:
         metricsAggregateTable = METRICS_CLUSTER_AGGREGATE_MINUTE_TABLE_NAME;
-        queryStmt = GET_CLUSTER_AGGREGATE_TIME_SQL;
+        queryStmt = getClusterTimeAggregateSql(condition);
         break;
       default:
         metricsAggregateTable = METRICS_CLUSTER_AGGREGATE_TABLE_NAME;
-        queryStmt = GET_CLUSTER_AGGREGATE_SQL;
+        queryStmt = getClusterAggregateSql(condition);
     }
 
     queryStmt = String.format(queryStmt,
@@ -752,7 +869,7 @@ public class PhoenixTransactSQL {
     if (condition.getStatement() != null) {
       stmtStr = condition.getStatement();
     } else {
-      stmtStr = String.format(GET_CLUSTER_AGGREGATE_SQL, "",
+      stmtStr = String.format(getClusterAggregateSql(condition), "",
         METRICS_CLUSTER_AGGREGATE_TABLE_NAME);
     }
 
@@ -174,6 +174,16 @@ public class SplitByMetricNamesCondition implements Condition {
     return false;
   }
 
+  @Override
+  public boolean isPercentileSketchEnabled() {
+    return adaptee.isPercentileSketchEnabled();
+  }
+
+  @Override
+  public void setPercentileSketchEnabled(boolean percentileSketchEnabled) {
+    adaptee.setPercentileSketchEnabled(percentileSketchEnabled);
+  }
+
   public List<String> getOriginalMetricNames() {
     return adaptee.getMetricNames();
   }
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.webapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import com.google.inject.Singleton;
+
+/**
+ * Decompresses request bodies sent with {@code Content-Encoding: gzip}, which
+ * the metric sinks use to POST metrics. The request is passed on without the
+ * header, so that the resources read plain JSON. Reading fails once the
+ * decompressed body exceeds {@link #MAX_INFLATED_BYTES_PARAM} bytes.
+ */
+@Singleton
+public class GzipRequestFilter implements Filter {
+  public static final String CONTENT_ENCODING = "Content-Encoding";
+  public static final String GZIP = "gzip";
+  public static final String MAX_INFLATED_BYTES_PARAM = "maxInflatedBytes";
+  public static final long DEFAULT_MAX_INFLATED_BYTES = 64L * 1024 * 1024;
+
+  private long maxInflatedBytes = DEFAULT_MAX_INFLATED_BYTES;
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    String maxInflatedBytesParam = filterConfig.getInitParameter(MAX_INFLATED_BYTES_PARAM);
+    if (maxInflatedBytesParam != null) {
+      try {
+        maxInflatedBytes = Long.parseLong(maxInflatedBytesParam.trim());
+      } catch (NumberFormatException e) {
+        throw new ServletException("Invalid " + MAX_INFLATED_BYTES_PARAM + ": " + maxInflatedBytesParam, e);
+      }
+    }
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response,
+      FilterChain chain) throws IOException, ServletException {
+    if (request instanceof HttpServletRequest
+        && GZIP.equalsIgnoreCase(((HttpServletRequest) request).getHeader(CONTENT_ENCODING))) {
+      request = new GzipRequestWrapper((HttpServletRequest) request, maxInflatedBytes);
+    }
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  private static class GzipRequestWrapper extends HttpServletRequestWrapper {
+    private final long maxInflatedBytes;
+    private ServletInputStream inputStream;
+
+    GzipRequestWrapper(HttpServletRequest request, long maxInflatedBytes) {
+      super(request);
+      this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+      if (inputStream == null) {
+        final InputStream gzipStream = new GZIPInputStream(super.getInputStream(), 8192);
+        inputStream = new ServletInputStream() {
+          private long inflatedBytes;
+
+          @Override
+          public int read() throws IOException {
+            int b = gzipStream.read();
+            if (b != -1) {
+              count(1);
+            }
+            return b;
+          }
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            int read = gzipStream.read(b, off, len);
+            if (read > 0) {
+              count(read);
+            }
+            return read;
+          }
+
+          private void count(int read) throws IOException {
+            inflatedBytes += read;
+            if (inflatedBytes > maxInflatedBytes) {
+              throw new IOException("Decompressed request body exceeds " + maxInflatedBytes + " bytes");
+            }
+          }
+
+          @Override
+          public void close() throws IOException {
+            gzipStream.close();
+          }
+        };
+      }
+      return inputStream;
+    }
+
+    @Override
+    public int getContentLength() {
+      return -1;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+        return null;
+      }
+      return super.getHeader(name);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Enumeration getHeaders(String name) {
+      if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+        return Collections.enumeration(Collections.emptyList());
+      }
+      return super.getHeaders(name);
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Enumeration getHeaderNames() {
+      List names = Collections.list(super.getHeaderNames());
+      for (Iterator it = names.iterator(); it.hasNext();) {
+        if (CONTENT_ENCODING.equalsIgnoreCase(String.valueOf(it.next()))) {
+          it.remove();
+        }
+      }
+      return Collections.enumeration(names);
+    }
+  }
+}
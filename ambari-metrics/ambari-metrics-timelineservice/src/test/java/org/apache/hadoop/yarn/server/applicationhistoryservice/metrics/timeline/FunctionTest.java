@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function.fromMetricName;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function.ReadFunction.AVG;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function.ReadFunction.P99;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function.PostProcessingFunction.RATE;
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function.PostProcessingFunction.DIFF;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -52,6 +53,16 @@ public class FunctionTest {
     f = fromMetricName("Metric._diff");
     assertThat(f).isEqualTo(new Function(null, DIFF));
 
+    // Percentiles
+    f = fromMetricName("Metric._p99");
+    assertThat(f).isEqualTo(new Function(P99, null));
+    assertThat(f.getSuffix()).isEqualTo("._p99");
+    assertThat(f.getReadFunction().isPercentile()).isTrue();
+    assertThat(f.getReadFunction().getQuantile()).isEqualTo(0.99);
+    assertThat(AVG.isPercentile()).isFalse();
+
+    f = fromMetricName("Metric._rate._p99");
+    assertThat(f).isEqualTo(new Function(P99, RATE));
   }
 
   @Ignore // If unknown function: behavior is best effort query without function
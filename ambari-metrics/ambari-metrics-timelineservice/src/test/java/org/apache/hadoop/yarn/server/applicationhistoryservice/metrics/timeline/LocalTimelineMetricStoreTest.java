@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.sink.timeline.Precision;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_LOCAL_STORE_DIR;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+public class LocalTimelineMetricStoreTest {
+  private static final long HOUR = 3600000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+  private LocalTimelineMetricStore store;
+  private long startTime;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.newFolder();
+    store = createStore();
+
+    long now = System.currentTimeMillis();
+    startTime = now - now % HOUR - HOUR;
+    TimelineMetrics metrics = new TimelineMetrics();
+    metrics.getMetrics().add(createMetric("h1", 10));
+    metrics.getMetrics().add(createMetric("h2", 30));
+    store.putMetrics(metrics);
+  }
+
+  @After
+  public void tearDown() {
+    store.stop();
+  }
+
+  @Test
+  public void testHostMetrics() throws Exception {
+    TimelineMetrics metrics = store.getTimelineMetrics(Collections.singletonList("cpu_user"),
+      Collections.singletonList("h1"), "HOST", null, startTime, startTime + HOUR - 1,
+      Precision.SECONDS, null, true, null, null);
+
+    Assert.assertEquals(1, metrics.getMetrics().size());
+    TimelineMetric metric = metrics.getMetrics().get(0);
+    Assert.assertEquals("cpu_user", metric.getMetricName());
+    Assert.assertEquals("h1", metric.getHostName());
+    Assert.assertEquals("%", metric.getUnits());
+    Assert.assertEquals(360, metric.getMetricValues().size());
+    Assert.assertEquals(startTime, metric.getStartTime());
+  }
+
+  @Test
+  public void testHostMetricsAreDownsampled() throws Exception {
+    TimelineMetrics metrics = store.getTimelineMetrics(Collections.singletonList("cpu_user._max"),
+      Collections.singletonList("h2"), "HOST", null, startTime, startTime + HOUR - 1,
+      Precision.MINUTES, null, true, null, null);
+
+    Assert.assertEquals(1, metrics.getMetrics().size());
+    TimelineMetric metric = metrics.getMetrics().get(0);
+    Assert.assertEquals("cpu_user._max", metric.getMetricName());
+    Assert.assertEquals(60, metric.getMetricValues().size());
+    for (Map.Entry<Long, Double> point : metric.getMetricValues().entrySet()) {
+      Assert.assertEquals(0, point.getKey() % 60000);
+      Assert.assertEquals(35, point.getValue(), 0.001);
+    }
+  }
+
+  @Test
+  public void testClusterMetrics() throws Exception {
+    TimelineMetrics metrics = store.getTimelineMetrics(Arrays.asList("cpu_user", "cpu_user._sum"),
+      null, "HOST", null, startTime, startTime + HOUR - 1, Precision.MINUTES, null, true, null, null);
+
+    Assert.assertEquals(2, metrics.getMetrics().size());
+    for (TimelineMetric metric : metrics.getMetrics()) {
+      Assert.assertNull(metric.getHostName());
+      Assert.assertEquals(60, metric.getMetricValues().size());
+      // Hosts average 12.5 and 32.5
+      double expected = metric.getMetricName().endsWith("._sum") ? 45 : 22.5;
+      for (double value : metric.getMetricValues().values()) {
+        Assert.assertEquals(expected, value, 0.001);
+      }
+    }
+  }
+
+  @Test
+  public void testLatestValues() throws Exception {
+    TimelineMetrics metrics = store.getTimelineMetrics(Collections.singletonList("cpu_user"),
+      Arrays.asList("h1", "h2"), "HOST", null, null, null, null, null, true, null, null);
+
+    Assert.assertEquals(2, metrics.getMetrics().size());
+    for (TimelineMetric metric : metrics.getMetrics()) {
+      Assert.assertEquals(1, metric.getMetricValues().size());
+      Assert.assertEquals(Long.valueOf(startTime + HOUR - 10000), metric.getMetricValues().firstKey());
+    }
+  }
+
+  @Test
+  public void testMetricsSurviveRestart() throws Exception {
+    Assert.assertTrue(store.getHostAppsMetadata().get("h1").contains("HOST"));
+    store.stop();
+
+    store = createStore();
+    TimelineMetrics metrics = store.getTimelineMetrics(Collections.singletonList("cpu_%"),
+      null, "HOST", null, startTime, startTime + HOUR - 1, Precision.SECONDS, null, true, null, null);
+    Assert.assertEquals(1, metrics.getMetrics().size());
+    // 30 second cluster slices
+    Assert.assertEquals(120, metrics.getMetrics().get(0).getMetricValues().size());
+  }
+
+  private LocalTimelineMetricStore createStore() throws Exception {
+    Configuration metricsConf = new Configuration(false);
+    metricsConf.set(TIMELINE_METRICS_LOCAL_STORE_DIR, directory.getAbsolutePath());
+    TimelineMetricConfiguration configuration = createNiceMock(TimelineMetricConfiguration.class);
+    expect(configuration.getMetricsConf()).andReturn(metricsConf).anyTimes();
+    replay(configuration);
+
+    LocalTimelineMetricStore localStore = new LocalTimelineMetricStore(configuration);
+    localStore.init(new Configuration(false));
+    localStore.start();
+    return localStore;
+  }
+
+  // A point every 10 seconds for an hour, 0 to 5 above the base every minute
+  private TimelineMetric createMetric(String hostName, double base) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName("cpu_user");
+    metric.setAppId("HOST");
+    metric.setHostName(hostName);
+    metric.setUnits("%");
+    metric.setStartTime(startTime);
+    TreeMap<Long, Double> values = new TreeMap<>();
+    for (int i = 0; i < 360; i++) {
+      values.put(startTime + i * 10000L, base + i % 6);
+    }
+    metric.setMetricValues(values);
+    return metric;
+  }
+}
@@ -29,6 +29,7 @@ import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineClusterMetric;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.Function;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators.TimelineMetricsIngestBuffer;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.Condition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.DefaultCondition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixConnectionProvider;
@@ -45,6 +46,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Collections;
@@ -52,6 +54,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -91,11 +94,13 @@ public class PhoenixHBaseAccessorTest {
     Condition condition = new DefaultCondition(metricNames, hostnames, "appid", "instanceid", 123L, 234L, Precision.SECONDS, 10, true);
     EasyMock.expect(PhoenixTransactSQL.prepareGetMetricsSqlStmt(null, condition)).andReturn(preparedStatementMock).once();
     ResultSet rsMock = EasyMock.createNiceMock(ResultSet.class);
+    ResultSetMetaData metaDataMock = EasyMock.createNiceMock(ResultSetMetaData.class);
     EasyMock.expect(preparedStatementMock.executeQuery()).andReturn(rsMock);
+    EasyMock.expect(rsMock.getMetaData()).andReturn(metaDataMock).once();
 
 
     PowerMock.replayAll();
-    EasyMock.replay(preparedStatementMock, rsMock);
+    EasyMock.replay(preparedStatementMock, rsMock, metaDataMock);
 
     // Check when startTime < endTime
     TimelineMetrics tml = accessor.getMetricRecords(condition, metricFunctions);
@@ -248,6 +253,45 @@ public class PhoenixHBaseAccessorTest {
     EasyMock.verify(timelineMetrics, connection);
   }
 
+  @Test
+  public void testIngestBufferReceivesOnlyMetricsAcceptedForCommit() throws IOException, SQLException {
+    Configuration hbaseConf = new Configuration();
+    hbaseConf.setStrings(ZOOKEEPER_QUORUM, "quorum");
+    Configuration metricsConf = new Configuration();
+    metricsConf.setStrings(TimelineMetricConfiguration.OUT_OFF_BAND_DATA_TIME_ALLOWANCE, "60000");
+
+    PhoenixHBaseAccessor accessor = new PhoenixHBaseAccessor(hbaseConf, metricsConf) {
+      @Override
+      public void commitMetrics(Collection<TimelineMetrics> timelineMetricsCollection) {
+      }
+    };
+    TimelineMetricsIngestBuffer ingestBuffer = new TimelineMetricsIngestBuffer(3600000);
+    accessor.setIngestBuffer(ingestBuffer);
+
+    long now = System.currentTimeMillis();
+    TimelineMetrics timelineMetrics = new TimelineMetrics();
+    timelineMetrics.getMetrics().add(createMetric("host1", now, now));
+    // start time is out of band although the value is recent
+    timelineMetrics.getMetrics().add(createMetric("host2", now - 3600000, now));
+    accessor.insertMetricRecords(timelineMetrics);
+
+    List<TimelineMetric> buffered = ingestBuffer.snapshot(0);
+    assertEquals(1, buffered.size());
+    assertEquals("host1", buffered.get(0).getHostName());
+  }
+
+  private static TimelineMetric createMetric(String hostName, long startTime, long timestamp) {
+    TimelineMetric timelineMetric = new TimelineMetric();
+    timelineMetric.setMetricName("Metric1");
+    timelineMetric.setAppId("App1");
+    timelineMetric.setHostName(hostName);
+    timelineMetric.setStartTime(startTime);
+    TreeMap<Long, Double> values = new TreeMap<>();
+    values.put(timestamp, 1.0);
+    timelineMetric.setMetricValues(values);
+    return timelineMetric;
+  }
+
   @Test
   public void testMetricsAggregatorSink() throws IOException, SQLException {
     Configuration hbaseConf = new Configuration();
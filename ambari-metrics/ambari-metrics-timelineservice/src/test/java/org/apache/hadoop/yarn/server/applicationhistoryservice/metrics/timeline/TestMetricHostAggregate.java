@@ -19,9 +19,11 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics
   .timeline;
 
 import org.apache.hadoop.metrics2.sink.timeline.MetricHostAggregate;
+import org.apache.hadoop.metrics2.sink.timeline.QuantileSketch;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
 
 public class TestMetricHostAggregate {
 
@@ -53,6 +55,31 @@ public class TestMetricHostAggregate {
     assertThat(aggregate.calculateAverage()).isEqualTo((3.0 + 8.0 + 1.0) / 5);
   }
 
+  @Test
+  public void testUpdateAggregatesMergesSketches() throws Exception {
+    MetricHostAggregate aggregate = new MetricHostAggregate();
+    MetricHostAggregate first = createAggregate(3.0, 1.0, 2.0, 2);
+    for (int i = 1; i <= 50; i++) {
+      first.updateSketch(i);
+    }
+    MetricHostAggregate second = createAggregate(8.0, 0.5, 7.5, 2);
+    for (int i = 51; i <= 100; i++) {
+      second.updateSketch(i);
+    }
+
+    aggregate.updateAggregates(first);
+    aggregate.updateAggregates(second);
+    // aggregates without a sketch leave it as is
+    aggregate.updateAggregates(createAggregate(1.0, 1.0, 1.0, 1));
+
+    QuantileSketch sketch = aggregate.getSketch();
+    assertThat(sketch.getCount()).isEqualTo(100);
+    assertThat(sketch.getQuantile(0.99)).isEqualTo(99.0, offset(1.0));
+    assertThat(sketch.getQuantile(0.5)).isEqualTo(50.0, offset(1.0));
+    // the sketch is not part of the JSON
+    assertThat(aggregate.toJSON()).doesNotContain("sketch");
+  }
+
   static MetricHostAggregate createAggregate (Double sum, Double min,
                                               Double max, Integer samplesCount) {
     MetricHostAggregate aggregate = new MetricHostAggregate();
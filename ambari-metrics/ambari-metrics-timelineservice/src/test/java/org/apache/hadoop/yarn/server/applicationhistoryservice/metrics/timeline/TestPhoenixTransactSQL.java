@@ -25,6 +25,7 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.SplitByMetricNamesCondition;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.TopNCondition;
 import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.junit.Assert;
 import org.junit.Test;
 import java.sql.Connection;
@@ -157,6 +158,26 @@ public class TestPhoenixTransactSQL {
     verify(connection, preparedStatement);
   }
 
+  @Test
+  public void testPrepareGetAggregateWithPercentileSketch() throws SQLException {
+    Condition condition = new DefaultCondition(
+      new ArrayList<>(Arrays.asList("cpu_user", "mem_free")), Collections.singletonList("h1"),
+      "a1", "i1", 1407959718L, 1407959918L, Precision.MINUTES, null, false);
+    Connection connection = createNiceMock(Connection.class);
+    PreparedStatement preparedStatement = createNiceMock(PreparedStatement.class);
+    Capture<String> stmtCapture = new Capture<String>(CaptureType.ALL);
+    expect(connection.prepareStatement(EasyMock.and(EasyMock.anyString(), EasyMock.capture(stmtCapture))))
+        .andReturn(preparedStatement).times(2);
+
+    replay(connection, preparedStatement);
+    PhoenixTransactSQL.prepareGetAggregateSqlStmt(connection, condition);
+    condition.setPercentileSketchEnabled(true);
+    PhoenixTransactSQL.prepareGetAggregateSqlStmt(connection, condition);
+    Assert.assertFalse(stmtCapture.getValues().get(0).contains("METRIC_SKETCH"));
+    Assert.assertTrue(stmtCapture.getValues().get(1).contains("METRIC_SKETCH"));
+    verify(connection, preparedStatement);
+  }
+
   @Test
   public void testPrepareGetAggregateNoPrecision() throws SQLException {
     Long endTime = 1407959918L;
@@ -26,6 +26,8 @@ import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
@@ -220,4 +222,42 @@ public class TimelineMetricsFilterTest {
     timelineMetric.setAppId("hbase");
     Assert.assertFalse(TimelineMetricsFilter.acceptMetric(timelineMetric));
   }
+
+  @Test
+  public void testWhitelistReload() throws Exception {
+
+    File whitelistFile = File.createTempFile("metric_whitelist", ".dat");
+    whitelistFile.deleteOnExit();
+    FileWriter writer = new FileWriter(whitelistFile);
+    writer.write("cpu_user\n._p_dfs.FSNamesystem.*\n");
+    writer.close();
+
+    Configuration metricsConf = new Configuration();
+    metricsConf.set("timeline.metrics.whitelist.file", whitelistFile.getPath());
+    TimelineMetricConfiguration configuration = EasyMock.createNiceMock(TimelineMetricConfiguration.class);
+    expect(configuration.getMetricsConf()).andReturn(metricsConf).once();
+    expect(configuration.isWhitelistingEnabled()).andReturn(true).anyTimes();
+    replay(configuration);
+
+    TimelineMetricsFilter.initializeMetricFilter(configuration);
+
+    Assert.assertTrue(TimelineMetricsFilter.acceptMetric("cpu_user", "HOST"));
+    Assert.assertTrue(TimelineMetricsFilter.acceptMetric("dfs.FSNamesystem.TotalFiles", "namenode"));
+    Assert.assertFalse(TimelineMetricsFilter.acceptMetric("mem_free", "HOST"));
+
+    writer = new FileWriter(whitelistFile);
+    writer.write("mem_free\n._p_[invalid\n");
+    writer.close();
+    Assert.assertTrue(TimelineMetricsFilter.reloadMetricWhitelist());
+
+    Assert.assertFalse(TimelineMetricsFilter.acceptMetric("cpu_user", "HOST"));
+    Assert.assertFalse(TimelineMetricsFilter.acceptMetric("dfs.FSNamesystem.TotalFiles", "namenode"));
+    Assert.assertTrue(TimelineMetricsFilter.acceptMetric("mem_free", "HOST"));
+
+    // A missing file keeps the current whitelist
+    Assert.assertTrue(whitelistFile.delete());
+    Assert.assertFalse(TimelineMetricsFilter.reloadMetricWhitelist());
+    Assert.assertTrue(TimelineMetricsFilter.acceptMetric("mem_free", "HOST"));
+    Assert.assertFalse(TimelineMetricsFilter.acceptMetric("cpu_user", "HOST"));
+  }
 }
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.metrics2.sink.timeline.Precision;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimelineMetricsQueryCacheTest {
+
+  private static final long BUCKET = 10000l;
+  private static final long HOUR = 3600000l;
+
+  private final TimelineMetricsQueryCache queryCache =
+    new TimelineMetricsQueryCache(BUCKET, 60000l, 100000l);
+
+  @Test
+  public void testKeysAreNormalized() {
+    long start = 1000 * HOUR + 1234;
+    TimelineMetricsQueryCache.QueryKey key1 = createKey(Arrays.asList("m1", "m2"),
+      Arrays.asList("h1", "h2"), start, start + HOUR);
+    TimelineMetricsQueryCache.QueryKey key2 = createKey(Arrays.asList("m2", "m1"),
+      Arrays.asList("h2", "h1"), start + 5000, start + HOUR + 5000);
+    Assert.assertEquals(key1, key2);
+    Assert.assertEquals(key1.hashCode(), key2.hashCode());
+
+    Assert.assertEquals(1000 * HOUR, key1.getStartTime());
+    Assert.assertEquals(1001 * HOUR + BUCKET, key1.getEndTime());
+    // Precision of the requested range, not the widened one
+    key1 = createKey(Arrays.asList("m1"), null, 1000 * HOUR + 1, 1002 * HOUR + 1);
+    Assert.assertEquals(Precision.SECONDS, key1.getPrecision());
+
+    Assert.assertFalse(key2.equals(createKey(Arrays.asList("m1"), Arrays.asList("h2", "h1"),
+      start, start + HOUR)));
+  }
+
+  @Test
+  public void testSealedResultsAreCached() throws Exception {
+    long start = System.currentTimeMillis() - 48 * HOUR;
+    TimelineMetricsQueryCache.QueryKey key = createKey(Arrays.asList("m1"), null, start, start + HOUR);
+    Assert.assertTrue(TimelineMetricsQueryCache.isSealed(key, System.currentTimeMillis()));
+
+    CountingLoader loader = new CountingLoader("m1", start);
+    TimelineMetrics result = queryCache.get(key, start, start + HOUR, loader);
+    Assert.assertEquals(1, result.getMetrics().size());
+    // Callers get private copies
+    result.getMetrics().get(0).getMetricValues().clear();
+
+    queryCache.metricsCommitted(Collections.singletonList(createMetric("m1")));
+    result = queryCache.get(key, start, start + HOUR, loader);
+    Assert.assertEquals(1, loader.loads.get());
+    Assert.assertEquals(1, result.getMetrics().get(0).getMetricValuesCount());
+    Assert.assertEquals(1, queryCache.getHits());
+    Assert.assertEquals(1, queryCache.getMisses());
+  }
+
+  @Test
+  public void testLiveResultsAreInvalidatedOnCommit() throws Exception {
+    long now = System.currentTimeMillis();
+    TimelineMetricsQueryCache.QueryKey key = createKey(Arrays.asList("m1._rate"), null,
+      now - HOUR, now);
+    Assert.assertFalse(TimelineMetricsQueryCache.isSealed(key, now));
+
+    CountingLoader loader = new CountingLoader("m1", now);
+    queryCache.get(key, now - HOUR, now, loader);
+    queryCache.get(key, now - HOUR, now, loader);
+    Assert.assertEquals(1, loader.loads.get());
+
+    queryCache.metricsCommitted(Collections.singletonList(createMetric("m2")));
+    queryCache.get(key, now - HOUR, now, loader);
+    Assert.assertEquals(1, loader.loads.get());
+
+    queryCache.metricsCommitted(Collections.singletonList(createMetric("m1")));
+    queryCache.get(key, now - HOUR, now, loader);
+    Assert.assertEquals(2, loader.loads.get());
+
+    // Patterns are invalidated by any commit
+    key = createKey(Arrays.asList("m%"), null, now - HOUR, now);
+    queryCache.get(key, now - HOUR, now, loader);
+    queryCache.metricsCommitted(Collections.singletonList(createMetric("other")));
+    queryCache.get(key, now - HOUR, now, loader);
+    Assert.assertEquals(4, loader.loads.get());
+  }
+
+  @Test
+  public void testConcurrentQueriesAreCoalesced() throws Exception {
+    final long start = System.currentTimeMillis() - 48 * HOUR;
+    final TimelineMetricsQueryCache.QueryKey key =
+      createKey(Arrays.asList("m1"), null, start, start + HOUR);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final long end = start + HOUR;
+    final CountingLoader loader = new CountingLoader("m1", start) {
+      @Override
+      public TimelineMetrics call() throws Exception {
+        loading.countDown();
+        release.await(10, TimeUnit.SECONDS);
+        return super.call();
+      }
+    };
+
+    final TimelineMetrics[] results = new TimelineMetrics[4];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            results[index] = queryCache.get(key, start, end, loader);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    Assert.assertTrue(loading.await(10, TimeUnit.SECONDS));
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    Assert.assertEquals(1, loader.loads.get());
+    for (TimelineMetrics result : results) {
+      Assert.assertEquals(1, result.getMetrics().size());
+    }
+  }
+
+  @Test
+  public void testResultsAreTrimmedToRequestedRange() throws Exception {
+    long start = (System.currentTimeMillis() - 48 * HOUR) / BUCKET * BUCKET + 1234;
+    final long end = start + HOUR;
+    TimelineMetricsQueryCache.QueryKey key = createKey(Arrays.asList("m1"), null, start, end);
+    final long bucketStart = key.getStartTime();
+    final long bucketEnd = key.getEndTime();
+    Callable<TimelineMetrics> loader = new Callable<TimelineMetrics>() {
+      @Override
+      public TimelineMetrics call() throws Exception {
+        TimelineMetric metric = createMetric("m1", bucketStart);
+        for (long timestamp = bucketStart; timestamp <= bucketEnd; timestamp += 1000) {
+          metric.getMetricValues().put(timestamp, 1.0);
+        }
+        TimelineMetric outside = createMetric("m2", bucketStart);
+        TimelineMetrics metrics = new TimelineMetrics();
+        metrics.getMetrics().add(metric);
+        metrics.getMetrics().add(outside);
+        return metrics;
+      }
+    };
+
+    TimelineMetrics result = queryCache.get(key, start, end, loader);
+    Assert.assertEquals(1, result.getMetrics().size());
+    TimelineMetric metric = result.getMetrics().get(0);
+    Assert.assertEquals(3600, metric.getMetricValuesCount());
+    for (Long timestamp : metric.getMetricValues().keySet()) {
+      Assert.assertTrue(timestamp >= start && timestamp <= end);
+    }
+    Assert.assertTrue(metric.getStartTime() >= start);
+
+    // A narrower range of the same key, answered from the cache
+    result = queryCache.get(key, start + 5000, end - 5000, loader);
+    Assert.assertEquals(3590, result.getMetrics().get(0).getMetricValuesCount());
+    Assert.assertEquals(1, queryCache.getMisses());
+  }
+
+  @Test(expected = SQLException.class)
+  public void testLoaderExceptionsArePropagated() throws Exception {
+    long now = System.currentTimeMillis();
+    queryCache.get(createKey(Arrays.asList("m1"), null, now - HOUR, now), now - HOUR, now,
+      new Callable<TimelineMetrics>() {
+        @Override
+        public TimelineMetrics call() throws Exception {
+          throw new SQLException("Scan failed");
+        }
+      });
+  }
+
+  private TimelineMetricsQueryCache.QueryKey createKey(List<String> metricNames,
+                                                        List<String> hostnames,
+                                                        long startTime, long endTime) {
+    return queryCache.createKey(metricNames, hostnames, "a1", null, startTime, endTime,
+      null, null, true, null, null);
+  }
+
+  private static TimelineMetric createMetric(String metricName) {
+    return createMetric(metricName, 1000l);
+  }
+
+  private static TimelineMetric createMetric(String metricName, long timestamp) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(metricName);
+    metric.setHostName("h1");
+    metric.setAppId("a1");
+    metric.setStartTime(timestamp);
+    metric.getMetricValues().put(timestamp, 1.0);
+    return metric;
+  }
+
+  private static class CountingLoader implements Callable<TimelineMetrics> {
+    private final String metricName;
+    private final long timestamp;
+    final AtomicInteger loads = new AtomicInteger();
+
+    CountingLoader(String metricName, long timestamp) {
+      this.metricName = metricName;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public TimelineMetrics call() throws Exception {
+      loads.incrementAndGet();
+      TimelineMetrics metrics = new TimelineMetrics();
+      metrics.getMetrics().add(createMetric(metricName, timestamp));
+      return metrics;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.metrics2.sink.timeline.SingleValuedTimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.SeriesAggregateFunction;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.TimelineMetricsSeriesAggregateFunction;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.function.TimelineMetricsSeriesAggregateFunctionFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimelineMetricsSeriesReducerTest {
+
+  @Test
+  public void testRateSeriesAggregateMatchesPostProcessing() throws Exception {
+    // Rows of 3 hosts in time order, as returned by the metrics query
+    List<TimelineMetric> rows = new ArrayList<>();
+    for (int row = 0; row < 4; row++) {
+      for (int host = 1; host <= 3; host++) {
+        TreeMap<Long, Double> values = new TreeMap<>();
+        for (int i = 0; i < 5; i++) {
+          long timestamp = (row * 5 + i) * 10000L;
+          // host 2 has its counter reset in the third row
+          double value = host == 2 && row >= 2 ? i : host * timestamp / 100;
+          values.put(timestamp, value);
+        }
+        rows.add(createMetric("bytes_in._rate", "host" + host, values));
+      }
+    }
+
+    for (SeriesAggregateFunction function : SeriesAggregateFunction.values()) {
+      assertReducedAsPostProcessed(function, rows);
+    }
+  }
+
+  @Test
+  public void testAggregateRowsMatchPostProcessing() throws Exception {
+    List<SingleValuedTimelineMetric> rows = new ArrayList<>();
+    for (long timestamp = 0; timestamp < 600000; timestamp += 60000) {
+      for (String appId : new String[] {"datanode", "nodemanager"}) {
+        SingleValuedTimelineMetric row = new SingleValuedTimelineMetric("bytes_in._diff",
+          appId, null, null, timestamp, timestamp, "bytes");
+        row.setSingleTimeseriesValue(timestamp, appId.length() * (double) timestamp);
+        rows.add(row);
+      }
+    }
+
+    TimelineMetrics metrics = new TimelineMetrics();
+    TimelineMetricsSeriesAggregateFunction function =
+      TimelineMetricsSeriesAggregateFunctionFactory.newInstance(SeriesAggregateFunction.SUM);
+    TimelineMetricsSeriesReducer reducer = new TimelineMetricsSeriesReducer(function.newAggregator());
+    for (SingleValuedTimelineMetric row : rows) {
+      metrics.addOrMergeTimelineMetric(row);
+      reducer.addOrMergeTimelineMetric(row);
+    }
+
+    TimelineMetric expected = HBaseTimelineMetricStore.seriesAggregateMetrics(function,
+      HBaseTimelineMetricStore.postProcessMetrics(metrics)).getMetrics().get(0);
+    TimelineMetric reduced = reducer.getAggregatedMetrics().getMetrics().get(0);
+    assertEquals(expected.getMetricName(), reduced.getMetricName());
+    assertEquals(expected.getAppId(), reduced.getAppId());
+    assertEquals(9, reduced.getMetricValues().size());
+    assertEquals(expected.getMetricValues(), reduced.getMetricValues());
+  }
+
+  @Test
+  public void testNothingRead() throws Exception {
+    TimelineMetricsSeriesReducer reducer = new TimelineMetricsSeriesReducer(
+      TimelineMetricsSeriesAggregateFunctionFactory.newInstance(SeriesAggregateFunction.AVG).newAggregator());
+    assertTrue(reducer.getAggregatedMetrics().getMetrics().isEmpty());
+  }
+
+  private static void assertReducedAsPostProcessed(SeriesAggregateFunction func,
+                                                   List<TimelineMetric> rows) {
+    TimelineMetricsSeriesAggregateFunction function =
+      TimelineMetricsSeriesAggregateFunctionFactory.newInstance(func);
+
+    TimelineMetrics metrics = new TimelineMetrics();
+    TimelineMetricsSeriesReducer reducer = new TimelineMetricsSeriesReducer(function.newAggregator());
+    for (TimelineMetric row : rows) {
+      metrics.addOrMergeTimelineMetric(copy(row));
+      reducer.addOrMergeTimelineMetric(copy(row));
+    }
+
+    TimelineMetric expected = HBaseTimelineMetricStore.seriesAggregateMetrics(function,
+      HBaseTimelineMetricStore.postProcessMetrics(metrics)).getMetrics().get(0);
+    TimelineMetric reduced = reducer.getAggregatedMetrics().getMetrics().get(0);
+    assertEquals(expected.getMetricName(), reduced.getMetricName());
+    assertEquals(expected.getHostName(), reduced.getHostName());
+    assertEquals(expected.getStartTime(), reduced.getStartTime());
+    assertEquals(func.name(), expected.getMetricValues(), reduced.getMetricValues());
+  }
+
+  private static TimelineMetric createMetric(String metricName, String hostName,
+                                             TreeMap<Long, Double> values) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(metricName);
+    metric.setHostName(hostName);
+    metric.setAppId("HOST");
+    metric.setStartTime(values.firstKey());
+    metric.setMetricValues(values);
+    return metric;
+  }
+
+  private static TimelineMetric copy(TimelineMetric metric) {
+    return createMetric(metric.getMetricName(), metric.getHostName(),
+      new TreeMap<>(metric.getMetricValues()));
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the compiled whitelist against trying every pattern in turn, as
+ * TimelineMetricsFilter used to, for a stream of metric names of which
+ * about a third is whitelisted.
+ *
+ * Not run as part of the unit tests, launch with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricsWhitelistMatcherBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TimelineMetricsWhitelistMatcherBenchmark {
+
+  @Param({"100", "1000", "5000"})
+  public int patterns;
+
+  private static final int NAMES = 20000;
+
+  private Set<String> loopLiterals;
+  private List<Pattern> loopPatterns;
+  private TimelineMetricsWhitelistMatcher cachedMatcher;
+  private TimelineMetricsWhitelistMatcher uncachedMatcher;
+  private String[] names;
+  private int next;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(patterns);
+    List<String> literals = new ArrayList<>();
+    loopPatterns = new ArrayList<>();
+    for (int i = 0; i < patterns; i++) {
+      // Same shape as the shipped whitelist, "dfs.FSNamesystem.*"
+      loopPatterns.add(Pattern.compile("svc" + i + ".Group" + random.nextInt(50) + ".*"));
+      literals.add("svc" + i + ".Literal.Metric" + i);
+    }
+    loopLiterals = new HashSet<>(literals);
+    cachedMatcher = new TimelineMetricsWhitelistMatcher(literals, loopPatterns, NAMES);
+    uncachedMatcher = new TimelineMetricsWhitelistMatcher(literals, loopPatterns, 0);
+
+    names = new String[NAMES];
+    for (int i = 0; i < NAMES; i++) {
+      int service = random.nextInt(patterns * 3);
+      int group = random.nextInt(50);
+      names[i] = "svc" + service + ".Group" + group + ".Metric" + random.nextInt(100);
+    }
+  }
+
+  private String nextName() {
+    next = (next + 1) % NAMES;
+    return names[next];
+  }
+
+  @Benchmark
+  public boolean patternLoop() {
+    String metricName = nextName();
+    if (loopLiterals.contains(metricName)) {
+      return true;
+    }
+    for (Pattern pattern : loopPatterns) {
+      if (pattern.matcher(metricName).find()) {
+        loopLiterals.add(metricName);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Benchmark
+  public boolean compiledMatcher() {
+    return uncachedMatcher.matches(nextName());
+  }
+
+  @Benchmark
+  public boolean compiledMatcherCached() {
+    return cachedMatcher.matches(nextName());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+      .include(TimelineMetricsWhitelistMatcherBenchmark.class.getSimpleName())
+      .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricsWhitelistMatcher.getRequiredLiteral;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class TimelineMetricsWhitelistMatcherTest {
+
+  @Test
+  public void testRequiredLiteral() throws Exception {
+    Assert.assertEquals("FSNamesystem", getRequiredLiteral("dfs.FSNamesystem.*"));
+    Assert.assertEquals("JvmMetric", getRequiredLiteral("jvm.JvmMetrics*"));
+    Assert.assertEquals("regionserver.", getRequiredLiteral("^regionserver\\.[a-z]+"));
+    Assert.assertEquals("cpu_", getRequiredLiteral("cpu_(user)?"));
+    Assert.assertEquals("ab", getRequiredLiteral("x{2}(cd){3}abc?\\d"));
+    Assert.assertEquals("mem_free", getRequiredLiteral("mem_free"));
+
+    Assert.assertNull(getRequiredLiteral(".*"));
+    Assert.assertNull(getRequiredLiteral("cpu|mem"));
+    Assert.assertNull(getRequiredLiteral("(Sync|Append)Time"));
+    Assert.assertNull(getRequiredLiteral("(?i)cpu"));
+    Assert.assertNull(getRequiredLiteral("\\Qa.b\\E"));
+  }
+
+  @Test
+  public void testMatchesLikeRegexLoop() throws Exception {
+    List<Pattern> patterns = new ArrayList<>();
+    for (String regex : Arrays.asList("dfs.FSNamesystem.*", "jvm.JvmMetrics*", "^rpc\\.",
+        "Time_(max|min)$", "cpu", "[0-9]+_percentile", "(a)\\1b", ".*Bytes.*", "ipc\\.\\d+",
+        "(cpu|proc)_run")) {
+      patterns.add(Pattern.compile(regex));
+    }
+    TimelineMetricsWhitelistMatcher matcher = new TimelineMetricsWhitelistMatcher(
+      Collections.singletonList("mem_free"), patterns, 0);
+
+    List<String> names = Arrays.asList("mem_free", "mem_free_2", "dfs.FSNamesystem.TotalFiles",
+      "dfs.FSNamesystem", "jvm.JvmMetric", "jvm.JvmMetrics.GcCount", "rpc.rpc.Calls",
+      "a.rpc.Calls", "regionserver.WAL.SyncTime_max", "regionserver.WAL.SyncTime_mean",
+      "proc_cpu", "Delete_99_percentile", "Delete_percentile", "aab", "abb", "BytesWritten",
+      "ipc.8020.QueueTime", "ipc.client", "proc_run", "", "FSNamesystem");
+    for (String name : names) {
+      boolean expected = name.equals("mem_free");
+      for (Pattern pattern : patterns) {
+        expected |= pattern.matcher(name).find();
+      }
+      Assert.assertEquals(name, expected, matcher.matches(name));
+    }
+  }
+
+  @Test
+  public void testDecisionCache() throws Exception {
+    TimelineMetricsWhitelistMatcher matcher = new TimelineMetricsWhitelistMatcher(
+      Collections.<String>emptyList(), Collections.singletonList(Pattern.compile("^cpu_")), 10);
+    Assert.assertFalse(matcher.isEmpty());
+    Assert.assertTrue(matcher.matches("cpu_user"));
+    Assert.assertTrue(matcher.matches("cpu_user"));
+    Assert.assertFalse(matcher.matches("mem_free"));
+
+    // Literals added at runtime override cached rejections
+    matcher.addLiteral("mem_free");
+    Assert.assertTrue(matcher.matches("mem_free"));
+    Assert.assertEquals(1, matcher.getLiteralCount());
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.loadsimulator.LoadRunner;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.loadsimulator.net.MetricsSender;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricsWriteQueueTest.Condition;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricsWriteQueueTest.waitFor;
+
+/**
+ * Drives the write queue with the load simulator: a few hundred simulated
+ * hosts post through an in process sender while the store stalls for a
+ * while. Checks that posting never blocks for long and that every metric
+ * is committed once the store recovers.
+ */
+public class TimelineMetricsWriteQueueLoadTest {
+
+  private static final int SIMULATED_HOSTS = 200;
+  private static final int ROUNDS = 6;
+  private static final long STALL_MILLIS = 3000;
+
+  @Rule
+  public TemporaryFolder spillFolder = new TemporaryFolder();
+
+  @Test
+  public void testIngestDuringStoreStall() throws Exception {
+    final AtomicLong committedMetrics = new AtomicLong();
+    final long stallUntil = System.currentTimeMillis() + STALL_MILLIS;
+
+    final TimelineMetricsWriteQueue writeQueue = new TimelineMetricsWriteQueue(
+      new TimelineMetricsWriteQueue.BatchCommitter() {
+        @Override
+        public void commitBatch(List<TimelineMetric> metrics) throws SQLException {
+          try {
+            // Round trip to the region servers
+            Thread.sleep(5);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          if (System.currentTimeMillis() < stallUntil) {
+            throw new SQLException("Region servers not responding");
+          }
+          committedMetrics.addAndGet(metrics.size());
+        }
+      }, 4, 2000, 500, 100,
+      new TimelineMetricsSpillStore(spillFolder.getRoot(), Long.MAX_VALUE));
+    writeQueue.start();
+
+    final ObjectMapper mapper = new ObjectMapper();
+    mapper.setAnnotationIntrospector(new JaxbAnnotationIntrospector());
+    final AtomicLong postedMetrics = new AtomicLong();
+    final AtomicLong maxPostMillis = new AtomicLong();
+
+    // Stands in for TimelineWebServices.postMetrics
+    MetricsSender sender = new MetricsSender() {
+      @Override
+      public String pushMetrics(String payload) {
+        try {
+          TimelineMetrics metrics = mapper.readValue(payload, TimelineMetrics.class);
+          long start = System.currentTimeMillis();
+          writeQueue.put(metrics);
+          long elapsed = System.currentTimeMillis() - start;
+          synchronized (maxPostMillis) {
+            maxPostMillis.set(Math.max(maxPostMillis.get(), elapsed));
+          }
+          postedMetrics.addAndGet(metrics.getMetrics().size());
+          return "OK";
+        } catch (IOException e) {
+          return "ERROR " + e.getMessage();
+        }
+      }
+    };
+
+    LoadRunner runner = new LoadRunner("host", SIMULATED_HOSTS, "collector", 0,
+      1000, 10000, true, sender);
+    try {
+      for (int i = 0; i < ROUNDS; i++) {
+        runner.runOnce();
+      }
+    } finally {
+      runner.shutdown();
+    }
+
+    Assert.assertTrue(postedMetrics.get() > 0);
+    waitFor(new Condition() {
+      @Override
+      public boolean isTrue() {
+        return committedMetrics.get() == postedMetrics.get()
+          && writeQueue.getQueueDepth() == 0 && writeQueue.getSpillBytes() == 0;
+      }
+    });
+    writeQueue.stop();
+
+    Assert.assertEquals(postedMetrics.get(), committedMetrics.get());
+    Assert.assertEquals(0, writeQueue.getMetricsDropped());
+    Assert.assertTrue("Spill path was not exercised", writeQueue.getMetricsSpilled() > 0);
+    Assert.assertTrue("Post blocked for " + maxPostMillis.get() + " ms",
+      maxPostMillis.get() < 1000);
+  }
+}
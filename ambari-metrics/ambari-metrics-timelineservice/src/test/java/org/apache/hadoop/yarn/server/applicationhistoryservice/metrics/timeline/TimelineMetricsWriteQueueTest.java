@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimelineMetricsWriteQueueTest {
+
+  @Rule
+  public TemporaryFolder spillFolder = new TemporaryFolder();
+
+  private TimelineMetricsWriteQueue writeQueue;
+
+  @After
+  public void tearDown() {
+    if (writeQueue != null) {
+      writeQueue.stop();
+    }
+  }
+
+  @Test
+  public void testMetricsAreCommittedInBatches() throws Exception {
+    final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    final CountDownLatch committed = new CountDownLatch(10);
+    writeQueue = new TimelineMetricsWriteQueue(new TimelineMetricsWriteQueue.BatchCommitter() {
+      @Override
+      public void commitBatch(List<TimelineMetric> metrics) {
+        batchSizes.add(metrics.size());
+        for (int i = 0; i < metrics.size(); i++) {
+          committed.countDown();
+        }
+      }
+    }, 1, 100, 4, 50, newSpillStore());
+
+    writeQueue.start();
+    writeQueue.put(createMetrics("host1", 10));
+
+    Assert.assertTrue(committed.await(10, TimeUnit.SECONDS));
+    for (int size : batchSizes) {
+      Assert.assertTrue(size <= 4);
+    }
+    Assert.assertEquals(10, writeQueue.getMetricsEnqueued());
+    waitFor(new Condition() {
+      @Override
+      public boolean isTrue() {
+        return writeQueue.getMetricsCommitted() == 10;
+      }
+    });
+  }
+
+  @Test
+  public void testSameSeriesAlwaysUsesSameShard() throws Exception {
+    writeQueue = new TimelineMetricsWriteQueue(noopCommitter(), 8, 10, 10, 50, newSpillStore());
+    TimelineMetric metric = createMetric("host1", "cpu_user");
+    int shard = writeQueue.shardFor(metric);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(shard, writeQueue.shardFor(createMetric("host1", "cpu_user")));
+    }
+  }
+
+  @Test
+  public void testFullQueueSpillsWithoutBlocking() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    writeQueue = new TimelineMetricsWriteQueue(new TimelineMetricsWriteQueue.BatchCommitter() {
+      @Override
+      public void commitBatch(List<TimelineMetric> metrics) {
+        try {
+          // Simulate a stalled HBase commit
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, 1, 5, 1, 50, newSpillStore());
+    writeQueue.start();
+
+    long start = System.currentTimeMillis();
+    writeQueue.put(createMetrics("host1", 50));
+    Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+    Assert.assertTrue(writeQueue.getMetricsSpilled() > 0);
+    Assert.assertEquals(50, writeQueue.getMetricsEnqueued() + writeQueue.getMetricsSpilled());
+    Assert.assertTrue(writeQueue.getSpillBytes() > 0);
+    release.countDown();
+  }
+
+  @Test
+  public void testFailedCommitIsSpilledAndReplayed() throws Exception {
+    final List<TimelineMetric> stored = new CopyOnWriteArrayList<>();
+    final int[] failures = {2};
+    writeQueue = new TimelineMetricsWriteQueue(new TimelineMetricsWriteQueue.BatchCommitter() {
+      @Override
+      public synchronized void commitBatch(List<TimelineMetric> metrics) throws SQLException {
+        if (failures[0]-- > 0) {
+          throw new SQLException("HBase unavailable");
+        }
+        stored.addAll(metrics);
+      }
+    }, 2, 100, 100, 50, newSpillStore());
+    writeQueue.start();
+    writeQueue.put(createMetrics("host1", 20));
+
+    waitFor(new Condition() {
+      @Override
+      public boolean isTrue() {
+        return stored.size() == 20 && writeQueue.getSpillBytes() == 0;
+      }
+    });
+    Assert.assertEquals(2, writeQueue.getCommitFailures());
+    Assert.assertEquals(writeQueue.getMetricsSpilled(), writeQueue.getMetricsReplayed());
+    Assert.assertEquals(0, writeQueue.getMetricsDropped());
+  }
+
+  @Test
+  public void testSpilledMetricsSurviveRestart() throws Exception {
+    TimelineMetricsSpillStore spillStore = newSpillStore();
+    writeQueue = new TimelineMetricsWriteQueue(noopCommitter(), 1, 10, 10, 50, spillStore);
+    // Not started, everything goes to disk
+    writeQueue.put(createMetrics("host1", 5));
+    Assert.assertEquals(5, writeQueue.getMetricsSpilled());
+
+    final List<TimelineMetric> stored = new CopyOnWriteArrayList<>();
+    writeQueue = new TimelineMetricsWriteQueue(new TimelineMetricsWriteQueue.BatchCommitter() {
+      @Override
+      public void commitBatch(List<TimelineMetric> metrics) {
+        stored.addAll(metrics);
+      }
+    }, 1, 10, 10, 50, new TimelineMetricsSpillStore(spillFolder.getRoot(), Long.MAX_VALUE));
+    writeQueue.start();
+
+    waitFor(new Condition() {
+      @Override
+      public boolean isTrue() {
+        return stored.size() == 5;
+      }
+    });
+    Assert.assertEquals("host1", stored.get(0).getHostName());
+    Assert.assertEquals(1, stored.get(0).getMetricValues().size());
+  }
+
+  @Test
+  public void testMetricsDroppedWhenSpillDirectoryIsFull() throws Exception {
+    writeQueue = new TimelineMetricsWriteQueue(noopCommitter(), 1, 10, 10, 50,
+      new TimelineMetricsSpillStore(spillFolder.getRoot(), 1));
+    writeQueue.put(createMetrics("host1", 3));
+    writeQueue.put(createMetrics("host1", 3));
+
+    Assert.assertEquals(3, writeQueue.getMetricsSpilled());
+    Assert.assertEquals(3, writeQueue.getMetricsDropped());
+  }
+
+  private TimelineMetricsSpillStore newSpillStore() throws IOException {
+    return new TimelineMetricsSpillStore(spillFolder.getRoot(), Long.MAX_VALUE);
+  }
+
+  private static TimelineMetricsWriteQueue.BatchCommitter noopCommitter() {
+    return new TimelineMetricsWriteQueue.BatchCommitter() {
+      @Override
+      public void commitBatch(List<TimelineMetric> metrics) {
+      }
+    };
+  }
+
+  private static TimelineMetrics createMetrics(String host, int count) {
+    TimelineMetrics metrics = new TimelineMetrics();
+    List<TimelineMetric> metricList = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      metricList.add(createMetric(host, "metric" + i));
+    }
+    metrics.setMetrics(metricList);
+    return metrics;
+  }
+
+  private static TimelineMetric createMetric(String host, String metricName) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(metricName);
+    metric.setHostName(host);
+    metric.setAppId("HOST");
+    metric.setStartTime(1000L);
+    metric.getMetricValues().put(1000L, 1.0);
+    return metric;
+  }
+
+  interface Condition {
+    boolean isTrue();
+  }
+
+  static void waitFor(Condition condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (!condition.isTrue()) {
+      if (System.currentTimeMillis() > deadline) {
+        Assert.fail("Timed out waiting for the write queue");
+      }
+      Thread.sleep(50);
+    }
+  }
+}
@@ -64,7 +64,6 @@ import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.ti
 import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.NATIVE_TIME_RANGE_DELTA;
 
 public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
-  private final TimelineMetricReadHelper metricReader = new TimelineMetricReadHelper(false);
 
   private Configuration getConfigurationForTest(boolean useGroupByAggregators) {
     Configuration configuration = new Configuration();
@@ -78,7 +77,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator agg =
       TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(hdb,
         getConfigurationForTest(false), new TimelineMetricMetadataManager(hdb, new Configuration()), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     long startTime = System.currentTimeMillis();
     long ctime = startTime;
@@ -109,7 +108,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
 
     int recordCount = 0;
     while (rs.next()) {
-      TimelineClusterMetric currentMetric = metricReader.fromResultSet(rs);
+      TimelineClusterMetric currentMetric = readHelper.fromResultSet(rs);
       MetricClusterAggregate currentHostAggregate =
         readHelper.getMetricClusterAggregateFromResultSet(rs);
 
@@ -131,7 +130,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator agg =
       TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(hdb,
         getConfigurationForTest(false), new TimelineMetricMetadataManager(hdb, new Configuration()), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     long startTime = System.currentTimeMillis();
     long ctime = startTime;
@@ -184,7 +183,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
 
     int recordCount = 0;
     while (rs.next()) {
-      TimelineClusterMetric currentMetric = metricReader.fromResultSet(rs);
+      TimelineClusterMetric currentMetric = readHelper.fromResultSet(rs);
       MetricClusterAggregate currentHostAggregate =
         readHelper.getMetricClusterAggregateFromResultSet(rs);
 
@@ -207,7 +206,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator agg =
       TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(hdb,
         getConfigurationForTest(false), new TimelineMetricMetadataManager(hdb, new Configuration()), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     // here we put some metrics tha will be aggregated
     long startTime = System.currentTimeMillis();
@@ -244,7 +243,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
 
     int recordCount = 0;
     while (rs.next()) {
-      TimelineClusterMetric currentMetric = metricReader.fromResultSet(rs);
+      TimelineClusterMetric currentMetric = readHelper.fromResultSet(rs);
       MetricClusterAggregate currentHostAggregate =
         readHelper.getMetricClusterAggregateFromResultSet(rs);
 
@@ -491,7 +490,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator agg =
       TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(hdb,
         conf, new TimelineMetricMetadataManager(hdb, new Configuration()), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     long startTime = System.currentTimeMillis();
     long ctime = startTime;
@@ -525,7 +524,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineClusterMetric currentMetric = null;
     MetricClusterAggregate currentHostAggregate = null;
     while (rs.next()) {
-      currentMetric = metricReader.fromResultSet(rs);
+      currentMetric = readHelper.fromResultSet(rs);
       currentHostAggregate = readHelper.getMetricClusterAggregateFromResultSet(rs);
       recordCount++;
     }
@@ -543,7 +542,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator agg =
       TimelineMetricAggregatorFactory.createTimelineClusterAggregatorSecond(hdb,
         getConfigurationForTest(false), new TimelineMetricMetadataManager(hdb, new Configuration()), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     // Sample data
     TimelineMetric metric1 = new TimelineMetric();
@@ -599,7 +598,7 @@ public class ITClusterAggregator extends AbstractMiniHBaseClusterTest {
 
     int recordCount = 0;
     while (rs.next()) {
-      TimelineClusterMetric currentMetric = metricReader.fromResultSet(rs);
+      TimelineClusterMetric currentMetric = readHelper.fromResultSet(rs);
       MetricClusterAggregate currentHostAggregate = readHelper.getMetricClusterAggregateFromResultSet(rs);
 
       if ("yarn.ClusterMetrics.NumActiveNMs".equals(currentMetric.getMetricName())) {
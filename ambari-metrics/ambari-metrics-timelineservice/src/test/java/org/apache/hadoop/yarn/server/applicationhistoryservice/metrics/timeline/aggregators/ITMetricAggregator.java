@@ -86,7 +86,7 @@ public class ITMetricAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator aggregatorMinute =
       TimelineMetricAggregatorFactory.createTimelineMetricAggregatorMinute(hdb,
         getConfigurationForTest(false), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     long startTime = System.currentTimeMillis();
     long ctime = startTime;
@@ -147,7 +147,7 @@ public class ITMetricAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator aggregator =
       TimelineMetricAggregatorFactory.createTimelineMetricAggregatorHourly(hdb,
         getConfigurationForTest(false), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
     long startTime = System.currentTimeMillis();
 
     MetricHostAggregate expectedAggregate =
@@ -210,7 +210,7 @@ public class ITMetricAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator aggregator =
       TimelineMetricAggregatorFactory.createTimelineMetricAggregatorDaily(hdb,
         getConfigurationForTest(false), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
     long startTime = System.currentTimeMillis();
 
     MetricHostAggregate expectedAggregate =
@@ -272,7 +272,7 @@ public class ITMetricAggregator extends AbstractMiniHBaseClusterTest {
     TimelineMetricAggregator aggregatorMinute =
       TimelineMetricAggregatorFactory.createTimelineMetricAggregatorMinute(hdb,
         getConfigurationForTest(true), null);
-    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(false);
+    TimelineMetricReadHelper readHelper = new TimelineMetricReadHelper(hdb.getValuesCodec(), false);
 
     long startTime = System.currentTimeMillis();
     long ctime = startTime;
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.PRECISION_TABLE_SPLIT_POINTS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRICS_AGGREGATOR_PARTITIONS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME.METRIC_RECORD_MINUTE;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_AGGREGATE_MINUTE_TABLE_NAME;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.query.PhoenixTransactSQL.METRICS_RECORD_TABLE_NAME;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.sink.timeline.MetricHostAggregate;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricNameRangeTest {
+
+  @Test
+  public void testSplit() {
+    List<String> names = Arrays.asList("cpu_user", "disk_free", "mem_free", "proc_run");
+
+    List<MetricNameRange> ranges = MetricNameRange.split(names, 3);
+    Assert.assertEquals(3, ranges.size());
+    Assert.assertNull(ranges.get(0).getStart());
+    Assert.assertEquals("disk_free", ranges.get(0).getEnd());
+    Assert.assertEquals("disk_free", ranges.get(1).getStart());
+    Assert.assertEquals("mem_free", ranges.get(1).getEnd());
+    Assert.assertEquals("mem_free", ranges.get(2).getStart());
+    Assert.assertNull(ranges.get(2).getEnd());
+
+    // Every name falls into exactly one range
+    for (String name : Arrays.asList("a", "cpu_user", "disk_free", "mem_total", "zzz")) {
+      int matches = 0;
+      for (MetricNameRange range : ranges) {
+        if (range.contains(name)) {
+          matches++;
+        }
+      }
+      Assert.assertEquals(name, 1, matches);
+    }
+
+    // More ranges than candidates
+    Assert.assertEquals(2, MetricNameRange.split(Collections.singletonList("m"), 8).size());
+    Assert.assertEquals(1, MetricNameRange.split(Collections.<String>emptyList(), 8).size());
+  }
+
+  @Test
+  public void testSqlClause() {
+    Assert.assertEquals("", new MetricNameRange(null, null).getSqlClause());
+    Assert.assertEquals("METRIC_NAME >= 'a' AND METRIC_NAME < 'b'",
+      new MetricNameRange("a", "b").getSqlClause());
+    Assert.assertEquals("METRIC_NAME < 'it''s'", new MetricNameRange(null, "it's").getSqlClause());
+  }
+
+  @Test
+  public void testPartitionedHostAggregation() throws Exception {
+    Configuration metricsConf = new Configuration();
+    metricsConf.setInt(TIMELINE_METRICS_AGGREGATOR_PARTITIONS, 3);
+    metricsConf.set(PRECISION_TABLE_SPLIT_POINTS, "cpu_user,disk_free,mem_free,proc_run");
+
+    Capture<String> statements = new Capture<String>(CaptureType.ALL);
+    ResultSet rs = createNiceMock(ResultSet.class);
+    PreparedStatement stmt = createNiceMock(PreparedStatement.class);
+    expect(stmt.executeQuery()).andReturn(rs).anyTimes();
+    Connection conn = createNiceMock(Connection.class);
+    expect(conn.prepareStatement(capture(statements))).andReturn(stmt).anyTimes();
+
+    PhoenixHBaseAccessor hBaseAccessor = createNiceMock(PhoenixHBaseAccessor.class);
+    expect(hBaseAccessor.getConnection()).andReturn(conn).anyTimes();
+    hBaseAccessor.saveHostAggregateRecords(
+      (Map<TimelineMetric, MetricHostAggregate>) anyObject(), eq(METRICS_AGGREGATE_MINUTE_TABLE_NAME));
+    expectLastCall().times(3);
+    replay(rs, stmt, conn, hBaseAccessor);
+
+    TimelineMetricHostAggregator aggregator = new TimelineMetricHostAggregator(
+      METRIC_RECORD_MINUTE, hBaseAccessor, metricsConf, null, 300000l, 2, "false",
+      METRICS_RECORD_TABLE_NAME, METRICS_AGGREGATE_MINUTE_TABLE_NAME, 120000l, null);
+
+    long endTime = AbstractTimelineAggregator.getRoundedAggregateTimeMillis(300000l);
+    Assert.assertTrue(aggregator.doWork(endTime - 300000l, endTime));
+    verify(hBaseAccessor);
+
+    List<String> sql = statements.getValues();
+    Assert.assertEquals(3, sql.size());
+    int[] matches = new int[3];
+    for (String statement : sql) {
+      if (statement.contains("METRIC_NAME < 'disk_free'")
+          && !statement.contains("METRIC_NAME >=")) {
+        matches[0]++;
+      }
+      if (statement.contains("METRIC_NAME >= 'disk_free' AND METRIC_NAME < 'mem_free'")) {
+        matches[1]++;
+      }
+      if (statement.contains("METRIC_NAME >= 'mem_free'")
+          && !statement.contains("METRIC_NAME <")) {
+        matches[2]++;
+      }
+    }
+    Assert.assertArrayEquals(new int[] { 1, 1, 1 }, matches);
+  }
+}
@@ -33,6 +33,8 @@ import java.util.TreeMap;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.metrics2.sink.timeline.MetricClusterAggregate;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec.GorillaTimelineMetricValuesCodec;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
 import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataManager;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -53,7 +55,7 @@ public class TimelineMetricClusterAggregatorSecondTest {
     TimelineMetricMetadataManager metricMetadataManagerMock = createNiceMock(TimelineMetricMetadataManager.class);
 
     TimelineMetricClusterAggregatorSecond secondAggregator = new TimelineMetricClusterAggregatorSecond(
-      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, null,
+      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, createAccessor(),
       configuration, null, aggregatorInterval, 2, "false", "", "",
       aggregatorInterval, sliceInterval, null);
 
@@ -129,7 +131,7 @@ public class TimelineMetricClusterAggregatorSecondTest {
     replay(metricMetadataManagerMock);
 
     TimelineMetricClusterAggregatorSecond secondAggregator = new TimelineMetricClusterAggregatorSecond(
-      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, null, configuration, null,
+      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, createAccessor(), configuration, null,
       aggregatorInterval, 2, "false", "", "", aggregatorInterval, sliceInterval, null
     );
 
@@ -333,7 +335,7 @@ public class TimelineMetricClusterAggregatorSecondTest {
     replay(metricMetadataManagerMock);
 
     TimelineMetricClusterAggregatorSecond secondAggregator = new TimelineMetricClusterAggregatorSecond(
-      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, null, configuration, null,
+      METRIC_AGGREGATE_SECOND, metricMetadataManagerMock, createAccessor(), configuration, null,
       aggregatorInterval, 2, "false", "", "", aggregatorInterval,
       sliceInterval, null);
 
@@ -404,4 +406,11 @@ public class TimelineMetricClusterAggregatorSecondTest {
     Assert.assertEquals(2d, a1.getSum());
     Assert.assertEquals(3d, a2.getSum());
   }
+
+  private static PhoenixHBaseAccessor createAccessor() {
+    PhoenixHBaseAccessor hBaseAccessor = createNiceMock(PhoenixHBaseAccessor.class);
+    expect(hBaseAccessor.getValuesCodec()).andReturn(new GorillaTimelineMetricValuesCodec()).anyTimes();
+    replay(hBaseAccessor);
+    return hBaseAccessor;
+  }
 }
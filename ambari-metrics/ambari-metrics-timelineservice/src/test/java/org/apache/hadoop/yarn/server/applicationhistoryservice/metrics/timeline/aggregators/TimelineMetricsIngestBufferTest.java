@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.aggregators;
+
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.SERVER_SIDE_TIMESIFT_ADJUSTMENT;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.TimelineMetricConfiguration.TIMELINE_METRIC_AGGREGATION_SQL_FILTERS;
+import static org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.availability.AggregationTaskRunner.AGGREGATOR_NAME.METRIC_AGGREGATE_SECOND;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.sink.timeline.MetricClusterAggregate;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataKey;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.discovery.TimelineMetricMetadataManager;
+import org.easymock.Capture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimelineMetricsIngestBufferTest {
+
+  private static final long AGGREGATOR_INTERVAL = 120000l;
+  private static final long SLICE_INTERVAL = 30000l;
+  private static final long SECONDS = 1000l;
+
+  @Test
+  public void testSnapshotAndEviction() {
+    TimelineMetricsIngestBuffer buffer = new TimelineMetricsIngestBuffer(Long.MAX_VALUE / 2, 0);
+    long now = System.currentTimeMillis();
+
+    buffer.accept(createMetrics(createMetric("m1", "h1", now - 60 * SECONDS, 1.0)));
+    buffer.accept(createMetrics(createMetric("m1", "h1", now - 30 * SECONDS, 2.0)));
+    buffer.accept(createMetrics(createMetric("m1", "h2", now - 30 * SECONDS, 3.0)));
+    Assert.assertEquals(2, buffer.getSeriesCount());
+
+    // Points of one host are merged into a single series
+    List<TimelineMetric> snapshot = buffer.snapshot(now - 90 * SECONDS);
+    Assert.assertEquals(2, snapshot.size());
+    for (TimelineMetric metric : snapshot) {
+      Assert.assertNull(metric.getInstanceId());
+      if (metric.getHostName().equals("h1")) {
+        Assert.assertEquals(2, metric.getMetricValuesCount());
+      }
+    }
+
+    // Snapshots are copies
+    snapshot.get(0).getMetricValues().clear();
+    Assert.assertEquals(2, buffer.snapshot(now - 90 * SECONDS).size());
+
+    snapshot = buffer.snapshot(now - 45 * SECONDS);
+    Assert.assertEquals(2, snapshot.size());
+    Assert.assertEquals(1, snapshot.get(0).getMetricValuesCount());
+    Assert.assertEquals(1, snapshot.get(1).getMetricValuesCount());
+
+    buffer.evictBefore(now - 30 * SECONDS);
+    Assert.assertEquals(2, buffer.getSeriesCount());
+    buffer.evictBefore(now);
+    Assert.assertEquals(0, buffer.getSeriesCount());
+
+    // Series can be buffered again after eviction
+    buffer.accept(createMetrics(createMetric("m1", "h1", now, 4.0)));
+    Assert.assertEquals(1, buffer.snapshot(now).size());
+  }
+
+  @Test
+  public void testCovers() {
+    long now = System.currentTimeMillis();
+    TimelineMetricsIngestBuffer buffer = new TimelineMetricsIngestBuffer(600 * SECONDS, now);
+
+    Assert.assertTrue(buffer.covers(now));
+    // Received before the buffer was created
+    Assert.assertFalse(buffer.covers(now - SECONDS));
+
+    buffer = new TimelineMetricsIngestBuffer(600 * SECONDS, 0);
+    Assert.assertTrue(buffer.covers(now - 300 * SECONDS));
+    // Older than the retention window
+    Assert.assertFalse(buffer.covers(now - 900 * SECONDS));
+  }
+
+  @Test
+  public void testInMemoryAggregation() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.set(SERVER_SIDE_TIMESIFT_ADJUSTMENT, "0");
+    configuration.set(TIMELINE_METRIC_AGGREGATION_SQL_FILTERS, "skip%,other_metric");
+
+    TimelineMetricMetadataManager metadataManager = createNiceMock(TimelineMetricMetadataManager.class);
+    expect(metadataManager.getMetadataCacheValue((TimelineMetricMetadataKey) anyObject()))
+      .andReturn(null).anyTimes();
+
+    Capture<Map<TimelineClusterMetric, MetricClusterAggregate>> records =
+      new Capture<Map<TimelineClusterMetric, MetricClusterAggregate>>();
+    PhoenixHBaseAccessor hBaseAccessor = createNiceMock(PhoenixHBaseAccessor.class);
+    hBaseAccessor.saveClusterAggregateRecords(capture(records));
+    expectLastCall().once();
+    replay(metadataManager, hBaseAccessor);
+
+    TimelineMetricsIngestBuffer buffer = new TimelineMetricsIngestBuffer(Long.MAX_VALUE / 2, 0);
+    TimelineMetricClusterAggregatorSecond secondAggregator = new TimelineMetricClusterAggregatorSecond(
+      METRIC_AGGREGATE_SECOND, metadataManager, hBaseAccessor, configuration, null,
+      AGGREGATOR_INTERVAL, 2, "false", "", "", AGGREGATOR_INTERVAL, SLICE_INTERVAL, null, buffer);
+
+    long endTime = AbstractTimelineAggregator.getRoundedAggregateTimeMillis(AGGREGATOR_INTERVAL);
+    long startTime = endTime - AGGREGATOR_INTERVAL;
+
+    List<TimelineMetric> metrics = new ArrayList<TimelineMetric>();
+    for (long offset = 15 * SECONDS; offset < AGGREGATOR_INTERVAL; offset += SLICE_INTERVAL) {
+      metrics.add(createMetric("m1", "h1", startTime + offset, 1.0));
+      metrics.add(createMetric("m1", "h2", startTime + offset, 3.0));
+      metrics.add(createMetric("skipped_metric", "h1", startTime + offset, 1.0));
+    }
+    buffer.accept(createMetrics(metrics.toArray(new TimelineMetric[metrics.size()])));
+
+    Assert.assertTrue(secondAggregator.doWork(startTime, endTime));
+    verify(hBaseAccessor);
+
+    Map<TimelineClusterMetric, MetricClusterAggregate> aggregates = records.getValue();
+    TimelineClusterMetric clusterMetric = new TimelineClusterMetric("m1", "a1", null,
+      startTime + SLICE_INTERVAL, null);
+    MetricClusterAggregate aggregate = aggregates.get(clusterMetric);
+    Assert.assertNotNull(aggregate);
+    Assert.assertEquals(4.0, aggregate.getSum(), 0.0);
+    Assert.assertEquals(2, aggregate.getNumberOfHosts());
+
+    int liveHosts = -1;
+    for (Map.Entry<TimelineClusterMetric, MetricClusterAggregate> entry : aggregates.entrySet()) {
+      Assert.assertFalse(entry.getKey().getMetricName().startsWith("skip"));
+      if (entry.getKey().getMetricName().equals("live_hosts")) {
+        liveHosts = entry.getValue().getSum().intValue();
+      }
+    }
+    Assert.assertEquals(2, liveHosts);
+
+    // Only the last slice is kept as context for the next window
+    for (TimelineMetric metric : buffer.snapshot(0)) {
+      Assert.assertEquals(1, metric.getMetricValuesCount());
+    }
+  }
+
+  private static TimelineMetrics createMetrics(TimelineMetric... metricList) {
+    TimelineMetrics metrics = new TimelineMetrics();
+    List<TimelineMetric> list = new ArrayList<TimelineMetric>();
+    for (TimelineMetric metric : metricList) {
+      list.add(metric);
+    }
+    metrics.setMetrics(list);
+    return metrics;
+  }
+
+  private static TimelineMetric createMetric(String metricName, String hostName,
+                                             long timestamp, double value) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(metricName);
+    metric.setHostName(hostName);
+    metric.setAppId("a1");
+    metric.setInstanceId("i1");
+    metric.setStartTime(timestamp);
+    metric.setTimestamp(timestamp);
+    metric.getMetricValues().put(timestamp, value);
+    return metric;
+  }
+}
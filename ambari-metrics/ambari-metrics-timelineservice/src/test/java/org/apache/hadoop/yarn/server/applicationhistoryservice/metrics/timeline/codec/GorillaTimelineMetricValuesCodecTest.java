@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.yarn.util.timeline.TimelineUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class GorillaTimelineMetricValuesCodecTest {
+
+  private final GorillaTimelineMetricValuesCodec codec = new GorillaTimelineMetricValuesCodec();
+
+  @Test
+  public void testRoundTripRegularSeries() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<>();
+    long startTime = 1474000000000L;
+    for (int i = 0; i < 12; i++) {
+      values.put(startTime + i * 10000, 1024.0 + (i % 3));
+    }
+
+    byte[] encoded = codec.encode(TimelineMetricSeries.fromMap(values));
+    Assert.assertEquals(values, codec.decode(encoded).toTreeMap());
+
+    // Regular 10 second series must be far smaller than the JSON form
+    String json = TimelineUtils.dumpTimelineRecordtoJSON(values);
+    Assert.assertTrue(encoded.length * 4 < json.length());
+  }
+
+  @Test
+  public void testRoundTripIrregularSeries() throws Exception {
+    Random random = new Random(42);
+    for (int run = 0; run < 100; run++) {
+      TreeMap<Long, Double> values = new TreeMap<>();
+      long timestamp = 1474000000000L;
+      int points = random.nextInt(60);
+      for (int i = 0; i < points; i++) {
+        timestamp += 1 + random.nextInt(run % 2 == 0 ? 20000 : 10000000);
+        double value = random.nextBoolean() ? random.nextDouble() * 1e9 : -random.nextInt(100);
+        values.put(timestamp, value);
+      }
+      Assert.assertEquals(values, codec.decode(codec.encode(TimelineMetricSeries.fromMap(values))).toTreeMap());
+    }
+  }
+
+  @Test
+  public void testSpecialValues() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<>();
+    values.put(1L, 0.0);
+    values.put(2L, -0.0);
+    values.put(3L, Double.MAX_VALUE);
+    values.put(4L, Double.MIN_VALUE);
+    values.put(Long.MAX_VALUE / 2, Double.NaN);
+
+    Assert.assertEquals(values, codec.decode(codec.encode(TimelineMetricSeries.fromMap(values))).toTreeMap());
+  }
+
+  @Test
+  public void testEmptySeries() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<>();
+    Assert.assertTrue(codec.decode(codec.encode(TimelineMetricSeries.fromMap(values))).isEmpty());
+    Assert.assertTrue(codec.decodeLast(codec.encode(TimelineMetricSeries.fromMap(values))).isEmpty());
+  }
+
+  @Test
+  public void testDecodeLast() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<>();
+    values.put(1000L, 1.0);
+    values.put(2000L, 2.0);
+    values.put(3500L, 3.5);
+
+    TimelineMetricSeries last = codec.decodeLast(codec.encode(TimelineMetricSeries.fromMap(values)));
+    Assert.assertEquals(1, last.size());
+    Assert.assertEquals(3500L, last.getTimestamp(0));
+    Assert.assertEquals(3.5, last.getValue(0), 0.0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedInput() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<>();
+    values.put(1000L, 1.0);
+    values.put(2000L, 2.5);
+    byte[] encoded = codec.encode(TimelineMetricSeries.fromMap(values));
+    byte[] truncated = new byte[encoded.length - 3];
+    System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+    codec.decode(truncated);
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetricSeries;
+import org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.PhoenixHBaseAccessor;
+import org.apache.hadoop.yarn.util.timeline.TimelineUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON representation of METRIC_RECORD values against the
+ * binary codec for the write (encode) and read (decode) path.
+ *
+ * Not run as part of the unit tests, launch with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.codec.TimelineMetricValuesCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TimelineMetricValuesCodecBenchmark {
+
+  /**
+   * Points per series, sinks send 10 second data every minute by default.
+   */
+  @Param({"6", "60", "360"})
+  public int points;
+
+  private final TimelineMetricValuesCodec codec = new GorillaTimelineMetricValuesCodec();
+  private TreeMap<Long, Double> metricValues;
+  private TimelineMetricSeries metricSeries;
+  private String json;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(points);
+    metricValues = new TreeMap<>();
+    long timestamp = System.currentTimeMillis();
+    double value = 1000.0;
+    for (int i = 0; i < points; i++) {
+      // Sinks report with a few millis of jitter and slowly moving values
+      timestamp += 10000 + random.nextInt(5);
+      value += random.nextInt(3) - 1;
+      metricValues.put(timestamp, value);
+    }
+    metricSeries = TimelineMetricSeries.fromMap(metricValues);
+    json = TimelineUtils.dumpTimelineRecordtoJSON(metricValues);
+    encoded = codec.encode(metricSeries);
+  }
+
+  @Benchmark
+  public String encodeJson() throws IOException {
+    return TimelineUtils.dumpTimelineRecordtoJSON(metricValues);
+  }
+
+  @Benchmark
+  public byte[] encodeBinary() throws IOException {
+    return codec.encode(metricSeries);
+  }
+
+  @Benchmark
+  public TreeMap<Long, Double> decodeJson() throws IOException {
+    return PhoenixHBaseAccessor.readMetricFromJSON(json);
+  }
+
+  @Benchmark
+  public TimelineMetricSeries decodeJsonStreaming() throws IOException {
+    return PhoenixHBaseAccessor.readMetricSeriesFromJSON(json);
+  }
+
+  @Benchmark
+  public TimelineMetricSeries decodeBinary() throws IOException {
+    return codec.decode(encoded);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+      .include(TimelineMetricValuesCodecBenchmark.class.getSimpleName())
+      .build();
+    new Runner(options).run();
+  }
+}
@@ -153,6 +153,51 @@ public class TimelineMetricsSeriesAggregateFunctionTest {
     }
   }
 
+  @Test public void testSeriesAggregateByMaxOfNegativeValues() throws Exception {
+    TimelineMetrics testMetrics = getTestObject();
+
+    TreeMap<Long, Double> metricValues = new TreeMap<>();
+    metricValues.put(1L, -3.0);
+    metricValues.put(2L, -2.0);
+    testMetrics.getMetrics().get(0).setMetricValues(metricValues);
+
+    TreeMap<Long, Double> metricValues2 = new TreeMap<>();
+    metricValues2.put(1L, -1.0);
+    metricValues2.put(2L, -4.0);
+    testMetrics.getMetrics().get(1).setMetricValues(metricValues2);
+    testMetrics.getMetrics().remove(2);
+
+    TimelineMetricsSeriesAggregateFunction function = TimelineMetricsSeriesAggregateFunctionFactory
+        .newInstance(SeriesAggregateFunction.MAX);
+    TimelineMetric aggregatedMetric = function.apply(testMetrics);
+
+    TreeMap<Long, Double> maxMetricValues = aggregatedMetric.getMetricValues();
+    assertEquals(2, maxMetricValues.size());
+    assertEquals(-1.0, maxMetricValues.get(1L), DELTA);
+    assertEquals(-2.0, maxMetricValues.get(2L), DELTA);
+  }
+
+  @Test public void testSeriesAggregateWithAggregator() throws Exception {
+    TimelineMetrics testMetrics = getTestObject();
+
+    TimelineMetricsSeriesAggregateFunction function = TimelineMetricsSeriesAggregateFunctionFactory
+        .newInstance(SeriesAggregateFunction.AVG);
+    TimelineMetricsSeriesAggregator aggregator = function.newAggregator();
+    for (TimelineMetric testMetric : testMetrics.getMetrics()) {
+      aggregator.addSeries(testMetric.getMetricName(), testMetric.getHostName(),
+          testMetric.getAppId(), testMetric.getInstanceId());
+      for (Map.Entry<Long, Double> tsAndValue : testMetric.getMetricValues().entrySet()) {
+        aggregator.addValue(tsAndValue.getKey(), tsAndValue.getValue());
+      }
+    }
+
+    TimelineMetric expected = function.apply(getTestObject());
+    TimelineMetric aggregatedMetric = aggregator.getAggregatedMetric();
+    assertEquals(expected.getMetricName(), aggregatedMetric.getMetricName());
+    assertEquals(expected.getHostName(), aggregatedMetric.getHostName());
+    assertEquals(expected.getMetricValues(), aggregatedMetric.getMetricValues());
+  }
+
   private TimelineMetrics getTestObject() {
     TimelineMetric metric = new TimelineMetric();
     metric.setMetricName("byte_in.1");
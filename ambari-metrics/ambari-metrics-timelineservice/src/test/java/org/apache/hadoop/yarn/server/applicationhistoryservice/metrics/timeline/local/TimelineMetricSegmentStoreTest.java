@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.applicationhistoryservice.metrics.timeline.local;
+
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TimelineMetricSegmentStoreTest {
+  private static final long HOUR = 3600000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testScanReturnsPointsOfSeriesInRange() throws Exception {
+    long now = 100 * HOUR;
+    TimelineMetricSegmentStore store = new TimelineMetricSegmentStore(folder.newFolder(),
+      HOUR, 24 * HOUR, 16);
+    for (int i = 0; i < 120; i++) {
+      long timestamp = now - 2 * HOUR + i * 60000;
+      Assert.assertTrue(store.append(i % 3, timestamp, i, now));
+    }
+    // 2 partitions, segments of 16 points
+    Assert.assertEquals(2, store.getPartitionCount());
+    Assert.assertEquals(120, store.getPointCount());
+
+    BitSet seriesIds = new BitSet();
+    seriesIds.set(1);
+    Map<Long, Double> points = scan(store, seriesIds, now - 2 * HOUR, now - HOUR);
+    Assert.assertEquals(20, points.size());
+    for (Map.Entry<Long, Double> point : points.entrySet()) {
+      Assert.assertEquals(1, point.getValue().intValue() % 3);
+    }
+    Assert.assertEquals(Long.valueOf(now - 2 * HOUR + 60000), points.keySet().iterator().next());
+    store.close();
+  }
+
+  @Test
+  public void testPointsSurviveReopen() throws Exception {
+    long now = 100 * HOUR;
+    File directory = folder.newFolder();
+    TimelineMetricSegmentStore store = new TimelineMetricSegmentStore(directory, HOUR, 24 * HOUR, 8);
+    for (int i = 0; i < 20; i++) {
+      store.append(7, now - i * 1000, i, now);
+    }
+    store.close();
+
+    store = new TimelineMetricSegmentStore(directory, HOUR, 24 * HOUR, 8);
+    Assert.assertEquals(20, store.getPointCount());
+    BitSet seriesIds = new BitSet();
+    seriesIds.set(7);
+    Assert.assertEquals(20, scan(store, seriesIds, 0, now).size());
+
+    // Appends continue after the points read back
+    store.append(7, now + 1000, 42, now);
+    Assert.assertEquals(Double.valueOf(42), scan(store, seriesIds, now + 1000, now + 1000).get(now + 1000));
+    store.close();
+  }
+
+  @Test
+  public void testExpiredPartitionsAreDropped() throws Exception {
+    long now = 100 * HOUR;
+    TimelineMetricSegmentStore store = new TimelineMetricSegmentStore(folder.newFolder(),
+      HOUR, 2 * HOUR, 16);
+    Assert.assertFalse(store.append(1, now - 3 * HOUR, 1, now));
+    for (int hour = 0; hour < 2; hour++) {
+      store.append(1, now - hour * HOUR - 1, hour, now);
+    }
+    Assert.assertEquals(2, store.getPartitionCount());
+
+    Assert.assertEquals(0, store.dropExpired(now));
+    Assert.assertEquals(1, store.dropExpired(now + HOUR + HOUR / 2));
+    Assert.assertEquals(1, store.getPartitionCount());
+    Assert.assertEquals(1, store.getPointCount());
+    store.close();
+  }
+
+  @Test
+  public void testScanLatest() throws Exception {
+    long now = 100 * HOUR;
+    TimelineMetricSegmentStore store = new TimelineMetricSegmentStore(folder.newFolder(),
+      HOUR, 24 * HOUR, 16);
+    store.append(1, now - 5 * HOUR, 1, now);
+    store.append(2, now - 1000, 2, now);
+    store.append(2, now - 2000, 3, now);
+    store.append(1, now - 6 * HOUR, 4, now);
+
+    BitSet seriesIds = new BitSet();
+    seriesIds.set(1);
+    seriesIds.set(2);
+    final Map<Integer, Double> latest = new TreeMap<>();
+    final Map<Integer, Long> latestTimes = new TreeMap<>();
+    store.scanLatest(seriesIds, new TimelineMetricSegmentStore.PointVisitor() {
+      @Override
+      public void visit(int seriesId, long timestamp, double value) {
+        Assert.assertFalse(latest.containsKey(seriesId));
+        latest.put(seriesId, value);
+        latestTimes.put(seriesId, timestamp);
+      }
+    });
+    Assert.assertEquals(Double.valueOf(1), latest.get(1));
+    Assert.assertEquals(Double.valueOf(2), latest.get(2));
+    Assert.assertEquals(Long.valueOf(now - 1000), latestTimes.get(2));
+    store.close();
+  }
+
+  @Test
+  public void testSeriesDictionary() throws Exception {
+    File file = new File(folder.newFolder(), "series.dict");
+    TimelineMetricSeriesDictionary dictionary = new TimelineMetricSeriesDictionary(file);
+    Assert.assertEquals(0, dictionary.getOrCreateId(createMetric("cpu_user", "h1")));
+    Assert.assertEquals(1, dictionary.getOrCreateId(createMetric("cpu_user", "h2")));
+    Assert.assertEquals(2, dictionary.getOrCreateId(createMetric("mem_free", "h1")));
+    Assert.assertEquals(0, dictionary.getOrCreateId(createMetric("cpu_user", "h1")));
+    dictionary.close();
+
+    // A record cut short by a crash
+    FileOutputStream out = new FileOutputStream(file, true);
+    out.write(new byte[] {0, 0, 0, 3, 1, 0});
+    out.close();
+
+    dictionary = new TimelineMetricSeriesDictionary(file);
+    Assert.assertEquals(3, dictionary.size());
+    Assert.assertEquals("h2", dictionary.getSeries(1).getHostName());
+    Assert.assertEquals("%", dictionary.getSeries(1).getUnits());
+    Assert.assertEquals(3, dictionary.getOrCreateId(createMetric("mem_used", "h2")));
+
+    BitSet cpu = dictionary.find(Collections.singletonList("cpu%"), null, "HOST", null);
+    Assert.assertEquals(2, cpu.cardinality());
+    BitSet memOnH2 = dictionary.find(Collections.singletonList("mem%"), Arrays.asList("h2"), null, null);
+    Assert.assertEquals(1, memOnH2.cardinality());
+    Assert.assertTrue(memOnH2.get(3));
+    Assert.assertTrue(dictionary.find(Collections.singletonList("cpu_user"), null, "datanode", null).isEmpty());
+    dictionary.close();
+
+    Assert.assertEquals(4, new TimelineMetricSeriesDictionary(file).size());
+  }
+
+  @Test
+  public void testPattern() {
+    Assert.assertTrue(TimelineMetricSeriesDictionary.toPattern("regionserver.%.get_num_ops")
+      .matcher("regionserver.Server.get_num_ops").matches());
+    Assert.assertTrue(TimelineMetricSeriesDictionary.toPattern("%cpu%").matcher("cpu").matches());
+    Assert.assertFalse(TimelineMetricSeriesDictionary.toPattern("cpu.user").matcher("cpuXuser").matches());
+  }
+
+  private static Map<Long, Double> scan(TimelineMetricSegmentStore store, BitSet seriesIds,
+                                        long startTime, long endTime) {
+    final Map<Long, Double> points = new TreeMap<>();
+    store.scan(seriesIds, startTime, endTime, new TimelineMetricSegmentStore.PointVisitor() {
+      @Override
+      public void visit(int seriesId, long timestamp, double value) {
+        points.put(timestamp, value);
+      }
+    });
+    return points;
+  }
+
+  private static TimelineMetric createMetric(String metricName, String hostName) {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName(metricName);
+    metric.setAppId("HOST");
+    metric.setHostName(hostName);
+    metric.setUnits("%");
+    return metric;
+  }
+}
@@ -20,10 +20,16 @@ package org.apache.hadoop.yarn.server.applicationhistoryservice.webapp;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
 import javax.ws.rs.core.MediaType;
 
 import junit.framework.Assert;
 
+import org.apache.hadoop.metrics2.sink.timeline.TimelineMetric;
 import org.apache.hadoop.metrics2.sink.timeline.TimelineMetrics;
 import org.apache.hadoop.yarn.api.records.timeline.TimelineEntities;
 import org.apache.hadoop.yarn.api.records.timeline.TimelineEntity;
@@ -36,6 +42,8 @@ import org.apache.hadoop.yarn.server.applicationhistoryservice.timeline.Timeline
 import org.apache.hadoop.yarn.server.applicationhistoryservice.timeline.TestMemoryTimelineStore;
 import org.apache.hadoop.yarn.webapp.GenericExceptionHandler;
 import org.apache.hadoop.yarn.webapp.YarnJacksonJaxbJsonProvider;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.xc.JaxbAnnotationIntrospector;
 import org.junit.Test;
 
 import com.google.inject.Guice;
@@ -52,6 +60,8 @@ import com.sun.jersey.test.framework.WebAppDescriptor;
 
 public class TestTimelineWebServices extends JerseyTest {
 
+  private static final int MAX_INFLATED_BYTES = 64 * 1024;
+
   private static TimelineStore store;
   private static TimelineMetricStore metricStore;
   private long beforeTime;
@@ -71,6 +81,8 @@ public class TestTimelineWebServices extends JerseyTest {
       }
       bind(TimelineStore.class).toInstance(store);
       bind(TimelineMetricStore.class).toInstance(metricStore);
+      filter("/*").through(GzipRequestFilter.class, Collections.singletonMap(
+          GzipRequestFilter.MAX_INFLATED_BYTES_PARAM, String.valueOf(MAX_INFLATED_BYTES)));
       serve("/*").with(GuiceContainer.class);
     }
 
@@ -388,4 +400,49 @@ public class TestTimelineWebServices extends JerseyTest {
     assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getType());
     verifyMetrics(response.getEntity(TimelineMetrics.class));
   }
+
+  @Test
+  public void testPostGzipMetrics() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<Long, Double>(Collections.singletonMap(1L, 10.0));
+    ClientResponse response = postGzipMetrics(values);
+    assertEquals(200, response.getStatus());
+    TimelinePutResponse putResponse = response.getEntity(TimelinePutResponse.class);
+    Assert.assertNotNull(putResponse);
+    Assert.assertEquals(0, putResponse.getErrors().size());
+  }
+
+  @Test
+  public void testPostGzipMetricsAboveInflatedLimit() throws Exception {
+    TreeMap<Long, Double> values = new TreeMap<Long, Double>();
+    for (long i = 0; i < MAX_INFLATED_BYTES / 10; i++) {
+      values.put(i, 10.0);
+    }
+    ClientResponse response = postGzipMetrics(values);
+    Assert.assertTrue(response.getStatus() != 200);
+  }
+
+  private ClientResponse postGzipMetrics(TreeMap<Long, Double> values) throws Exception {
+    TimelineMetric metric = new TimelineMetric();
+    metric.setMetricName("cpu_user");
+    metric.setHostName("h1");
+    metric.setAppId("HOST");
+    metric.setStartTime(values.firstKey());
+    metric.setMetricValues(values);
+    TimelineMetrics metrics = new TimelineMetrics();
+    metrics.getMetrics().add(metric);
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (GZIPOutputStream os = new GZIPOutputStream(body)) {
+      ObjectMapper mapper = new ObjectMapper();
+      mapper.setAnnotationIntrospector(new JaxbAnnotationIntrospector());
+      mapper.writeValue(os, metrics);
+    }
+
+    WebResource r = resource();
+    return r.path("ws").path("v1").path("timeline").path("metrics")
+        .accept(MediaType.APPLICATION_JSON)
+        .type(MediaType.APPLICATION_JSON)
+        .header(GzipRequestFilter.CONTENT_ENCODING, GzipRequestFilter.GZIP)
+        .post(ClientResponse.class, body.toByteArray());
+  }
 }
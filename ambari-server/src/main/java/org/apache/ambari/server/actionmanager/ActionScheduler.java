@@ -144,6 +144,13 @@ class ActionScheduler implements Runnable {
   @Inject
   private HostRoleCommandDAO hostRoleCommandDAO;
 
+  /**
+   * Used instead of the database to find the stages to work on when the
+   * scheduler is event driven.
+   */
+  @Inject
+  private InProgressCommandIndex commandIndex;
+
   /**
    * The current thread's reference to the {@link EntityManager}.
    */
@@ -186,6 +193,11 @@ class ActionScheduler implements Runnable {
 
   private AtomicBoolean taskStatusLoaded = new AtomicBoolean();
 
+  /**
+   * The time of the last reload of the {@link #commandIndex} from the database.
+   */
+  private long lastCommandIndexReload;
+
   //Cache for clusterHostinfo, key - stageId-requestId
   private Cache<String, Map<String, Set<String>>> clusterHostInfoCache;
   private Cache<String, Map<String, String>> commandParamsStageCache;
@@ -305,6 +317,11 @@ class ActionScheduler implements Runnable {
   }
 
   public void start() {
+    if (isEventDriven()) {
+      // run as soon as a command completes instead of on the next wakeup
+      commandIndex.setChangeListener(this::awake);
+    }
+
     schedulerThread = new Thread(this, "ambari-action-scheduler");
     schedulerThread.start();
 
@@ -353,9 +370,11 @@ class ActionScheduler implements Runnable {
       } catch (Exception ex) {
         LOG.warn("Exception received", ex);
         requestsInProgress.clear();
+        invalidateCommandIndex();
       } catch (Throwable t) {
         LOG.warn("ERROR", t);
         requestsInProgress.clear();
+        invalidateCommandIndex();
       }
     }
   }
@@ -370,10 +389,15 @@ class ActionScheduler implements Runnable {
       // The first thing to do is to abort requests that are cancelled
       processCancelledRequestsList();
 
+      boolean eventDriven = isEventDriven();
+      if (eventDriven) {
+        reloadCommandIndexIfDue();
+      }
+
       // !!! getting the stages in progress could be a very expensive call due
       // to the join being used; there's no need to make it if there are
       // no commands in progress
-      if (db.getCommandsInProgressCount() == 0) {
+      if (eventDriven ? commandIndex.isEmpty() : db.getCommandsInProgressCount() == 0) {
         // Nothing to do
         if (LOG.isDebugEnabled()) {
           LOG.debug("There are no stages currently in progress.");
@@ -384,7 +408,8 @@ class ActionScheduler implements Runnable {
       }
 
       Set<Long> runningRequestIds = new HashSet<>();
-      List<Stage> firstStageInProgressPerRequest = db.getFirstStageInProgressPerRequest();
+      List<Stage> firstStageInProgressPerRequest = eventDriven ?
+          getFirstStageInProgressPerRequestFromIndex() : db.getFirstStageInProgressPerRequest();
       if (LOG.isDebugEnabled()) {
         LOG.debug("Scheduler wakes up");
         LOG.debug("Processing {} in progress stages", firstStageInProgressPerRequest.size());
@@ -409,8 +434,9 @@ class ActionScheduler implements Runnable {
       long iHighestRequestIdInProgress = firstStageInProgressPerRequest.get(
           firstStageInProgressPerRequest.size() - 1).getRequestId();
 
-      List<String> hostsWithPendingTasks = hostRoleCommandDAO.getHostsWithPendingTasks(
-          iLowestRequestIdInProgress, iHighestRequestIdInProgress);
+      // all commands in the index belong to the requests in progress
+      Collection<String> hostsWithPendingTasks = eventDriven ? commandIndex.getHostsWithPendingTasks() :
+          hostRoleCommandDAO.getHostsWithPendingTasks(iLowestRequestIdInProgress, iHighestRequestIdInProgress);
 
       actionQueue.updateListOfHostsWithPendingTask(new HashSet<>(hostsWithPendingTasks));
 
@@ -580,6 +606,72 @@ class ActionScheduler implements Runnable {
     }
   }
 
+  /**
+   * @return {@code true} if the stages to work on are taken from the
+   *         {@link InProgressCommandIndex} instead of the database.
+   */
+  private boolean isEventDriven() {
+    return commandIndex != null && commandIndex.isEnabled();
+  }
+
+  /**
+   * Reloads the {@link #commandIndex} from the database if it is stale or if
+   * {@link Configuration#ACTION_SCHEDULER_RECONCILE_INTERVAL} has passed since
+   * the last reload.
+   */
+  private void reloadCommandIndexIfDue() {
+    long now = System.currentTimeMillis();
+    if (commandIndex.isLoaded() &&
+        now - lastCommandIndexReload < TimeUnit.SECONDS.toMillis(configuration.getActionSchedulerReconcileInterval())) {
+      return;
+    }
+
+    commandIndex.beginReload();
+    boolean reloaded = false;
+    try {
+      commandIndex.finishReload(hostRoleCommandDAO.findTaskKeysByStatus(HostRoleStatus.IN_PROGRESS_STATUSES));
+      lastCommandIndexReload = now;
+      reloaded = true;
+    } finally {
+      if (!reloaded) {
+        commandIndex.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Marks the {@link #commandIndex} as stale, since the failed scheduler
+   * iteration may have rolled back changes it was told about.
+   */
+  private void invalidateCommandIndex() {
+    if (isEventDriven()) {
+      commandIndex.invalidate();
+    }
+  }
+
+  /**
+   * Loads the first stage in progress of each request in the
+   * {@link #commandIndex}, like
+   * {@link ActionDBAccessor#getFirstStageInProgressPerRequest()} does without
+   * the join over all commands.
+   *
+   * @return the stages, ordered by request ID.
+   */
+  private List<Stage> getFirstStageInProgressPerRequestFromIndex() {
+    List<Stage> stages = new ArrayList<>();
+    for (Map.Entry<Long, Long> entry : commandIndex.getFirstStageInProgressPerRequest().entrySet()) {
+      Stage stage = db.getStage(StageUtils.getActionId(entry.getKey(), entry.getValue()));
+      if (stage != null) {
+        stages.add(stage);
+      } else {
+        LOG.warn("Stage {} of request {} has commands in progress but does not exist, reloading the index",
+            entry.getValue(), entry.getKey());
+        commandIndex.invalidate();
+      }
+    }
+    return stages;
+  }
+
   /**
    * publish event to load {@link TaskStatusListener#activeTasksMap} {@link TaskStatusListener#activeStageMap}
    * and {@link TaskStatusListener#activeRequestMap} for all running request once during server startup.
@@ -236,7 +236,7 @@ public class HostRoleCommand {
 
   ExecutionCommandEntity constructExecutionCommandEntity() {
     ExecutionCommandEntity executionCommandEntity = new ExecutionCommandEntity();
-    executionCommandEntity.setCommand(executionCommandWrapper.getJson().getBytes());
+    executionCommandEntity.setCommandJson(executionCommandWrapper.getJson());
     return executionCommandEntity;
   }
 
@@ -419,7 +419,7 @@ public class HostRoleCommand {
         throw new RuntimeException("Invalid DB state, broken one-to-one relation for taskId=" + taskId);
       }
 
-      executionCommandWrapper = ecwFactory.createFromJson(new String(commandEntity.getCommand()));
+      executionCommandWrapper = ecwFactory.createFromJson(commandEntity.getCommandJson());
     }
 
     return executionCommandWrapper;
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.actionmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.events.TaskCreateEvent;
+import org.apache.ambari.server.events.TaskUpdateEvent;
+import org.apache.ambari.server.events.publishers.TaskEventPublisher;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * The {@link InProgressCommandIndex} keeps the request, stage and host of all
+ * commands in one of the {@link HostRoleStatus#IN_PROGRESS_STATUSES} in
+ * memory, so that the {@link ActionScheduler} does not have to query the
+ * database to find the stages to work on.
+ * <p/>
+ * The index is updated from the {@link TaskCreateEvent}s and
+ * {@link TaskUpdateEvent}s of the commands and is periodically reloaded from
+ * the database by the scheduler, to pick up changes made without events.
+ * It is only maintained if
+ * {@link Configuration#ACTION_SCHEDULER_EVENT_DRIVEN} is enabled.
+ */
+@Singleton
+class InProgressCommandIndex {
+
+  /**
+   * The commands in progress by task ID.
+   */
+  private final Map<Long, IndexedCommand> commands = new HashMap<>();
+
+  /**
+   * Whether the index is maintained.
+   */
+  private final boolean enabled;
+
+  /**
+   * The commands received while a reload is running, {@code null} if none is.
+   */
+  private List<IndexedCommand> reloadJournal;
+
+  /**
+   * Whether the index has been loaded from the database.
+   */
+  private boolean loaded;
+
+  /**
+   * Called when commands enter or leave the index, or go back to
+   * {@link HostRoleStatus#PENDING}.
+   */
+  private volatile Runnable changeListener;
+
+  /**
+   * Constructor.
+   *
+   * @param configuration
+   *          used to determine whether the index is maintained.
+   * @param taskEventPublisher
+   *          the publisher of the command events.
+   */
+  @Inject
+  InProgressCommandIndex(Configuration configuration, TaskEventPublisher taskEventPublisher) {
+    enabled = configuration.isActionSchedulerEventDriven();
+    if (enabled) {
+      taskEventPublisher.register(this);
+    }
+  }
+
+  /**
+   * @return {@code true} if the index is maintained.
+   */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sets the callback to run when the commands in progress change in a way
+   * the scheduler should act on.
+   *
+   * @param changeListener
+   *          the callback, {@code null} for none.
+   */
+  void setChangeListener(Runnable changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  @Subscribe
+  public void onTaskCreateEvent(TaskCreateEvent event) {
+    update(event.getHostRoleCommands());
+  }
+
+  @Subscribe
+  public void onTaskUpdateEvent(TaskUpdateEvent event) {
+    update(event.getHostRoleCommands());
+  }
+
+  /**
+   * Updates the index with the current status of the given commands.
+   *
+   * @param hostRoleCommands
+   *          the created or updated commands.
+   */
+  void update(List<HostRoleCommand> hostRoleCommands) {
+    boolean changed = false;
+    synchronized (this) {
+      for (HostRoleCommand hostRoleCommand : hostRoleCommands) {
+        IndexedCommand command = new IndexedCommand(hostRoleCommand.getTaskId(),
+            hostRoleCommand.getRequestId(), hostRoleCommand.getStageId(),
+            hostRoleCommand.getHostName(), hostRoleCommand.getStatus());
+
+        changed |= apply(command);
+        if (reloadJournal != null) {
+          reloadJournal.add(command);
+        }
+      }
+    }
+
+    Runnable listener = changeListener;
+    if (changed && listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Starts a reload of the index. Updates received until
+   * {@link #finishReload(List)} are applied again on top of the reloaded
+   * commands, since they may not have been visible to the reload yet.
+   */
+  synchronized void beginReload() {
+    reloadJournal = new ArrayList<>();
+  }
+
+  /**
+   * Replaces the commands of the index with the given ones.
+   *
+   * @param taskKeys
+   *          the commands in progress, as returned by
+   *          {@link org.apache.ambari.server.orm.dao.HostRoleCommandDAO#findTaskKeysByStatus}
+   */
+  synchronized void finishReload(List<Object[]> taskKeys) {
+    commands.clear();
+    for (Object[] taskKey : taskKeys) {
+      apply(new IndexedCommand((Long) taskKey[0], (Long) taskKey[1], (Long) taskKey[2],
+          (String) taskKey[3], (HostRoleStatus) taskKey[4]));
+    }
+
+    if (reloadJournal != null) {
+      for (IndexedCommand command : reloadJournal) {
+        apply(command);
+      }
+    }
+
+    reloadJournal = null;
+    loaded = true;
+  }
+
+  /**
+   * Marks the index as stale so that it is reloaded before it is used again,
+   * for example after the scheduler failed to complete a transaction.
+   */
+  synchronized void invalidate() {
+    reloadJournal = null;
+    loaded = false;
+  }
+
+  /**
+   * @return {@code true} if the index has been loaded and not invalidated
+   *         since.
+   */
+  synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * @return {@code true} if there are no commands in progress.
+   */
+  synchronized boolean isEmpty() {
+    return commands.isEmpty();
+  }
+
+  /**
+   * Gets the lowest stage ID with commands in progress of each request, like
+   * {@link ActionDBAccessor#getFirstStageInProgressPerRequest()}.
+   *
+   * @return the stage IDs by request ID, ordered by request ID.
+   */
+  synchronized SortedMap<Long, Long> getFirstStageInProgressPerRequest() {
+    SortedMap<Long, Long> stages = new TreeMap<>();
+    for (IndexedCommand command : commands.values()) {
+      Long stageId = stages.get(command.requestId);
+      if (stageId == null || command.stageId < stageId) {
+        stages.put(command.requestId, command.stageId);
+      }
+    }
+    return stages;
+  }
+
+  /**
+   * @return the names of the hosts with commands in progress.
+   */
+  synchronized Set<String> getHostsWithPendingTasks() {
+    Set<String> hosts = new HashSet<>();
+    for (IndexedCommand command : commands.values()) {
+      if (command.hostName != null) {
+        hosts.add(command.hostName);
+      }
+    }
+    return hosts;
+  }
+
+  /**
+   * Applies the status of a command.
+   *
+   * @return {@code true} if the scheduler should be notified.
+   */
+  private boolean apply(IndexedCommand command) {
+    if (command.status != null && command.status.isInProgress()) {
+      IndexedCommand previous = commands.put(command.taskId, command);
+      return previous == null ||
+          (previous.status != command.status && command.status == HostRoleStatus.PENDING);
+    }
+    return commands.remove(command.taskId) != null;
+  }
+
+  /**
+   * The indexed fields of a command.
+   */
+  private static final class IndexedCommand {
+    private final long taskId;
+    private final long requestId;
+    private final long stageId;
+    private final String hostName;
+    private final HostRoleStatus status;
+
+    private IndexedCommand(long taskId, long requestId, long stageId, String hostName,
+                           HostRoleStatus status) {
+      this.taskId = taskId;
+      this.requestId = requestId;
+      this.stageId = stageId;
+      this.hostName = hostName;
+      this.status = status;
+    }
+  }
+}
@@ -38,6 +38,11 @@ import com.google.gson.annotations.SerializedName;
  * configuration data when they run. Failure to do this will cause the alerts to
  * be scheduled and run, but the result will always be a failure since the
  * parameterized properties they depend on will not be available.
+ * <p/>
+ * A command is either complete, replacing all of the definitions that the
+ * agent runs for the cluster, or a delta created with a base hash. A delta only
+ * carries the definitions which were added or changed since the base along with
+ * the names of the definitions that were removed.
  */
 public class AlertDefinitionCommand extends AgentCommand {
   @SerializedName("clusterName")
@@ -58,6 +63,12 @@ public class AlertDefinitionCommand extends AgentCommand {
   @SerializedName("configurations")
   private Map<String, Map<String, String>> m_configurations;
 
+  @SerializedName("baseHash")
+  private final String m_baseHash;
+
+  @SerializedName("removedDefinitions")
+  private final List<String> m_removedDefinitions;
+
   /**
    * Constructor.
    *
@@ -72,6 +83,32 @@ public class AlertDefinitionCommand extends AgentCommand {
    */
   public AlertDefinitionCommand(String clusterName, String hostName, String publicHostName,
       String hash, List<AlertDefinition> definitions) {
+    this(clusterName, hostName, publicHostName, hash, definitions, null, null);
+  }
+
+  /**
+   * Constructor for a command which is relative to the definitions the agent
+   * already has.
+   *
+   * @param clusterName
+   *          the name of the cluster this response is for
+   * @param hostName
+   * @param publicHostName
+   * @param hash
+   *          the hash of the definitions once the command is applied
+   * @param definitions
+   *          the added or changed definitions
+   * @param baseHash
+   *          the hash of the definitions the command is relative to, or
+   *          {@code null} if the command contains all definitions
+   * @param removedDefinitions
+   *          the names of the removed definitions
+   *
+   * @see AlertDefinitionHash
+   */
+  public AlertDefinitionCommand(String clusterName, String hostName, String publicHostName,
+      String hash, List<AlertDefinition> definitions, String baseHash,
+      List<String> removedDefinitions) {
     super(AgentCommandType.ALERT_DEFINITION_COMMAND);
 
     m_clusterName = clusterName;
@@ -79,6 +116,8 @@ public class AlertDefinitionCommand extends AgentCommand {
     m_publicHostName = publicHostName;
     m_hash = hash;
     m_definitions = definitions;
+    m_baseHash = baseHash;
+    m_removedDefinitions = removedDefinitions;
   }
 
   /**
@@ -107,6 +146,36 @@ public class AlertDefinitionCommand extends AgentCommand {
     return m_definitions;
   }
 
+  /**
+   * Gets the hash of the definitions that this command is relative to.
+   *
+   * @return the base hash, or {@code null} if the command contains all of the
+   *         definitions for the host.
+   */
+  public String getBaseHash() {
+    return m_baseHash;
+  }
+
+  /**
+   * Gets whether this command only contains the differences from the
+   * definitions identified by {@link #getBaseHash()}.
+   *
+   * @return {@code true} for a delta command.
+   */
+  public boolean isDelta() {
+    return null != m_baseHash;
+  }
+
+  /**
+   * Gets the names of the definitions that the agent should no longer run.
+   *
+   * @return the removed definition names, or {@code null} for a complete
+   *         command.
+   */
+  public List<String> getRemovedDefinitions() {
+    return m_removedDefinitions;
+  }
+
   /**
    * Gets the name of the cluster.
    *
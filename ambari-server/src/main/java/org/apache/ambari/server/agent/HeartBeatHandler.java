@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 
 import org.apache.ambari.server.AmbariException;
@@ -38,6 +39,7 @@ import org.apache.ambari.server.HostNotFoundException;
 import org.apache.ambari.server.actionmanager.ActionManager;
 import org.apache.ambari.server.api.services.AmbariMetaInfo;
 import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.metrics.system.impl.ServerMetricsSource;
 import org.apache.ambari.server.serveraction.kerberos.KerberosIdentityDataFileReader;
 import org.apache.ambari.server.serveraction.kerberos.KerberosIdentityDataFileReaderFactory;
 import org.apache.ambari.server.serveraction.kerberos.KerberosServerAction;
@@ -51,7 +53,6 @@ import org.apache.ambari.server.state.HostState;
 import org.apache.ambari.server.state.ServiceComponent;
 import org.apache.ambari.server.state.ServiceComponentHost;
 import org.apache.ambari.server.state.StackId;
-import org.apache.ambari.server.state.alert.AlertDefinition;
 import org.apache.ambari.server.state.alert.AlertDefinitionHash;
 import org.apache.ambari.server.state.fsm.InvalidStateTransitionException;
 import org.apache.ambari.server.state.host.HostHealthyHeartbeatEvent;
@@ -66,6 +67,7 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Timer;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
@@ -89,6 +91,18 @@ public class HeartBeatHandler {
   private HeartbeatMonitor heartbeatMonitor;
   private HeartbeatProcessor heartbeatProcessor;
 
+  /**
+   * Processes the heartbeats after the response was sent, or {@code null} if
+   * {@link Configuration#isHeartbeatAsyncEnabled()} is not set.
+   */
+  private HeartbeatPipeline heartbeatPipeline;
+
+  /**
+   * The time from receiving a heartbeat until its response is ready.
+   */
+  private final Timer responseLatency = ServerMetricsSource.getRegistry().timer(
+      "heartbeat.response.latency");
+
   @Inject
   private Configuration config;
 
@@ -114,6 +128,12 @@ public class HeartBeatHandler {
 
   private Map<String, HeartBeatResponse> hostResponses = new ConcurrentHashMap<>();
 
+  /**
+   * The hosts which failed to process a heartbeat in the pipeline and are asked
+   * to register again with their next heartbeat.
+   */
+  private Set<String> hostsToReregister = ConcurrentHashMap.newKeySet();
+
   @Inject
   public HeartBeatHandler(Clusters fsm, ActionQueue aq, ActionManager am,
                           Injector injector) {
@@ -123,6 +143,11 @@ public class HeartBeatHandler {
     heartbeatMonitor = new HeartbeatMonitor(fsm, aq, am, 60000, injector);
     heartbeatProcessor = new HeartbeatProcessor(fsm, am, heartbeatMonitor, injector); //TODO modify to match pattern
     injector.injectMembers(this);
+
+    if (config.isHeartbeatAsyncEnabled()) {
+      heartbeatPipeline = new HeartbeatPipeline(config.getHeartbeatPipelineThreadPoolSize(),
+          config.getHeartbeatPipelineQueueSize(), config.getHeartbeatPipelineQueueTimeout());
+    }
   }
 
   public void start() {
@@ -130,6 +155,10 @@ public class HeartBeatHandler {
     heartbeatMonitor.start();
   }
 
+  void setHeartbeatPipeline(HeartbeatPipeline heartbeatPipeline) {
+    this.heartbeatPipeline = heartbeatPipeline;
+  }
+
   void setHeartbeatMonitor(HeartbeatMonitor heartbeatMonitor) {
     this.heartbeatMonitor = heartbeatMonitor;
   }
@@ -144,6 +173,20 @@ public class HeartBeatHandler {
 
   public HeartBeatResponse handleHeartBeat(HeartBeat heartbeat)
       throws AmbariException {
+    Timer.Context timer = responseLatency.time();
+    try {
+      if (null != heartbeatPipeline) {
+        return handleHeartBeatAsync(heartbeat);
+      }
+
+      return handleHeartBeatSync(heartbeat);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private HeartBeatResponse handleHeartBeatSync(HeartBeat heartbeat)
+      throws AmbariException {
     long now = System.currentTimeMillis();
     if (heartbeat.getAgentEnv() != null && heartbeat.getAgentEnv().getHostHealth() != null) {
       heartbeat.getAgentEnv().getHostHealth().setServerTimeStampAtReporting(now);
@@ -266,7 +309,168 @@ public class HeartBeatHandler {
     return response;
   }
 
+  /**
+   * Answers the heartbeat with the commands queued for the host and leaves the
+   * host state changes, alerts and reports to the {@link HeartbeatPipeline}.
+   * Host state changes therefore take effect one heartbeat later than with
+   * {@link #handleHeartBeatSync(HeartBeat)}.
+   */
+  private HeartBeatResponse handleHeartBeatAsync(final HeartBeat heartbeat)
+      throws AmbariException {
+    final long now = System.currentTimeMillis();
+    if (heartbeat.getAgentEnv() != null && heartbeat.getAgentEnv().getHostHealth() != null) {
+      heartbeat.getAgentEnv().getHostHealth().setServerTimeStampAtReporting(now);
+    }
+
+    final String hostname = heartbeat.getHostname();
+    Long currentResponseId = hostResponseIds.get(hostname);
+
+    if (currentResponseId == null) {
+      //Server restarted, or unknown host.
+      LOG.error("CurrentResponseId unknown for " + hostname + " - send register command");
+      return createRegisterCommand();
+    }
+
+    LOG.debug("Received heartbeat from host, hostname={}, currentResponseId={}, receivedResponseId={}", hostname, currentResponseId, heartbeat.getResponseId());
+
+    if (heartbeat.getResponseId() == currentResponseId - 1) {
+      HeartBeatResponse heartBeatResponse = hostResponses.get(hostname);
+
+      LOG.warn("Old responseId={} received form host {} - response was lost - returning cached response with responseId={}",
+        heartbeat.getResponseId(),
+        hostname,
+        heartBeatResponse.getResponseId());
+
+      return heartBeatResponse;
+    } else if (heartbeat.getResponseId() != currentResponseId) {
+      LOG.error("Error in responseId sequence - received responseId={} from host {} - sending agent restart command with responseId={}",
+        heartbeat.getResponseId(),
+        hostname,
+        currentResponseId);
+
+      return createRestartCommand(currentResponseId);
+    }
+
+    HeartBeatResponse response = new HeartBeatResponse();
+    response.setResponseId(++currentResponseId);
 
+    final Host hostObject;
+    try {
+      hostObject = clusterFsm.getHost(hostname);
+    } catch (HostNotFoundException e) {
+      LOG.error("Host: {} not found. Agent is still heartbeating.", hostname);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Host associated with the agent heratbeat might have been " +
+          "deleted", e);
+      }
+      // For now return empty response with only response id.
+      return response;
+    }
+
+    if (hostObject.getState().equals(HostState.HEARTBEAT_LOST)) {
+      // After loosing heartbeat agent should reregister
+      LOG.warn("Host {} is in HEARTBEAT_LOST state - sending register command", hostname);
+      return createRegisterCommand();
+    }
+
+    if (hostsToReregister.remove(hostname)) {
+      LOG.warn("Host {} failed to process a previous heartbeat - sending register command", hostname);
+      return createRegisterCommand();
+    }
+
+    // the host is alive even while its lane is backed up, so the heartbeat
+    // monitor must not wait for the queued state changes
+    hostObject.setLastHeartbeatTime(now);
+
+    Set<Cluster> clusters = clusterFsm.getClustersForHost(hostname);
+    if (clusters.size() > 0) {
+      String clusterName = clusters.iterator().next().getClusterName();
+
+      if (recoveryConfigHelper.isConfigStale(clusterName, hostname, heartbeat.getRecoveryTimestamp())) {
+        RecoveryConfig rc = recoveryConfigHelper.getRecoveryConfig(clusterName, hostname);
+        response.setRecoveryConfig(rc);
+
+        if (response.getRecoveryConfig() != null) {
+          LOG.info("Recovery configuration set to {}", response.getRecoveryConfig());
+        }
+      }
+    }
+
+    try {
+      heartbeatPipeline.submit(hostname, new Runnable() {
+        @Override
+        public void run() {
+          processHeartBeat(heartbeat, hostObject, now);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Unable to queue the heartbeat of host {}, it was not answered", hostname, e);
+      throw new AmbariException("Unable to queue the heartbeat of host " + hostname, e);
+    }
+
+    // the response ID only moves on once the heartbeat is queued, so that the
+    // agent resends a heartbeat which could not be queued
+    hostResponseIds.put(hostname, currentResponseId);
+    hostResponses.put(hostname, response);
+
+    // Send commands if node is active
+    if (hostObject.getState().equals(HostState.HEALTHY)) {
+      sendCommands(hostname, response);
+      annotateResponse(hostname, response);
+    }
+
+    return response;
+  }
+
+  /**
+   * Processes the host state changes, recovery report, alerts and reports of a
+   * heartbeat which was already answered. A host which can not take the
+   * heartbeat is asked to register with its next heartbeat.
+   */
+  private void processHeartBeat(HeartBeat heartbeat, Host hostObject, long now) {
+    String hostname = heartbeat.getHostname();
+
+    // If the host is waiting for component status updates, notify it
+    if (heartbeat.componentStatus.size() > 0
+        && hostObject.getState().equals(HostState.WAITING_FOR_HOST_STATUS_UPDATES)) {
+      try {
+        LOG.debug("Got component status updates");
+        hostObject.handleEvent(new HostStatusUpdatesReceivedEvent(hostname, now));
+      } catch (InvalidStateTransitionException e) {
+        LOG.warn("Failed to notify the host about component status updates", e);
+      }
+    }
+
+    try {
+      if (heartbeat.getRecoveryReport() != null) {
+        processRecoveryReport(heartbeat.getRecoveryReport(), hostname);
+      }
+
+      // a later heartbeat may already have been recorded, do not move back
+      long heartbeatTime = Math.max(now, hostObject.getLastHeartbeatTime());
+      if (heartbeat.getNodeStatus().getStatus().equals(HostStatus.Status.HEALTHY)) {
+        hostObject.handleEvent(new HostHealthyHeartbeatEvent(hostname, heartbeatTime,
+            heartbeat.getAgentEnv(), heartbeat.getMounts()));
+      } else {
+        hostObject.handleEvent(new HostUnhealthyHeartbeatEvent(hostname, heartbeatTime,
+            null));
+      }
+    } catch (InvalidStateTransitionException ex) {
+      LOG.warn("Asking agent to re-register due to " + ex.getMessage(), ex);
+      hostObject.setState(HostState.INIT);
+      hostsToReregister.add(hostname);
+      return;
+    } catch (AmbariException e) {
+      LOG.error("Unable to process the heartbeat of host {}", hostname, e);
+      return;
+    }
+
+    try {
+      heartbeatProcessor.processHeartbeat(heartbeat);
+    } catch (Exception e) {
+      LOG.error("Exception received while processing heartbeat", e);
+    }
+  }
 
   protected void processRecoveryReport(RecoveryReport recoveryReport, String hostname) throws AmbariException {
     LOG.debug("Received recovery report: {}", recoveryReport);
@@ -471,6 +675,7 @@ public class HeartBeatHandler {
 
     Long requestId = 0L;
     hostResponseIds.put(hostname, requestId);
+    hostsToReregister.remove(hostname);
     response.setResponseId(requestId);
     return response;
   }
@@ -554,17 +759,8 @@ public class HeartBeatHandler {
 
     // for every cluster this host is a member of, build the command
     for (Cluster cluster : hostClusters) {
-      String clusterName = cluster.getClusterName();
-      alertDefinitionHash.invalidate(clusterName, hostname);
-
-      List<AlertDefinition> definitions = alertDefinitionHash.getAlertDefinitions(
-          clusterName, hostname);
-
-      String hash = alertDefinitionHash.getHash(clusterName, hostname);
-      Host host = cluster.getHost(hostname);
-      String publicHostName = host == null? hostname : host.getPublicHostName();
-      AlertDefinitionCommand command = new AlertDefinitionCommand(clusterName,
-          hostname, publicHostName, hash, definitions);
+      AlertDefinitionCommand command = alertDefinitionHash.getRegistrationCommand(
+          cluster, hostname);
 
       command.addConfigs(configHelper, cluster);
       commands.add(command);
@@ -665,5 +861,8 @@ public class HeartBeatHandler {
   public void stop() {
     heartbeatMonitor.shutdown();
     heartbeatProcessor.stopAsync();
+    if (null != heartbeatPipeline) {
+      heartbeatPipeline.stop();
+    }
   }
 }
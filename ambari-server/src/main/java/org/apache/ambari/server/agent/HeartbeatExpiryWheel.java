@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel of the heartbeat deadlines of hosts, used by
+ * {@link HeartbeatMonitor} to find the hosts which may have lost their
+ * heartbeat without checking every host on every tick.
+ * <p/>
+ * Deadlines are not moved when heartbeats arrive. The monitor checks the
+ * last heartbeat of each expired host and schedules it again if it is still
+ * alive, so each host is looked at about once per heartbeat timeout.
+ * <p/>
+ * Not thread safe, only used by the monitor thread.
+ */
+class HeartbeatExpiryWheel {
+
+  private final long tickMillis;
+  private final List<Set<String>> buckets;
+
+  /**
+   * The deadline and bucket of each scheduled host.
+   */
+  private final Map<String, long[]> scheduled = new HashMap<>();
+
+  /**
+   * The last tick which has been processed, -1 before the first advance.
+   */
+  private long currentTick = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param tickMillis
+   *          the resolution of the deadlines.
+   * @param wheelSize
+   *          the number of buckets, deadlines further away than one
+   *          rotation are checked on every rotation until they are due.
+   */
+  HeartbeatExpiryWheel(long tickMillis, int wheelSize) {
+    this.tickMillis = Math.max(1, tickMillis);
+    buckets = new ArrayList<>(wheelSize);
+    for (int i = 0; i < wheelSize; i++) {
+      buckets.add(new HashSet<String>());
+    }
+  }
+
+  /**
+   * Schedules the host to expire at the given time, replacing its previous
+   * deadline. Deadlines which have passed expire on the next tick.
+   *
+   * @param hostName
+   *          the host.
+   * @param deadline
+   *          the time after which the host is expired.
+   */
+  void schedule(String hostName, long deadline) {
+    remove(hostName);
+
+    // the first tick at or after the deadline
+    long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+    int bucket = (int) (tick % buckets.size());
+    buckets.get(bucket).add(hostName);
+    scheduled.put(hostName, new long[] { deadline, bucket });
+  }
+
+  /**
+   * Stops tracking the host.
+   *
+   * @param hostName
+   *          the host.
+   */
+  void remove(String hostName) {
+    long[] entry = scheduled.remove(hostName);
+    if (entry != null) {
+      buckets.get((int) entry[1]).remove(hostName);
+    }
+  }
+
+  /**
+   * @return {@code true} if the host is scheduled.
+   */
+  boolean contains(String hostName) {
+    return scheduled.containsKey(hostName);
+  }
+
+  /**
+   * @return the number of scheduled hosts.
+   */
+  int size() {
+    return scheduled.size();
+  }
+
+  /**
+   * Advances the wheel to the given time, removing the hosts whose deadline
+   * has passed.
+   *
+   * @param now
+   *          the current time.
+   * @return the expired hosts, which are no longer scheduled.
+   */
+  List<String> advance(long now) {
+    long nowTick = now / tickMillis;
+    if (currentTick < 0) {
+      currentTick = nowTick - buckets.size();
+    }
+
+    List<String> expired = new ArrayList<>();
+
+    // a full rotation visits every bucket
+    long firstTick = Math.max(currentTick + 1, nowTick - buckets.size() + 1);
+    for (long tick = firstTick; tick <= nowTick; tick++) {
+      Iterator<String> iterator = buckets.get((int) (tick % buckets.size())).iterator();
+      while (iterator.hasNext()) {
+        String hostName = iterator.next();
+        if (scheduled.get(hostName)[0] <= now) {
+          iterator.remove();
+          scheduled.remove(hostName);
+          expired.add(hostName);
+        }
+      }
+    }
+
+    currentTick = Math.max(currentTick, nowTick);
+    return expired;
+  }
+}
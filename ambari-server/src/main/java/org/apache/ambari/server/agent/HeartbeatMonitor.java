@@ -29,18 +29,24 @@ import static org.apache.ambari.server.stack.StackManager.DEFAULT_HOOKS_FOLDER;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.ambari.server.AmbariException;
 import org.apache.ambari.server.RoleCommand;
 import org.apache.ambari.server.actionmanager.ActionManager;
+import org.apache.ambari.server.agent.StatusCommandConfigCache.StatusCommandConfigs;
 import org.apache.ambari.server.api.services.AmbariMetaInfo;
 import org.apache.ambari.server.configuration.Configuration;
 import org.apache.ambari.server.controller.AmbariManagementController;
+import org.apache.ambari.server.metrics.system.impl.ServerMetricsSource;
 import org.apache.ambari.server.state.Cluster;
 import org.apache.ambari.server.state.Clusters;
 import org.apache.ambari.server.state.CommandScriptDefinition;
@@ -62,13 +68,36 @@ import org.apache.ambari.server.state.host.HostHeartbeatLostEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Injector;
 
 /**
  * Monitors the node state and heartbeats.
+ * <p/>
+ * The heartbeat deadlines of the hosts are kept on a
+ * {@link HeartbeatExpiryWheel} which is checked several times per wakeup
+ * interval, so lost hosts are found without going through all hosts. Once
+ * per wakeup interval all hosts are swept: their states are checked and
+ * status commands are generated by a pool of workers, each working on the
+ * hosts of one shard.
  */
 public class HeartbeatMonitor implements Runnable {
   private static final Logger LOG = LoggerFactory.getLogger(HeartbeatMonitor.class);
+
+  /**
+   * The number of times the expiry wheel is checked per wakeup interval.
+   */
+  private static final int EXPIRY_TICKS_PER_INTERVAL = 10;
+
+  /**
+   * The number of buckets of the expiry wheel, enough to hold the heartbeat
+   * timeout of two wakeup intervals.
+   */
+  private static final int EXPIRY_WHEEL_SIZE = 64;
+
   private Clusters clusters;
   private ActionQueue actionQueue;
   private ActionManager actionManager;
@@ -80,6 +109,14 @@ public class HeartbeatMonitor implements Runnable {
   private final AmbariManagementController ambariManagementController;
   private final Configuration configuration;
   private final AgentRequests agentRequests;
+  private final StatusCommandConfigCache statusCommandConfigCache;
+  private final long expiryTick;
+  private final HeartbeatExpiryWheel expiryWheel;
+  private final int statusCommandShards;
+  private ExecutorService statusCommandExecutor = null;
+  private final Timer sweepDuration;
+  private final Histogram sweepLag;
+  private final Histogram expiryLag;
 
   public HeartbeatMonitor(Clusters clusters, ActionQueue aq, ActionManager am,
                           int threadWakeupInterval, Injector injector) {
@@ -93,13 +130,30 @@ public class HeartbeatMonitor implements Runnable {
             AmbariManagementController.class);
     configuration = injector.getInstance(Configuration.class);
     agentRequests = new AgentRequests();
+    statusCommandConfigCache = injector.getInstance(StatusCommandConfigCache.class);
+    expiryTick = Math.max(1, threadWakeupInterval / EXPIRY_TICKS_PER_INTERVAL);
+    expiryWheel = new HeartbeatExpiryWheel(expiryTick, EXPIRY_WHEEL_SIZE);
+    statusCommandShards = Math.max(1, configuration.getHeartbeatMonitorThreadPoolSize());
+
+    MetricRegistry metrics = ServerMetricsSource.getRegistry();
+    sweepDuration = metrics.timer("heartbeat.monitor.sweep.duration");
+    sweepLag = metrics.histogram("heartbeat.monitor.sweep.lag");
+    expiryLag = metrics.histogram("heartbeat.monitor.expiry.lag");
   }
 
   public void shutdown() {
     shouldRun = false;
+    if (statusCommandExecutor != null) {
+      statusCommandExecutor.shutdownNow();
+    }
   }
 
   public void start() {
+    if (statusCommandShards > 1) {
+      statusCommandExecutor = Executors.newFixedThreadPool(statusCommandShards,
+          new ThreadFactoryBuilder().setNameFormat("ambari-hearbeat-monitor-worker-%d")
+              .setDaemon(true).build());
+    }
     monitorThread = new Thread(this, "ambari-hearbeat-monitor");
     monitorThread.start();
   }
@@ -118,11 +172,22 @@ public class HeartbeatMonitor implements Runnable {
 
   @Override
   public void run() {
+    long nextSweep = System.currentTimeMillis();
     while (shouldRun) {
       try {
-        doWork();
-        LOG.trace("Putting monitor to sleep for {} milliseconds", threadWakeupInterval);
-        Thread.sleep(threadWakeupInterval);
+        long now = System.currentTimeMillis();
+        if (now >= nextSweep) {
+          sweepLag.update(now - nextSweep);
+          nextSweep = Math.max(nextSweep + threadWakeupInterval, now);
+          doWork();
+        }
+        checkHeartbeats(System.currentTimeMillis());
+
+        long sleep = Math.min(expiryTick, nextSweep - System.currentTimeMillis());
+        if (sleep > 0) {
+          LOG.trace("Putting monitor to sleep for {} milliseconds", sleep);
+          Thread.sleep(sleep);
+        }
       } catch (InterruptedException ex) {
         LOG.warn("Scheduler thread is interrupted going to stop", ex);
         shouldRun = false;
@@ -134,73 +199,156 @@ public class HeartbeatMonitor implements Runnable {
     }
   }
 
-  //Go through all the nodes, check for last heartbeat or any waiting state
-  //If heartbeat is lost, update node clusters state, purge the action queue
-  //notify action manager for node failure.
-  private void doWork() throws InvalidStateTransitionException, AmbariException {
-    List<Host> allHosts = clusters.getHosts();
-    long now = System.currentTimeMillis();
-    for (Host hostObj : allHosts) {
+  //Go through the hosts whose heartbeat deadline has passed, if heartbeat is
+  //lost, update node clusters state, purge the action queue notify action
+  //manager for node failure. Hosts which sent a heartbeat in the meantime are
+  //scheduled again.
+  private void checkHeartbeats(long now) {
+    for (String host : expiryWheel.advance(now)) {
+      Host hostObj;
+      try {
+        hostObj = clusters.getHost(host);
+      } catch (AmbariException e) {
+        LOG.debug("Host {} was removed, no longer checking its heartbeat", host);
+        continue;
+      }
       if (hostObj.getState() == HostState.HEARTBEAT_LOST) {
         //do not check if host already known be lost
         continue;
       }
-      String host = hostObj.getHostName();
-      HostState hostState = hostObj.getState();
-      String hostname = hostObj.getHostName();
 
-      long lastHeartbeat = 0;
+      long deadline = hostObj.getLastHeartbeatTime() + 2 * threadWakeupInterval;
+      if (deadline >= now) {
+        expiryWheel.schedule(host, deadline);
+        continue;
+      }
+
+      expiryLag.update(now - deadline);
       try {
-        lastHeartbeat = clusters.getHost(host).getLastHeartbeatTime();
-      } catch (AmbariException e) {
-        LOG.warn("Exception in getting host object; Is it fatal?", e);
+        handleHeartbeatLost(hostObj);
+      } catch (Exception e) {
+        LOG.warn("Unable to handle the lost heartbeat of host " + host, e);
+        expiryWheel.schedule(host, now + threadWakeupInterval);
       }
-      if (lastHeartbeat + 2 * threadWakeupInterval < now) {
-        LOG.warn("Heartbeat lost from host " + host);
-        //Heartbeat is expired
-        hostObj.handleEvent(new HostHeartbeatLostEvent(host));
-
-        // mark all components that are not clients with unknown status
-        for (Cluster cluster : clusters.getClustersForHost(hostObj.getHostName())) {
-          for (ServiceComponentHost sch : cluster.getServiceComponentHosts(hostObj.getHostName())) {
-            Service s = cluster.getService(sch.getServiceName());
-            ServiceComponent sc = s.getServiceComponent(sch.getServiceComponentName());
-            if (!sc.isClientComponent() &&
-              !sch.getState().equals(State.INIT) &&
-              !sch.getState().equals(State.INSTALLING) &&
-              !sch.getState().equals(State.INSTALL_FAILED) &&
-              !sch.getState().equals(State.UNINSTALLED) &&
-              !sch.getState().equals(State.DISABLED)) {
-              LOG.warn("Setting component state to UNKNOWN for component " + sc.getName() + " on " + host);
-              sch.setState(State.UNKNOWN);
-            }
+    }
+  }
+
+  private void handleHeartbeatLost(Host hostObj)
+      throws InvalidStateTransitionException, AmbariException {
+    String host = hostObj.getHostName();
+    LOG.warn("Heartbeat lost from host " + host);
+    //Heartbeat is expired
+    hostObj.handleEvent(new HostHeartbeatLostEvent(host));
+
+    // mark all components that are not clients with unknown status
+    for (Cluster cluster : clusters.getClustersForHost(hostObj.getHostName())) {
+      for (ServiceComponentHost sch : cluster.getServiceComponentHosts(hostObj.getHostName())) {
+        Service s = cluster.getService(sch.getServiceName());
+        ServiceComponent sc = s.getServiceComponent(sch.getServiceComponentName());
+        if (!sc.isClientComponent() &&
+          !sch.getState().equals(State.INIT) &&
+          !sch.getState().equals(State.INSTALLING) &&
+          !sch.getState().equals(State.INSTALL_FAILED) &&
+          !sch.getState().equals(State.UNINSTALLED) &&
+          !sch.getState().equals(State.DISABLED)) {
+          LOG.warn("Setting component state to UNKNOWN for component " + sc.getName() + " on " + host);
+          sch.setState(State.UNKNOWN);
+        }
+      }
+    }
+
+    //Purge action queue
+    actionQueue.dequeueAll(host);
+    //notify action manager
+    actionManager.handleLostHost(host);
+  }
+
+  //Go through all the nodes, track their heartbeat deadlines, check for any
+  //waiting state and queue the status commands of each shard of hosts.
+  private void doWork() throws InterruptedException {
+    Timer.Context timer = sweepDuration.time();
+    try {
+      List<Host> allHosts = clusters.getHosts();
+      long now = System.currentTimeMillis();
+      List<List<String>> shards = new ArrayList<>(statusCommandShards);
+      for (int i = 0; i < statusCommandShards; i++) {
+        shards.add(new ArrayList<String>());
+      }
+
+      for (Host hostObj : allHosts) {
+        String hostname = hostObj.getHostName();
+        HostState hostState = hostObj.getState();
+        if (hostState == HostState.HEARTBEAT_LOST) {
+          //do not check if host already known be lost
+          expiryWheel.remove(hostname);
+          continue;
+        }
+        if (!expiryWheel.contains(hostname)) {
+          expiryWheel.schedule(hostname, hostObj.getLastHeartbeatTime() + 2 * threadWakeupInterval);
+        }
+
+        if (hostState == HostState.WAITING_FOR_HOST_STATUS_UPDATES) {
+          long timeSpentInState = hostObj.getTimeInState();
+          if (timeSpentInState + 5 * threadWakeupInterval < now) {
+            //Go back to init, the agent will be asked to register again in the next heartbeat
+            LOG.warn("timeSpentInState + 5*threadWakeupInterval < now, Go back to init");
+            hostObj.setState(HostState.INIT);
           }
         }
 
-        //Purge action queue
-        actionQueue.dequeueAll(host);
-        //notify action manager
-        actionManager.handleLostHost(host);
+        shards.get((hostname.hashCode() & Integer.MAX_VALUE) % statusCommandShards).add(hostname);
+      }
+
+      queueStatusCommands(shards);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * Generates and queues the status commands of all hosts, one task per
+   * shard. The shards run in parallel when there is more than one worker.
+   */
+  private void queueStatusCommands(List<List<String>> shards) throws InterruptedException {
+    List<Callable<Void>> tasks = new ArrayList<>(shards.size());
+    for (final List<String> shard : shards) {
+      if (shard.isEmpty()) {
+        continue;
       }
-      if (hostState == HostState.WAITING_FOR_HOST_STATUS_UPDATES) {
-        long timeSpentInState = hostObj.getTimeInState();
-        if (timeSpentInState + 5 * threadWakeupInterval < now) {
-          //Go back to init, the agent will be asked to register again in the next heartbeat
-          LOG.warn("timeSpentInState + 5*threadWakeupInterval < now, Go back to init");
-          hostObj.setState(HostState.INIT);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (String hostname : shard) {
+            queueStatusCommands(hostname);
+          }
+          return null;
+        }
+      });
+    }
+
+    if (statusCommandExecutor == null || tasks.size() < 2) {
+      for (Callable<Void> task : tasks) {
+        try {
+          task.call();
+        } catch (Exception e) {
+          LOG.warn("Unable to queue status commands", e);
         }
       }
+    } else {
+      statusCommandExecutor.invokeAll(tasks);
+    }
+  }
 
+  private void queueStatusCommands(String hostname) {
+    try {
       // Get status of service components
       List<StatusCommand> cmds = generateStatusCommands(hostname);
       LOG.trace("Generated {} status commands for host: {}", cmds.size(), hostname);
-      if (cmds.isEmpty()) {
-        // Nothing to do
-      } else {
-        for (StatusCommand command : cmds) {
-          actionQueue.enqueue(hostname, command);
-        }
+      for (StatusCommand command : cmds) {
+        actionQueue.enqueue(hostname, command);
       }
+    } catch (Exception e) {
+      LOG.warn("Unable to generate status commands for host " + hostname, e);
     }
   }
 
@@ -213,6 +361,8 @@ public class HeartbeatMonitor implements Runnable {
 
     for (Cluster cl : clusters.getClustersForHost(hostname)) {
       Map<String, DesiredConfig> desiredConfigs = cl.getDesiredConfigs();
+      // the same for all components of the host
+      StatusCommandConfigs configs = null;
       for (ServiceComponentHost sch : cl.getServiceComponentHosts(hostname)) {
         switch (sch.getState()) {
           case INIT:
@@ -222,7 +372,10 @@ public class HeartbeatMonitor implements Runnable {
             //don't send commands until component is installed at least
             continue;
           default:
-            StatusCommand statusCmd = createStatusCommand(hostname, cl, sch, desiredConfigs);
+            if (configs == null) {
+              configs = getStatusCommandConfigs(hostname, cl, desiredConfigs);
+            }
+            StatusCommand statusCmd = createStatusCommand(hostname, cl, sch, desiredConfigs, configs);
             cmds.add(statusCmd);
         }
 
@@ -232,24 +385,40 @@ public class HeartbeatMonitor implements Runnable {
   }
 
   /**
-   * Generates status command and fills all appropriate fields.
-   * @throws AmbariException
+   * Gets the {@code *-env} configurations of the host, with the overrides of
+   * its config groups applied.
    */
-  private StatusCommand createStatusCommand(String hostname, Cluster cluster,
-      ServiceComponentHost sch, Map<String, DesiredConfig> desiredConfigs) throws AmbariException {
-    String serviceName = sch.getServiceName();
-    String componentName = sch.getServiceComponentName();
+  private StatusCommandConfigs getStatusCommandConfigs(String hostname, final Cluster cluster,
+      Map<String, DesiredConfig> desiredConfigs) throws AmbariException {
+    // Apply global properties for this host from all config groups
+    Map<String, Map<String, String>> allConfigTags = configHelper
+        .getEffectiveDesiredTags(cluster, hostname, desiredConfigs);
 
-    StackId stackId = sch.getDesiredStackId();
+    // creating list with desired config types to validate if cluster config actual
+    Set<String> desiredConfigTypes = desiredConfigs.keySet();
 
-    ServiceInfo serviceInfo = ambariMetaInfo.getService(stackId.getStackName(),
-        stackId.getStackVersion(), serviceName);
-    ComponentInfo componentInfo = ambariMetaInfo.getComponent(
-            stackId.getStackName(), stackId.getStackVersion(),
-            serviceName, componentName);
-    StackInfo stackInfo = ambariMetaInfo.getStack(stackId.getStackName(),
-        stackId.getStackVersion());
+    final Map<String, Map<String, String>> envConfigTags = new HashMap<>();
+    for (Map.Entry<String, Map<String, String>> entry : allConfigTags.entrySet()) {
+      if (entry.getKey().endsWith("-env") && desiredConfigTypes.contains(entry.getKey())) {
+        envConfigTags.put(entry.getKey(), entry.getValue());
+      }
+    }
 
+    return statusCommandConfigCache.get(cluster.getClusterId(), envConfigTags,
+        new Callable<StatusCommandConfigs>() {
+          @Override
+          public StatusCommandConfigs call() throws AmbariException {
+            return buildStatusCommandConfigs(cluster, envConfigTags);
+          }
+        });
+  }
+
+  /**
+   * Merges the {@code *-env} configurations and attributes of the given tags.
+   * The result is shared between status commands and can't be modified.
+   */
+  private StatusCommandConfigs buildStatusCommandConfigs(Cluster cluster,
+      Map<String, Map<String, String>> envConfigTags) throws AmbariException {
     Map<String, Map<String, String>> configurations = new TreeMap<>();
     Map<String, Map<String,  Map<String, String>>> configurationAttributes = new TreeMap<>();
 
@@ -258,16 +427,9 @@ public class HeartbeatMonitor implements Runnable {
     //Config clusterConfig = cluster.getDesiredConfigByType(GLOBAL);
     Collection<Config> clusterConfigs = cluster.getAllConfigs();
 
-    // creating list with desired config types to validate if cluster config actual
-    Set<String> desiredConfigTypes = desiredConfigs.keySet();
-
-    // Apply global properties for this host from all config groups
-    Map<String, Map<String, String>> allConfigTags = configHelper
-        .getEffectiveDesiredTags(cluster, hostname);
-
     for(Config clusterConfig: clusterConfigs) {
       String configType = clusterConfig.getType();
-      if(!configType.endsWith("-env") || !desiredConfigTypes.contains(configType)) {
+      if(!envConfigTags.containsKey(configType)) {
         continue;
       }
 
@@ -275,12 +437,7 @@ public class HeartbeatMonitor implements Runnable {
       Map<String, String> props = new HashMap<>(clusterConfig.getProperties());
 
       Map<String, Map<String, String>> configTags = new HashMap<>();
-
-      for (Map.Entry<String, Map<String, String>> entry : allConfigTags.entrySet()) {
-        if (entry.getKey().equals(clusterConfig.getType())) {
-          configTags.put(clusterConfig.getType(), entry.getValue());
-        }
-      }
+      configTags.put(configType, envConfigTags.get(configType));
 
       Map<String, Map<String, String>> properties = configHelper
               .getEffectiveConfigProperties(cluster, configTags);
@@ -291,7 +448,7 @@ public class HeartbeatMonitor implements Runnable {
         }
       }
 
-      configurations.put(clusterConfig.getType(), props);
+      configurations.put(clusterConfig.getType(), Collections.unmodifiableMap(props));
 
       Map<String, Map<String, String>> attrs = new TreeMap<>();
       configHelper.cloneAttributesMap(clusterConfig.getPropertiesAttributes(), attrs);
@@ -301,15 +458,39 @@ public class HeartbeatMonitor implements Runnable {
       for (Map<String, Map<String, String>> attributesMap : attributes.values()) {
         configHelper.cloneAttributesMap(attributesMap, attrs);
       }
-      configurationAttributes.put(clusterConfig.getType(), attrs);
+      configurationAttributes.put(clusterConfig.getType(), Collections.unmodifiableMap(attrs));
     }
 
+    return new StatusCommandConfigs(Collections.unmodifiableMap(configurations),
+        Collections.unmodifiableMap(configurationAttributes));
+  }
+
+  /**
+   * Generates status command and fills all appropriate fields.
+   * @throws AmbariException
+   */
+  private StatusCommand createStatusCommand(String hostname, Cluster cluster,
+      ServiceComponentHost sch, Map<String, DesiredConfig> desiredConfigs,
+      StatusCommandConfigs configs) throws AmbariException {
+    String serviceName = sch.getServiceName();
+    String componentName = sch.getServiceComponentName();
+
+    StackId stackId = sch.getDesiredStackId();
+
+    ServiceInfo serviceInfo = ambariMetaInfo.getService(stackId.getStackName(),
+        stackId.getStackVersion(), serviceName);
+    ComponentInfo componentInfo = ambariMetaInfo.getComponent(
+            stackId.getStackName(), stackId.getStackVersion(),
+            serviceName, componentName);
+    StackInfo stackInfo = ambariMetaInfo.getStack(stackId.getStackName(),
+        stackId.getStackVersion());
+
     StatusCommand statusCmd = new StatusCommand();
     statusCmd.setClusterName(cluster.getClusterName());
     statusCmd.setServiceName(serviceName);
     statusCmd.setComponentName(componentName);
-    statusCmd.setConfigurations(configurations);
-    statusCmd.setConfigurationAttributes(configurationAttributes);
+    statusCmd.setConfigurations(configs.getConfigurations());
+    statusCmd.setConfigurationAttributes(configs.getConfigurationAttributes());
     statusCmd.setHostname(hostname);
 
     // If Agent wants the command and the States differ
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ambari.server.metrics.system.impl.ServerMetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The {@link HeartbeatPipeline} processes the host state changes, alerts and
+ * reports of agent heartbeats after the agent has received its response. The
+ * hosts are split into lanes by host name; every lane is a single thread, so
+ * the heartbeats of one host are always processed in the order they were
+ * received. The queue of each lane is bounded: when it is full, the heartbeat
+ * request waits for room instead of dropping reports that the agent will not
+ * send again. If the lane stays full for too long, the heartbeat is rejected
+ * and the agent sends it again.
+ */
+public class HeartbeatPipeline {
+  private static final Logger LOG = LoggerFactory.getLogger(HeartbeatPipeline.class);
+
+  private final ThreadPoolExecutor[] lanes;
+  private final Histogram queueLag;
+  private final Timer processingDuration;
+
+  /**
+   * Constructor.
+   *
+   * @param laneCount
+   *          the number of lanes, each with its own thread.
+   * @param laneCapacity
+   *          the number of heartbeats each lane can hold before the request
+   *          threads wait.
+   * @param submitTimeoutMillis
+   *          how long a request thread waits for room in a full lane.
+   */
+  public HeartbeatPipeline(int laneCount, int laneCapacity, long submitTimeoutMillis) {
+    lanes = new ThreadPoolExecutor[Math.max(1, laneCount)];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(Math.max(1, laneCapacity)),
+          new ThreadFactoryBuilder().setNameFormat("ambari-heartbeat-pipeline-" + i + "-%d")
+              .setDaemon(true).build(),
+          new WaitForRoomPolicy(submitTimeoutMillis));
+    }
+
+    MetricRegistry metrics = ServerMetricsSource.getRegistry();
+    queueLag = metrics.histogram("heartbeat.pipeline.lag");
+    processingDuration = metrics.timer("heartbeat.pipeline.duration");
+  }
+
+  /**
+   * Queues the processing of a heartbeat behind the previous heartbeats of the
+   * same host, waiting for a while if the lane of the host is full.
+   *
+   * @param hostname
+   *          the host which sent the heartbeat (not {@code null}).
+   * @param task
+   *          the processing of the heartbeat.
+   * @throws RejectedExecutionException
+   *           if the pipeline was stopped, the lane stayed full or the wait
+   *           was interrupted.
+   */
+  public void submit(String hostname, final Runnable task) {
+    final long queued = System.currentTimeMillis();
+    getLane(hostname).execute(new Runnable() {
+      @Override
+      public void run() {
+        queueLag.update(System.currentTimeMillis() - queued);
+        Timer.Context timer = processingDuration.time();
+        try {
+          task.run();
+        } catch (Throwable throwable) {
+          // catch everything so that the lane keeps running
+          LOG.error("Exception received while processing heartbeat", throwable);
+        } finally {
+          timer.stop();
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the number of heartbeats waiting to be processed.
+   */
+  public int size() {
+    int size = 0;
+    for (ThreadPoolExecutor lane : lanes) {
+      size += lane.getQueue().size();
+    }
+    return size;
+  }
+
+  /**
+   * Stops the lanes after the queued heartbeats were processed.
+   */
+  public void stop() {
+    for (ThreadPoolExecutor lane : lanes) {
+      lane.shutdown();
+    }
+  }
+
+  /**
+   * Waits for the lanes to finish after {@link #stop()}.
+   *
+   * @return {@code true} if all lanes finished in time.
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ThreadPoolExecutor lane : lanes) {
+      if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ThreadPoolExecutor getLane(String hostname) {
+    return lanes[(hostname.hashCode() & Integer.MAX_VALUE) % lanes.length];
+  }
+
+  /**
+   * Blocks the submitting thread until the lane has room, up to a timeout.
+   */
+  private static class WaitForRoomPolicy implements RejectedExecutionHandler {
+    private final long timeoutMillis;
+
+    private WaitForRoomPolicy(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("The heartbeat pipeline is stopped");
+      }
+
+      try {
+        if (!executor.getQueue().offer(runnable, timeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new RejectedExecutionException(
+              "The heartbeat pipeline stayed full for " + timeoutMillis + " ms");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for the heartbeat pipeline", e);
+      }
+
+      // the lane may have been stopped while waiting, and its thread may be
+      // gone already; like ThreadPoolExecutor#execute, take the heartbeat back
+      if (executor.isShutdown() && executor.remove(runnable)) {
+        throw new RejectedExecutionException("The heartbeat pipeline is stopped");
+      }
+    }
+  }
+}
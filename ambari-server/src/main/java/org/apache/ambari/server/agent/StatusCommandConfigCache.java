@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ambari.server.AmbariException;
+import org.apache.ambari.server.events.ClusterConfigChangedEvent;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * The {@link StatusCommandConfigCache} keeps the {@code *-env}
+ * configurations and attributes sent with {@link StatusCommand}s. They only
+ * depend on the cluster and on the desired tags of the {@code *-env} types,
+ * including the config group overrides, of a host. All hosts and components
+ * with the same tags share one instance instead of merging the
+ * configurations again for every status command.
+ * <p/>
+ * Desired config and config group changes show up as different tags. Entries
+ * are dropped when an {@code *-env} configuration is changed in place, see
+ * {@link ClusterConfigChangedEvent}.
+ */
+@Singleton
+public class StatusCommandConfigCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StatusCommandConfigCache.class);
+
+  /**
+   * The configurations by cluster and tags.
+   */
+  private final Cache<Key, StatusCommandConfigs> cache = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .expireAfterAccess(1, TimeUnit.HOURS)
+      .build();
+
+  /**
+   * Constructor.
+   *
+   * @param eventPublisher
+   *          the publisher of the configuration changes.
+   */
+  @Inject
+  public StatusCommandConfigCache(AmbariEventPublisher eventPublisher) {
+    eventPublisher.register(this);
+  }
+
+  /**
+   * Gets the configurations for the given cluster and tags, building them if
+   * they are not cached.
+   *
+   * @param clusterId
+   *          the cluster ID.
+   * @param envConfigTags
+   *          the effective desired tags of the {@code *-env} types.
+   * @param builder
+   *          builds the configurations if they are not cached.
+   * @return the configurations, shared by all callers with the same tags.
+   * @throws AmbariException
+   *           if the configurations could not be built.
+   */
+  public StatusCommandConfigs get(long clusterId, Map<String, Map<String, String>> envConfigTags,
+      Callable<StatusCommandConfigs> builder) throws AmbariException {
+    try {
+      return cache.get(new Key(clusterId, envConfigTags), builder);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof AmbariException) {
+        throw (AmbariException) e.getCause();
+      }
+      throw new AmbariException("Unable to build the status command configurations", e.getCause());
+    }
+  }
+
+  /**
+   * Drops all entries.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Drops the cached configurations when an {@code *-env} configuration
+   * changes, since a configuration saved in place keeps its tag.
+   *
+   * @param event
+   *          the configuration change.
+   */
+  @Subscribe
+  public void onClusterConfigChanged(ClusterConfigChangedEvent event) {
+    if (event.getConfigType() != null && event.getConfigType().endsWith("-env")) {
+      LOG.debug("Invalidating status command configurations after {}", event);
+      invalidateAll();
+    }
+  }
+
+  /**
+   * The configurations and attributes of a status command.
+   */
+  public static final class StatusCommandConfigs {
+    private final Map<String, Map<String, String>> configurations;
+    private final Map<String, Map<String, Map<String, String>>> configurationAttributes;
+
+    public StatusCommandConfigs(Map<String, Map<String, String>> configurations,
+        Map<String, Map<String, Map<String, String>>> configurationAttributes) {
+      this.configurations = configurations;
+      this.configurationAttributes = configurationAttributes;
+    }
+
+    public Map<String, Map<String, String>> getConfigurations() {
+      return configurations;
+    }
+
+    public Map<String, Map<String, Map<String, String>>> getConfigurationAttributes() {
+      return configurationAttributes;
+    }
+  }
+
+  /**
+   * The cache key.
+   */
+  private static final class Key {
+    private final long clusterId;
+    private final Map<String, Map<String, String>> envConfigTags;
+
+    private Key(long clusterId, Map<String, Map<String, String>> envConfigTags) {
+      this.clusterId = clusterId;
+      this.envConfigTags = envConfigTags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return clusterId == key.clusterId && Objects.equal(envConfigTags, key.envConfigTags);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(clusterId, envConfigTags);
+    }
+  }
+}
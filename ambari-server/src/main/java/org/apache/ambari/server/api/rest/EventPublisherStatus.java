@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ambari.server.api.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.apache.ambari.annotations.ApiIgnore;
+import org.apache.ambari.server.StaticallyInject;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
+import org.apache.ambari.server.metrics.system.impl.ServerMetricsSource;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.inject.Inject;
+
+/**
+ * Debug resource showing the state of the {@link AmbariEventPublisher}: the
+ * number of events waiting in each partition and the time spent by each
+ * listener.
+ */
+@StaticallyInject
+@Path("/debug/events")
+public class EventPublisherStatus {
+
+  /**
+   * The prefix of the listener timers of the Ambari event bus.
+   */
+  private static final String LISTENER_METRIC_PREFIX = "ambari-event-bus.listener.";
+
+  @Inject
+  private static AmbariEventPublisher eventPublisher;
+
+  /**
+   * Handles: GET /debug/events
+   *
+   * @return the queue depth of each partition and the count, mean and maximum
+   *         time, in milliseconds, of each listener
+   */
+  @GET @ApiIgnore // until documented
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getStatus() {
+    Map<String, Map<String, Number>> listeners = new TreeMap<>();
+    for (Map.Entry<String, Timer> entry : ServerMetricsSource.getRegistry().getTimers().entrySet()) {
+      if (!entry.getKey().startsWith(LISTENER_METRIC_PREFIX)) {
+        continue;
+      }
+
+      Timer timer = entry.getValue();
+      Snapshot snapshot = timer.getSnapshot();
+      Map<String, Number> stats = new TreeMap<>();
+      stats.put("count", timer.getCount());
+      stats.put("mean_ms", snapshot.getMean() / TimeUnit.MILLISECONDS.toNanos(1));
+      stats.put("max_ms", snapshot.getMax() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+      listeners.put(entry.getKey().substring(LISTENER_METRIC_PREFIX.length()), stats);
+    }
+
+    Map<String, Object> status = new TreeMap<>();
+    status.put("queue_depth", eventPublisher.getQueueDepths());
+    status.put("listeners", listeners);
+    return status;
+  }
+}
@@ -18,6 +18,8 @@
 
 package org.apache.ambari.server.api.services;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -25,6 +27,7 @@ import java.util.Set;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.ambari.server.api.resources.ResourceInstance;
@@ -36,6 +39,7 @@ import org.apache.ambari.server.api.services.parsers.RequestBodyParser;
 import org.apache.ambari.server.api.services.serializers.CsvSerializer;
 import org.apache.ambari.server.api.services.serializers.JsonSerializer;
 import org.apache.ambari.server.api.services.serializers.ResultSerializer;
+import org.apache.ambari.server.api.services.serializers.StreamingResultSerializer;
 import org.apache.ambari.server.audit.request.RequestAuditLogger;
 import org.apache.ambari.server.controller.spi.Resource;
 import org.apache.ambari.server.utils.RetryHelper;
@@ -107,10 +111,19 @@ public abstract class BaseService {
 
   protected static RequestAuditLogger requestAuditLogger;
 
+  /**
+   * Whether results are streamed to the client while being serialized.
+   */
+  private static volatile boolean responseStreamingEnabled = false;
+
   public static void init(RequestAuditLogger instance) {
     requestAuditLogger = instance;
   }
 
+  public static void setResponseStreamingEnabled(boolean enabled) {
+    responseStreamingEnabled = enabled;
+  }
+
   /**
    * Requests are funneled through this method so that common logic can be executed.
    * Creates a request instance and invokes it's process method.  Uses the default
@@ -185,7 +198,7 @@ public abstract class BaseService {
     ResultSerializer serializer = mediaType == null ? getResultSerializer() : getResultSerializer(mediaType);
 
     Response.ResponseBuilder builder = Response.status(result.getStatus().getStatusCode()).entity(
-        serializer.serialize(result));
+        createEntity(serializer, result));
 
     if (mediaType != null) {
       builder.type(mediaType);
@@ -195,6 +208,40 @@ public abstract class BaseService {
     return builder.build();
   }
 
+  /**
+   * Create the response entity for the given result.  If the serializer is
+   * able to stream, the result is serialized while it is written to the
+   * client, so that large responses are never held in memory as a whole.
+   * Since the status has been sent by then, a failure while streaming
+   * aborts the response.
+   *
+   * @param serializer  the result serializer
+   * @param result      the result to serialize
+   *
+   * @return the serialized result or a {@link StreamingOutput} writing it
+   */
+  protected Object createEntity(final ResultSerializer serializer, final Result result) {
+    if (isResponseStreamingEnabled() && serializer instanceof StreamingResultSerializer) {
+      return new StreamingOutput() {
+        @Override
+        public void write(OutputStream output) throws IOException {
+          ((StreamingResultSerializer) serializer).serialize(result, output);
+        }
+      };
+    }
+    return serializer.serialize(result);
+  }
+
+  /**
+   * Determine whether responses may be streamed.  Services which consume
+   * the response entity themselves must not stream.
+   *
+   * @return true if responses may be streamed
+   */
+  protected boolean isResponseStreamingEnabled() {
+    return responseStreamingEnabled;
+  }
+
   /**
    * Obtain the factory from which to create Request instances.
    *
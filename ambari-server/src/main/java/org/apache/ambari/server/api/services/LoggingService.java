@@ -185,7 +185,7 @@ public class LoggingService extends BaseService {
         result.getResultTree().addChild(loggingResource, "logging");
 
         Response.ResponseBuilder builder = Response.status(result.getStatus().getStatusCode()).entity(
-          serializer.serialize(result));
+          createEntity(serializer, result));
 
         if (mediaType != null) {
           builder.type(mediaType);
@@ -20,6 +20,7 @@ package org.apache.ambari.server.api.services.serializers;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.LinkedHashMap;
@@ -35,20 +36,26 @@ import org.apache.ambari.server.controller.spi.Resource;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.util.DefaultPrettyPrinter;
 
 /**
  * JSON serializer.
  * Responsible for representing a result as JSON.
  */
-public class JsonSerializer implements ResultSerializer {
+public class JsonSerializer implements StreamingResultSerializer {
 
   /**
    * Factory used to create JSON generator.
    */
   JsonFactory m_factory = new JsonFactory();
 
-  ObjectMapper m_mapper = new ObjectMapper(m_factory);
+  /**
+   * Mapper for property values. Must not flush after every value, when
+   * streaming that would send a chunk to the client per property.
+   */
+  ObjectMapper m_mapper = new ObjectMapper(m_factory)
+      .configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
 
   /**
    * Generator which writes JSON.
@@ -59,32 +66,36 @@ public class JsonSerializer implements ResultSerializer {
   @Override
   public Object serialize(Result result) {
     try {
-      ByteArrayOutputStream bytesOut = init();
+      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+      serialize(result, bytesOut);
+      return bytesOut.toString("UTF-8");
+    } catch (IOException e) {
+      //todo: exception handling.  Create ResultStatus 500 and call serializeError
+      throw new RuntimeException("Unable to serialize to json: " + e, e);
+    }
+  }
 
-      if (result.getStatus().isErrorState()) {
-        return serializeError(result.getStatus());
-      }
+  @Override
+  public void serialize(Result result, OutputStream out) throws IOException {
+    m_generator = createJsonGenerator(out);
 
+    if (result.getStatus().isErrorState()) {
+      writeError(result.getStatus());
+    } else {
       TreeNode<Resource> treeNode = result.getResultTree();
       processNode(treeNode);
       processResultMetadata(result.getResultMetadata());
-      m_generator.close();
-      return bytesOut.toString("UTF-8");
-    } catch (IOException e) {
-      //todo: exception handling.  Create ResultStatus 500 and call serializeError
-      throw new RuntimeException("Unable to serialize to json: " + e, e);
     }
+    // flush rather than close, the stream belongs to the caller
+    m_generator.flush();
   }
 
   @Override
   public Object serializeError(ResultStatus error) {
     try {
-      ByteArrayOutputStream bytesOut = init();
-      //m_mapper.writeValue(m_generator, error);
-      m_generator.writeStartObject();
-      m_generator.writeNumberField("status", error.getStatus().getStatus());
-      m_generator.writeStringField("message", error.getMessage());
-      m_generator.writeEndObject();
+      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+      m_generator = createJsonGenerator(bytesOut);
+      writeError(error);
       m_generator.close();
       return bytesOut.toString("UTF-8");
 
@@ -94,15 +105,12 @@ public class JsonSerializer implements ResultSerializer {
     }
   }
 
-  private ByteArrayOutputStream init() throws IOException {
-    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-    m_generator = createJsonGenerator(bytesOut);
-
-    DefaultPrettyPrinter p = new DefaultPrettyPrinter();
-    p.indentArraysWith(new DefaultPrettyPrinter.Lf2SpacesIndenter());
-    m_generator.setPrettyPrinter(p);
-
-    return bytesOut;
+  private void writeError(ResultStatus error) throws IOException {
+    //m_mapper.writeValue(m_generator, error);
+    m_generator.writeStartObject();
+    m_generator.writeNumberField("status", error.getStatus().getStatus());
+    m_generator.writeStringField("message", error.getMessage());
+    m_generator.writeEndObject();
   }
 
   private void processResultMetadata(ResultMetadata resultMetadata) throws IOException {
@@ -244,8 +252,8 @@ public class JsonSerializer implements ResultSerializer {
     }
   }
 
-  private JsonGenerator createJsonGenerator(ByteArrayOutputStream baos) throws IOException {
-    JsonGenerator generator = m_factory.createJsonGenerator(new OutputStreamWriter(baos,
+  private JsonGenerator createJsonGenerator(OutputStream out) throws IOException {
+    JsonGenerator generator = m_factory.createJsonGenerator(new OutputStreamWriter(out,
         Charset.forName("UTF-8").newEncoder()));
 
     DefaultPrettyPrinter p = new DefaultPrettyPrinter();
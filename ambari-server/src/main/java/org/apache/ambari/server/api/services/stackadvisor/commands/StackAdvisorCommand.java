@@ -432,6 +432,14 @@ public abstract class StackAdvisorCommand<T extends StackAdvisorResponse> extend
     return servicesJSON;
   }
 
+  /**
+   * The hosts and services information responses are read as strings.
+   */
+  @Override
+  protected boolean isResponseStreamingEnabled() {
+    return false;
+  }
+
   private ResourceInstance createHostResource() {
     Map<Resource.Type, String> mapIds = new HashMap<>();
     return createResource(Resource.Type.Host, mapIds);
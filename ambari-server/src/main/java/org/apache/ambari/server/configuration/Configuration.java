@@ -58,6 +58,7 @@ import org.apache.ambari.server.actionmanager.Stage;
 import org.apache.ambari.server.controller.spi.PropertyProvider;
 import org.apache.ambari.server.controller.utilities.ScalingThreadPoolExecutor;
 import org.apache.ambari.server.events.listeners.alerts.AlertReceivedListener;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
 import org.apache.ambari.server.orm.JPATableGenerationStrategy;
 import org.apache.ambari.server.orm.PersistenceType;
 import org.apache.ambari.server.orm.dao.HostRoleCommandStatusSummaryDTO;
@@ -501,6 +502,14 @@ public class Configuration {
   public static final ConfigurationProperty<String> API_GZIP_MIN_COMPRESSION_SIZE = new ConfigurationProperty<>(
       "api.gzip.compression.min.size", "10240");
 
+  /**
+   * Determines whether JSON responses are written to the client while the
+   * result is being serialized.
+   */
+  @Markdown(description = "Determines whether JSON responses of the REST API are streamed to the client while they are being serialized, instead of being rendered in memory first. This reduces the memory used by large responses.")
+  public static final ConfigurationProperty<Boolean> API_RESPONSE_STREAMING_ENABLED = new ConfigurationProperty<>(
+      "api.response.streaming.enabled", Boolean.FALSE);
+
   /**
    * Determiens whether communication with the Ambari Agents should have the
    * JSON payloads compressed with GZIP.
@@ -1495,6 +1504,14 @@ public class Configuration {
   public static final ConfigurationProperty<Integer> KERBEROS_OPERATION_RETRY_TIMEOUT = new ConfigurationProperty<>(
       "kerberos.operation.retry.timeout", 10);
 
+  /**
+   * The number of threads used to create or remove principals in the KDC. Each thread opens its own
+   * session with the KDC. A value of 1 processes the principals serially.
+   */
+  @Markdown(description = "The number of threads used to create and remove Kerberos principals in the KDC. Each thread opens its own administrative session with the KDC. A value of `1` processes the principals one at a time.")
+  public static final ConfigurationProperty<Integer> KERBEROS_OPERATION_THREADS = new ConfigurationProperty<>(
+      "kerberos.operation.threads", 1);
+
   /**
    * A flag indicating whether to validate the trust of an SSL certificate provided by a KDC when
    * performing Kerberos operations.
@@ -1973,6 +1990,22 @@ public class Configuration {
   public static final ConfigurationProperty<Boolean> PARALLEL_STAGE_EXECUTION = new ConfigurationProperty<>(
       "server.stages.parallel", Boolean.TRUE);
 
+  /**
+   * Determines whether the action scheduler tracks the commands in progress
+   * from task events instead of querying the database on every pass.
+   */
+  @Markdown(description = "Determines whether the action scheduler keeps an in-memory index of the requests, stages and hosts with commands in progress, updated as commands are created and reported. Stages are then scheduled as soon as the previous stage completes and an idle server does not query the database for work. The index is reconciled with the database periodically, see `server.action.scheduler.reconcile.interval`.")
+  public static final ConfigurationProperty<Boolean> ACTION_SCHEDULER_EVENT_DRIVEN = new ConfigurationProperty<>(
+      "server.action.scheduler.event.driven", Boolean.FALSE);
+
+  /**
+   * The interval at which the in-memory index of the action scheduler is
+   * reloaded from the database.
+   */
+  @Markdown(description = "The time, in seconds, between reloads of the in-memory index of commands in progress from the database when `server.action.scheduler.event.driven` is enabled.")
+  public static final ConfigurationProperty<Integer> ACTION_SCHEDULER_RECONCILE_INTERVAL = new ConfigurationProperty<>(
+      "server.action.scheduler.reconcile.interval", 60);
+
   /**
    *
    * Property driving the view extraction.
@@ -2006,6 +2039,47 @@ public class Configuration {
   public static final ConfigurationProperty<Long> AGENT_TASK_TIMEOUT = new ConfigurationProperty<>(
       "agent.task.timeout", 900L);
 
+  /**
+   * The number of threads used by the heartbeat monitor to generate the status
+   * commands of the hosts.
+   */
+  @Markdown(description = "The number of threads used by the heartbeat monitor to generate the status commands of the hosts. Each thread works on a fixed shard of the hosts.")
+  public static final ConfigurationProperty<Integer> HEARTBEAT_MONITOR_THREAD_POOL_SIZE = new ConfigurationProperty<>(
+      "agent.heartbeat.monitor.threads", 4);
+
+  /**
+   * Determines whether agents receive the response to a heartbeat before the
+   * state changes, alerts and reports of the heartbeat were processed.
+   */
+  @Markdown(description = "Determines whether agents receive the response to a heartbeat before the host state changes, alerts and reports of the heartbeat were processed. The heartbeats are then processed in order for each host by a bounded pipeline.")
+  public static final ConfigurationProperty<Boolean> HEARTBEAT_ASYNC_ENABLED = new ConfigurationProperty<>(
+      "agent.heartbeat.async.enabled", Boolean.FALSE);
+
+  /**
+   * The number of threads processing heartbeats when
+   * {@link #HEARTBEAT_ASYNC_ENABLED} is set.
+   */
+  @Markdown(description = "The number of threads processing heartbeats when `agent.heartbeat.async.enabled` is set. Each thread works on a fixed shard of the hosts.")
+  public static final ConfigurationProperty<Integer> HEARTBEAT_PIPELINE_THREAD_POOL_SIZE = new ConfigurationProperty<>(
+      "agent.heartbeat.pipeline.threads", 4);
+
+  /**
+   * The number of heartbeats each pipeline thread can queue before the agent
+   * requests wait.
+   */
+  @Markdown(description = "The number of heartbeats each thread of the heartbeat pipeline can queue before the agent requests wait for the processing to catch up.")
+  public static final ConfigurationProperty<Integer> HEARTBEAT_PIPELINE_QUEUE_SIZE = new ConfigurationProperty<>(
+      "agent.heartbeat.pipeline.queue.size", 1000);
+
+  /**
+   * The time, in {@link TimeUnit#MILLISECONDS}, an agent request waits for room
+   * in a full heartbeat pipeline before the heartbeat is answered with an
+   * error.
+   */
+  @Markdown(description = "The time, in milliseconds, an agent request waits for room in a full heartbeat pipeline queue. The heartbeat is then answered with an error and the agent sends it again. Defaults to the interval of the heartbeat monitor.")
+  public static final ConfigurationProperty<Long> HEARTBEAT_PIPELINE_QUEUE_TIMEOUT = new ConfigurationProperty<>(
+      "agent.heartbeat.pipeline.queue.timeout", 60000L);
+
   /**
    * The time, in {@link TimeUnit#SECONDS}, before agent service check commands are killed.
    */
@@ -2316,6 +2390,21 @@ public class Configuration {
   public static final ConfigurationProperty<Integer> ALERTS_EXECUTION_SCHEDULER_THREADS_CORE_SIZE = new ConfigurationProperty<>(
       "alerts.execution.scheduler.threadpool.size.core", 2);
 
+  /**
+   * The number of partitions of the {@link AmbariEventPublisher}.
+   */
+  @Markdown(description = "The number of threads processing Ambari events. Events of the same cluster or host are always processed in order, events of different clusters and hosts are spread over the threads.")
+  public static final ConfigurationProperty<Integer> EVENT_PUBLISHER_PARTITIONS = new ConfigurationProperty<>(
+      "server.events.partitions", 1);
+
+  /**
+   * The number of events each partition of the {@link AmbariEventPublisher}
+   * accepts before blocking the publishers.
+   */
+  @Markdown(description = "The number of Ambari events each event processing thread queues before blocking the threads publishing new events.")
+  public static final ConfigurationProperty<Integer> EVENT_PUBLISHER_QUEUE_SIZE = new ConfigurationProperty<>(
+      "server.events.queue.size", 10000);
+
   /**
    * The maximum number of threads which will handle published alert events.
    */
@@ -2397,6 +2486,17 @@ public class Configuration {
   public static final ConfigurationProperty<Integer> ALERTS_CACHE_SIZE = new ConfigurationProperty<>(
       "alerts.cache.size", 50000);
 
+  /**
+   * The time after which alert timestamps, text and occurrences which did not
+   * change the state of a current alert are written to the database in a
+   * batch. Measured in {@link TimeUnit#SECONDS}.
+   */
+  @Markdown(description = "The time, in seconds, after which updates to current alerts which remain in the same state are written to the database in a single batch. "
+      + "These updates are kept in memory until then and may be lost if the server stops abruptly. "
+      + "A value of `0` writes every update immediately. This has no effect when `alerts.cache.enabled` is `true`.")
+  public static final ConfigurationProperty<Integer> ALERTS_CURRENT_FLUSH_INTERVAL = new ConfigurationProperty<>(
+      "alerts.current.flush.interval", 5);
+
   /**
    * When using SSL, this will be used to set the {@code Strict-Transport-Security} response header.
    */
@@ -3922,6 +4022,15 @@ public class Configuration {
     return Boolean.parseBoolean(getProperty(API_GZIP_COMPRESSION_ENABLED));
   }
 
+  /**
+   * Check to see if API responses should be streamed to the client while
+   * they are serialized.
+   * @return true if responses are streamed, false if they are rendered in memory first.
+   */
+  public boolean isApiResponseStreamingEnabled() {
+    return Boolean.parseBoolean(getProperty(API_RESPONSE_STREAMING_ENABLED));
+  }
+
   /**
    * Check to see if the agent API responses should be compressed via gzip or not
    * @return false if not, true if gzip compression needs to be used.
@@ -4692,6 +4801,26 @@ public class Configuration {
     return Boolean.parseBoolean(configsMap.get(PARALLEL_STAGE_EXECUTION.getKey()));
   }
 
+  /**
+   * Check to see if the action scheduler tracks the commands in progress
+   * in memory instead of polling the database.
+   *
+   * @return true if the action scheduler is event driven.
+   */
+  public boolean isActionSchedulerEventDriven() {
+    return Boolean.parseBoolean(getProperty(ACTION_SCHEDULER_EVENT_DRIVEN));
+  }
+
+  /**
+   * Gets the interval between reloads of the commands in progress from the
+   * database when the action scheduler is event driven.
+   *
+   * @return the interval in seconds.
+   */
+  public int getActionSchedulerReconcileInterval() {
+    return Integer.parseInt(getProperty(ACTION_SCHEDULER_RECONCILE_INTERVAL));
+  }
+
   public String getCustomActionDefinitionPath() {
     return getProperty(CUSTOM_ACTION_DEFINITION);
   }
@@ -4783,6 +4912,43 @@ public class Configuration {
     return Integer.parseInt(getProperty(AGENT_THREADPOOL_SIZE));
   }
 
+  /**
+   * @return the number of threads generating status commands in the heartbeat
+   *         monitor
+   */
+  public int getHeartbeatMonitorThreadPoolSize() {
+    return Integer.parseInt(getProperty(HEARTBEAT_MONITOR_THREAD_POOL_SIZE));
+  }
+
+  /**
+   * @return {@code true} if heartbeats are answered before they are processed
+   */
+  public boolean isHeartbeatAsyncEnabled() {
+    return Boolean.parseBoolean(getProperty(HEARTBEAT_ASYNC_ENABLED));
+  }
+
+  /**
+   * @return the number of threads processing heartbeats in the pipeline
+   */
+  public int getHeartbeatPipelineThreadPoolSize() {
+    return Integer.parseInt(getProperty(HEARTBEAT_PIPELINE_THREAD_POOL_SIZE));
+  }
+
+  /**
+   * @return the number of heartbeats each pipeline thread can queue
+   */
+  public int getHeartbeatPipelineQueueSize() {
+    return Integer.parseInt(getProperty(HEARTBEAT_PIPELINE_QUEUE_SIZE));
+  }
+
+  /**
+   * @return the time, in milliseconds, an agent request waits for room in the
+   *         heartbeat pipeline
+   */
+  public long getHeartbeatPipelineQueueTimeout() {
+    return Long.parseLong(getProperty(HEARTBEAT_PIPELINE_QUEUE_TIMEOUT));
+  }
+
   /**
    * Get the view extraction thread pool max size.
    *
@@ -4906,6 +5072,21 @@ public class Configuration {
     return Integer.parseInt(getProperty(ALERTS_EXECUTION_SCHEDULER_THREADS_CORE_SIZE));
   }
 
+  /**
+   * @return the number of partitions of the AmbariEventPublisher, default 1
+   */
+  public int getEventPublisherPartitions() {
+    return Integer.parseInt(getProperty(EVENT_PUBLISHER_PARTITIONS));
+  }
+
+  /**
+   * @return the queue size of each AmbariEventPublisher partition, default
+   *         10000
+   */
+  public int getEventPublisherQueueSize() {
+    return Integer.parseInt(getProperty(EVENT_PUBLISHER_QUEUE_SIZE));
+  }
+
   /**
    * @return max thread pool size for AlertEventPublisher, default 2
    */
@@ -5380,6 +5561,27 @@ public class Configuration {
     return Integer.parseInt(getProperty(ALERTS_CACHE_SIZE));
   }
 
+  /**
+   * Gets the interval, in seconds, at which the updates of current alerts which
+   * remain in the same state are written to the database.
+   *
+   * @return the interval, or {@code 0} if updates are written immediately.
+   */
+  public int getAlertCurrentFlushInterval() {
+    return Math.max(0, Integer.parseInt(getProperty(ALERTS_CURRENT_FLUSH_INTERVAL)));
+  }
+
+  /**
+   * Gets whether the updates of current alerts which remain in the same state
+   * are kept in memory and written to the database in batches. This is not
+   * the case when {@link #isAlertCacheEnabled()} is {@code true}.
+   *
+   * @return {@code true} if the updates are written in batches.
+   */
+  public boolean isAlertCurrentWriteBehindEnabled() {
+    return getAlertCurrentFlushInterval() > 0 && !isAlertCacheEnabled();
+  }
+
   /**
    * Get the ambari display URL
    * @return
@@ -6166,6 +6368,13 @@ public class Configuration {
     return Integer.valueOf(getProperty(KERBEROS_OPERATION_RETRY_TIMEOUT));
   }
 
+  /**
+   * @return the number of threads used to create and remove Kerberos principals, at least 1
+   */
+  public int getKerberosOperationThreads() {
+    return Math.max(1, Integer.valueOf(getProperty(KERBEROS_OPERATION_THREADS)));
+  }
+
   public boolean validateKerberosOperationSSLCertTrust() {
     return Boolean.parseBoolean(getProperty(KERBEROS_OPERATION_VERIFY_KDC_TRUST));
   }
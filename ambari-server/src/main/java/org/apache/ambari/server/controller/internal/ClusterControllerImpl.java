@@ -368,7 +368,12 @@ public class ClusterControllerImpl implements ClusterController {
   private ExtendedResourceProviderWrapper ensureResourceProviderWrapper(Type type) {
     synchronized (resourceProviders) {
       if (!resourceProviders.containsKey(type)) {
-        resourceProviders.put(type, new ExtendedResourceProviderWrapper(providerModule.getResourceProvider(type)));
+        ResourceProvider resourceProvider = providerModule.getResourceProvider(type);
+        if (resourceProvider instanceof BaseProvider) {
+          // give the supported properties of the type a slot in its resources
+          ResourcePropertyLayout.forType(type).intern(((BaseProvider) resourceProvider).getPropertyIds());
+        }
+        resourceProviders.put(type, new ExtendedResourceProviderWrapper(resourceProvider));
       }
     }
     return resourceProviders.get(type);
@@ -21,6 +21,7 @@ package org.apache.ambari.server.controller.internal;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -29,19 +30,45 @@ import org.apache.ambari.server.controller.utilities.PropertyHelper;
 
 /**
  * Simple resource implementation.
+ * <p/>
+ * Properties supported by the provider of the resource type are kept in a
+ * flat array of slots (see {@link ResourcePropertyLayout}), any others in a
+ * map per category.  The category map structure of all properties is only
+ * built when {@link #getPropertiesMap()} is called, since callers may modify
+ * it the resource keeps using the maps from then on.
  */
 public class ResourceImpl implements Resource {
 
+  /**
+   * Marks a property set to null in the slot table.
+   */
+  private static final Object NULL_VALUE = new Object();
+
   /**
    * The resource type.
    */
   private final Type type;
 
   /**
-   * The map of property maps keyed by property category.
+   * The interned property ids of the resource type.
+   */
+  private final ResourcePropertyLayout.Slots slots;
+
+  /**
+   * The values of the interned properties by slot, null if not set.
+   */
+  private Object[] values;
+
+  /**
+   * The map of property maps keyed by property category.  Holds the
+   * properties without slot, and all properties once it has been handed out.
+   */
+  private Map<String, Map<String, Object>> propertiesMap;
+
+  /**
+   * Whether all properties are kept in the properties map.
    */
-  private final Map<String, Map<String, Object>> propertiesMap =
-      Collections.synchronizedMap(new TreeMap<String, Map<String, Object>>());
+  private boolean mapped;
 
   // ----- Constructors ------------------------------------------------------
 
@@ -52,6 +79,7 @@ public class ResourceImpl implements Resource {
    */
   public ResourceImpl(Type type) {
     this.type = type;
+    this.slots = ResourcePropertyLayout.forType(type).getSlots();
   }
 
   /**
@@ -71,18 +99,24 @@ public class ResourceImpl implements Resource {
    * @param propertyIds the set of requested property and category ids
    */
   public ResourceImpl(Resource resource, Set<String> propertyIds) {
-    this.type = resource.getType();
-
-    for (Map.Entry<String, Map<String, Object>> categoryEntry :
-        resource.getPropertiesMap().entrySet()) {
-      String category = categoryEntry.getKey();
-      Map<String, Object> propertyMap = categoryEntry.getValue();
-      if (propertyMap != null) {
-        for (Map.Entry<String, Object> propertyEntry : propertyMap.entrySet()) {
-          String propertyId = PropertyHelper.getPropertyId(category, propertyEntry.getKey());
-          if (propertyIds == null || propertyIds.isEmpty() || PropertyHelper.containsProperty(propertyIds, propertyId)) {
-            Object propertyValue = propertyEntry.getValue();
-            setProperty(propertyId, propertyValue);
+    this(resource.getType());
+
+    Map<String, Map<String, Object>> sourceMap = resource instanceof ResourceImpl ?
+        ((ResourceImpl) resource).copySlotsTo(this, propertyIds) : resource.getPropertiesMap();
+
+    if (sourceMap != null) {
+      synchronized (sourceMap) {
+        for (Map.Entry<String, Map<String, Object>> categoryEntry : sourceMap.entrySet()) {
+          String category = categoryEntry.getKey();
+          Map<String, Object> propertyMap = categoryEntry.getValue();
+          if (propertyMap != null) {
+            for (Map.Entry<String, Object> propertyEntry : propertyMap.entrySet()) {
+              String propertyId = PropertyHelper.getPropertyId(category, propertyEntry.getKey());
+              if (isRequested(propertyIds, propertyId)) {
+                Object propertyValue = propertyEntry.getValue();
+                setProperty(propertyId, propertyValue);
+              }
+            }
           }
         }
       }
@@ -98,15 +132,31 @@ public class ResourceImpl implements Resource {
   }
 
   @Override
-  public Map<String, Map<String, Object>> getPropertiesMap() {
+  public synchronized Map<String, Map<String, Object>> getPropertiesMap() {
+    if (!mapped) {
+      propertiesMap = buildPropertiesMap(true);
+      values = null;
+      mapped = true;
+    }
     return propertiesMap;
   }
 
   @Override
-  public void setProperty(String id, Object value) {
+  public synchronized void setProperty(String id, Object value) {
+    if (!mapped) {
+      ResourcePropertyLayout.Slot slot = slots.get(id);
+      if (slot != null) {
+        if (values == null) {
+          values = new Object[slots.size()];
+        }
+        values[slot.index] = value == null ? NULL_VALUE : value;
+        return;
+      }
+    }
+
     String categoryKey = getCategoryKey(PropertyHelper.getPropertyCategory(id));
 
-    Map<String, Object> properties = propertiesMap.get(categoryKey);
+    Map<String, Object> properties = getMap().get(categoryKey);
     if (properties == null) {
       properties = Collections.synchronizedMap(new TreeMap<String, Object>());
       propertiesMap.put(categoryKey, properties);
@@ -115,16 +165,28 @@ public class ResourceImpl implements Resource {
   }
 
   @Override
-  public void addCategory(String id) {
+  public synchronized void addCategory(String id) {
     String categoryKey = getCategoryKey(id);
 
-    if (!propertiesMap.containsKey(categoryKey)) {
-      propertiesMap.put(categoryKey, new HashMap<>());
+    if (!getMap().containsKey(categoryKey)) {
+      // same map as if the category had been created by its slot properties
+      propertiesMap.put(categoryKey, hasSlotValues(categoryKey) ?
+          Collections.synchronizedMap(new TreeMap<String, Object>()) : new HashMap<>());
     }
   }
 
   @Override
-  public Object getPropertyValue(String id) {
+  public synchronized Object getPropertyValue(String id) {
+    if (!mapped) {
+      ResourcePropertyLayout.Slot slot = slots.get(id);
+      if (slot != null) {
+        return values == null ? null : unmask(values[slot.index]);
+      }
+      if (propertiesMap == null) {
+        return null;
+      }
+    }
+
     String categoryKey = getCategoryKey(PropertyHelper.getPropertyCategory(id));
 
     Map<String, Object> properties = propertiesMap.get(categoryKey);
@@ -142,7 +204,7 @@ public class ResourceImpl implements Resource {
 
     sb.append("Resource : ").append(type).append("\n");
     sb.append("Properties:\n");
-    sb.append(propertiesMap);
+    sb.append(getPropertiesSnapshot());
 
     return sb.toString();
   }
@@ -155,12 +217,12 @@ public class ResourceImpl implements Resource {
     ResourceImpl resource = (ResourceImpl) o;
 
     return type == resource.type &&
-        !(propertiesMap != null ? !propertiesMap.equals(resource.propertiesMap) : resource.propertiesMap != null);
+        getPropertiesSnapshot().equals(resource.getPropertiesSnapshot());
   }
 
   @Override
-  public int hashCode() {
-    return 31 * type.hashCode() + (propertiesMap != null ? propertiesMap.hashCode() : 0);
+  public synchronized int hashCode() {
+    return 31 * type.hashCode() + (mapped ? propertiesMap.hashCode() : slotPropertiesHashCode());
   }
 
   // ----- utility methods ---------------------------------------------------
@@ -168,4 +230,135 @@ public class ResourceImpl implements Resource {
   private String getCategoryKey(String category) {
     return category == null ? "" : category;
   }
+
+  private static boolean isRequested(Set<String> propertyIds, String propertyId) {
+    return propertyIds == null || propertyIds.isEmpty() || PropertyHelper.containsProperty(propertyIds, propertyId);
+  }
+
+  private static Object unmask(Object value) {
+    return value == NULL_VALUE ? null : value;
+  }
+
+  /**
+   * Get the properties map, creating it if required.
+   */
+  private Map<String, Map<String, Object>> getMap() {
+    if (propertiesMap == null) {
+      propertiesMap = Collections.synchronizedMap(new TreeMap<String, Map<String, Object>>());
+    }
+    return propertiesMap;
+  }
+
+  private boolean hasSlotValues(String categoryKey) {
+    if (mapped || values == null) {
+      return false;
+    }
+    ResourcePropertyLayout.Slot[] categorySlots = slots.getSlotsByCategory().get(categoryKey);
+    if (categorySlots != null) {
+      for (ResourcePropertyLayout.Slot slot : categorySlots) {
+        if (values[slot.index] != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Copy the slot values to the given resource.
+   *
+   * @return the map of the properties left to copy, may be null
+   */
+  private synchronized Map<String, Map<String, Object>> copySlotsTo(ResourceImpl target,
+                                                                    Set<String> propertyIds) {
+    if (values != null) {
+      for (ResourcePropertyLayout.Slot slot : slots.slots) {
+        Object value = values[slot.index];
+        if (value != null && isRequested(propertyIds, slot.propertyId)) {
+          target.setProperty(slot.propertyId, unmask(value));
+        }
+      }
+    }
+    return propertiesMap;
+  }
+
+  /**
+   * Build the category map structure of all properties.
+   *
+   * @param live  whether the structure is handed out and kept by this resource
+   *
+   * @return the properties map
+   */
+  private Map<String, Map<String, Object>> buildPropertiesMap(boolean live) {
+    Map<String, Map<String, Object>> map = new TreeMap<>();
+    if (propertiesMap != null) {
+      synchronized (propertiesMap) {
+        for (Map.Entry<String, Map<String, Object>> entry : propertiesMap.entrySet()) {
+          map.put(entry.getKey(), live ? entry.getValue() : new TreeMap<>(entry.getValue()));
+        }
+      }
+    }
+    if (values != null) {
+      for (ResourcePropertyLayout.Slot slot : slots.slots) {
+        Object value = values[slot.index];
+        if (value != null) {
+          Map<String, Object> properties = map.get(slot.category);
+          if (properties == null) {
+            properties = live ?
+                Collections.synchronizedMap(new TreeMap<String, Object>()) : new TreeMap<String, Object>();
+            map.put(slot.category, properties);
+          }
+          properties.put(slot.name, unmask(value));
+        }
+      }
+    }
+    return live ? Collections.synchronizedMap(map) : map;
+  }
+
+  /**
+   * Get the properties for comparison without handing out the map.
+   */
+  private synchronized Map<String, Map<String, Object>> getPropertiesSnapshot() {
+    return mapped ? propertiesMap : buildPropertiesMap(false);
+  }
+
+  /**
+   * Same value as {@link Map#hashCode()} of the properties map, without
+   * building it.
+   */
+  private int slotPropertiesHashCode() {
+    int hash = 0;
+    if (values != null) {
+      for (Map.Entry<String, ResourcePropertyLayout.Slot[]> entry : slots.getSlotsByCategory().entrySet()) {
+        String category = entry.getKey();
+        boolean present = false;
+        int categoryHash = 0;
+        for (ResourcePropertyLayout.Slot slot : entry.getValue()) {
+          Object value = values[slot.index];
+          if (value != null) {
+            present = true;
+            categoryHash += slot.name.hashCode() ^ Objects.hashCode(unmask(value));
+          }
+        }
+        Map<String, Object> properties = propertiesMap == null ? null : propertiesMap.get(category);
+        if (properties != null) {
+          present = true;
+          categoryHash += properties.hashCode();
+        }
+        if (present) {
+          hash += category.hashCode() ^ categoryHash;
+        }
+      }
+    }
+    if (propertiesMap != null) {
+      synchronized (propertiesMap) {
+        for (Map.Entry<String, Map<String, Object>> entry : propertiesMap.entrySet()) {
+          if (values == null || !slots.getSlotsByCategory().containsKey(entry.getKey())) {
+            hash += entry.hashCode();
+          }
+        }
+      }
+    }
+    return hash;
+  }
 }
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ambari.server.controller.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ambari.server.controller.spi.Resource;
+import org.apache.ambari.server.controller.utilities.PropertyHelper;
+
+/**
+ * Slot assignment for the property ids of a resource type.
+ * <p/>
+ * The property ids supported by the resource provider of a type are interned
+ * once, with category and name already split, so that {@link ResourceImpl}
+ * can keep their values in a flat array instead of a map per category.
+ * Slots are never reassigned.  Interning more ids publishes a new, larger
+ * set of slots; resources keep the set they were created with.
+ */
+final class ResourcePropertyLayout {
+
+  /**
+   * Upper bound of slots per type, every resource allocates one array
+   * element per slot.
+   */
+  static final int MAX_SLOTS = 1024;
+
+  private static final ConcurrentMap<Resource.Type, ResourcePropertyLayout> LAYOUTS =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The current slots of the type.
+   */
+  private volatile Slots slots = Slots.EMPTY;
+
+
+  // ----- Constructors ------------------------------------------------------
+
+  private ResourcePropertyLayout() {
+  }
+
+
+  // ----- ResourcePropertyLayout --------------------------------------------
+
+  /**
+   * Get the layout of the given resource type.
+   *
+   * @param type  the resource type
+   *
+   * @return the layout, without slots if none have been interned yet
+   */
+  static ResourcePropertyLayout forType(Resource.Type type) {
+    ResourcePropertyLayout layout = LAYOUTS.get(type);
+    if (layout == null) {
+      LAYOUTS.putIfAbsent(type, new ResourcePropertyLayout());
+      layout = LAYOUTS.get(type);
+    }
+    return layout;
+  }
+
+  /**
+   * Get the current slots.
+   *
+   * @return the slots
+   */
+  Slots getSlots() {
+    return slots;
+  }
+
+  /**
+   * Assign slots to the given property ids, keeping the slots already
+   * assigned.
+   *
+   * @param propertyIds  the property ids
+   */
+  synchronized void intern(Collection<String> propertyIds) {
+    Slots current = slots;
+    List<Slot> newSlots = new ArrayList<>(Arrays.asList(current.slots));
+    Set<String> added = new HashSet<>();
+    for (String propertyId : propertyIds) {
+      if (newSlots.size() >= MAX_SLOTS) {
+        break;
+      }
+      if (propertyId != null && current.get(propertyId) == null && added.add(propertyId)) {
+        newSlots.add(new Slot(newSlots.size(), propertyId));
+      }
+    }
+    if (newSlots.size() > current.size()) {
+      slots = new Slots(newSlots.toArray(new Slot[newSlots.size()]));
+    }
+  }
+
+
+  // ----- inner classes -----------------------------------------------------
+
+  /**
+   * Immutable set of slots.
+   */
+  static final class Slots {
+    static final Slots EMPTY = new Slots(new Slot[0]);
+
+    final Slot[] slots;
+    private final Map<String, Slot> slotsById;
+    private final Map<String, Slot[]> slotsByCategory;
+
+    private Slots(Slot[] slots) {
+      this.slots = slots;
+
+      Map<String, Slot> byId = new HashMap<>(slots.length * 2);
+      Map<String, List<Slot>> byCategory = new LinkedHashMap<>();
+      for (Slot slot : slots) {
+        byId.put(slot.propertyId, slot);
+        List<Slot> categorySlots = byCategory.get(slot.category);
+        if (categorySlots == null) {
+          categorySlots = new ArrayList<>();
+          byCategory.put(slot.category, categorySlots);
+        }
+        categorySlots.add(slot);
+      }
+      slotsById = byId;
+      slotsByCategory = new LinkedHashMap<>();
+      for (Map.Entry<String, List<Slot>> entry : byCategory.entrySet()) {
+        slotsByCategory.put(entry.getKey(), entry.getValue().toArray(new Slot[entry.getValue().size()]));
+      }
+    }
+
+    Slot get(String propertyId) {
+      return slotsById.get(propertyId);
+    }
+
+    int size() {
+      return slots.length;
+    }
+
+    /**
+     * The slots grouped by category key.
+     */
+    Map<String, Slot[]> getSlotsByCategory() {
+      return slotsByCategory;
+    }
+  }
+
+  /**
+   * An interned property id.
+   */
+  static final class Slot {
+    final int index;
+    final String propertyId;
+
+    /**
+     * The category key, empty for properties without category.
+     */
+    final String category;
+    final String name;
+
+    private Slot(int index, String propertyId) {
+      this.index = index;
+      this.propertyId = propertyId;
+
+      String category = PropertyHelper.getPropertyCategory(propertyId);
+      this.category = category == null ? "" : category;
+      this.name = PropertyHelper.getPropertyName(propertyId);
+    }
+  }
+}
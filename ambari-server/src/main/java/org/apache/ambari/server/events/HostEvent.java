@@ -29,12 +29,30 @@ public abstract class HostEvent extends AmbariEvent {
   protected final String m_hostName;
 
   /**
-   * Constructor.
+   * The ID of the cluster the host belongs to, or {@code null} if it does not
+   * belong to a cluster.
+   */
+  protected final Long m_clusterId;
+
+  /**
+   * Constructor for an event of a host which does not belong to a cluster.
    *
    * @param eventType
    */
   public HostEvent(AmbariEventType eventType, String hostName) {
+    this(eventType, null, hostName);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param eventType
+   * @param clusterId
+   *          the ID of the cluster the host belongs to, or {@code null}.
+   */
+  public HostEvent(AmbariEventType eventType, Long clusterId, String hostName) {
     super(eventType);
+    m_clusterId = clusterId;
     m_hostName = hostName;
   }
 
@@ -46,4 +64,14 @@ public abstract class HostEvent extends AmbariEvent {
   public String getHostName() {
     return m_hostName;
   }
+
+  /**
+   * Gets the ID of the cluster the host belongs to.
+   *
+   * @return the cluster ID, or {@code null} if the host does not belong to a
+   *         cluster.
+   */
+  public Long getClusterId() {
+    return m_clusterId;
+  }
 }
@@ -46,6 +46,8 @@ import org.apache.ambari.server.state.Cluster;
 import org.apache.ambari.server.state.Clusters;
 import org.apache.ambari.server.state.ConfigHelper;
 import org.apache.ambari.server.state.MaintenanceState;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore.AlertCurrentUpdate;
 import org.apache.ambari.server.state.alert.SourceType;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -82,6 +84,13 @@ public class AlertReceivedListener {
   @Inject
   AlertDefinitionDAO m_definitionDao;
 
+  /**
+   * Holds the updates of current alerts which remain in the same state until
+   * they are written in a batch.
+   */
+  @Inject
+  AlertCurrentUpdateStore m_currentUpdateStore;
+
   /**
    * Used for looking up whether an alert has a valid service/component/host
    */
@@ -242,17 +251,22 @@ public class AlertReceivedListener {
       } else if (alertState == current.getAlertHistory().getAlertState()
           || alertState == AlertState.SKIPPED) {
 
+        // the latest values, including any which were not written yet
+        AlertCurrentUpdate update = m_currentUpdateStore.get(current);
+
         // update the timestamp no matter what
-        current.setLatestTimestamp(alert.getTimestamp());
+        update.setLatestTimestamp(alert.getTimestamp());
+
+        boolean firmnessChanged = false;
 
         // only update some fields if the alert isn't SKIPPED
         if (alertState != AlertState.SKIPPED) {
-          current.setLatestText(alert.getText());
+          update.setLatestText(alert.getText());
 
           // ++ the occurrences (should be safe enough since we should ever only
           // be handling unique alert events concurrently
-          long occurrences = current.getOccurrences() + 1;
-          current.setOccurrences(occurrences);
+          long occurrences = update.getOccurrences() + 1;
+          update.setOccurrences(occurrences);
 
           // ensure that if we've met the repeat tolerance and the alert is
           // still SOFT, then we transition it to HARD - we also need to fire an
@@ -260,13 +274,7 @@ public class AlertReceivedListener {
           AlertFirmness firmness = current.getFirmness();
           int repeatTolerance = getRepeatTolerance(definition, clusterName);
           if (firmness == AlertFirmness.SOFT && occurrences >= repeatTolerance) {
-            current.setFirmness(AlertFirmness.HARD);
-
-            // create the event to fire later
-            AlertStateChangeEvent stateChangedEvent = new AlertStateChangeEvent(clusterId, alert,
-                current, alertState, firmness);
-
-            alertEvents.add(stateChangedEvent);
+            firmnessChanged = true;
           }
         }
 
@@ -276,10 +284,32 @@ public class AlertReceivedListener {
           // field means that the alert doesn't want to change the existing text
           String alertText = alert.getText();
           if (StringUtils.isNotBlank(alertText)) {
-            current.setLatestText(alertText);
+            update.setLatestText(alertText);
           }
         }
 
+        // an alert which stays in the same state only changes its timestamp,
+        // text and occurrences; these are written later in a single batch
+        if (!firmnessChanged && m_configuration.isAlertCurrentWriteBehindEnabled()) {
+          m_currentUpdateStore.put(update);
+          continue;
+        }
+
+        m_currentUpdateStore.apply(current);
+        current.setLatestTimestamp(update.getLatestTimestamp());
+        current.setLatestText(update.getLatestText());
+        current.setOccurrences(update.getOccurrences());
+
+        if (firmnessChanged) {
+          current.setFirmness(AlertFirmness.HARD);
+
+          // create the event to fire later
+          AlertStateChangeEvent stateChangedEvent = new AlertStateChangeEvent(clusterId, alert,
+              current, alertState, AlertFirmness.SOFT);
+
+          alertEvents.add(stateChangedEvent);
+        }
+
         // store the entity for merging later
         toMerge.add(current);
       } else {
@@ -291,6 +321,9 @@ public class AlertReceivedListener {
             current.getAlertHistory().getAlertState());
         }
 
+        // the pending values of the previous state are merged with the entity
+        m_currentUpdateStore.apply(current);
+
         AlertHistoryEntity oldHistory = current.getAlertHistory();
         AlertState oldState = oldHistory.getAlertState();
         AlertFirmness oldFirmness = current.getFirmness();
@@ -17,34 +17,76 @@
  */
 package org.apache.ambari.server.events.publishers;
 
-import java.util.concurrent.Executors;
+import java.util.Collections;
+import java.util.Map;
 
+import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.events.ActionFinalReportReceivedEvent;
 import org.apache.ambari.server.events.AmbariEvent;
+import org.apache.ambari.server.events.ClusterConfigFinishedEvent;
+import org.apache.ambari.server.events.ClusterEvent;
+import org.apache.ambari.server.events.HostEvent;
+import org.apache.ambari.server.events.MaintenanceModeEvent;
 
-import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 /**
  * The {@link AmbariEventPublisher} is used to publish instances of
  * {@link AmbariEvent} to any {@link Subscribe} methods interested. It uses a
- * single-threaded {@link AsyncEventBus}.
+ * {@link PartitionedEventBus}: events of the same cluster are processed in
+ * serial, while the partitions are processed in parallel. Host events are
+ * processed with the events of their cluster, so they stay in order with
+ * them. Only events of a host which belongs to no cluster, like the
+ * registration of a new host, are partitioned by the host name. Events which
+ * don't belong to a cluster or host share the first partition. With a single
+ * partition all events are processed in serial.
  */
 @Singleton
 public class AmbariEventPublisher {
 
   /**
-   * A single threaded event bus for processing Ambari events in serial.
+   * The name of the event bus, also used for its threads and metrics.
+   */
+  private static final String EVENT_BUS_NAME = "ambari-event-bus";
+
+  /**
+   * The event bus for processing Ambari events.
    */
   private final EventBus m_eventBus;
 
   /**
-   * Constructor.
+   * Constructor, using a single partition.
    */
   public AmbariEventPublisher() {
-    m_eventBus = new AsyncEventBus("ambari-event-bus",
-        Executors.newSingleThreadExecutor());
+    this(1, Configuration.EVENT_PUBLISHER_QUEUE_SIZE.getDefaultValue());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param configuration
+   *          the configuration of the partitions.
+   */
+  @Inject
+  public AmbariEventPublisher(Configuration configuration) {
+    this(configuration.getEventPublisherPartitions(), configuration.getEventPublisherQueueSize());
+  }
+
+  private AmbariEventPublisher(int partitions, int queueSize) {
+    if (queueSize <= 0) {
+      queueSize = Configuration.EVENT_PUBLISHER_QUEUE_SIZE.getDefaultValue();
+    }
+
+    m_eventBus = new PartitionedEventBus(EVENT_BUS_NAME, partitions, queueSize,
+        new PartitionedEventBus.PartitionKeyFunction() {
+          @Override
+          public Object getPartitionKey(Object event) {
+            return AmbariEventPublisher.getPartitionKey(event);
+          }
+        });
   }
 
   /**
@@ -67,4 +109,45 @@ public class AmbariEventPublisher {
   public void register(Object object) {
     m_eventBus.register(object);
   }
+
+  /**
+   * Gets the number of events waiting to be processed by each partition.
+   *
+   * @return the queue depth by partition name, empty if the events are not
+   *         processed asynchronously.
+   */
+  public Map<String, Integer> getQueueDepths() {
+    if (m_eventBus instanceof PartitionedEventBus) {
+      return ((PartitionedEventBus) m_eventBus).getQueueDepths();
+    }
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Gets the key which decides the partition of an event. Events of a cluster
+   * are keyed by the cluster ID, host events by the ID of their cluster, or by
+   * the host name if the host belongs to no cluster.
+   *
+   * @param event
+   *          the event.
+   * @return the partition key, or {@code null} for the default partition.
+   */
+  static Object getPartitionKey(Object event) {
+    if (event instanceof ClusterEvent) {
+      return ((ClusterEvent) event).getClusterId();
+    } else if (event instanceof MaintenanceModeEvent) {
+      return ((MaintenanceModeEvent) event).getClusterId();
+    } else if (event instanceof ClusterConfigFinishedEvent) {
+      return ((ClusterConfigFinishedEvent) event).getClusterId();
+    } else if (event instanceof ActionFinalReportReceivedEvent) {
+      return ((ActionFinalReportReceivedEvent) event).getClusterId();
+    } else if (event instanceof HostEvent) {
+      HostEvent hostEvent = (HostEvent) event;
+      if (hostEvent.getClusterId() != null) {
+        return hostEvent.getClusterId();
+      }
+      return hostEvent.getHostName();
+    }
+    return null;
+  }
 }
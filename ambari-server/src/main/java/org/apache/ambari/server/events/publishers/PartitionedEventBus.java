@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.events.publishers;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ambari.server.metrics.system.impl.ServerMetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * The {@link PartitionedEventBus} is an asynchronous {@link EventBus} which
+ * dispatches events on several single threaded partitions. Events with the
+ * same partition key are dispatched in the order they were posted, events of
+ * different partitions are dispatched in parallel.
+ * <p/>
+ * As with the Guava event buses, a {@link Subscribe} method which is not
+ * marked with {@link AllowConcurrentEvents} is never invoked concurrently. The
+ * invocations are synchronized on the listener, so listeners written for a
+ * single threaded bus remain safe.
+ * <p/>
+ * Each partition accepts a bounded number of events; publishers block when it
+ * is full. Events published by the listeners themselves are always accepted
+ * to avoid deadlocks between the partitions.
+ */
+class PartitionedEventBus extends EventBus {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PartitionedEventBus.class);
+
+  /**
+   * Computes the partition key of an event, {@code null} if the event has no
+   * key.
+   */
+  interface PartitionKeyFunction {
+    Object getPartitionKey(Object event);
+  }
+
+  private final String identifier;
+  private final PartitionKeyFunction keyFunction;
+  private final Partition[] partitions;
+
+  /**
+   * The subscribers by event type.
+   */
+  private final ConcurrentMap<Class<?>, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+  /**
+   * The event types, with all supertypes, by event class.
+   */
+  private final ConcurrentMap<Class<?>, Set<Class<?>>> eventTypes = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param identifier
+   *          the name of the bus, used for threads and metrics.
+   * @param partitionCount
+   *          the number of partitions.
+   * @param queueSize
+   *          the number of events each partition accepts before blocking
+   *          publishers.
+   * @param keyFunction
+   *          the function computing the partition key of the events.
+   */
+  PartitionedEventBus(String identifier, int partitionCount, int queueSize,
+      PartitionKeyFunction keyFunction) {
+    super(identifier);
+    this.identifier = identifier;
+    this.keyFunction = keyFunction;
+
+    MetricRegistry metrics = ServerMetricsSource.getRegistry();
+    partitions = new Partition[Math.max(1, partitionCount)];
+    for (int i = 0; i < partitions.length; i++) {
+      final Partition partition = new Partition(identifier + "-" + i, Math.max(1, queueSize));
+      partitions[i] = partition;
+
+      String name = MetricRegistry.name(identifier, "partition", String.valueOf(i), "queue");
+      metrics.remove(name);
+      metrics.register(name, new Gauge<Integer>() {
+        @Override
+        public Integer getValue() {
+          return partition.getQueueDepth();
+        }
+      });
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void register(Object object) {
+    for (Subscriber subscriber : findSubscribers(object)) {
+      List<Subscriber> list = subscribers.get(subscriber.eventType);
+      if (list == null) {
+        subscribers.putIfAbsent(subscriber.eventType, new CopyOnWriteArrayList<Subscriber>());
+        list = subscribers.get(subscriber.eventType);
+      }
+      list.add(subscriber);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void unregister(Object object) {
+    for (List<Subscriber> list : subscribers.values()) {
+      Iterator<Subscriber> iterator = list.iterator();
+      List<Subscriber> removed = new ArrayList<>();
+      while (iterator.hasNext()) {
+        Subscriber subscriber = iterator.next();
+        if (subscriber.target == object) {
+          removed.add(subscriber);
+        }
+      }
+      list.removeAll(removed);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void post(Object event) {
+    List<Subscriber> targets = new ArrayList<>();
+    for (Class<?> eventType : getEventTypes(event.getClass())) {
+      List<Subscriber> list = subscribers.get(eventType);
+      if (list != null) {
+        targets.addAll(list);
+      }
+    }
+
+    if (targets.isEmpty()) {
+      LOG.debug("No subscribers for event {}", event);
+      return;
+    }
+
+    Object key = keyFunction.getPartitionKey(event);
+    int index = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % partitions.length;
+    partitions[index].dispatch(event, targets, isDispatchThread());
+  }
+
+  /**
+   * @return the number of events waiting in each partition.
+   */
+  Map<String, Integer> getQueueDepths() {
+    Map<String, Integer> depths = new LinkedHashMap<>();
+    for (Partition partition : partitions) {
+      depths.put(partition.name, partition.getQueueDepth());
+    }
+    return depths;
+  }
+
+  private boolean isDispatchThread() {
+    for (Partition partition : partitions) {
+      if (partition.thread == Thread.currentThread()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Set<Class<?>> getEventTypes(Class<?> eventClass) {
+    Set<Class<?>> types = eventTypes.get(eventClass);
+    if (types == null) {
+      types = new HashSet<Class<?>>(TypeToken.of(eventClass).getTypes().rawTypes());
+      eventTypes.putIfAbsent(eventClass, types);
+    }
+    return types;
+  }
+
+  private List<Subscriber> findSubscribers(Object listener) {
+    MetricRegistry metrics = ServerMetricsSource.getRegistry();
+    List<Subscriber> found = new ArrayList<>();
+    Set<String> signatures = new HashSet<>();
+
+    for (Class<?> type : TypeToken.of(listener.getClass()).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (!method.isAnnotationPresent(Subscribe.class) || method.isBridge()) {
+          continue;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length != 1) {
+          throw new IllegalArgumentException("Method " + method
+              + " has @Subscribe annotation, but requires " + parameterTypes.length
+              + " arguments.  Event subscriber methods must require a single argument.");
+        }
+
+        // overridden methods are only invoked once
+        if (!signatures.add(method.getName() + parameterTypes[0].getName())) {
+          continue;
+        }
+
+        method.setAccessible(true);
+        Timer timer = metrics.timer(MetricRegistry.name(identifier, "listener",
+            listener.getClass().getName(), method.getName()));
+        found.add(new Subscriber(listener, method, parameterTypes[0],
+            method.isAnnotationPresent(AllowConcurrentEvents.class), timer));
+      }
+    }
+    return found;
+  }
+
+  /**
+   * A {@link Subscribe} method of a listener.
+   */
+  private static final class Subscriber {
+    private final Object target;
+    private final Method method;
+    private final Class<?> eventType;
+    private final boolean concurrent;
+    private final Timer timer;
+
+    private Subscriber(Object target, Method method, Class<?> eventType, boolean concurrent,
+        Timer timer) {
+      this.target = target;
+      this.method = method;
+      this.eventType = eventType;
+      this.concurrent = concurrent;
+      this.timer = timer;
+    }
+
+    private void handle(Object event) {
+      Timer.Context context = timer.time();
+      try {
+        if (concurrent) {
+          method.invoke(target, event);
+        } else {
+          synchronized (target) {
+            method.invoke(target, event);
+          }
+        }
+      } catch (InvocationTargetException e) {
+        LOG.error("Could not dispatch event: " + target + " to handler " + method, e.getCause());
+      } catch (Exception e) {
+        LOG.error("Could not dispatch event: " + target + " to handler " + method, e);
+      } finally {
+        context.stop();
+      }
+    }
+  }
+
+  /**
+   * A single threaded, bounded partition of the bus.
+   */
+  private static final class Partition implements ThreadFactory {
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private volatile Thread thread;
+
+    private Partition(String name, int queueSize) {
+      this.name = name;
+      capacity = new Semaphore(queueSize);
+      executor = Executors.newSingleThreadExecutor(this);
+    }
+
+    private void dispatch(final Object event, final List<Subscriber> targets, boolean nested) {
+      final boolean acquired = !nested && acquire();
+      queueDepth.incrementAndGet();
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (Subscriber subscriber : targets) {
+              subscriber.handle(event);
+            }
+          } finally {
+            queueDepth.decrementAndGet();
+            if (acquired) {
+              capacity.release();
+            }
+          }
+        }
+      });
+    }
+
+    private boolean acquire() {
+      if (capacity.tryAcquire()) {
+        return true;
+      }
+
+      LOG.debug("Event bus partition {} is full, waiting", name);
+      try {
+        capacity.acquire();
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    private int getQueueDepth() {
+      return queueDepth.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(false);
+      this.thread = thread;
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ambari.server.metrics.system.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ambari.server.metrics.system.MetricsSink;
+import org.apache.ambari.server.metrics.system.SingleMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * @{link ServerMetricsSource} publishes the metrics recorded by the server
+ * itself, for example by the heartbeat monitor, to Metrics Sink. Components
+ * record them in the shared registry returned by {@link #getRegistry()}.
+ * Timers are published in milliseconds.
+ */
+public class ServerMetricsSource extends AbstractMetricsSource {
+  private static final Logger LOG = LoggerFactory.getLogger(ServerMetricsSource.class);
+  private static final String REGISTRY_NAME = "ambari-server";
+  private ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+  private int interval = 10;
+
+  /**
+   * @return the registry of the server metrics.
+   */
+  public static MetricRegistry getRegistry() {
+    return SharedMetricRegistries.getOrCreate(REGISTRY_NAME);
+  }
+
+  @Override
+  public void init(MetricsConfiguration configuration, MetricsSink sink) {
+    super.init(configuration, sink);
+    interval = Integer.parseInt(configuration.getProperty("interval", "10"));
+    LOG.info("Initialized Server Metrics source...");
+  }
+
+  @Override
+  public void start() {
+    try {
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            LOG.debug("Publishing server metrics to sink");
+            sink.publish(getMetrics());
+          } catch (Exception e) {
+            LOG.debug("Error in publishing server metrics to sink.");
+          }
+        }
+      }, interval, interval, TimeUnit.SECONDS);
+      LOG.info("Started Server Metrics source...");
+    } catch (Exception e) {
+      LOG.info("Throwing exception when starting metric source", e);
+    }
+  }
+
+  public List<SingleMetric> getMetrics() {
+    List<SingleMetric> metrics = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    MetricRegistry registry = getRegistry();
+
+    for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+      Object value = entry.getValue().getValue();
+      if (value instanceof Number) {
+        metrics.add(new SingleMetric(entry.getKey(), ((Number) value).doubleValue(), now));
+      }
+    }
+    for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+      metrics.add(new SingleMetric(entry.getKey(), entry.getValue().getCount(), now));
+    }
+    for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+      addSnapshot(metrics, entry.getKey(), entry.getValue().getSnapshot(), 1, now);
+    }
+    for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+      addSnapshot(metrics, entry.getKey(), entry.getValue().getSnapshot(),
+          TimeUnit.MILLISECONDS.toNanos(1), now);
+    }
+
+    return metrics;
+  }
+
+  private void addSnapshot(List<SingleMetric> metrics, String name, Snapshot snapshot,
+                           double unit, long now) {
+    metrics.add(new SingleMetric(name + ".mean", snapshot.getMean() / unit, now));
+    metrics.add(new SingleMetric(name + ".max", snapshot.getMax() / unit, now));
+    metrics.add(new SingleMetric(name + ".95percentile", snapshot.get95thPercentile() / unit, now));
+  }
+}
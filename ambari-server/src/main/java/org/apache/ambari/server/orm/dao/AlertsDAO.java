@@ -17,7 +17,12 @@
  */
 package org.apache.ambari.server.orm.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
@@ -29,7 +34,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Order;
@@ -58,6 +65,7 @@ import org.apache.ambari.server.state.AlertState;
 import org.apache.ambari.server.state.Cluster;
 import org.apache.ambari.server.state.Clusters;
 import org.apache.ambari.server.state.MaintenanceState;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore.AlertCurrentUpdate;
 import org.apache.ambari.server.state.alert.Scope;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -110,6 +118,14 @@ public class AlertsDAO implements Cleanable {
       + "SUM(CASE WHEN alert.maintenanceState != :maintenanceStateOff THEN 1 ELSE 0 END)) "
       + "FROM AlertCurrentEntity alert JOIN alert.alertHistory history WHERE history.clusterId = :clusterId GROUP BY history.hostName";
 
+  /**
+   * Updates the values of a current alert which remains in the same state. The
+   * update is skipped if the alert changed state or has a newer timestamp.
+   */
+  private static final String UPDATE_CURRENT_ALERT_SQL = "UPDATE alert_current "
+      + "SET latest_timestamp = ?, latest_text = ?, occurrences = ? "
+      + "WHERE alert_id = ? AND history_id = ? AND latest_timestamp <= ?";
+
   /**
    * JPA entity manager
    */
@@ -1195,6 +1211,90 @@ public class AlertsDAO implements Cleanable {
     LOG.info("Flushed {} cached alerts to the database", cachedEntityCount);
   }
 
+  /**
+   * Writes the updates of current alerts which remained in the same state with
+   * JDBC batches of at most {@value #BATCH_SIZE} statements. Updates which are
+   * older than the alert in the database, or which are for a previous state of
+   * the alert, are skipped. Since the batch bypasses JPA, the alerts must be
+   * evicted with {@link #evictCurrentAlerts(Collection)} once the transaction
+   * was committed.
+   *
+   * @param updates
+   *          the updates to write (not {@code null}).
+   * @return the number of alerts updated.
+   */
+  @Transactional
+  public int updateCurrentAlerts(Collection<AlertCurrentUpdate> updates) {
+    if (updates.isEmpty()) {
+      return 0;
+    }
+
+    EntityManager entityManager = m_entityManagerProvider.get();
+    Connection connection = entityManager.unwrap(Connection.class);
+
+    int updated = 0;
+    try (PreparedStatement statement = connection.prepareStatement(UPDATE_CURRENT_ALERT_SQL)) {
+      int batched = 0;
+      for (AlertCurrentUpdate update : updates) {
+        statement.setLong(1, update.getLatestTimestamp());
+        statement.setString(2, update.getLatestText());
+        statement.setLong(3, update.getOccurrences());
+        statement.setLong(4, update.getAlertId());
+        statement.setLong(5, update.getHistoryId());
+        statement.setLong(6, update.getLatestTimestamp());
+        statement.addBatch();
+
+        if (++batched == BATCH_SIZE) {
+          updated += countUpdates(statement.executeBatch());
+          batched = 0;
+        }
+      }
+
+      if (batched > 0) {
+        updated += countUpdates(statement.executeBatch());
+      }
+    } catch (SQLException sqlException) {
+      throw new PersistenceException("Unable to update current alerts", sqlException);
+    }
+
+    return updated;
+  }
+
+  /**
+   * Evicts the alerts written by {@link #updateCurrentAlerts(Collection)} from
+   * the shared cache so that they are read again from the database.
+   *
+   * @param updates
+   *          the written updates (not {@code null}).
+   */
+  public void evictCurrentAlerts(Collection<AlertCurrentUpdate> updates) {
+    Cache cache = m_entityManagerProvider.get().getEntityManagerFactory().getCache();
+    for (AlertCurrentUpdate update : updates) {
+      cache.evict(AlertCurrentEntity.class, update.getAlertId());
+    }
+  }
+
+  /**
+   * Gets the number of rows changed by a JDBC batch.
+   *
+   * @param results
+   *          the result of {@link Statement#executeBatch()}.
+   * @return the number of changed rows; statements which succeeded without a
+   *         row count are counted as one.
+   */
+  private static int countUpdates(int[] results) {
+    int count = 0;
+    for (int result : results) {
+      if (result == Statement.SUCCESS_NO_INFO) {
+        count++;
+      } else if (result > 0) {
+        count += result;
+      }
+    }
+
+    return count;
+  }
+
   /**
    * Gets a list that is comprised of the original values replaced by any cached
    * values from {@link #m_currentAlertCache}. This method should only be
@@ -524,6 +524,24 @@ public class HostRoleCommandDAO {
     return daoUtils.selectList(query);
   }
 
+  /**
+   * Gets the task ID, request ID, stage ID, host name and status of the
+   * commands in a particular status, without loading the commands.
+   *
+   * @param statuses
+   *          the statuses to include (not {@code null}).
+   * @return the keys of the commands in the given set of statuses, the host
+   *         name is {@code null} for server side commands.
+   */
+  @RequiresSession
+  public List<Object[]> findTaskKeysByStatus(Collection<HostRoleStatus> statuses) {
+    TypedQuery<Object[]> query = entityManagerProvider.get().createNamedQuery(
+        "HostRoleCommandEntity.findTaskKeysByCommandStatuses", Object[].class);
+
+    query.setParameter("statuses", statuses);
+    return daoUtils.selectList(query);
+  }
+
   /**
    * Gets the number of commands in a particular status.
    *
@@ -18,7 +18,15 @@
 
 package org.apache.ambari.server.orm.entities;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.persistence.Basic;
 import javax.persistence.Column;
@@ -31,6 +39,13 @@ import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The {@link ExecutionCommandEntity} stores the JSON of the execution command of
+ * a task. The JSON is stored GZIP compressed, commands written as plain JSON by
+ * earlier versions are still read.
+ */
 @Table(name = "execution_command")
 @Entity
 @NamedQueries({
@@ -67,6 +82,60 @@ public class ExecutionCommandEntity {
     this.command = command;
   }
 
+  /**
+   * Gets the JSON of the command, decompressing it if needed.
+   *
+   * @return the JSON of the command, or {@code null} if there is none.
+   */
+  public String getCommandJson() {
+    if (command == null) {
+      return null;
+    }
+
+    if (!isCompressed(command)) {
+      return new String(command, StandardCharsets.UTF_8);
+    }
+
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(command))) {
+      return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to decompress the command of task " + taskId, e);
+    }
+  }
+
+  /**
+   * Sets the JSON of the command, which is stored compressed. Most of a
+   * command is made of configuration and parameter names and values which
+   * repeat between the commands of a stage, so the compressed form is several
+   * times smaller.
+   *
+   * @param json
+   *          the JSON of the command.
+   */
+  public void setCommandJson(String json) {
+    if (json == null) {
+      command = null;
+      return;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4 + 64);
+    try (OutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(json.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to compress the command of task " + taskId, e);
+    }
+    command = bytes.toByteArray();
+  }
+
+  /**
+   * @return {@code true} if the command starts with the GZIP magic number,
+   *         which a JSON document never does.
+   */
+  private static boolean isCompressed(byte[] command) {
+    return command.length >= 2 && command[0] == (byte) (GZIPInputStream.GZIP_MAGIC & 0xff)
+        && command[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -66,6 +66,9 @@ import org.apache.commons.lang.ArrayUtils;
     @NamedQuery(
         name = "HostRoleCommandEntity.findCountByCommandStatuses",
         query = "SELECT COUNT(command.taskId) FROM HostRoleCommandEntity command WHERE command.status IN :statuses"),
+    @NamedQuery(
+        name = "HostRoleCommandEntity.findTaskKeysByCommandStatuses",
+        query = "SELECT command.taskId, command.requestId, command.stageId, host.hostName, command.status FROM HostRoleCommandEntity command LEFT JOIN command.hostEntity host WHERE command.status IN :statuses"),
     @NamedQuery(
         name = "HostRoleCommandEntity.findByRequestIdAndStatuses",
         query = "SELECT task FROM HostRoleCommandEntity task WHERE task.requestId=:requestId AND task.status IN :statuses ORDER BY task.taskId ASC"),
@@ -18,9 +18,10 @@
 
 package org.apache.ambari.server.serveraction.kerberos;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ambari.server.AmbariException;
@@ -71,7 +72,7 @@ public class CreatePrincipalsServerAction extends KerberosServerAction {
    * A set of visited principal names used to prevent unnecessary processing on already processed
    * principal names
    */
-  private Set<String> seenPrincipals = new HashSet<>();
+  private final Set<String> seenPrincipals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   /**
    * Called to execute this action.  Upon invocation, calls
@@ -93,6 +94,16 @@ public class CreatePrincipalsServerAction extends KerberosServerAction {
   }
 
 
+  /**
+   * Principals are independent of each other, they may be processed in parallel.
+   *
+   * @return true
+   */
+  @Override
+  protected boolean supportsParallelIdentityProcessing() {
+    return true;
+  }
+
   /**
    * For each identity, generate a unique password create a new or update an existing principal in
    * an assume to be configured KDC.
@@ -124,8 +135,7 @@ public class CreatePrincipalsServerAction extends KerberosServerAction {
     CommandReport commandReport = null;
 
     //  Only process this principal name if we haven't already processed it
-    if (!seenPrincipals.contains(evaluatedPrincipal)) {
-      seenPrincipals.add(evaluatedPrincipal);
+    if (seenPrincipals.add(evaluatedPrincipal)) {
 
       boolean processPrincipal;
       boolean regenerateKeytabs = getOperationType(getCommandParameters()) == OperationType.RECREATE_ALL;
@@ -154,7 +164,10 @@ public class CreatePrincipalsServerAction extends KerberosServerAction {
       if (processPrincipal) {
         Map<String, String> principalPasswordMap = getPrincipalPasswordMap(requestSharedDataContext);
 
-        String password = principalPasswordMap.get(evaluatedPrincipal);
+        String password;
+        synchronized (principalPasswordMap) {
+          password = principalPasswordMap.get(evaluatedPrincipal);
+        }
 
         if (password == null) {
           boolean servicePrincipal = "service".equalsIgnoreCase(identityRecord.get(KerberosIdentityDataFileReader.PRINCIPAL_TYPE));
@@ -165,8 +178,12 @@ public class CreatePrincipalsServerAction extends KerberosServerAction {
           } else {
             Map<String, Integer> principalKeyNumberMap = getPrincipalKeyNumberMap(requestSharedDataContext);
 
-            principalPasswordMap.put(evaluatedPrincipal, result.getPassword());
-            principalKeyNumberMap.put(evaluatedPrincipal, result.getKeyNumber());
+            synchronized (principalPasswordMap) {
+              principalPasswordMap.put(evaluatedPrincipal, result.getPassword());
+            }
+            synchronized (principalKeyNumberMap) {
+              principalKeyNumberMap.put(evaluatedPrincipal, result.getKeyNumber());
+            }
           }
         }
       }
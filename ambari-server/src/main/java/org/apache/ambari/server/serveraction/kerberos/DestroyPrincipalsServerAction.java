@@ -20,9 +20,10 @@ package org.apache.ambari.server.serveraction.kerberos;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ambari.server.AmbariException;
@@ -56,7 +57,7 @@ public class DestroyPrincipalsServerAction extends KerberosServerAction {
    * A set of visited principal names used to prevent unnecessary processing on already processed
    * principal names
    */
-  private Set<String> seenPrincipals = new HashSet<>();
+  private final Set<String> seenPrincipals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   /**
    * Called to execute this action.  Upon invocation, calls
@@ -78,6 +79,16 @@ public class DestroyPrincipalsServerAction extends KerberosServerAction {
   }
 
 
+  /**
+   * Principals are independent of each other, they may be processed in parallel.
+   *
+   * @return true
+   */
+  @Override
+  protected boolean supportsParallelIdentityProcessing() {
+    return true;
+  }
+
   /**
    * For each identity, remove the principal from the configured KDC.
    *
@@ -100,9 +111,7 @@ public class DestroyPrincipalsServerAction extends KerberosServerAction {
       throws AmbariException {
 
     // Only process this principal if we haven't already processed it
-    if (!seenPrincipals.contains(evaluatedPrincipal)) {
-      seenPrincipals.add(evaluatedPrincipal);
-
+    if (seenPrincipals.add(evaluatedPrincipal)) {
       String message = String.format("Destroying identity, %s", evaluatedPrincipal);
       LOG.info(message);
       actionLog.writeStdOut(message);
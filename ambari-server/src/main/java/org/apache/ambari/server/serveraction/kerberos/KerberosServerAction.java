@@ -22,13 +22,22 @@ import static org.apache.ambari.server.serveraction.kerberos.KerberosIdentityDat
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.ambari.server.AmbariException;
 import org.apache.ambari.server.actionmanager.HostRoleStatus;
 import org.apache.ambari.server.agent.CommandReport;
 import org.apache.ambari.server.agent.ExecutionCommand;
+import org.apache.ambari.server.configuration.Configuration;
 import org.apache.ambari.server.controller.KerberosHelper;
 import org.apache.ambari.server.security.credential.PrincipalKeyCredential;
 import org.apache.ambari.server.serveraction.AbstractServerAction;
@@ -40,6 +49,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 
 /**
@@ -171,6 +181,12 @@ public abstract class KerberosServerAction extends AbstractServerAction {
   @Inject
   private KerberosHelper kerberosHelper;
 
+  /**
+   * The Ambari configuration, used to get the number of threads processing identities
+   */
+  @Inject
+  private Configuration configuration;
+
   /**
    * Given a (command parameter) Map and a property name, attempts to safely retrieve the requested
    * data.
@@ -266,14 +282,17 @@ public abstract class KerberosServerAction extends AbstractServerAction {
     if (requestSharedDataContext == null) {
       return null;
     } else {
-      Object map = requestSharedDataContext.get(PRINCIPAL_PASSWORD_MAP);
+      // synchronized since the identities may be processed in parallel
+      synchronized (requestSharedDataContext) {
+        Object map = requestSharedDataContext.get(PRINCIPAL_PASSWORD_MAP);
 
-      if (map == null) {
-        map = new HashMap<String, String>();
-        requestSharedDataContext.put(PRINCIPAL_PASSWORD_MAP, map);
-      }
+        if (map == null) {
+          map = new HashMap<String, String>();
+          requestSharedDataContext.put(PRINCIPAL_PASSWORD_MAP, map);
+        }
 
-      return (Map<String, String>) map;
+        return (Map<String, String>) map;
+      }
     }
   }
 
@@ -292,14 +311,17 @@ public abstract class KerberosServerAction extends AbstractServerAction {
     if (requestSharedDataContext == null) {
       return null;
     } else {
-      Object map = requestSharedDataContext.get(PRINCIPAL_KEY_NUMBER_MAP);
+      // synchronized since the identities may be processed in parallel
+      synchronized (requestSharedDataContext) {
+        Object map = requestSharedDataContext.get(PRINCIPAL_KEY_NUMBER_MAP);
 
-      if (map == null) {
-        map = new HashMap<String, String>();
-        requestSharedDataContext.put(PRINCIPAL_KEY_NUMBER_MAP, map);
-      }
+        if (map == null) {
+          map = new HashMap<String, String>();
+          requestSharedDataContext.put(PRINCIPAL_KEY_NUMBER_MAP, map);
+        }
 
-      return (Map<String, Integer>) map;
+        return (Map<String, Integer>) map;
+      }
     }
   }
 
@@ -366,6 +388,11 @@ public abstract class KerberosServerAction extends AbstractServerAction {
    * {@link KerberosIdentityDataFileReader} to parse
    * the relative identity.dat file and iterate through its "records".  Each "record" is process using
    * {@link #processRecord(Map, String, KerberosOperationHandler, Map, Map)}.
+   * <p/>
+   * If the implementation supports it, see {@link #supportsParallelIdentityProcessing()}, and more
+   * than one thread is configured, the records are partitioned using
+   * {@link #getIdentityPartitionKey(Map, String)} and each partition is processed on its own thread
+   * with its own KerberosOperationHandler. Processing stops at the first error in either case.
    *
    * @param requestSharedDataContext a Map to be used a shared data among all ServerActions related
    *                                 to a given request
@@ -412,39 +439,29 @@ public abstract class KerberosServerAction extends AbstractServerAction {
               throw new AmbariException(message);
             }
 
-            KerberosOperationHandler handler = kerberosOperationHandlerFactory.getKerberosOperationHandler(kdcType);
-            if (handler == null) {
-              String message = String.format("Failed to process the identities, a KDC operation handler was not found for the KDC type of : %s",
-                  kdcType.toString());
-              actionLog.writeStdErr(message);
-              LOG.error(message);
-              throw new AmbariException(message);
-            }
-
             Map<String, String> kerberosConfiguration = getConfiguration("kerberos-env");
-
-            try {
-              handler.open(administratorCredential, defaultRealm, kerberosConfiguration);
-            } catch (KerberosOperationException e) {
-              String message = String.format("Failed to process the identities, could not properly open the KDC operation handler: %s",
-                  e.getMessage());
-              actionLog.writeStdErr(message);
-              LOG.error(message);
-              throw new AmbariException(message, e);
-            }
+            KerberosOperationHandler handler = openOperationHandler(kdcType, administratorCredential,
+                defaultRealm, kerberosConfiguration);
 
             // Create the data file reader to parse and iterate through the records
             KerberosIdentityDataFileReader reader = null;
             try {
               reader = kerberosIdentityDataFileReaderFactory.createKerberosIdentityDataFileReader(identityDataFile);
-              for (Map<String, String> record : reader) {
-                // Process the current record
-                commandReport = processRecord(record, defaultRealm, handler, kerberosConfiguration, requestSharedDataContext);
 
-                // If the principal processor returns a CommandReport, than it is time to stop since
-                // an error condition has probably occurred, else all is assumed to be well.
-                if (commandReport != null) {
-                  break;
+              int threads = configuration.getKerberosOperationThreads();
+              if (threads > 1 && supportsParallelIdentityProcessing()) {
+                commandReport = processRecordsInParallel(reader, threads, handler, administratorCredential,
+                    defaultRealm, kdcType, kerberosConfiguration, requestSharedDataContext);
+              } else {
+                for (Map<String, String> record : reader) {
+                  // Process the current record
+                  commandReport = processRecord(record, defaultRealm, handler, kerberosConfiguration, requestSharedDataContext);
+
+                  // If the principal processor returns a CommandReport, than it is time to stop since
+                  // an error condition has probably occurred, else all is assumed to be well.
+                  if (commandReport != null) {
+                    break;
+                  }
                 }
               }
             } catch (AmbariException e) {
@@ -491,6 +508,191 @@ public abstract class KerberosServerAction extends AbstractServerAction {
         : commandReport;
   }
 
+  /**
+   * Indicates whether {@link #processIdentity(Map, String, KerberosOperationHandler, Map, Map)} may
+   * be called concurrently for identities with different partition keys, see
+   * {@link #getIdentityPartitionKey(Map, String)}. Identities with the same key are always
+   * processed in order, on the same thread.
+   *
+   * @return true if identities may be processed in parallel; false otherwise
+   */
+  protected boolean supportsParallelIdentityProcessing() {
+    return false;
+  }
+
+  /**
+   * Gets the key used to partition the identity records when they are processed in parallel.
+   * <p/>
+   * By default, the records are partitioned by the evaluated principal so that all records of a
+   * principal are handled by the same thread.
+   *
+   * @param identityRecord     a Map containing the data for the current identity record
+   * @param evaluatedPrincipal a String indicating the relevant principal
+   * @return the partition key
+   */
+  protected String getIdentityPartitionKey(Map<String, String> identityRecord, String evaluatedPrincipal) {
+    return evaluatedPrincipal;
+  }
+
+  /**
+   * Processes the identity records on several threads, each having its own KerberosOperationHandler.
+   * <p/>
+   * As when processing the records serially, processing stops when a record yields a CommandReport
+   * or fails with an exception. Records already being processed on other threads are completed.
+   *
+   * @return the first CommandReport returned for a record, or null if all records were processed
+   * @throws AmbariException if a record fails to be processed or a handler cannot be opened
+   */
+  private CommandReport processRecordsInParallel(KerberosIdentityDataFileReader reader, int threads,
+                                                 KerberosOperationHandler handler,
+                                                 PrincipalKeyCredential administratorCredential,
+                                                 final String defaultRealm, KDCType kdcType,
+                                                 final Map<String, String> kerberosConfiguration,
+                                                 final Map<String, Object> requestSharedDataContext)
+      throws AmbariException {
+
+    List<List<Map<String, String>>> partitions = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      partitions.add(new ArrayList<Map<String, String>>());
+    }
+
+    for (Map<String, String> record : reader) {
+      String evaluatedPrincipal = evaluatePrincipal(record, defaultRealm);
+      if (evaluatedPrincipal != null) {
+        String key = getIdentityPartitionKey(record, evaluatedPrincipal);
+        int partition = (key == null) ? 0 : (key.hashCode() & Integer.MAX_VALUE) % threads;
+        partitions.get(partition).add(record);
+      }
+    }
+
+    // the handler opened by the caller serves the first partition, open one for each other partition
+    List<KerberosOperationHandler> handlers = new ArrayList<>(threads);
+    handlers.add(handler);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("kerberos-identity-processor-%d").setDaemon(true).build());
+
+    try {
+      for (int i = 1; i < threads; i++) {
+        if (!partitions.get(i).isEmpty()) {
+          handlers.add(openOperationHandler(kdcType, administratorCredential, defaultRealm, kerberosConfiguration));
+        } else {
+          handlers.add(null);
+        }
+      }
+
+      final AtomicBoolean stop = new AtomicBoolean(false);
+      List<Future<CommandReport>> futures = new ArrayList<>(threads);
+
+      for (int i = 0; i < threads; i++) {
+        final List<Map<String, String>> records = partitions.get(i);
+        final KerberosOperationHandler partitionHandler = handlers.get(i);
+
+        if (records.isEmpty()) {
+          continue;
+        }
+
+        futures.add(executor.submit(new Callable<CommandReport>() {
+          @Override
+          public CommandReport call() throws AmbariException {
+            try {
+              for (Map<String, String> record : records) {
+                if (stop.get()) {
+                  break;
+                }
+
+                CommandReport commandReport = processRecord(record, defaultRealm, partitionHandler,
+                    kerberosConfiguration, requestSharedDataContext);
+
+                if (commandReport != null) {
+                  stop.set(true);
+                  return commandReport;
+                }
+              }
+              return null;
+            } catch (AmbariException | RuntimeException e) {
+              stop.set(true);
+              throw e;
+            }
+          }
+        }));
+      }
+
+      CommandReport commandReport = null;
+      AmbariException failure = null;
+
+      for (Future<CommandReport> future : futures) {
+        try {
+          CommandReport partitionReport = future.get();
+          if (commandReport == null) {
+            commandReport = partitionReport;
+          }
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = (e.getCause() instanceof AmbariException)
+                ? (AmbariException) e.getCause()
+                : new AmbariException(e.getCause().getMessage(), e.getCause());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          stop.set(true);
+          throw new AmbariException("Interrupted while processing the identities", e);
+        }
+      }
+
+      if (failure != null) {
+        throw failure;
+      }
+
+      return commandReport;
+    } finally {
+      executor.shutdownNow();
+
+      // The first handler is closed by the caller
+      for (KerberosOperationHandler partitionHandler : handlers.subList(1, handlers.size())) {
+        if (partitionHandler != null) {
+          try {
+            partitionHandler.close();
+          } catch (KerberosOperationException e) {
+            // Ignore this...
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets and opens a KerberosOperationHandler for the given KDC type.
+   *
+   * @throws AmbariException if a handler is not available or cannot be opened
+   */
+  private KerberosOperationHandler openOperationHandler(KDCType kdcType,
+                                                        PrincipalKeyCredential administratorCredential,
+                                                        String defaultRealm,
+                                                        Map<String, String> kerberosConfiguration)
+      throws AmbariException {
+    KerberosOperationHandler handler = kerberosOperationHandlerFactory.getKerberosOperationHandler(kdcType);
+    if (handler == null) {
+      String message = String.format("Failed to process the identities, a KDC operation handler was not found for the KDC type of : %s",
+          kdcType.toString());
+      actionLog.writeStdErr(message);
+      LOG.error(message);
+      throw new AmbariException(message);
+    }
+
+    try {
+      handler.open(administratorCredential, defaultRealm, kerberosConfiguration);
+    } catch (KerberosOperationException e) {
+      String message = String.format("Failed to process the identities, could not properly open the KDC operation handler: %s",
+          e.getMessage());
+      actionLog.writeStdErr(message);
+      LOG.error(message);
+      throw new AmbariException(message, e);
+    }
+
+    return handler;
+  }
+
   /**
    * Processes an identity as necessary.
    * <p/>
@@ -541,6 +743,24 @@ public abstract class KerberosServerAction extends AbstractServerAction {
       throws AmbariException {
     CommandReport commandReport = null;
 
+    String evaluatedPrincipal = evaluatePrincipal(record, defaultRealm);
+
+    if (evaluatedPrincipal != null) {
+      commandReport = processIdentity(record, evaluatedPrincipal, operationHandler, kerberosConfiguration, requestSharedDataContext);
+    }
+
+    return commandReport;
+  }
+
+  /**
+   * Evaluates the principal "pattern" found in the record by replacing the _HOST and _REALM
+   * variables.
+   *
+   * @param record       a Map containing the data for the current identity record
+   * @param defaultRealm a String declaring the default Kerberos realm
+   * @return the evaluated principal, or null if the record has no principal
+   */
+  private String evaluatePrincipal(Map<String, String> record, String defaultRealm) {
     if (record != null) {
       String principal = record.get(KerberosIdentityDataFileReader.PRINCIPAL);
 
@@ -555,13 +775,11 @@ public abstract class KerberosServerAction extends AbstractServerAction {
 
         // Evaluate the principal "pattern" found in the record to generate the "evaluated principal"
         // by replacing the _HOST and _REALM variables.
-        String evaluatedPrincipal = principal.replace("_HOST", hostname).replace("_REALM", defaultRealm);
-
-        commandReport = processIdentity(record, evaluatedPrincipal, operationHandler, kerberosConfiguration, requestSharedDataContext);
+        return principal.replace("_HOST", hostname).replace("_REALM", defaultRealm);
       }
     }
 
-    return commandReport;
+    return null;
   }
 
   protected void deleteDataDirectory(String dataDirectoryPath) {
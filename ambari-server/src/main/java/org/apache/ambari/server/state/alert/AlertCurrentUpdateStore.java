@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.state.alert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ambari.server.orm.entities.AlertCurrentEntity;
+
+import com.google.inject.Singleton;
+
+/**
+ * The {@link AlertCurrentUpdateStore} keeps the latest timestamp, text and
+ * occurrences of current alerts which were received again in the same state.
+ * These updates are held as plain values instead of managed
+ * {@link AlertCurrentEntity} instances and are periodically drained and written
+ * to the database in a single batch.
+ * <p/>
+ * An update only applies to the history it was recorded for; a state change
+ * creates a new history and makes older updates obsolete. Drained updates stay
+ * visible until {@link #flushed(Collection)} is invoked, so that an alert read
+ * from the database before the batch completes still sees them. Updates are only
+ * kept in memory, so an abrupt stop of the server loses at most one interval
+ * of timestamps and occurrences, never a state or firmness change.
+ */
+@Singleton
+public class AlertCurrentUpdateStore {
+
+  /**
+   * The pending updates by alert ID.
+   */
+  private final ConcurrentMap<Long, AlertCurrentUpdate> m_updates = new ConcurrentHashMap<>();
+
+  /**
+   * The updates being written by alert ID.
+   */
+  private final ConcurrentMap<Long, AlertCurrentUpdate> m_flushing = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the latest values of the specified current alert, which are either
+   * the pending update or the values of the entity.
+   *
+   * @param current
+   *          the current alert (not {@code null}).
+   * @return a copy of the latest values, which can be changed and stored with
+   *         {@link #put(AlertCurrentUpdate)} (never {@code null}).
+   */
+  public AlertCurrentUpdate get(AlertCurrentEntity current) {
+    AlertCurrentUpdate update = getPending(current);
+    if (null != update) {
+      return new AlertCurrentUpdate(update);
+    }
+
+    return new AlertCurrentUpdate(current);
+  }
+
+  /**
+   * Stores an update to be written by the next {@link #drain()}, replacing any
+   * pending update of the same alert.
+   *
+   * @param update
+   *          the update (not {@code null}).
+   */
+  public void put(AlertCurrentUpdate update) {
+    m_updates.put(update.getAlertId(), update);
+  }
+
+  /**
+   * Copies the pending update of the specified alert, if any, onto the entity
+   * and removes it. This is used before the entity is merged so that the merge
+   * also writes the pending values.
+   *
+   * @param current
+   *          the current alert (not {@code null}).
+   */
+  public void apply(AlertCurrentEntity current) {
+    AlertCurrentUpdate update = getPending(current);
+
+    m_updates.remove(current.getAlertId());
+    m_flushing.remove(current.getAlertId());
+
+    if (null != update) {
+      current.setLatestTimestamp(update.getLatestTimestamp());
+      current.setLatestText(update.getLatestText());
+      current.setOccurrences(update.getOccurrences());
+    }
+  }
+
+  /**
+   * Removes and returns all of the pending updates. The updates remain visible
+   * until they are passed to {@link #flushed(Collection)} or
+   * {@link #restore(Collection)}.
+   *
+   * @return the pending updates (never {@code null}).
+   */
+  public List<AlertCurrentUpdate> drain() {
+    List<AlertCurrentUpdate> updates = new ArrayList<>(m_updates.size());
+    for (Entry<Long, AlertCurrentUpdate> entry : m_updates.entrySet()) {
+      m_flushing.put(entry.getKey(), entry.getValue());
+      if (m_updates.remove(entry.getKey(), entry.getValue())) {
+        updates.add(entry.getValue());
+      } else {
+        // replaced by a newer update which the next drain picks up
+        m_flushing.remove(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return updates;
+  }
+
+  /**
+   * Forgets drained updates once they were written to the database.
+   *
+   * @param updates
+   *          the written updates (not {@code null}).
+   */
+  public void flushed(Collection<AlertCurrentUpdate> updates) {
+    for (AlertCurrentUpdate update : updates) {
+      m_flushing.remove(update.getAlertId(), update);
+    }
+  }
+
+  /**
+   * Returns drained updates which could not be written so that the next
+   * {@link #drain()} retries them. Updates that were replaced in the meantime
+   * are dropped.
+   *
+   * @param updates
+   *          the updates to restore (not {@code null}).
+   */
+  public void restore(Collection<AlertCurrentUpdate> updates) {
+    for (AlertCurrentUpdate update : updates) {
+      if (m_flushing.remove(update.getAlertId(), update)) {
+        m_updates.putIfAbsent(update.getAlertId(), update);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of pending updates.
+   *
+   * @return the number of pending updates.
+   */
+  public int size() {
+    return m_updates.size();
+  }
+
+  /**
+   * Gets the newest pending or drained update which applies to the specified
+   * alert.
+   *
+   * @param current
+   *          the current alert (not {@code null}).
+   * @return the update, or {@code null} if none.
+   */
+  private AlertCurrentUpdate getPending(AlertCurrentEntity current) {
+    AlertCurrentUpdate update = m_updates.get(current.getAlertId());
+    if (null != update && update.appliesTo(current)) {
+      return update;
+    }
+
+    update = m_flushing.get(current.getAlertId());
+    if (null != update && update.appliesTo(current)) {
+      return update;
+    }
+
+    return null;
+  }
+
+  /**
+   * The {@link AlertCurrentUpdate} holds the values of a current alert which
+   * change while the alert remains in the same state.
+   */
+  public static final class AlertCurrentUpdate {
+    private final long m_alertId;
+    private final long m_historyId;
+    private long m_latestTimestamp;
+    private String m_latestText;
+    private long m_occurrences;
+
+    /**
+     * Constructor.
+     *
+     * @param current
+     *          the current alert to take the values from.
+     */
+    private AlertCurrentUpdate(AlertCurrentEntity current) {
+      m_alertId = current.getAlertId();
+      m_historyId = current.getAlertHistory().getAlertId();
+      m_latestTimestamp = current.getLatestTimestamp();
+      m_latestText = current.getLatestText();
+      m_occurrences = current.getOccurrences();
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param update
+     *          the update to copy.
+     */
+    private AlertCurrentUpdate(AlertCurrentUpdate update) {
+      m_alertId = update.m_alertId;
+      m_historyId = update.m_historyId;
+      m_latestTimestamp = update.m_latestTimestamp;
+      m_latestText = update.m_latestText;
+      m_occurrences = update.m_occurrences;
+    }
+
+    /**
+     * Gets whether this update is for the history of the specified alert and
+     * is not older than it.
+     */
+    private boolean appliesTo(AlertCurrentEntity current) {
+      return m_historyId == current.getAlertHistory().getAlertId()
+          && m_latestTimestamp >= current.getLatestTimestamp();
+    }
+
+    public long getAlertId() {
+      return m_alertId;
+    }
+
+    public long getHistoryId() {
+      return m_historyId;
+    }
+
+    public long getLatestTimestamp() {
+      return m_latestTimestamp;
+    }
+
+    public void setLatestTimestamp(long latestTimestamp) {
+      m_latestTimestamp = latestTimestamp;
+    }
+
+    public String getLatestText() {
+      return m_latestText;
+    }
+
+    public void setLatestText(String latestText) {
+      m_latestText = latestText;
+    }
+
+    public long getOccurrences() {
+      return m_occurrences;
+    }
+
+    public void setOccurrences(long occurrences) {
+      m_occurrences = occurrences;
+    }
+  }
+}
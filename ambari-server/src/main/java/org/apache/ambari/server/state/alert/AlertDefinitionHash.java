@@ -22,19 +22,19 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ambari.server.AmbariException;
 import org.apache.ambari.server.ClusterNotFoundException;
 import org.apache.ambari.server.agent.ActionQueue;
+import org.apache.ambari.server.agent.AgentCommand;
 import org.apache.ambari.server.agent.AgentCommand.AgentCommandType;
 import org.apache.ambari.server.agent.AlertDefinitionCommand;
 import org.apache.ambari.server.controller.RootServiceResponseFactory.Components;
@@ -61,6 +61,10 @@ import com.google.inject.Singleton;
  * list of {@link AlertDefinitionEntity}s. It is used in order to represent the
  * state of a group of definitions by using
  * {@link AlertDefinitionEntity#getHash()}
+ * <p/>
+ * The definitions last sent to each agent are remembered so that later
+ * changes are pushed as deltas containing only the added, changed and removed
+ * definitions.
  */
 @Singleton
 public class AlertDefinitionHash {
@@ -108,13 +112,6 @@ public class AlertDefinitionHash {
   @Inject
   private Provider<ConfigHelper> m_configHelper;
 
-  /**
-   * Due to the nature of the asynchronous events for alerts and Ambari, this
-   * lock will ensure that only a single writer is writing to the
-   * {@link ActionQueue}.
-   */
-  private ReentrantLock m_actionQueueLock = new ReentrantLock();
-
   /**
    * The hashes for all hosts for any cluster. The key is the hostname and the
    * value is a map between cluster name and hash.
@@ -122,6 +119,16 @@ public class AlertDefinitionHash {
   private ConcurrentMap<String, ConcurrentMap<String, String>> m_hashes =
     new ConcurrentHashMap<>();
 
+  /**
+   * The definitions sent to all hosts for any cluster. The key is the hostname
+   * and the value is a map between cluster name and the definitions of the last
+   * command built for that host. Due to the nature of the asynchronous events
+   * for alerts and Ambari, the map of a host is also used as the monitor which
+   * ensures that only a single writer builds and queues commands for the host.
+   */
+  private final ConcurrentMap<String, ConcurrentMap<String, DefinitionSet>> m_sentDefinitions =
+    new ConcurrentHashMap<>();
+
   /**
    * Gets a unique hash value reprssenting all of the alert definitions that
    * should be scheduled to run on a given host.
@@ -139,24 +146,17 @@ public class AlertDefinitionHash {
    * @return the unique hash or {@value #NULL_MD5_HASH} if none.
    */
   public String getHash(String clusterName, String hostName) {
-    ConcurrentMap<String, String> clusterMapping = m_hashes.get(hostName);
-    if (null == clusterMapping) {
-      clusterMapping = new ConcurrentHashMap<>();
-      ConcurrentMap<String, String> temp = m_hashes.putIfAbsent(hostName, clusterMapping);
-      if (temp != null) {
-        clusterMapping = temp;
-      }
-    }
+    ConcurrentMap<String, String> clusterMapping = getClusterMapping(m_hashes, hostName);
 
-    String hash = clusterMapping.get(hostName);
+    String hash = clusterMapping.get(clusterName);
     if (null != hash) {
       return hash;
     }
 
-    hash = hash(clusterName, hostName);
-    clusterMapping.put(clusterName, hash);
+    hash = hash(getAlertDefinitionEntities(clusterName, hostName));
+    String temp = clusterMapping.putIfAbsent(clusterName, hash);
 
-    return hash;
+    return null == temp ? hash : temp;
   }
 
   /**
@@ -248,6 +248,36 @@ public class AlertDefinitionHash {
   }
 
 
+  /**
+   * Creates the {@link AlertDefinitionCommand} containing all of the alert
+   * definitions for a registering host. The cached hash of the host is
+   * recalculated and any pending definition commands for the cluster are
+   * removed, since the registration replaces the definitions the agent knows
+   * about; later changes are sent as deltas relative to this command.
+   *
+   * @param cluster
+   *          the cluster (not {@code null}).
+   * @param hostName
+   *          the registering host (not {@code null}).
+   * @return the command, without configurations.
+   */
+  public AlertDefinitionCommand getRegistrationCommand(Cluster cluster, String hostName) {
+    String clusterName = cluster.getClusterName();
+    ConcurrentMap<String, DefinitionSet> sentDefinitions = getClusterMapping(m_sentDefinitions,
+        hostName);
+
+    synchronized (sentDefinitions) {
+      Set<AlertDefinitionEntity> entities = getAlertDefinitionEntities(clusterName, hostName);
+      DefinitionSet current = new DefinitionSet(entities, null);
+      getClusterMapping(m_hashes, hostName).put(clusterName, current.getHash());
+
+      removePendingCommands(clusterName, hostName);
+      sentDefinitions.put(clusterName, current);
+
+      return createCommand(cluster, clusterName, hostName, current, entities, null);
+    }
+  }
+
   /**
    * Invalidate the hashes of any host that would be affected by the specified
    * definition. If the definition is an {@link SourceType#AGGREGATE}, this will
@@ -520,18 +550,40 @@ public class AlertDefinitionHash {
       return;
     }
 
-    try {
-      m_actionQueueLock.lock();
-      for (String hostName : hosts) {
-        List<AlertDefinition> definitions = getAlertDefinitions(clusterName,
-            hostName);
+    for (String hostName : hosts) {
+      ConcurrentMap<String, DefinitionSet> sentDefinitions = getClusterMapping(
+          m_sentDefinitions, hostName);
+
+      // the commands of a host are built one at a time so that every delta is
+      // relative to the definitions the previous command left on the agent
+      synchronized (sentDefinitions) {
+        Set<AlertDefinitionEntity> entities = getAlertDefinitionEntities(
+            clusterName, hostName);
+
+        DefinitionSet sent = sentDefinitions.get(clusterName);
+        DefinitionSet base = sent;
 
-        String hash = getHash(clusterName, hostName);
+        // unlike other commands, the alert definitions commands are really
+        // designed to be 1:1 per change; if multiple invalidations happened
+        // before the next heartbeat, there would be several commands that would
+        // force the agents to reschedule their alerts more than once; a removed
+        // command never reached the agent, so the new command must also cover
+        // the changes it contained
+        if (removePendingCommands(clusterName, hostName) && null != sent) {
+          base = sent.getBase();
+        }
 
-        Host host = cluster.getHost(hostName);
-        String publicHostName = host == null? hostName : host.getPublicHostName();
-        AlertDefinitionCommand command = new AlertDefinitionCommand(
-            clusterName, hostName, publicHostName, hash, definitions);
+        DefinitionSet current = new DefinitionSet(entities, base);
+        getClusterMapping(m_hashes, hostName).put(clusterName, current.getHash());
+
+        // nothing changed since the definitions the agent already has
+        if (null != base && base.getUuids().equals(current.getUuids())) {
+          sentDefinitions.put(clusterName, base);
+          continue;
+        }
+
+        AlertDefinitionCommand command = createCommand(cluster, clusterName,
+            hostName, current, entities, sent);
 
         try {
           command.addConfigs(m_configHelper.get(), cluster);
@@ -540,57 +592,150 @@ public class AlertDefinitionHash {
               ae);
         }
 
-        // unlike other commands, the alert definitions commands are really
-        // designed to be 1:1 per change; if multiple invalidations happened
-        // before the next heartbeat, there would be several commands that would
-        // force the agents to reschedule their alerts more than once
-        m_actionQueue.dequeue(hostName,
-            AgentCommandType.ALERT_DEFINITION_COMMAND);
-
         m_actionQueue.dequeue(hostName,
             AgentCommandType.ALERT_EXECUTION_COMMAND);
 
         m_actionQueue.enqueue(hostName, command);
+        sentDefinitions.put(clusterName, current);
       }
-    } finally {
-      m_actionQueueLock.unlock();
     }
   }
 
+  /**
+   * Creates an {@link AlertDefinitionCommand} for the specified definitions.
+   * If the definitions have a base, the command only contains the definitions
+   * which differ from the base, or from the definitions of a command which was
+   * removed before reaching the agent, along with the names of the definitions
+   * which are no longer run by the host.
+   *
+   * @param cluster
+   *          the cluster (may be {@code null}).
+   * @param clusterName
+   *          the name of the cluster (not {@code null}).
+   * @param hostName
+   *          the host (not {@code null}).
+   * @param current
+   *          the definitions of the host.
+   * @param entities
+   *          the entities of the definitions of the host.
+   * @param sent
+   *          the definitions of the last command built for the host, or
+   *          {@code null} if none.
+   * @return the command (never {@code null}).
+   */
+  private AlertDefinitionCommand createCommand(Cluster cluster, String clusterName,
+      String hostName, DefinitionSet current, Set<AlertDefinitionEntity> entities,
+      DefinitionSet sent) {
+    Host host = null == cluster ? null : cluster.getHost(hostName);
+    String publicHostName = host == null? hostName : host.getPublicHostName();
+
+    DefinitionSet base = current.getBase();
+    List<AlertDefinition> definitions = new ArrayList<>(entities.size());
+    if (null == base) {
+      for (AlertDefinitionEntity entity : entities) {
+        definitions.add(m_factory.coerce(entity));
+      }
+
+      return new AlertDefinitionCommand(clusterName, hostName, publicHostName,
+          current.getHash(), definitions);
+    }
+
+    Map<String, String> uuids = current.getUuids();
+    for (AlertDefinitionEntity entity : entities) {
+      String name = entity.getDefinitionName();
+      if (!entity.getHash().equals(base.getUuids().get(name))
+          || (null != sent && !entity.getHash().equals(sent.getUuids().get(name)))) {
+        definitions.add(m_factory.coerce(entity));
+      }
+    }
+
+    Set<String> removed = new HashSet<>(base.getUuids().keySet());
+    if (null != sent) {
+      removed.addAll(sent.getUuids().keySet());
+    }
+    removed.removeAll(uuids.keySet());
+
+    return new AlertDefinitionCommand(clusterName, hostName, publicHostName,
+        current.getHash(), definitions, base.getHash(), new ArrayList<>(removed));
+  }
+
+  /**
+   * Removes the {@link AlertDefinitionCommand}s of the specified cluster which
+   * are still queued for the host. Definition commands of other clusters are
+   * kept.
+   *
+   * @param clusterName
+   *          the name of the cluster (not {@code null}).
+   * @param hostName
+   *          the host (not {@code null}).
+   * @return {@code true} if a definition command of the cluster was removed.
+   */
+  private boolean removePendingCommands(String clusterName, String hostName) {
+    List<AgentCommand> pending = m_actionQueue.dequeue(hostName,
+        AgentCommandType.ALERT_DEFINITION_COMMAND);
+
+    if (null == pending) {
+      return false;
+    }
+
+    boolean removed = false;
+    for (AgentCommand command : pending) {
+      if (clusterName.equals(((AlertDefinitionCommand) command).getClusterName())) {
+        removed = true;
+      } else {
+        m_actionQueue.enqueue(hostName, command);
+      }
+    }
+
+    return removed;
+  }
+
+  /**
+   * Gets the map between cluster name and value for the specified host,
+   * creating it if needed.
+   *
+   * @param mappings
+   *          the mappings of all hosts.
+   * @param hostName
+   *          the host (not {@code null}).
+   * @return the cluster mappings of the host (never {@code null}).
+   */
+  private static <T> ConcurrentMap<String, T> getClusterMapping(
+      ConcurrentMap<String, ConcurrentMap<String, T>> mappings, String hostName) {
+    ConcurrentMap<String, T> clusterMapping = mappings.get(hostName);
+    if (null == clusterMapping) {
+      clusterMapping = new ConcurrentHashMap<>();
+      ConcurrentMap<String, T> temp = mappings.putIfAbsent(hostName, clusterMapping);
+      if (temp != null) {
+        clusterMapping = temp;
+      }
+    }
+
+    return clusterMapping;
+  }
+
   /**
    * Calculates a unique hash value representing all of the alert definitions
    * that should be scheduled to run on a given host. Alerts of type
    * {@link SourceType#AGGREGATE} are not included in the hash since they are
    * not run on the agents.
    *
-   * @param clusterName
-   *          the cluster name (not {@code null}).
-   * @param hostName
-   *          the host name (not {@code null}).
+   * @param definitions
+   *          the definitions of the host (not {@code null}).
    * @return the unique hash or {@value #NULL_MD5_HASH} if none.
    */
-  private String hash(String clusterName, String hostName) {
-    Set<AlertDefinitionEntity> definitions = getAlertDefinitionEntities(
-        clusterName,
-        hostName);
-
+  private static String hash(Collection<AlertDefinitionEntity> definitions) {
     // no definitions found for this host, don't bother hashing
-    if( null == definitions || definitions.size() == 0 ) {
+    if (definitions.isEmpty()) {
       return NULL_MD5_HASH;
     }
 
-    // strip out all AGGREGATE types
-    Iterator<AlertDefinitionEntity> iterator = definitions.iterator();
-    while (iterator.hasNext()) {
-      if (SourceType.AGGREGATE.equals(iterator.next().getSourceType())) {
-        iterator.remove();
-      }
-    }
-
-    // build the UUIDs
+    // build the UUIDs, skipping all AGGREGATE types
     List<String> uuids = new ArrayList<>(definitions.size());
     for (AlertDefinitionEntity definition : definitions) {
-      uuids.add(definition.getHash());
+      if (!SourceType.AGGREGATE.equals(definition.getSourceType())) {
+        uuids.add(definition.getHash());
+      }
     }
 
     // sort the UUIDs so that the digest is created with bytes in the same order
@@ -692,4 +837,71 @@ public class AlertDefinitionHash {
 
     return definitions;
   }
+
+  /**
+   * The {@link DefinitionSet} is an immutable snapshot of the alert definitions
+   * of a host, identified by their names and UUIDs. A set which was sent as a
+   * delta keeps the set it was relative to.
+   */
+  private static final class DefinitionSet {
+
+    /**
+     * The hash of the definitions.
+     */
+    private final String m_hash;
+
+    /**
+     * The UUID of every definition by definition name.
+     */
+    private final Map<String, String> m_uuids;
+
+    /**
+     * The definitions the agent had before this set was sent, or {@code null}.
+     */
+    private final DefinitionSet m_base;
+
+    /**
+     * Constructor.
+     *
+     * @param entities
+     *          the definitions of the host.
+     * @param base
+     *          the set that this set is relative to, or {@code null} if it is
+     *          complete.
+     */
+    private DefinitionSet(Collection<AlertDefinitionEntity> entities, DefinitionSet base) {
+      Map<String, String> uuids = new HashMap<>(entities.size());
+      for (AlertDefinitionEntity entity : entities) {
+        uuids.put(entity.getDefinitionName(), entity.getHash());
+      }
+
+      m_hash = hash(entities);
+      m_uuids = Collections.unmodifiableMap(uuids);
+
+      // only the last base is needed; don't chain every set that was sent
+      m_base = null == base || null == base.m_base ? base
+          : new DefinitionSet(base.m_hash, base.m_uuids);
+    }
+
+    /**
+     * Constructor for a set without a base.
+     */
+    private DefinitionSet(String hash, Map<String, String> uuids) {
+      m_hash = hash;
+      m_uuids = uuids;
+      m_base = null;
+    }
+
+    private String getHash() {
+      return m_hash;
+    }
+
+    private Map<String, String> getUuids() {
+      return m_uuids;
+    }
+
+    private DefinitionSet getBase() {
+      return m_base;
+    }
+  }
 }
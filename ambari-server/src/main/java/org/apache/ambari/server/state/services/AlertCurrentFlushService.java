@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.state.services;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ambari.server.AmbariService;
+import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.orm.dao.AlertsDAO;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore.AlertCurrentUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+
+/**
+ * The {@link AlertCurrentFlushService} periodically writes the updates of
+ * current alerts which remained in the same state from the
+ * {@link AlertCurrentUpdateStore} to the database. This service is controlled
+ * by {@link Configuration#isAlertCurrentWriteBehindEnabled()} and
+ * {@link Configuration#getAlertCurrentFlushInterval()}.
+ */
+@AmbariService
+public class AlertCurrentFlushService extends AbstractScheduledService {
+
+  /**
+   * Logger.
+   */
+  private final static Logger LOG = LoggerFactory.getLogger(AlertCurrentFlushService.class);
+
+  /**
+   * Configuration.
+   */
+  @Inject
+  private Configuration m_configuration;
+
+  /**
+   * Used for writing the updates to the database.
+   */
+  @Inject
+  private AlertsDAO m_alertsDAO;
+
+  /**
+   * The pending updates.
+   */
+  @Inject
+  private AlertCurrentUpdateStore m_updateStore;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Scheduler scheduler() {
+    int flushIntervalInSeconds = Math.max(1, m_configuration.getAlertCurrentFlushInterval());
+    return Scheduler.newFixedDelaySchedule(flushIntervalInSeconds, flushIntervalInSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Invokes {@link #stop()} if not enabled.
+   */
+  @Override
+  protected void startUp() throws Exception {
+    if (!m_configuration.isAlertCurrentWriteBehindEnabled()) {
+      stopAsync();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Writes the pending updates to the database.
+   */
+  @Override
+  protected void runOneIteration() throws Exception {
+    flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Writes any remaining updates to the database.
+   */
+  @Override
+  protected void shutDown() throws Exception {
+    flush();
+  }
+
+  /**
+   * Drains the pending updates and writes them to the database in a single
+   * transaction. Updates which could not be written are restored so that the
+   * next iteration retries them.
+   */
+  void flush() {
+    List<AlertCurrentUpdate> updates = m_updateStore.drain();
+    if (updates.isEmpty()) {
+      return;
+    }
+
+    int updated;
+    try {
+      updated = m_alertsDAO.updateCurrentAlerts(updates);
+    } catch (Exception exception) {
+      LOG.error("Unable to flush {} current alert updates to the database", updates.size(),
+          exception);
+
+      m_updateStore.restore(updates);
+      return;
+    }
+
+    // the drained updates are visible until the alerts are read again
+    m_alertsDAO.evictCurrentAlerts(updates);
+    m_updateStore.flushed(updates);
+
+    LOG.debug("Flushed {} of {} current alert updates to the database", updated,
+        updates.size());
+  }
+}
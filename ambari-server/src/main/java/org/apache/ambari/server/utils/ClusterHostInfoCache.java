@@ -0,0 +1,446 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ambari.server.AmbariException;
+import org.apache.ambari.server.events.HostsAddedEvent;
+import org.apache.ambari.server.events.HostsRemovedEvent;
+import org.apache.ambari.server.events.ServiceComponentInstalledEvent;
+import org.apache.ambari.server.events.ServiceComponentUninstalledEvent;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
+import org.apache.ambari.server.state.Cluster;
+import org.apache.ambari.server.state.Host;
+import org.apache.ambari.server.state.HostComponentAdminState;
+import org.apache.ambari.server.state.Service;
+import org.apache.ambari.server.state.ServiceComponent;
+import org.apache.ambari.server.state.ServiceComponentHost;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * The {@link ClusterHostInfoCache} keeps the clusterHostInfo of each cluster, as
+ * built by {@link StageUtils#getClusterHostInfo(Cluster)}, between stages.
+ * <p/>
+ * The host list and the compressed host index ranges of each role are kept per
+ * cluster. They are updated incrementally as components are installed and
+ * uninstalled and as hosts are added to the cluster; only the roles which
+ * changed are compressed again. Unchanged ranges are shared, by reference,
+ * between the clusterHostInfo maps returned for every stage and must not be
+ * modified.
+ * <p/>
+ * Events are delivered asynchronously, so each read also compares the cached
+ * host names of every component with the cluster. This is a hash comparison
+ * per component; a difference, such as an event still queued on the bus,
+ * resynchronizes the component instead of returning stale hosts. The
+ * decommissioned hosts and the per host ports, racks and addresses are not
+ * covered by events and are read on every call; their ranges are only
+ * computed again when they changed.
+ */
+@Singleton
+public class ClusterHostInfoCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterHostInfoCache.class);
+
+  /**
+   * The cached host information, by cluster ID.
+   */
+  private final ConcurrentMap<Long, ClusterEntry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param publisher
+   *          the publisher of the component and host events.
+   */
+  @Inject
+  public ClusterHostInfoCache(AmbariEventPublisher publisher) {
+    publisher.register(this);
+  }
+
+  /**
+   * Gets the clusterHostInfo of a cluster, without the hosts and components
+   * pending in the topology manager and without the Ambari server entries.
+   * <p/>
+   * The returned map may be modified, its values may not.
+   *
+   * @param cluster
+   *          the cluster.
+   * @return the clusterHostInfo of the cluster.
+   * @throws AmbariException
+   */
+  public Map<String, Set<String>> getClusterHostInfo(Cluster cluster) throws AmbariException {
+    ClusterEntry entry = getEntry(cluster.getClusterId());
+    synchronized (entry) {
+      return entry.refresh(cluster);
+    }
+  }
+
+  /**
+   * Adds the host of an installed component.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void onEvent(ServiceComponentInstalledEvent event) {
+    LOG.debug("Received event {}", event);
+
+    ClusterEntry entry = entries.get(event.getClusterId());
+    if (entry != null) {
+      synchronized (entry) {
+        entry.componentInstalled(event.getComponentName(), event.getHostName());
+      }
+    }
+  }
+
+  /**
+   * Removes the host of an uninstalled component.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void onEvent(ServiceComponentUninstalledEvent event) {
+    LOG.debug("Received event {}", event);
+
+    ClusterEntry entry = entries.get(event.getClusterId());
+    if (entry != null) {
+      synchronized (entry) {
+        entry.componentUninstalled(event.getComponentName(), event.getHostName());
+      }
+    }
+  }
+
+  /**
+   * Appends the hosts added to a cluster to its host list.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void onEvent(HostsAddedEvent event) {
+    LOG.debug("Received event {}", event);
+
+    ClusterEntry entry = entries.get(event.getClusterId());
+    if (entry != null) {
+      synchronized (entry) {
+        for (String hostName : event.getHostNames()) {
+          entry.addHost(hostName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the clusters of removed hosts; the indexes of all the hosts after
+   * them change, so they are built again on the next read.
+   */
+  @Subscribe
+  @AllowConcurrentEvents
+  public void onEvent(HostsRemovedEvent event) {
+    LOG.debug("Received event {}", event);
+
+    for (Cluster cluster : event.getClusters()) {
+      entries.remove(cluster.getClusterId());
+    }
+  }
+
+  private ClusterEntry getEntry(long clusterId) {
+    ClusterEntry entry = entries.get(clusterId);
+    if (entry == null) {
+      entries.putIfAbsent(clusterId, new ClusterEntry());
+      entry = entries.get(clusterId);
+    }
+    return entry;
+  }
+
+  /**
+   * The cached host information of a cluster. All methods must be invoked
+   * while holding the lock of the entry.
+   */
+  private static final class ClusterEntry {
+    private final List<String> hosts = new ArrayList<>();
+    private final Map<String, Integer> hostIndexes = new HashMap<>();
+
+    /**
+     * The shared all_hosts value, {@code null} after a host was added.
+     */
+    private Set<String> allHosts;
+
+    /**
+     * The host names of each component.
+     */
+    private final Map<String, Set<String>> componentHosts = new HashMap<>();
+
+    /**
+     * The role of each component, {@code null} for components without one.
+     */
+    private final Map<String, String> componentRoles = new HashMap<>();
+
+    /**
+     * The compressed host index ranges of each role.
+     */
+    private final Map<String, Set<String>> roleRanges = new HashMap<>();
+
+    /**
+     * The roles to compress again on the next read.
+     */
+    private final Set<String> dirtyRoles = new HashSet<>();
+
+    private final MappedRanges ports = new MappedRanges();
+    private final MappedRanges racks = new MappedRanges();
+    private final MappedRanges ipv4Addresses = new MappedRanges();
+
+    private Map<String, Set<String>> refresh(Cluster cluster) throws AmbariException {
+      refreshHosts(cluster.getHosts());
+
+      Map<String, SortedSet<Integer>> decommissioned = new HashMap<>();
+      Set<String> seenComponents = new HashSet<>();
+
+      for (Service service : cluster.getServices().values()) {
+        for (ServiceComponent serviceComponent : service.getServiceComponents().values()) {
+          String componentName = serviceComponent.getName();
+          Map<String, ServiceComponentHost> serviceComponentHosts = serviceComponent.getServiceComponentHosts();
+          seenComponents.add(componentName);
+
+          if (!componentRoles.containsKey(componentName)) {
+            componentRoles.put(componentName, getRole(serviceComponent));
+          }
+
+          Set<String> cachedHosts = componentHosts.get(componentName);
+          if (cachedHosts == null || !cachedHosts.equals(serviceComponentHosts.keySet())) {
+            if (cachedHosts != null) {
+              LOG.debug("Resynchronizing the hosts of {}", componentName);
+            }
+            componentHosts.put(componentName, new HashSet<>(serviceComponentHosts.keySet()));
+            markDirty(componentName);
+          }
+
+          String decomRoleName = StageUtils.getDecommissionedToClusterInfoKeyMap().get(componentName);
+          if (decomRoleName != null) {
+            for (Map.Entry<String, ServiceComponentHost> entry : serviceComponentHosts.entrySet()) {
+              Integer hostIndex = hostIndexes.get(entry.getKey());
+              if (hostIndex != null
+                  && entry.getValue().getComponentAdminState() == HostComponentAdminState.DECOMMISSIONED) {
+                SortedSet<Integer> indexes = decommissioned.get(decomRoleName);
+                if (indexes == null) {
+                  indexes = new TreeSet<>();
+                  decommissioned.put(decomRoleName, indexes);
+                }
+                indexes.add(hostIndex);
+              }
+            }
+          }
+        }
+      }
+
+      // components deleted from the cluster
+      Iterator<String> iterator = componentHosts.keySet().iterator();
+      while (iterator.hasNext()) {
+        String componentName = iterator.next();
+        if (!seenComponents.contains(componentName)) {
+          markDirty(componentName);
+          iterator.remove();
+          componentRoles.remove(componentName);
+        }
+      }
+
+      for (String role : dirtyRoles) {
+        compressRole(role);
+      }
+      dirtyRoles.clear();
+
+      if (allHosts == null) {
+        allHosts = Collections.unmodifiableSet(new LinkedHashSet<>(hosts));
+      }
+
+      Map<String, Set<String>> clusterHostInfo = new HashMap<>(roleRanges);
+      for (Map.Entry<String, SortedSet<Integer>> entry : decommissioned.entrySet()) {
+        clusterHostInfo.put(entry.getKey(), StageUtils.replaceRanges(entry.getValue()));
+      }
+
+      clusterHostInfo.put(StageUtils.HOSTS_LIST, allHosts);
+      clusterHostInfo.put(StageUtils.PORTS, ports.getRanges());
+      clusterHostInfo.put(StageUtils.IPV4_ADDRESSES, ipv4Addresses.getRanges());
+      clusterHostInfo.put(StageUtils.RACKS, racks.getRanges());
+      return clusterHostInfo;
+    }
+
+    /**
+     * Appends new hosts, starts over if a host was removed and updates the per
+     * host values.
+     */
+    private void refreshHosts(Collection<Host> clusterHosts) {
+      Map<String, Host> hostsByName = new HashMap<>();
+      for (Host host : clusterHosts) {
+        hostsByName.put(host.getHostName(), host);
+      }
+
+      if (!hostsByName.keySet().containsAll(hosts)) {
+        LOG.debug("Hosts were removed from the cluster, rebuilding the cluster host info");
+        clear();
+      }
+
+      for (Host host : clusterHosts) {
+        addHost(host.getHostName());
+      }
+
+      List<Integer> portsList = new ArrayList<>(hosts.size());
+      List<String> rackList = new ArrayList<>(hosts.size());
+      List<String> ipV4List = new ArrayList<>(hosts.size());
+
+      for (String hostName : hosts) {
+        Host host = hostsByName.get(hostName);
+
+        Integer currentPingPort = host.getCurrentPingPort();
+        portsList.add(currentPingPort == null ? StageUtils.DEFAULT_PING_PORT : currentPingPort);
+
+        String rackInfo = host.getRackInfo();
+        rackList.add(StringUtils.isEmpty(rackInfo) ? StageUtils.DEFAULT_RACK : rackInfo);
+
+        String iPv4 = host.getIPv4();
+        ipV4List.add(StringUtils.isEmpty(iPv4) ? StageUtils.DEFAULT_IPV4_ADDRESS : iPv4);
+      }
+
+      ports.update(portsList);
+      racks.update(rackList);
+      ipv4Addresses.update(ipV4List);
+    }
+
+    private void addHost(String hostName) {
+      if (hostIndexes.containsKey(hostName)) {
+        return;
+      }
+
+      hostIndexes.put(hostName, hosts.size());
+      hosts.add(hostName);
+      allHosts = null;
+
+      // components may have been installed before the host was known
+      for (Map.Entry<String, Set<String>> entry : componentHosts.entrySet()) {
+        if (entry.getValue().contains(hostName)) {
+          markDirty(entry.getKey());
+        }
+      }
+    }
+
+    private void componentInstalled(String componentName, String hostName) {
+      Set<String> cachedHosts = componentHosts.get(componentName);
+      if (cachedHosts != null && cachedHosts.add(hostName)) {
+        markDirty(componentName);
+      }
+    }
+
+    private void componentUninstalled(String componentName, String hostName) {
+      Set<String> cachedHosts = componentHosts.get(componentName);
+      if (cachedHosts != null && cachedHosts.remove(hostName)) {
+        markDirty(componentName);
+      }
+    }
+
+    private void markDirty(String componentName) {
+      String role = componentRoles.get(componentName);
+      if (role != null) {
+        dirtyRoles.add(role);
+      }
+    }
+
+    private void compressRole(String role) {
+      SortedSet<Integer> indexes = new TreeSet<>();
+      for (Map.Entry<String, String> entry : componentRoles.entrySet()) {
+        if (!role.equals(entry.getValue())) {
+          continue;
+        }
+
+        Set<String> hostNames = componentHosts.get(entry.getKey());
+        if (hostNames == null) {
+          continue;
+        }
+
+        for (String hostName : hostNames) {
+          Integer hostIndex = hostIndexes.get(hostName);
+          if (hostIndex != null) {
+            indexes.add(hostIndex);
+          }
+        }
+      }
+
+      if (indexes.isEmpty()) {
+        roleRanges.remove(role);
+      } else {
+        roleRanges.put(role, Collections.unmodifiableSet(StageUtils.replaceRanges(indexes)));
+      }
+    }
+
+    private void clear() {
+      hosts.clear();
+      hostIndexes.clear();
+      allHosts = null;
+      componentHosts.clear();
+      componentRoles.clear();
+      roleRanges.clear();
+      dirtyRoles.clear();
+    }
+
+    private static String getRole(ServiceComponent serviceComponent) {
+      String componentName = serviceComponent.getName();
+      String role = StageUtils.getComponentToClusterInfoKeyMap().get(componentName);
+      if (role == null && !serviceComponent.isClientComponent()) {
+        role = componentName.toLowerCase() + "_hosts";
+      }
+      return role;
+    }
+  }
+
+  /**
+   * The ranges of a per host value, computed again only when a value changed.
+   */
+  private static final class MappedRanges {
+    private List<?> values;
+    private Set<String> ranges;
+
+    private void update(List<?> currentValues) {
+      if (!currentValues.equals(values)) {
+        values = currentValues;
+        ranges = Collections.unmodifiableSet(StageUtils.replaceMappedRanges(currentValues));
+      }
+    }
+
+    private Set<String> getRanges() {
+      return ranges;
+    }
+  }
+}
@@ -106,6 +106,8 @@ public class StageUtils {
 
   @Inject
   private static Configuration configuration;
+
+  private static ClusterHostInfoCache clusterHostInfoCache;
   
   @Inject
   public StageUtils(StageFactory stageFactory) {
@@ -151,6 +153,14 @@ public class StageUtils {
     StageUtils.configuration = configuration;
   }
 
+  /**
+   * Sets the cache used by {@link #getClusterHostInfo(Cluster)}; without it the
+   * clusterHostInfo is built from scratch for every call.
+   */
+  public static void setClusterHostInfoCache(ClusterHostInfoCache clusterHostInfoCache) {
+    StageUtils.clusterHostInfoCache = clusterHostInfoCache;
+  }
+
   static {
     componentToClusterInfoKeyMap.put("NAMENODE", "namenode_host");
     componentToClusterInfoKeyMap.put("JOBTRACKER", "jtnode_host");
@@ -196,6 +206,10 @@ public class StageUtils {
     return componentToClusterInfoKeyMap;
   }
 
+  static Map<String, String> getDecommissionedToClusterInfoKeyMap() {
+    return decommissionedToClusterInfoKeyMap;
+  }
+
   public static long[] getRequestStage(String actionId) {
     String[] fields = actionId.split("-");
     long[] requestStageIds = new long[2];
@@ -278,7 +292,47 @@ public class StageUtils {
     return commandParams;
   }
 
+  /**
+   * Builds the clusterHostInfo of a cluster: the list of its hosts, the indexes of the hosts of
+   * each role, compressed into ranges, and the Ambari server information.
+   * <p/>
+   * When a {@link ClusterHostInfoCache} is set and no host components are pending in the
+   * topology manager, the host and role entries come from the cache and are shared between the
+   * returned maps; they must not be modified.
+   *
+   * @param cluster the cluster
+   * @return the clusterHostInfo map
+   * @throws AmbariException
+   */
   public static Map<String, Set<String>> getClusterHostInfo(Cluster cluster) throws AmbariException {
+    Map<String, Collection<String>> pendingHostComponents = topologyManager.getPendingHostComponents();
+
+    Map<String, Set<String>> clusterHostInfo;
+    if (clusterHostInfoCache != null && pendingHostComponents.isEmpty()) {
+      clusterHostInfo = clusterHostInfoCache.getClusterHostInfo(cluster);
+    } else {
+      clusterHostInfo = buildClusterHostInfo(cluster, pendingHostComponents);
+    }
+
+    // Fill server host
+    /*
+     * Note: We don't replace server host name, port, ssl usage by an index (like we do
+     * with component hostnames), because if ambari-agent is not installed
+     * at ambari-server host, then allHosts map will not contain
+     * ambari-server hostname.
+     */
+    clusterHostInfo.put(AMBARI_SERVER_HOST, Sets.newHashSet(getHostName()));
+
+    boolean serverUseSsl = configuration.getApiSSLAuthentication();
+    int port = serverUseSsl ? configuration.getClientSSLApiPort() : configuration.getClientApiPort();
+    clusterHostInfo.put(AMBARI_SERVER_PORT, Sets.newHashSet(Integer.toString(port)));
+    clusterHostInfo.put(AMBARI_SERVER_USE_SSL, Sets.newHashSet(Boolean.toString(serverUseSsl)));
+
+    return clusterHostInfo;
+  }
+
+  private static Map<String, Set<String>> buildClusterHostInfo(Cluster cluster,
+      Map<String, Collection<String>> pendingHostComponents) throws AmbariException {
     //Fill hosts and ports lists
     Set<String>   hostsSet  = new LinkedHashSet<>();
     List<Integer> portsList = new ArrayList<>();
@@ -301,7 +355,6 @@ public class StageUtils {
     }
 
     // add hosts from topology manager
-    Map<String, Collection<String>> pendingHostComponents = topologyManager.getPendingHostComponents();
     for (String hostname : pendingHostComponents.keySet()) {
       if (!hostsSet.contains(hostname)) {
         hostsSet.add(hostname);
@@ -435,20 +488,6 @@ public class StageUtils {
     clusterHostInfo.put(IPV4_ADDRESSES, replaceMappedRanges(ipV4List));
     clusterHostInfo.put(RACKS, replaceMappedRanges(rackList));
 
-    // Fill server host
-    /*
-     * Note: We don't replace server host name, port, ssl usage by an index (like we do
-     * with component hostnames), because if ambari-agent is not installed
-     * at ambari-server host, then allHosts map will not contain
-     * ambari-server hostname.
-     */
-    clusterHostInfo.put(AMBARI_SERVER_HOST, Sets.newHashSet(getHostName()));
-    
-    boolean serverUseSsl = configuration.getApiSSLAuthentication();
-    int port = serverUseSsl ? configuration.getClientSSLApiPort() : configuration.getClientApiPort();
-    clusterHostInfo.put(AMBARI_SERVER_PORT, Sets.newHashSet(Integer.toString(port)));
-    clusterHostInfo.put(AMBARI_SERVER_USE_SSL, Sets.newHashSet(Boolean.toString(serverUseSsl)));
-
     return clusterHostInfo;
   }
 
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.actionmanager;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.events.TaskCreateEvent;
+import org.apache.ambari.server.events.TaskUpdateEvent;
+import org.apache.ambari.server.events.publishers.TaskEventPublisher;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link InProgressCommandIndex}.
+ */
+public class InProgressCommandIndexTest {
+
+  private TaskEventPublisher taskEventPublisher;
+  private InProgressCommandIndex index;
+  private AtomicInteger changes;
+
+  @Before
+  public void setup() {
+    Configuration configuration = createNiceMock(Configuration.class);
+    expect(configuration.isActionSchedulerEventDriven()).andReturn(true).anyTimes();
+    replay(configuration);
+
+    taskEventPublisher = new TaskEventPublisher();
+    index = new InProgressCommandIndex(configuration, taskEventPublisher);
+
+    changes = new AtomicInteger();
+    index.setChangeListener(new Runnable() {
+      @Override
+      public void run() {
+        changes.incrementAndGet();
+      }
+    });
+  }
+
+  @Test
+  public void testDisabled() {
+    Configuration configuration = createNiceMock(Configuration.class);
+    replay(configuration);
+
+    InProgressCommandIndex disabled = new InProgressCommandIndex(configuration, taskEventPublisher);
+    assertFalse(disabled.isEnabled());
+
+    taskEventPublisher.publish(new TaskCreateEvent(
+        Collections.singletonList(command(1L, 1L, 1L, "h1", HostRoleStatus.PENDING))));
+    assertTrue(disabled.isEmpty());
+    assertFalse(index.isEmpty());
+  }
+
+  @Test
+  public void testTaskEvents() {
+    assertTrue(index.isEnabled());
+    assertFalse(index.isLoaded());
+
+    taskEventPublisher.publish(new TaskCreateEvent(Arrays.asList(
+        command(1L, 10L, 1L, "h1", HostRoleStatus.PENDING),
+        command(2L, 10L, 1L, "h2", HostRoleStatus.PENDING),
+        command(3L, 10L, 2L, "h1", HostRoleStatus.PENDING),
+        command(4L, 11L, 5L, null, HostRoleStatus.PENDING))));
+    assertEquals(1, changes.get());
+
+    SortedMap<Long, Long> stages = index.getFirstStageInProgressPerRequest();
+    assertEquals(Arrays.asList(10L, 11L), Arrays.asList(stages.keySet().toArray()));
+    assertEquals(Long.valueOf(1L), stages.get(10L));
+    assertEquals(Long.valueOf(5L), stages.get(11L));
+    assertEquals(Sets.newHashSet("h1", "h2"), index.getHostsWithPendingTasks());
+
+    // scheduling commands doesn't wake up the scheduler again
+    taskEventPublisher.publish(new TaskUpdateEvent(Arrays.asList(
+        command(1L, 10L, 1L, "h1", HostRoleStatus.QUEUED),
+        command(2L, 10L, 1L, "h2", HostRoleStatus.IN_PROGRESS))));
+    assertEquals(1, changes.get());
+
+    // completing the first stage does
+    taskEventPublisher.publish(new TaskUpdateEvent(Arrays.asList(
+        command(1L, 10L, 1L, "h1", HostRoleStatus.COMPLETED),
+        command(2L, 10L, 1L, "h2", HostRoleStatus.COMPLETED))));
+    assertEquals(2, changes.get());
+    assertEquals(Long.valueOf(2L), index.getFirstStageInProgressPerRequest().get(10L));
+    assertEquals(Collections.singleton("h1"), index.getHostsWithPendingTasks());
+
+    taskEventPublisher.publish(new TaskUpdateEvent(Arrays.asList(
+        command(3L, 10L, 2L, "h1", HostRoleStatus.ABORTED),
+        command(4L, 11L, 5L, null, HostRoleStatus.FAILED))));
+    assertEquals(3, changes.get());
+    assertTrue(index.isEmpty());
+  }
+
+  @Test
+  public void testReload() {
+    taskEventPublisher.publish(new TaskCreateEvent(Arrays.asList(
+        command(1L, 10L, 1L, "h1", HostRoleStatus.PENDING),
+        command(2L, 10L, 1L, "h2", HostRoleStatus.PENDING))));
+
+    index.beginReload();
+
+    // received while the reload is running
+    taskEventPublisher.publish(new TaskUpdateEvent(
+        Collections.singletonList(command(2L, 10L, 1L, "h2", HostRoleStatus.COMPLETED))));
+
+    List<Object[]> taskKeys = Arrays.asList(
+        new Object[] { 2L, 10L, 1L, "h2", HostRoleStatus.IN_PROGRESS },
+        new Object[] { 3L, 12L, 3L, "h3", HostRoleStatus.HOLDING });
+    index.finishReload(taskKeys);
+
+    assertTrue(index.isLoaded());
+    assertEquals(Collections.singleton(12L), index.getFirstStageInProgressPerRequest().keySet());
+    assertEquals(Collections.singleton("h3"), index.getHostsWithPendingTasks());
+
+    index.invalidate();
+    assertFalse(index.isLoaded());
+  }
+
+  private HostRoleCommand command(long taskId, long requestId, long stageId, String hostName,
+                                  HostRoleStatus status) {
+    HostRoleCommand command = createNiceMock(HostRoleCommand.class);
+    expect(command.getTaskId()).andReturn(taskId).anyTimes();
+    expect(command.getRequestId()).andReturn(requestId).anyTimes();
+    expect(command.getStageId()).andReturn(stageId).anyTimes();
+    expect(command.getHostName()).andReturn(hostName).anyTimes();
+    expect(command.getStatus()).andReturn(status).anyTimes();
+    replay(command);
+    return command;
+  }
+}
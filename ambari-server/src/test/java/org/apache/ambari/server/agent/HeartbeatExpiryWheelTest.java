@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link HeartbeatExpiryWheel}.
+ */
+public class HeartbeatExpiryWheelTest {
+
+  @Test
+  public void testExpiry() {
+    HeartbeatExpiryWheel wheel = new HeartbeatExpiryWheel(10, 8);
+    wheel.advance(1000);
+
+    wheel.schedule("h1", 1025);
+    wheel.schedule("h2", 1050);
+    wheel.schedule("h3", 1050);
+    assertEquals(3, wheel.size());
+
+    assertTrue(wheel.advance(1020).isEmpty());
+    assertEquals(Collections.singletonList("h1"), wheel.advance(1030));
+    assertFalse(wheel.contains("h1"));
+
+    // skipping ticks still expires everything which is due
+    assertEquals(new HashSet<>(Arrays.asList("h2", "h3")), new HashSet<>(wheel.advance(1200)));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testDeadlinesBeyondOneRotation() {
+    HeartbeatExpiryWheel wheel = new HeartbeatExpiryWheel(10, 8);
+    wheel.advance(1000);
+
+    // lands in the same bucket as 1010, but a rotation later
+    wheel.schedule("h1", 1090);
+    for (long now = 1010; now < 1090; now += 10) {
+      assertTrue(wheel.advance(now).isEmpty());
+    }
+    assertEquals(Collections.singletonList("h1"), wheel.advance(1090));
+  }
+
+  @Test
+  public void testRescheduleAndRemove() {
+    HeartbeatExpiryWheel wheel = new HeartbeatExpiryWheel(10, 8);
+    wheel.advance(1000);
+
+    wheel.schedule("h1", 1020);
+    wheel.schedule("h1", 1060);
+    wheel.schedule("h2", 1020);
+    wheel.remove("h2");
+    assertEquals(1, wheel.size());
+    assertTrue(wheel.advance(1050).isEmpty());
+    assertEquals(Collections.singletonList("h1"), wheel.advance(1060));
+
+    // past deadlines expire on the next tick
+    wheel.schedule("h3", 500);
+    assertEquals(Collections.singletonList("h3"), wheel.advance(1070));
+  }
+}
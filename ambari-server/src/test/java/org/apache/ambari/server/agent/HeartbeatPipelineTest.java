@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link HeartbeatPipeline}.
+ */
+public class HeartbeatPipelineTest {
+
+  @Test
+  public void testHeartbeatsOfHostAreOrdered() throws Exception {
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(4, 1000, 10000);
+    final Map<String, List<Integer>> processed = new HashMap<>();
+    for (int h = 0; h < 10; h++) {
+      processed.put("h" + h, Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      for (int h = 0; h < 10; h++) {
+        final String hostname = "h" + h;
+        final int responseId = i;
+        pipeline.submit(hostname, new Runnable() {
+          @Override
+          public void run() {
+            processed.get(hostname).add(responseId);
+          }
+        });
+      }
+    }
+
+    pipeline.stop();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+
+    for (List<Integer> responseIds : processed.values()) {
+      assertEquals(100, responseIds.size());
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, (int) responseIds.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testFullLaneWaits() throws Exception {
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 1, 10000);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    // fills the queue of the only lane
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    assertEquals(1, pipeline.size());
+
+    final AtomicBoolean submitted = new AtomicBoolean();
+    Thread submitter = new Thread() {
+      @Override
+      public void run() {
+        pipeline.submit("h2", new Runnable() {
+          @Override
+          public void run() {
+          }
+        });
+        submitted.set(true);
+      }
+    };
+    submitter.start();
+    submitter.join(200);
+    assertFalse(submitted.get());
+
+    release.countDown();
+    submitter.join(10000);
+    assertTrue(submitted.get());
+
+    pipeline.stop();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFullLaneRejectsAfterTimeout() throws Exception {
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 1, 100);
+    CountDownLatch release = blockLane(pipeline, new CountDownLatch(0));
+
+    try {
+      pipeline.submit("h2", new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      fail("Expected the heartbeat to be rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, pipeline.size());
+
+    release.countDown();
+    pipeline.stop();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testStopWhileWaitingRejects() throws Exception {
+    final HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 1, 10000);
+    CountDownLatch releaseQueued = new CountDownLatch(1);
+    CountDownLatch release = blockLane(pipeline, releaseQueued);
+
+    final AtomicBoolean processed = new AtomicBoolean();
+    final AtomicBoolean rejected = new AtomicBoolean();
+    Thread submitter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pipeline.submit("h2", new Runnable() {
+            @Override
+            public void run() {
+              processed.set(true);
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          rejected.set(true);
+        }
+      }
+    };
+    submitter.start();
+    submitter.join(200);
+    assertTrue(submitter.isAlive());
+
+    // the queued heartbeat takes the lane while the submitter gets its room
+    pipeline.stop();
+    release.countDown();
+    submitter.join(10000);
+    assertTrue(rejected.get());
+
+    releaseQueued.countDown();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+    assertFalse(processed.get());
+    assertEquals(0, pipeline.size());
+  }
+
+  @Test
+  public void testFailuresDoNotStopLane() throws Exception {
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 10, 10000);
+    final AtomicBoolean processed = new AtomicBoolean();
+
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("failed");
+      }
+    });
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+        processed.set(true);
+      }
+    });
+
+    pipeline.stop();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+    assertTrue(processed.get());
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testStoppedPipelineRejects() {
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 10, 10000);
+    pipeline.stop();
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+  }
+
+  /**
+   * Blocks the only lane with a running heartbeat and fills its queue with a
+   * heartbeat which waits for {@code releaseQueued}.
+   *
+   * @return the latch releasing the running heartbeat.
+   */
+  private CountDownLatch blockLane(HeartbeatPipeline pipeline, final CountDownLatch releaseQueued)
+      throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        await(release);
+      }
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    pipeline.submit("h1", new Runnable() {
+      @Override
+      public void run() {
+        await(releaseQueued);
+      }
+    });
+    assertEquals(1, pipeline.size());
+    return release;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ambari.server.AmbariException;
+import org.apache.ambari.server.agent.StatusCommandConfigCache.StatusCommandConfigs;
+import org.apache.ambari.server.events.ClusterConfigChangedEvent;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link StatusCommandConfigCache}.
+ */
+public class StatusCommandConfigCacheTest {
+
+  private StatusCommandConfigCache cache;
+  private AtomicInteger builds;
+  private Callable<StatusCommandConfigs> builder;
+
+  @Before
+  public void setup() {
+    cache = new StatusCommandConfigCache(EasyMock.createNiceMock(AmbariEventPublisher.class));
+    builds = new AtomicInteger();
+    builder = new Callable<StatusCommandConfigs>() {
+      @Override
+      public StatusCommandConfigs call() {
+        builds.incrementAndGet();
+        Map<String, Map<String, String>> configurations = Collections.singletonMap("hadoop-env",
+            Collections.singletonMap("hdfs_user", "hdfs"));
+        return new StatusCommandConfigs(configurations,
+            Collections.<String, Map<String, Map<String, String>>>emptyMap());
+      }
+    };
+  }
+
+  @Test
+  public void testSharedByTags() throws Exception {
+    StatusCommandConfigs configs = cache.get(1L, tags("version1", null), builder);
+    assertSame(configs, cache.get(1L, tags("version1", null), builder));
+    assertEquals(1, builds.get());
+
+    // other cluster, desired version or config group
+    assertNotSame(configs, cache.get(2L, tags("version1", null), builder));
+    assertNotSame(configs, cache.get(1L, tags("version2", null), builder));
+    assertNotSame(configs, cache.get(1L, tags("version1", "version3"), builder));
+    assertEquals(4, builds.get());
+  }
+
+  @Test
+  public void testInvalidatedByEnvConfigChange() throws Exception {
+    cache.get(1L, tags("version1", null), builder);
+
+    cache.onClusterConfigChanged(new ClusterConfigChangedEvent("c1", "hdfs-site", "version2", 2L));
+    cache.get(1L, tags("version1", null), builder);
+    assertEquals(1, builds.get());
+
+    cache.onClusterConfigChanged(new ClusterConfigChangedEvent("c1", "hadoop-env", "version1", 1L));
+    cache.get(1L, tags("version1", null), builder);
+    assertEquals(2, builds.get());
+  }
+
+  @Test
+  public void testBuildFailure() throws Exception {
+    try {
+      cache.get(1L, tags("version1", null), new Callable<StatusCommandConfigs>() {
+        @Override
+        public StatusCommandConfigs call() throws AmbariException {
+          throw new AmbariException("no config");
+        }
+      });
+      fail("Expected AmbariException");
+    } catch (AmbariException e) {
+      assertEquals("no config", e.getMessage());
+    }
+
+    // failures are not cached
+    cache.get(1L, tags("version1", null), builder);
+    assertEquals(1, builds.get());
+  }
+
+  private static Map<String, Map<String, String>> tags(String tag, String groupTag) {
+    Map<String, String> typeTags = new HashMap<>();
+    typeTags.put("tag", tag);
+    if (groupTag != null) {
+      typeTags.put("2", groupTag);
+    }
+    return Collections.singletonMap("hadoop-env", typeTags);
+  }
+}
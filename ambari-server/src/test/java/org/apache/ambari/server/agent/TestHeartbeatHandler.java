@@ -54,6 +54,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBException;
 
@@ -226,6 +228,63 @@ public class TestHeartbeatHandler {
     assertEquals(0, aq.dequeueAll(hostname).size());
   }
 
+  @Test
+  public void testAsyncHeartbeatRecordsLivenessBeforeProcessing() throws Exception {
+    ActionManager am = actionManagerTestHelper.getMockActionManager();
+    expect(am.getTasks(EasyMock.<List<Long>>anyObject())).andReturn(new ArrayList<>()).anyTimes();
+    replay(am);
+
+    Cluster cluster = heartbeatTestHelper.getDummyCluster();
+    Host hostObject = cluster.getHosts().iterator().next();
+    hostObject.setOsType(DummyOsType);
+    String hostname = hostObject.getHostName();
+
+    HeartBeatHandler handler = new HeartBeatHandler(clusters, new ActionQueue(), am, injector);
+    HeartbeatPipeline pipeline = new HeartbeatPipeline(1, 10, 10000);
+    handler.setHeartbeatPipeline(pipeline);
+
+    Register reg = new Register();
+    HostInfo hi = new HostInfo();
+    hi.setHostName(hostname);
+    hi.setOS(DummyOs);
+    hi.setOSRelease(DummyOSRelease);
+    reg.setHostname(hostname);
+    reg.setHardwareProfile(hi);
+    reg.setAgentVersion(metaInfo.getServerVersion());
+    handler.handleRegistration(reg);
+    hostObject.setState(HostState.UNHEALTHY);
+    hostObject.setLastHeartbeatTime(0);
+
+    // back up the lane of the host
+    final CountDownLatch release = new CountDownLatch(1);
+    pipeline.submit(hostname, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    HeartBeat hb = new HeartBeat();
+    hb.setResponseId(0);
+    hb.setNodeStatus(new HostStatus(Status.HEALTHY, DummyHostStatus));
+    hb.setHostname(hostname);
+
+    long beforeHeartbeat = System.currentTimeMillis();
+    handler.handleHeartBeat(hb);
+    assertTrue(hostObject.getLastHeartbeatTime() >= beforeHeartbeat);
+    assertEquals(HostState.UNHEALTHY, hostObject.getState());
+
+    release.countDown();
+    pipeline.stop();
+    assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(HostState.HEALTHY, hostObject.getState());
+    assertTrue(hostObject.getLastHeartbeatTime() >= beforeHeartbeat);
+  }
+
   @Test
   public void testStatusHeartbeatWithAnnotation() throws Exception {
     Cluster cluster = heartbeatTestHelper.getDummyCluster();
@@ -23,7 +23,9 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
+import java.io.ByteArrayOutputStream;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -34,6 +36,7 @@ import org.apache.ambari.server.api.services.Result;
 import org.apache.ambari.server.api.services.ResultImpl;
 import org.apache.ambari.server.api.services.ResultStatus;
 import org.apache.ambari.server.api.util.TreeNode;
+import org.apache.ambari.server.controller.internal.ResourceImpl;
 import org.apache.ambari.server.controller.spi.Resource;
 import org.apache.ambari.server.security.authorization.AuthorizationException;
 import org.junit.Test;
@@ -244,5 +247,37 @@ public class JsonSerializerTest {
     String  json = new JsonSerializer().serialize(result).toString().replace("\r", "");
     assertEquals(expected, json);
   }
-  
+
+  @Test
+  public void testSerializeToStream() throws Exception {
+    Result result = new ResultImpl(true);
+    result.setResultStatus(new ResultStatus(ResultStatus.STATUS.OK));
+    TreeNode<Resource> itemsNode = result.getResultTree().addChild(null, "items");
+    for (int i = 0; i < 3; i++) {
+      Resource resource = new ResourceImpl(Resource.Type.Host);
+      resource.setProperty("Hosts/host_name", "host" + i);
+      resource.setProperty("Hosts/cpu_count", i);
+      TreeNode<Resource> child = itemsNode.addChild(resource, "host" + i);
+      child.setProperty("href", "http://host" + i);
+    }
+
+    final boolean[] closed = new boolean[1];
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    new JsonSerializer().serialize(result, out);
+
+    // same document as rendered in memory, stream is left open for the caller
+    assertEquals(new JsonSerializer().serialize(result), out.toString("UTF-8"));
+    assertFalse(closed[0]);
+
+    // errors are written to the stream as well
+    Result error = new ResultImpl(new ResultStatus(ResultStatus.STATUS.BAD_REQUEST, "bad"));
+    out = new ByteArrayOutputStream();
+    new JsonSerializer().serialize(error, out);
+    assertEquals(new JsonSerializer().serializeError(error.getStatus()), out.toString("UTF-8"));
+  }
 }
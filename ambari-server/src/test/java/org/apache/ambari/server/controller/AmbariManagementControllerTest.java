@@ -4494,7 +4494,7 @@ public class AmbariManagementControllerTest {
 
     Gson gson = new Gson();
     ExecutionCommand executionCommand = gson.fromJson(new StringReader(
-        new String(commandEntity.getCommand())), ExecutionCommand.class);
+        commandEntity.getCommandJson()), ExecutionCommand.class);
 
     assertFalse(executionCommand.getConfigurationTags().isEmpty());
     assertTrue(executionCommand.getConfigurations() == null || executionCommand.getConfigurations().isEmpty());
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ambari.server.controller.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ambari.server.controller.spi.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Builds the host component resources of a large GET (2000 hosts, 10
+ * components each) the way the providers and the renderer do, with and
+ * without the property slots of the type interned.  Each JMH fork starts
+ * with empty layouts, so layout=false measures the per category maps alone.
+ *
+ * Run with "-prof gc" for the allocation rate per operation.
+ *
+ * Not run as part of the unit tests, launch with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=org.apache.ambari.server.controller.internal.ResourceImplBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResourceImplBenchmark {
+
+  @Param({"true", "false"})
+  public boolean layout;
+
+  private static final int HOSTS = 2000;
+  private static final int COMPONENTS = 10;
+
+  private static final String[] PROPERTY_IDS = {
+      HostComponentResourceProvider.HOST_COMPONENT_CLUSTER_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_SERVICE_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_COMPONENT_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_DISPLAY_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_HOST_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_PUBLIC_HOST_NAME_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_STATE_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_DESIRED_STATE_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_VERSION_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_DESIRED_STACK_ID_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_DESIRED_REPOSITORY_VERSION,
+      HostComponentResourceProvider.HOST_COMPONENT_ACTUAL_CONFIGS_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_STALE_CONFIGS_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_RELOAD_CONFIGS_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_DESIRED_ADMIN_STATE_PROPERTY_ID,
+      HostComponentResourceProvider.HOST_COMPONENT_UPGRADE_STATE_PROPERTY_ID,
+  };
+
+  // set by the property providers, never interned
+  private static final String[] METRIC_IDS = {
+      "metrics/cpu/cpu_user",
+      "metrics/cpu/cpu_system",
+      "metrics/memory/mem_free",
+      "metrics/jvm/gcCount",
+  };
+
+  private List<Object> values;
+
+  @Setup
+  public void setup() {
+    if (layout) {
+      ResourcePropertyLayout.forType(Resource.Type.HostComponent).intern(Arrays.asList(PROPERTY_IDS));
+    }
+
+    values = new ArrayList<>();
+    for (int i = 0; i < PROPERTY_IDS.length; i++) {
+      values.add("value" + i);
+    }
+  }
+
+  private Set<Resource> createResources() {
+    Set<Resource> resources = new HashSet<>();
+    for (int host = 0; host < HOSTS; host++) {
+      for (int component = 0; component < COMPONENTS; component++) {
+        Resource resource = new ResourceImpl(Resource.Type.HostComponent);
+        for (int i = 0; i < PROPERTY_IDS.length; i++) {
+          resource.setProperty(PROPERTY_IDS[i], values.get(i));
+        }
+        for (String metricId : METRIC_IDS) {
+          resource.setProperty(metricId, (double) (host * COMPONENTS + component));
+        }
+        resources.add(resource);
+      }
+    }
+    return resources;
+  }
+
+  @Benchmark
+  public int populate() {
+    int count = 0;
+    for (Resource resource : createResources()) {
+      // predicate evaluation and sorting read single properties
+      if (resource.getPropertyValue(HostComponentResourceProvider.HOST_COMPONENT_STATE_PROPERTY_ID) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int populateAndRender() {
+    int count = 0;
+    for (Resource resource : createResources()) {
+      for (Map.Entry<String, Map<String, Object>> category : resource.getPropertiesMap().entrySet()) {
+        count += category.getValue().size();
+      }
+    }
+    return count;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(ResourceImplBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -18,6 +18,8 @@
 
 package org.apache.ambari.server.controller.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 
 import org.apache.ambari.server.controller.spi.Resource;
@@ -184,5 +186,74 @@ public class ResourceImplTest {
     Assert.assertTrue(resource1.equals(resource2));
     Assert.assertTrue(resource2.equals(resource1));
   }
-}
 
+  @Test
+  public void testSlotProperties() {
+    ResourcePropertyLayout.forType(Resource.Type.Alert).intern(
+        Arrays.asList("Alert/id", "Alert/name", "Alert/text", "p1"));
+
+    Resource resource = new ResourceImpl(Resource.Type.Alert);
+    resource.setProperty("Alert/id", 1L);
+    resource.setProperty("Alert/text", null);
+    resource.setProperty("p1", "foo");
+    resource.setProperty("Alert/state", "OK");
+    resource.setProperty("metrics/cpu/cpu_user", 0.5);
+
+    Assert.assertEquals(1L, resource.getPropertyValue("Alert/id"));
+    Assert.assertNull(resource.getPropertyValue("Alert/name"));
+    Assert.assertNull(resource.getPropertyValue("Alert/text"));
+    Assert.assertEquals("foo", resource.getPropertyValue("p1"));
+    Assert.assertEquals("OK", resource.getPropertyValue("Alert/state"));
+    Assert.assertEquals(0.5, resource.getPropertyValue("metrics/cpu/cpu_user"));
+
+    // same properties without slots
+    Resource mapped = new ResourceImpl(Resource.Type.Alert);
+    mapped.getPropertiesMap();
+    mapped.setProperty("metrics/cpu/cpu_user", 0.5);
+    mapped.setProperty("Alert/state", "OK");
+    mapped.setProperty("p1", "foo");
+    mapped.setProperty("Alert/text", null);
+    mapped.setProperty("Alert/id", 1L);
+
+    Assert.assertEquals(mapped, resource);
+    Assert.assertEquals(resource, mapped);
+    Assert.assertEquals(mapped.hashCode(), resource.hashCode());
+    Assert.assertEquals(mapped.toString(), resource.toString());
+
+    Map<String, Map<String, Object>> propertiesMap = resource.getPropertiesMap();
+    Assert.assertEquals(mapped.getPropertiesMap(), propertiesMap);
+    Assert.assertTrue(propertiesMap.get("Alert").containsKey("text"));
+
+    // the properties map is live once handed out
+    propertiesMap.get("Alert").remove("id");
+    Assert.assertNull(resource.getPropertyValue("Alert/id"));
+    resource.setProperty("Alert/name", "alert1");
+    Assert.assertEquals("alert1", propertiesMap.get("Alert").get("name"));
+    mapped.getPropertiesMap().get("Alert").remove("id");
+    mapped.setProperty("Alert/name", "alert1");
+    Assert.assertEquals(mapped, resource);
+    Assert.assertEquals(mapped.hashCode(), resource.hashCode());
+  }
+
+  @Test
+  public void testSlotPropertiesCopyConstructor() {
+    ResourcePropertyLayout.forType(Resource.Type.Alert).intern(
+        Arrays.asList("Alert/id", "Alert/name", "Alert/text", "p1"));
+
+    Resource resource = new ResourceImpl(Resource.Type.Alert);
+    resource.setProperty("Alert/id", 1L);
+    resource.setProperty("Alert/name", "alert1");
+    resource.setProperty("Alert/state", "OK");
+    resource.setProperty("p1", "foo");
+
+    Resource copy = new ResourceImpl(resource);
+    Assert.assertEquals(resource, copy);
+    Assert.assertEquals(resource.hashCode(), copy.hashCode());
+
+    copy = new ResourceImpl(resource, Collections.singleton("Alert"));
+    Assert.assertEquals(1L, copy.getPropertyValue("Alert/id"));
+    Assert.assertEquals("alert1", copy.getPropertyValue("Alert/name"));
+    Assert.assertEquals("OK", copy.getPropertyValue("Alert/state"));
+    Assert.assertNull(copy.getPropertyValue("p1"));
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.events.publishers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.ambari.server.events.AmbariEvent;
+import org.apache.ambari.server.events.AmbariEvent.AmbariEventType;
+import org.apache.ambari.server.events.ClusterEvent;
+import org.apache.ambari.server.events.HostEvent;
+import org.apache.ambari.server.events.HostRegisteredEvent;
+import org.junit.Test;
+
+/**
+ * Tests {@link AmbariEventPublisher}.
+ */
+public class AmbariEventPublisherTest {
+
+  /**
+   * Tests that events of a host which belongs to a cluster are keyed like the
+   * events of the cluster, so they are processed in order with them.
+   */
+  @Test
+  public void testPartitionKeys() {
+    ClusterEvent clusterEvent = new ClusterEvent(AmbariEventType.HOST_ADDED, 1L);
+    HostEvent clusterHostEvent = new HostEvent(AmbariEventType.HOST_REGISTERED, 1L, "h1") {
+    };
+    HostEvent hostEvent = new HostRegisteredEvent("h1");
+    AmbariEvent event = new AmbariEvent(AmbariEventType.SERVICE_INSTALL_SUCCESS) {
+    };
+
+    assertEquals(1L, AmbariEventPublisher.getPartitionKey(clusterEvent));
+    assertEquals(AmbariEventPublisher.getPartitionKey(clusterEvent),
+        AmbariEventPublisher.getPartitionKey(clusterHostEvent));
+    assertEquals("h1", AmbariEventPublisher.getPartitionKey(hostEvent));
+    assertNull(AmbariEventPublisher.getPartitionKey(event));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.events.publishers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Tests {@link PartitionedEventBus}.
+ */
+public class PartitionedEventBusTest {
+
+  @Test
+  public void testOrderWithinPartition() throws Exception {
+    PartitionedEventBus bus = new PartitionedEventBus("test-order", 4, 10, new KeyFunction());
+    OrderListener listener = new OrderListener(200);
+    bus.register(listener);
+
+    for (int i = 0; i < 100; i++) {
+      bus.post(new KeyedEvent("a", i));
+      bus.post(new KeyedEvent("b", i));
+    }
+
+    assertTrue(listener.latch.await(10, TimeUnit.SECONDS));
+    for (List<Integer> received : listener.received.values()) {
+      assertEquals(100, received.size());
+      for (int i = 0; i < 100; i++) {
+        assertEquals(Integer.valueOf(i), received.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testPartitionsRunInParallel() throws Exception {
+    PartitionedEventBus bus = new PartitionedEventBus("test-parallel", 2, 10,
+        new PartitionedEventBus.PartitionKeyFunction() {
+          @Override
+          public Object getPartitionKey(Object event) {
+            // keys 0 and 1 end up in different partitions
+            return ((KeyedEvent) event).sequence;
+          }
+        });
+
+    BlockingListener listener = new BlockingListener();
+    bus.register(listener);
+
+    // the first event waits for the second, which would time out if both
+    // were dispatched on the same thread
+    bus.post(new KeyedEvent("a", 0));
+    bus.post(new KeyedEvent("a", 1));
+
+    assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSubscriberHierarchyAndUnregister() throws Exception {
+    PartitionedEventBus bus = new PartitionedEventBus("test-hierarchy", 2, 10, new KeyFunction());
+    OrderListener listener = new OrderListener(1);
+    bus.register(listener);
+
+    // not a KeyedEvent, no subscriber
+    bus.post("h1");
+    bus.post(new KeyedEvent("a", 0));
+    assertTrue(listener.latch.await(10, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList(0), listener.received.get("a"));
+
+    bus.unregister(listener);
+    bus.post(new KeyedEvent("a", 1));
+    assertEquals(0, bus.getQueueDepths().get("test-hierarchy-0").intValue());
+    assertEquals(1, listener.received.get("a").size());
+  }
+
+  private static class KeyedEvent {
+    private final String key;
+    private final int sequence;
+
+    private KeyedEvent(String key, int sequence) {
+      this.key = key;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class KeyFunction implements PartitionedEventBus.PartitionKeyFunction {
+    @Override
+    public Object getPartitionKey(Object event) {
+      return event instanceof KeyedEvent ? ((KeyedEvent) event).key : null;
+    }
+  }
+
+  public static class OrderListener {
+    private final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+    private final CountDownLatch latch;
+
+    private OrderListener(int expected) {
+      latch = new CountDownLatch(expected);
+    }
+
+    @Subscribe
+    public void onEvent(KeyedEvent event) {
+      if (!received.containsKey(event.key)) {
+        received.put(event.key, new ArrayList<Integer>());
+      }
+      received.get(event.key).add(event.sequence);
+      latch.countDown();
+    }
+  }
+
+  public static class BlockingListener {
+    private final CountDownLatch second = new CountDownLatch(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void onEvent(KeyedEvent event) throws InterruptedException {
+      if (event.sequence == 0) {
+        if (second.await(10, TimeUnit.SECONDS)) {
+          done.countDown();
+        }
+      } else {
+        second.countDown();
+      }
+    }
+  }
+}
@@ -121,6 +121,11 @@ public class InMemoryDefaultTestModule extends AbstractModule {
       properties.setProperty(Configuration.RESOURCES_DIR.getKey(), resourcesDir);
     }
 
+    // current alerts are written immediately so that tests can read them back
+    if (!properties.containsKey(Configuration.ALERTS_CURRENT_FLUSH_INTERVAL.getKey())) {
+      properties.setProperty(Configuration.ALERTS_CURRENT_FLUSH_INTERVAL.getKey(), "0");
+    }
+
     try {
       install(Modules.override(new BeanDefinitionsCachingTestControllerModule(properties)).with(new AbstractModule() {
         @Override
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.orm.entities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * ExecutionCommandEntity unit tests
+ */
+public class ExecutionCommandEntityTest {
+
+  @Test
+  public void testCompressedCommand() {
+    StringBuilder json = new StringBuilder("{\"configurations\":{\"hdfs-site\":{");
+    for (int i = 0; i < 500; i++) {
+      json.append("\"dfs.property.").append(i).append("\":\"value-").append(i).append("\",");
+    }
+    json.append("\"unicode\":\"\u00e9\u00e8\"}}}");
+
+    ExecutionCommandEntity entity = new ExecutionCommandEntity();
+    entity.setCommandJson(json.toString());
+
+    assertTrue(entity.getCommand().length < json.length() / 3);
+    assertEquals(json.toString(), entity.getCommandJson());
+  }
+
+  @Test
+  public void testUncompressedCommand() {
+    String json = "{\"taskId\":1,\"hostname\":\"h1\"}";
+
+    ExecutionCommandEntity entity = new ExecutionCommandEntity();
+    entity.setCommand(json.getBytes(StandardCharsets.UTF_8));
+    assertEquals(json, entity.getCommandJson());
+
+    entity.setCommandJson(null);
+    assertNull(entity.getCommand());
+    assertNull(entity.getCommandJson());
+  }
+}
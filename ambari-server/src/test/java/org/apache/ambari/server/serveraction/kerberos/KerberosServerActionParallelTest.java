@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ambari.server.serveraction.kerberos;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ambari.server.AmbariException;
+import org.apache.ambari.server.actionmanager.HostRoleCommand;
+import org.apache.ambari.server.actionmanager.HostRoleStatus;
+import org.apache.ambari.server.agent.CommandReport;
+import org.apache.ambari.server.agent.ExecutionCommand;
+import org.apache.ambari.server.audit.AuditLogger;
+import org.apache.ambari.server.configuration.Configuration;
+import org.apache.ambari.server.controller.KerberosHelper;
+import org.apache.ambari.server.security.credential.PrincipalKeyCredential;
+import org.apache.ambari.server.state.Cluster;
+import org.apache.ambari.server.state.Clusters;
+import org.apache.ambari.server.state.stack.OsFamily;
+import org.apache.commons.io.FileUtils;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import junit.framework.Assert;
+
+/**
+ * Tests the parallel processing of the identities of a {@link KerberosServerAction} against
+ * {@link MITKerberosOperationHandler}s driving a fake kadmin script, so no KDC is needed.
+ */
+public class KerberosServerActionParallelTest {
+
+  /**
+   * A kadmin replacement keeping one file per principal in the db directory. It supports the
+   * add_principal and get_principal queries issued by {@link MITKerberosOperationHandler#createPrincipal}.
+   */
+  private static final String FAKE_KADMIN =
+      "#!/bin/sh\n" +
+      "DB=\"%s\"\n" +
+      "while [ $# -gt 0 ]; do\n" +
+      "  if [ \"$1\" = \"-q\" ]; then QUERY=\"$2\"; fi\n" +
+      "  shift\n" +
+      "done\n" +
+      "set -- $QUERY\n" +
+      "COMMAND=\"$1\"\n" +
+      "eval PRINCIPAL=\\${$#}\n" +
+      "case \"$COMMAND\" in\n" +
+      "  add_principal)\n" +
+      "    if ( set -C; : > \"$DB/$PRINCIPAL\" ) 2>/dev/null; then\n" +
+      "      echo \"Principal \\\"$PRINCIPAL\\\" created.\"\n" +
+      "    else\n" +
+      "      echo \"add_principal: Principal or policy already exists while creating \\\"$PRINCIPAL\\\".\" >&2\n" +
+      "      exit 1\n" +
+      "    fi ;;\n" +
+      "  get_principal)\n" +
+      "    echo \"Principal: $PRINCIPAL\"\n" +
+      "    echo \"Key: vno 1, aes256-cts-hmac-sha1-96\" ;;\n" +
+      "  *)\n" +
+      "    echo \"Unsupported query: $QUERY\" >&2\n" +
+      "    exit 1 ;;\n" +
+      "esac\n";
+
+  private static final int PRINCIPAL_COUNT = 20;
+
+  private final Map<String, String> commandParams = new HashMap<>();
+  private final Set<String> seenPrincipals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Set<KerberosOperationHandler> usedHandlers = Collections.newSetFromMap(new ConcurrentHashMap<KerberosOperationHandler, Boolean>());
+  private final Set<String> usedThreads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private File temporaryDirectory;
+  private File databaseDirectory;
+  private KerberosServerAction action;
+
+  @Before
+  public void setUp() throws Exception {
+    Assume.assumeTrue(File.separatorChar == '/');
+
+    temporaryDirectory = File.createTempFile("ambari_ut_", ".d");
+    Assert.assertTrue(temporaryDirectory.delete());
+    Assert.assertTrue(temporaryDirectory.mkdirs());
+
+    databaseDirectory = new File(temporaryDirectory, "db");
+    Assert.assertTrue(databaseDirectory.mkdirs());
+
+    File binDirectory = new File(temporaryDirectory, "bin");
+    Assert.assertTrue(binDirectory.mkdirs());
+    for (String executable : new String[]{"kadmin", "kadmin.local"}) {
+      File script = new File(binDirectory, executable);
+      FileUtils.writeStringToFile(script, String.format(FAKE_KADMIN, databaseDirectory.getAbsolutePath()),
+          StandardCharsets.UTF_8);
+      Assert.assertTrue(script.setExecutable(true));
+    }
+
+    // Each principal is found on two hosts
+    KerberosIdentityDataFileWriter writer =
+        new KerberosIdentityDataFileWriter(new File(temporaryDirectory, KerberosIdentityDataFileWriter.DATA_FILE_NAME));
+    for (int i = 0; i < PRINCIPAL_COUNT * 2; i++) {
+      writer.writeRecord("host" + i, "serviceName", "serviceComponentName",
+          "service" + (i % PRINCIPAL_COUNT) + "@_REALM", "service", "keytabFilePath",
+          "keytabFileOwnerName", "r", "keytabFileGroupName", "", "false", "false");
+    }
+    writer.close();
+
+    commandParams.put(KerberosServerAction.DATA_DIRECTORY, temporaryDirectory.getAbsolutePath());
+    commandParams.put(KerberosServerAction.DEFAULT_REALM, "REALM.COM");
+    commandParams.put(KerberosServerAction.KDC_TYPE, KDCType.MIT_KDC.toString());
+
+    Map<String, String> kerberosEnv = new HashMap<>();
+    kerberosEnv.put(KerberosOperationHandler.KERBEROS_ENV_EXECUTABLE_SEARCH_PATHS, binDirectory.getAbsolutePath());
+
+    final Cluster cluster = mock(Cluster.class);
+
+    final Clusters clusters = mock(Clusters.class);
+    when(clusters.getCluster(anyString())).thenReturn(cluster);
+
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.KERBEROS_OPERATION_THREADS.getKey(), "4");
+    properties.setProperty(Configuration.KERBEROS_OPERATION_RETRIES.getKey(), "0");
+    final Configuration configuration = new Configuration(properties);
+
+    final KerberosHelper kerberosHelper = createNiceMock(KerberosHelper.class);
+    expect(kerberosHelper.getKDCAdministratorCredentials(EasyMock.anyObject(String.class)))
+        .andReturn(new PrincipalKeyCredential("admin/admin", "password"))
+        .anyTimes();
+    replay(kerberosHelper);
+
+    Injector injector = Guice.createInjector(new AbstractModule() {
+
+      @Override
+      protected void configure() {
+        bind(Configuration.class).toInstance(configuration);
+        bind(KerberosHelper.class).toInstance(kerberosHelper);
+        bind(KerberosServerAction.class).toInstance(new KerberosServerAction() {
+
+          @Override
+          protected boolean supportsParallelIdentityProcessing() {
+            return true;
+          }
+
+          @Override
+          protected CommandReport processIdentity(Map<String, String> identityRecord, String evaluatedPrincipal,
+                                                  KerberosOperationHandler operationHandler,
+                                                  Map<String, String> kerberosConfiguration,
+                                                  Map<String, Object> requestSharedDataContext)
+              throws AmbariException {
+            usedHandlers.add(operationHandler);
+            usedThreads.add(Thread.currentThread().getName());
+
+            if (seenPrincipals.add(evaluatedPrincipal)) {
+              try {
+                operationHandler.createPrincipal(evaluatedPrincipal, "secret", true);
+              } catch (KerberosOperationException e) {
+                return createCommandReport(1, HostRoleStatus.FAILED, "{}", "", e.getMessage());
+              }
+            }
+            return null;
+          }
+
+          @Override
+          public CommandReport execute(ConcurrentMap<String, Object> requestSharedDataContext)
+              throws AmbariException, InterruptedException {
+            return processIdentities(requestSharedDataContext);
+          }
+        });
+
+        bind(Clusters.class).toInstance(clusters);
+        bind(OsFamily.class).toInstance(createNiceMock(OsFamily.class));
+        bind(AuditLogger.class).toInstance(createNiceMock(AuditLogger.class));
+      }
+    });
+
+    ExecutionCommand executionCommand = mock(ExecutionCommand.class);
+    when(executionCommand.getCommandParams()).thenReturn(commandParams);
+    when(executionCommand.getClusterName()).thenReturn("c1");
+    when(executionCommand.getConfigurations()).thenReturn(
+        Collections.singletonMap("kerberos-env", kerberosEnv));
+
+    action = injector.getInstance(KerberosServerAction.class);
+    action.setExecutionCommand(executionCommand);
+    action.setHostRoleCommand(mock(HostRoleCommand.class));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (temporaryDirectory != null) {
+      FileUtils.deleteQuietly(temporaryDirectory);
+    }
+  }
+
+  @Test
+  public void testProcessIdentitiesInParallel() throws Exception {
+    CommandReport report = action.processIdentities(new ConcurrentHashMap<String, Object>());
+    Assert.assertNotNull(report);
+    Assert.assertEquals(HostRoleStatus.COMPLETED.toString(), report.getStatus());
+
+    // every principal was created exactly once, the fake kadmin fails on duplicates
+    String[] created = databaseDirectory.list();
+    Assert.assertEquals(PRINCIPAL_COUNT, created.length);
+    for (int i = 0; i < PRINCIPAL_COUNT; i++) {
+      Assert.assertTrue(new File(databaseDirectory, "service" + i + "@REALM.COM").exists());
+    }
+
+    // one opened handler per partition
+    Assert.assertEquals(4, usedHandlers.size());
+    Assert.assertEquals(4, usedThreads.size());
+    for (KerberosOperationHandler handler : usedHandlers) {
+      Assert.assertTrue(handler instanceof MITKerberosOperationHandler);
+      Assert.assertFalse(handler.isOpen());
+    }
+  }
+
+  @Test
+  public void testProcessIdentitiesInParallelFailure() throws Exception {
+    // an existing principal fails its creation
+    Assert.assertTrue(new File(databaseDirectory, "service7@REALM.COM").createNewFile());
+
+    CommandReport report = action.processIdentities(new ConcurrentHashMap<String, Object>());
+    Assert.assertNotNull(report);
+    Assert.assertEquals(HostRoleStatus.FAILED.toString(), report.getStatus());
+    Assert.assertTrue(report.getStdErr().contains("service7@REALM.COM"));
+
+    for (KerberosOperationHandler handler : usedHandlers) {
+      Assert.assertFalse(handler.isOpen());
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.state.alerts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.apache.ambari.server.orm.entities.AlertCurrentEntity;
+import org.apache.ambari.server.orm.entities.AlertHistoryEntity;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore.AlertCurrentUpdate;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link AlertCurrentUpdateStore}.
+ */
+public class AlertCurrentUpdateStoreTest {
+
+  private AlertCurrentUpdateStore m_store;
+  private AlertCurrentEntity m_current;
+
+  @Before
+  public void setup() {
+    m_store = new AlertCurrentUpdateStore();
+    m_current = createCurrent(1L, 10L, 100L, 1L);
+  }
+
+  @Test
+  public void testUpdates() {
+    AlertCurrentUpdate update = m_store.get(m_current);
+    assertEquals(100L, update.getLatestTimestamp());
+    assertEquals(1L, update.getOccurrences());
+
+    update.setLatestTimestamp(200L);
+    update.setOccurrences(2L);
+    m_store.put(update);
+
+    // the entity is untouched, the store has the latest values
+    assertEquals(100L, (long) m_current.getLatestTimestamp());
+    update = m_store.get(m_current);
+    assertEquals(200L, update.getLatestTimestamp());
+    assertEquals(2L, update.getOccurrences());
+
+    update.setLatestTimestamp(300L);
+    update.setOccurrences(3L);
+    m_store.put(update);
+    assertEquals(1, m_store.size());
+
+    List<AlertCurrentUpdate> updates = m_store.drain();
+    assertEquals(1, updates.size());
+    assertEquals(0, m_store.size());
+
+    // drained updates remain visible until they were flushed
+    assertEquals(3L, m_store.get(m_current).getOccurrences());
+    m_store.flushed(updates);
+    assertEquals(1L, m_store.get(m_current).getOccurrences());
+  }
+
+  @Test
+  public void testRestore() {
+    AlertCurrentUpdate update = m_store.get(m_current);
+    update.setLatestTimestamp(200L);
+    update.setOccurrences(2L);
+    m_store.put(update);
+
+    List<AlertCurrentUpdate> updates = m_store.drain();
+    m_store.restore(updates);
+
+    assertEquals(1, m_store.size());
+    assertEquals(2L, m_store.drain().get(0).getOccurrences());
+  }
+
+  @Test
+  public void testStaleUpdates() {
+    AlertCurrentUpdate update = m_store.get(m_current);
+    update.setLatestTimestamp(200L);
+    update.setOccurrences(2L);
+    m_store.put(update);
+
+    // a newer state of the alert ignores updates of the previous one
+    AlertCurrentEntity changed = createCurrent(1L, 11L, 150L, 1L);
+    assertEquals(150L, m_store.get(changed).getLatestTimestamp());
+    assertEquals(11L, m_store.get(changed).getHistoryId());
+
+    m_store.apply(changed);
+    assertEquals(150L, (long) changed.getLatestTimestamp());
+    assertEquals(0, m_store.size());
+  }
+
+  @Test
+  public void testApply() {
+    AlertCurrentUpdate update = m_store.get(m_current);
+    update.setLatestTimestamp(200L);
+    update.setLatestText("text");
+    update.setOccurrences(2L);
+    m_store.put(update);
+
+    m_store.apply(m_current);
+    assertEquals(200L, (long) m_current.getLatestTimestamp());
+    assertEquals("text", m_current.getLatestText());
+    assertEquals(2L, (long) m_current.getOccurrences());
+    assertEquals(0, m_store.size());
+  }
+
+  private static AlertCurrentEntity createCurrent(long alertId, long historyId, long timestamp,
+      long occurrences) {
+    AlertHistoryEntity history = new AlertHistoryEntity();
+    history.setAlertId(historyId);
+
+    AlertCurrentEntity current = new AlertCurrentEntity();
+    current.setAlertId(alertId);
+    current.setAlertHistory(history);
+    current.setLatestTimestamp(timestamp);
+    current.setOccurrences(occurrences);
+    return current;
+  }
+}
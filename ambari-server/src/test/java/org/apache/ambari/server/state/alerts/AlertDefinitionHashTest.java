@@ -23,6 +23,7 @@ import static org.easymock.EasyMock.expect;
 
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +33,7 @@ import java.util.Set;
 import java.util.UUID;
 
 import org.apache.ambari.server.agent.ActionQueue;
+import org.apache.ambari.server.agent.AgentCommand.AgentCommandType;
 import org.apache.ambari.server.agent.AlertDefinitionCommand;
 import org.apache.ambari.server.agent.AlertExecutionCommand;
 import org.apache.ambari.server.orm.InMemoryDefaultTestModule;
@@ -161,6 +163,7 @@ public class AlertDefinitionHashTest extends TestCase {
 
     m_hdfsService = new AlertDefinitionEntity();
     m_hdfsService.setDefinitionId(1L);
+    m_hdfsService.setDefinitionName("hdfs_service");
     m_hdfsService.setClusterId(1L);
     m_hdfsService.setHash(UUID.randomUUID().toString());
     m_hdfsService.setServiceName("HDFS");
@@ -170,6 +173,7 @@ public class AlertDefinitionHashTest extends TestCase {
 
     m_hdfsHost = new AlertDefinitionEntity();
     m_hdfsHost.setDefinitionId(2L);
+    m_hdfsHost.setDefinitionName("hdfs_host");
     m_hdfsHost.setClusterId(1L);
     m_hdfsHost.setHash(UUID.randomUUID().toString());
     m_hdfsHost.setServiceName("HDFS");
@@ -179,6 +183,7 @@ public class AlertDefinitionHashTest extends TestCase {
 
     AlertDefinitionEntity agentScoped = new AlertDefinitionEntity();
     agentScoped.setDefinitionId(3L);
+    agentScoped.setDefinitionName("agent_scoped");
     agentScoped.setClusterId(1L);
     agentScoped.setHash(UUID.randomUUID().toString());
     agentScoped.setServiceName("AMBARI");
@@ -402,6 +407,87 @@ public class AlertDefinitionHashTest extends TestCase {
     assertEquals(1, actionQueue.size("anotherHost"));
   }
 
+  /**
+   * Tests that changes after the registration of a host are sent as deltas
+   * and that a delta which never reached the agent is merged into the next.
+   */
+  @Test
+  public void testDeltaCommands() throws Exception {
+    ActionQueue actionQueue = m_injector.getInstance(ActionQueue.class);
+
+    AlertDefinitionCommand registration = m_hash.getRegistrationCommand(
+        m_mockCluster, HOSTNAME);
+
+    assertFalse(registration.isDelta());
+    assertEquals(3, registration.getAlertDefinitions().size());
+    assertEquals(m_hash.getHash(CLUSTERNAME, HOSTNAME), registration.getHash());
+
+    Set<String> hosts = Collections.singleton(HOSTNAME);
+
+    // nothing changed, nothing to send
+    m_hash.enqueueAgentCommands(1L, hosts);
+    assertEquals(0, actionQueue.size(HOSTNAME));
+
+    // add a definition and change another
+    AlertDefinitionEntity agentScoped = new AlertDefinitionEntity();
+    agentScoped.setDefinitionId(4L);
+    agentScoped.setDefinitionName("agent_scoped_2");
+    agentScoped.setClusterId(1L);
+    agentScoped.setHash(UUID.randomUUID().toString());
+    agentScoped.setServiceName("AMBARI");
+    agentScoped.setComponentName("AMBARI_AGENT");
+    agentScoped.setScope(Scope.HOST);
+    agentScoped.setScheduleInterval(1);
+    m_agentDefinitions.add(agentScoped);
+
+    m_hdfsHost.setHash(UUID.randomUUID().toString());
+
+    m_hash.enqueueAgentCommands(1L, hosts);
+    assertEquals(1, actionQueue.size(HOSTNAME));
+
+    AlertDefinitionCommand delta = (AlertDefinitionCommand) actionQueue.dequeue(
+        HOSTNAME, AgentCommandType.ALERT_DEFINITION_COMMAND).get(0);
+
+    assertTrue(delta.isDelta());
+    assertEquals(registration.getHash(), delta.getBaseHash());
+    assertEquals(m_hash.getHash(CLUSTERNAME, HOSTNAME), delta.getHash());
+    assertEquals(0, delta.getRemovedDefinitions().size());
+
+    Set<String> names = new HashSet<>();
+    for (AlertDefinition definition : delta.getAlertDefinitions()) {
+      names.add(definition.getName());
+    }
+
+    assertEquals(new HashSet<>(Arrays.asList("hdfs_host", "agent_scoped_2")), names);
+
+    // remove the added definition while the next delta is still queued
+    m_hdfsHost.setHash(UUID.randomUUID().toString());
+    m_hash.enqueueAgentCommands(1L, hosts);
+    assertEquals(1, actionQueue.size(HOSTNAME));
+
+    m_agentDefinitions.remove(agentScoped);
+    m_hash.enqueueAgentCommands(1L, hosts);
+    assertEquals(1, actionQueue.size(HOSTNAME));
+
+    delta = (AlertDefinitionCommand) actionQueue.dequeue(HOSTNAME,
+        AgentCommandType.ALERT_DEFINITION_COMMAND).get(0);
+
+    assertTrue(delta.isDelta());
+    assertEquals(1, delta.getAlertDefinitions().size());
+    assertEquals("hdfs_host", delta.getAlertDefinitions().get(0).getName());
+    assertEquals(Collections.singletonList("agent_scoped_2"), delta.getRemovedDefinitions());
+
+    // a registration always sends everything
+    m_hdfsHost.setHash(UUID.randomUUID().toString());
+    m_hash.enqueueAgentCommands(1L, hosts);
+    assertEquals(1, actionQueue.size(HOSTNAME));
+
+    registration = m_hash.getRegistrationCommand(m_mockCluster, HOSTNAME);
+    assertFalse(registration.isDelta());
+    assertEquals(3, registration.getAlertDefinitions().size());
+    assertEquals(0, actionQueue.size(HOSTNAME));
+  }
+
   /**
    *
    */
@@ -30,6 +30,7 @@ import javax.persistence.EntityManager;
 
 import org.apache.ambari.server.AmbariException;
 import org.apache.ambari.server.H2DatabaseCleaner;
+import org.apache.ambari.server.configuration.Configuration;
 import org.apache.ambari.server.controller.RootServiceResponseFactory.Components;
 import org.apache.ambari.server.controller.RootServiceResponseFactory.Services;
 import org.apache.ambari.server.events.AlertReceivedEvent;
@@ -54,6 +55,8 @@ import org.apache.ambari.server.state.MaintenanceState;
 import org.apache.ambari.server.state.ServiceComponentFactory;
 import org.apache.ambari.server.state.ServiceComponentHostFactory;
 import org.apache.ambari.server.state.ServiceFactory;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore;
+import org.apache.ambari.server.state.alert.AlertCurrentUpdateStore.AlertCurrentUpdate;
 import org.apache.ambari.server.state.alert.Scope;
 import org.apache.ambari.server.state.alert.SourceType;
 import org.apache.ambari.server.utils.EventBusSynchronizer;
@@ -586,6 +589,71 @@ public class AlertReceivedListenerTest {
     assertEquals(3, (long) allCurrent.get(0).getOccurrences());
   }
 
+  /**
+   * Tests that alerts which remain in the same state are written in a batch.
+   */
+  @Test
+  public void testAlertOccurrencesWriteBehind() {
+    m_injector.getInstance(Configuration.class).setProperty(
+        Configuration.ALERTS_CURRENT_FLUSH_INTERVAL.getKey(), "5");
+
+    AlertCurrentUpdateStore store = m_injector.getInstance(AlertCurrentUpdateStore.class);
+
+    String definitionName = ALERT_DEFINITION + "1";
+    String serviceName = "HDFS";
+    String componentName = "NAMENODE";
+
+    Alert alert = new Alert(definitionName, null, serviceName, componentName, HOST1, AlertState.OK);
+
+    alert.setCluster(m_cluster.getClusterName());
+    alert.setLabel(ALERT_LABEL);
+    alert.setText(serviceName + " " + componentName + " is OK");
+    alert.setTimestamp(1L);
+
+    AlertReceivedListener listener = m_injector.getInstance(AlertReceivedListener.class);
+    AlertReceivedEvent event = new AlertReceivedEvent(m_cluster.getClusterId(), alert);
+    listener.onAlertEvent(event);
+
+    // the same state twice is only kept in memory
+    alert.setTimestamp(2L);
+    listener.onAlertEvent(event);
+    alert.setTimestamp(3L);
+    listener.onAlertEvent(event);
+
+    assertEquals(1, store.size());
+    AlertCurrentEntity current = m_dao.findCurrent().get(0);
+    assertEquals(1, (long) current.getOccurrences());
+    assertEquals(1L, (long) current.getLatestTimestamp());
+
+    // write the batch
+    List<AlertCurrentUpdate> updates = store.drain();
+    assertEquals(1, m_dao.updateCurrentAlerts(updates));
+    m_dao.evictCurrentAlerts(updates);
+    store.flushed(updates);
+
+    m_dao.refresh(current);
+    assertEquals(3, (long) current.getOccurrences());
+    assertEquals(3L, (long) current.getLatestTimestamp());
+
+    // a pending update is merged along with a state change
+    alert.setTimestamp(4L);
+    listener.onAlertEvent(event);
+    assertEquals(1, store.size());
+
+    alert.setState(AlertState.WARNING);
+    alert.setTimestamp(5L);
+    listener.onAlertEvent(event);
+    assertEquals(0, store.size());
+
+    current = m_dao.findCurrent().get(0);
+    assertEquals(AlertState.WARNING, current.getAlertHistory().getAlertState());
+    assertEquals(1, (long) current.getOccurrences());
+    assertEquals(5L, (long) current.getLatestTimestamp());
+
+    // an outdated update does not overwrite the new state
+    assertEquals(0, m_dao.updateCurrentAlerts(updates));
+  }
+
   /**
    * Tests that we correctly record alert firmness depending on several factors,
    * such as {@link AlertState} and {@link SourceType}.
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ambari.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ambari.server.events.HostsAddedEvent;
+import org.apache.ambari.server.events.ServiceComponentInstalledEvent;
+import org.apache.ambari.server.events.ServiceComponentUninstalledEvent;
+import org.apache.ambari.server.events.publishers.AmbariEventPublisher;
+import org.apache.ambari.server.state.Cluster;
+import org.apache.ambari.server.state.Host;
+import org.apache.ambari.server.state.HostComponentAdminState;
+import org.apache.ambari.server.state.Service;
+import org.apache.ambari.server.state.ServiceComponent;
+import org.apache.ambari.server.state.ServiceComponentHost;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ClusterHostInfoCache}.
+ */
+public class ClusterHostInfoCacheTest {
+
+  private ClusterHostInfoCache cache;
+  private Cluster cluster;
+  private ServiceComponent dataNode;
+  private ServiceComponent client;
+  private final List<Host> hosts = new ArrayList<>();
+  private final Map<String, ServiceComponentHost> dataNodeHosts = new HashMap<>();
+
+  @Before
+  public void setup() throws Exception {
+    cache = new ClusterHostInfoCache(mock(AmbariEventPublisher.class));
+
+    for (int i = 0; i < 6; i++) {
+      hosts.add(createHost("h" + i, i < 3 ? "/rack1" : "/rack2"));
+    }
+
+    for (int i : new int[]{0, 1, 2, 4}) {
+      dataNodeHosts.put("h" + i, createServiceComponentHost(HostComponentAdminState.INSERVICE));
+    }
+
+    dataNode = mock(ServiceComponent.class);
+    when(dataNode.getName()).thenReturn("DATANODE");
+    when(dataNode.getServiceComponentHosts()).thenReturn(new HashMap<>(dataNodeHosts));
+
+    client = mock(ServiceComponent.class);
+    when(client.getName()).thenReturn("HDFS_CLIENT");
+    when(client.isClientComponent()).thenReturn(true);
+    when(client.getServiceComponentHosts()).thenReturn(
+        Collections.singletonMap("h5", createServiceComponentHost(null)));
+
+    Map<String, ServiceComponent> components = new HashMap<>();
+    components.put("DATANODE", dataNode);
+    components.put("HDFS_CLIENT", client);
+
+    Service service = mock(Service.class);
+    when(service.getServiceComponents()).thenReturn(components);
+
+    cluster = mock(Cluster.class);
+    when(cluster.getClusterId()).thenReturn(1L);
+    when(cluster.getHosts()).thenReturn(new ArrayList<>(hosts));
+    when(cluster.getServices()).thenReturn(Collections.singletonMap("HDFS", service));
+  }
+
+  @Test
+  public void testClusterHostInfo() throws Exception {
+    Map<String, Set<String>> info = cache.getClusterHostInfo(cluster);
+
+    assertEquals(Arrays.asList("h0", "h1", "h2", "h3", "h4", "h5"), new ArrayList<>(info.get("all_hosts")));
+    assertEquals(new HashSet<>(Arrays.asList("0-2", "4")), info.get("slave_hosts"));
+    assertEquals(new HashSet<>(Arrays.asList("/rack1:0-2", "/rack2:3-5")), info.get("all_racks"));
+    assertEquals(Collections.singleton("8670:0-5"), info.get("all_ping_ports"));
+    assertFalse(info.containsKey("hdfs_client_hosts"));
+    assertFalse(info.containsKey("decom_dn_hosts"));
+
+    // the unchanged values are shared with the next stage
+    Map<String, Set<String>> next = cache.getClusterHostInfo(cluster);
+    assertSame(info.get("all_hosts"), next.get("all_hosts"));
+    assertSame(info.get("slave_hosts"), next.get("slave_hosts"));
+    assertSame(info.get("all_racks"), next.get("all_racks"));
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    Map<String, Set<String>> info = cache.getClusterHostInfo(cluster);
+
+    hosts.add(createHost("h6", "/rack2"));
+    dataNodeHosts.put("h6", createServiceComponentHost(HostComponentAdminState.INSERVICE));
+    dataNodeHosts.remove("h0");
+    when(cluster.getHosts()).thenReturn(new ArrayList<>(hosts));
+    when(dataNode.getServiceComponentHosts()).thenReturn(new HashMap<>(dataNodeHosts));
+
+    cache.onEvent(new HostsAddedEvent(1L, Collections.singleton("h6")));
+    cache.onEvent(new ServiceComponentInstalledEvent(1L, "HDP", "2.6", "HDFS", "DATANODE", "h6", false));
+    cache.onEvent(new ServiceComponentUninstalledEvent(1L, "HDP", "2.6", "HDFS", "DATANODE", "h0", false));
+
+    Map<String, Set<String>> next = cache.getClusterHostInfo(cluster);
+    assertEquals(Arrays.asList("h0", "h1", "h2", "h3", "h4", "h5", "h6"), new ArrayList<>(next.get("all_hosts")));
+    assertEquals(new HashSet<>(Arrays.asList("1-2", "4", "6")), next.get("slave_hosts"));
+    assertEquals(new HashSet<>(Arrays.asList("/rack1:0-2", "/rack2:3-6")), next.get("all_racks"));
+    assertFalse(info.get("all_hosts").contains("h6"));
+  }
+
+  @Test
+  public void testChangesWithoutEvents() throws Exception {
+    cache.getClusterHostInfo(cluster);
+
+    // the events are still queued, the model already changed
+    dataNodeHosts.put("h3", createServiceComponentHost(HostComponentAdminState.DECOMMISSIONED));
+    when(dataNode.getServiceComponentHosts()).thenReturn(new HashMap<>(dataNodeHosts));
+
+    Map<String, Set<String>> info = cache.getClusterHostInfo(cluster);
+    assertEquals(Collections.singleton("0-4"), info.get("slave_hosts"));
+    assertEquals(Collections.singleton("3"), info.get("decom_dn_hosts"));
+
+    // a host removed from the cluster moves the indexes of the other hosts
+    hosts.remove(0);
+    dataNodeHosts.remove("h0");
+    when(cluster.getHosts()).thenReturn(new ArrayList<>(hosts));
+    when(dataNode.getServiceComponentHosts()).thenReturn(new HashMap<>(dataNodeHosts));
+
+    info = cache.getClusterHostInfo(cluster);
+    assertEquals(Arrays.asList("h1", "h2", "h3", "h4", "h5"), new ArrayList<>(info.get("all_hosts")));
+    assertEquals(Collections.singleton("0-3"), info.get("slave_hosts"));
+    assertEquals(Collections.singleton("2"), info.get("decom_dn_hosts"));
+  }
+
+  private static Host createHost(String hostName, String rack) {
+    Host host = mock(Host.class);
+    when(host.getHostName()).thenReturn(hostName);
+    when(host.getRackInfo()).thenReturn(rack);
+    return host;
+  }
+
+  private static ServiceComponentHost createServiceComponentHost(HostComponentAdminState adminState) {
+    ServiceComponentHost serviceComponentHost = mock(ServiceComponentHost.class);
+    when(serviceComponentHost.getComponentAdminState()).thenReturn(adminState);
+    return serviceComponentHost;
+  }
+}